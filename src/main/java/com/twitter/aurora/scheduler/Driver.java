@@ -15,6 +15,7 @@
  */
 package com.twitter.aurora.scheduler;
 
+import java.util.Collection;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
@@ -22,7 +23,6 @@ import javax.inject.Inject;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Supplier;
-import com.google.common.collect.ImmutableList;
 
 import org.apache.mesos.Protos;
 import org.apache.mesos.Protos.OfferID;
@@ -45,12 +45,12 @@ import static org.apache.mesos.Protos.Status.DRIVER_RUNNING;
 public interface Driver {
 
   /**
-   * Launches a task.
+   * Launches tasks against a single resource offer.
    *
-   * @param offerId ID of the resource offer to accept with the task.
-   * @param task Task to launch.
+   * @param offerId ID of the resource offer to accept with the tasks.
+   * @param tasks Tasks to launch.
    */
-  void launchTask(OfferID offerId, TaskInfo task);
+  void launchTasks(OfferID offerId, Collection<TaskInfo> tasks);
 
   /**
    * Declines a resource offer.
@@ -124,8 +124,8 @@ public interface Driver {
     }
 
     @Override
-    public void launchTask(OfferID offerId, TaskInfo task) {
-      get(State.RUNNING).launchTasks(offerId, ImmutableList.of(task));
+    public void launchTasks(OfferID offerId, Collection<TaskInfo> tasks) {
+      get(State.RUNNING).launchTasks(offerId, tasks);
     }
 
     @Override
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler;
+
+import java.util.Set;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableSet;
+
+import org.apache.mesos.Protos.Offer;
+
+import com.twitter.aurora.gen.Attribute;
+import com.twitter.aurora.gen.HostAttributes;
+import com.twitter.aurora.gen.MaintenanceMode;
+import com.twitter.aurora.scheduler.base.Conversions;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A resource offer, along with values derived from it once upon arrival: the offered resources,
+ * the host's attributes and the host's maintenance mode.  Offers are held and consulted for many
+ * scheduling attempts, which should not repeatedly scan the offer's resource and attribute lists.
+ * <p>
+ * Host offers are immutable.  The attributes returned must not be modified.
+ */
+public final class HostOffer {
+
+  private final Offer offer;
+  private final ResourceSlot resources;
+  private final HostAttributes attributes;
+  private final Set<Attribute> attributeSet;
+  private final MaintenanceMode mode;
+
+  private HostOffer(
+      Offer offer,
+      ResourceSlot resources,
+      HostAttributes attributes,
+      Set<Attribute> attributeSet,
+      MaintenanceMode mode) {
+
+    this.offer = offer;
+    this.resources = resources;
+    this.attributes = attributes;
+    this.attributeSet = attributeSet;
+    this.mode = checkNotNull(mode);
+  }
+
+  /**
+   * Parses an offer.
+   *
+   * @param offer Offer to parse.
+   * @param mode Maintenance mode of the offer's host.
+   * @return The parsed offer.
+   */
+  public static HostOffer from(Offer offer, MaintenanceMode mode) {
+    checkNotNull(offer);
+    HostAttributes attributes = Conversions.getAttributes(offer);
+    return new HostOffer(
+        offer,
+        ResourceSlot.from(offer),
+        attributes,
+        ImmutableSet.copyOf(attributes.getAttributes()),
+        mode);
+  }
+
+  /**
+   * Creates a copy of this offer for a host in a different maintenance mode, without parsing the
+   * offer again.
+   *
+   * @param newMode New maintenance mode of the host.
+   * @return An equivalent offer with {@code newMode}.
+   */
+  public HostOffer withMode(MaintenanceMode newMode) {
+    return new HostOffer(offer, resources, attributes, attributeSet, newMode);
+  }
+
+  /**
+   * Creates a copy of this offer with resources removed, describing what remains once a task is
+   * matched against it.  The raw offer and the parsed resources are reduced together, so neither
+   * is derived from the other again.
+   *
+   * @param consumed Resources of the matched task.
+   * @param consumedPorts Ports assigned to the matched task.
+   * @return An offer for the same host containing the remaining resources.
+   */
+  public HostOffer subtract(ResourceSlot consumed, Set<Integer> consumedPorts) {
+    return new HostOffer(
+        consumed.subtractFrom(offer, consumedPorts),
+        resources.subtract(consumed),
+        attributes,
+        attributeSet,
+        mode);
+  }
+
+  public Offer getOffer() {
+    return offer;
+  }
+
+  public ResourceSlot getResources() {
+    return resources;
+  }
+
+  public Set<Attribute> getAttributes() {
+    return attributeSet;
+  }
+
+  public MaintenanceMode getMode() {
+    return mode;
+  }
+
+  /**
+   * Gets the host attributes advertised in the offer, suitable for saving.  The maintenance mode
+   * is not set.
+   *
+   * @return A copy of the host attributes in the offer.
+   */
+  public HostAttributes getHostAttributes() {
+    return attributes.deepCopy();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof HostOffer)) {
+      return false;
+    }
+    HostOffer other = (HostOffer) o;
+    return Objects.equal(offer, other.offer) && (mode == other.mode);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(offer, mode);
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(this)
+        .add("offer", offer)
+        .add("mode", mode)
+        .toString();
+  }
+}
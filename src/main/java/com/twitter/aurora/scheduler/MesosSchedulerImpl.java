@@ -39,10 +39,14 @@ import org.apache.mesos.SchedulerDriver;
 
 import com.twitter.aurora.GuiceUtils.AllowUnchecked;
 import com.twitter.aurora.codec.ThriftBinaryCodec;
+import com.twitter.aurora.gen.HostAttributes;
+import com.twitter.aurora.gen.MaintenanceMode;
 import com.twitter.aurora.gen.comm.SchedulerMessage;
-import com.twitter.aurora.scheduler.base.Conversions;
 import com.twitter.aurora.scheduler.base.SchedulerException;
+import com.twitter.aurora.scheduler.configuration.ResourceBag;
 import com.twitter.aurora.scheduler.configuration.Resources;
+import com.twitter.aurora.scheduler.events.PubsubEvent;
+import com.twitter.aurora.scheduler.events.PubsubEvent.HostAttributesChanged;
 import com.twitter.aurora.scheduler.events.PubsubEvent.Interceptors.Event;
 import com.twitter.aurora.scheduler.events.PubsubEvent.Interceptors.SendNotification;
 import com.twitter.aurora.scheduler.state.SchedulerCore;
@@ -50,6 +54,7 @@ import com.twitter.aurora.scheduler.storage.Storage;
 import com.twitter.aurora.scheduler.storage.Storage.MutableStoreProvider;
 import com.twitter.aurora.scheduler.storage.Storage.MutateWork;
 import com.twitter.common.application.Lifecycle;
+import com.twitter.common.base.Closure;
 import com.twitter.common.inject.TimedInterceptor.Timed;
 import com.twitter.common.stats.Stats;
 
@@ -75,6 +80,7 @@ class MesosSchedulerImpl implements Scheduler {
   private final Storage storage;
   private final SchedulerCore schedulerCore;
   private final Lifecycle lifecycle;
+  private final Closure<PubsubEvent> eventSink;
   private volatile boolean registered = false;
 
   /**
@@ -83,18 +89,21 @@ class MesosSchedulerImpl implements Scheduler {
    * @param schedulerCore Core scheduler.
    * @param lifecycle Application lifecycle manager.
    * @param taskLaunchers Task launchers.
+   * @param eventSink Pubsub sink to notify of host attribute changes.
    */
   @Inject
   public MesosSchedulerImpl(
       Storage storage,
       SchedulerCore schedulerCore,
       final Lifecycle lifecycle,
-      List<TaskLauncher> taskLaunchers) {
+      List<TaskLauncher> taskLaunchers,
+      Closure<PubsubEvent> eventSink) {
 
     this.storage = checkNotNull(storage);
     this.schedulerCore = checkNotNull(schedulerCore);
     this.lifecycle = checkNotNull(lifecycle);
     this.taskLaunchers = checkNotNull(taskLaunchers);
+    this.eventSink = checkNotNull(eventSink);
   }
 
   @Override
@@ -132,8 +141,9 @@ class MesosSchedulerImpl implements Scheduler {
     frameworkReregisters.incrementAndGet();
   }
 
-  private static boolean fitsInOffer(TaskInfo task, Offer offer) {
-    return Resources.from(offer).greaterThanOrEqual(Resources.from(task.getResourcesList()));
+  private static boolean fitsInOffer(TaskInfo task, HostOffer offer) {
+    return ResourceBag.from(Resources.from(task.getResourcesList()))
+        .fits(offer.getResources().getResources());
   }
 
   @Timed("scheduler_resource_offers")
@@ -141,14 +151,29 @@ class MesosSchedulerImpl implements Scheduler {
   public void resourceOffers(SchedulerDriver driver, List<Offer> offers) {
     Preconditions.checkState(registered, "Must be registered before receiving offers.");
 
-    for (final Offer offer : offers) {
+    for (Offer offer : offers) {
       log(Level.FINE, "Received offer: %s", offer);
       resourceOffers.incrementAndGet();
-      storage.write(new MutateWork.NoResult.Quiet() {
-        @Override protected void execute(MutableStoreProvider storeProvider) {
-          storeProvider.getAttributeStore().saveHostAttributes(Conversions.getAttributes(offer));
-        }
-      });
+      HostOffer hostOffer = HostOffer.from(offer, MaintenanceMode.NONE);
+      final HostAttributes attributes = hostOffer.getHostAttributes();
+      Optional<HostAttributes> previous =
+          storage.write(new MutateWork.Quiet<Optional<HostAttributes>>() {
+            @Override public Optional<HostAttributes> apply(MutableStoreProvider storeProvider) {
+              Optional<HostAttributes> stored =
+                  storeProvider.getAttributeStore().getHostAttributes(attributes.getHost());
+              storeProvider.getAttributeStore().saveHostAttributes(attributes);
+              return stored;
+            }
+          });
+      if (!previous.isPresent()
+          || !attributes.getAttributes().equals(previous.get().getAttributes())) {
+
+        eventSink.execute(new HostAttributesChanged(attributes));
+      }
+      if (previous.isPresent() && previous.get().isSetMode()) {
+        // The stored maintenance mode is retained when attributes are saved.
+        hostOffer = hostOffer.withMode(previous.get().getMode());
+      }
 
       // Ordering of task launchers is important here, since offers are consumed greedily.
       // TODO(William Farner): Refactor this area of code now that the primary task launcher
@@ -156,14 +181,14 @@ class MesosSchedulerImpl implements Scheduler {
       for (TaskLauncher launcher : taskLaunchers) {
         Optional<TaskInfo> task = Optional.absent();
         try {
-          task = launcher.createTask(offer);
+          task = launcher.createTask(hostOffer);
         } catch (SchedulerException e) {
           LOG.log(Level.WARNING, "Failed to schedule offers.", e);
           failedOffers.incrementAndGet();
         }
 
         if (task.isPresent()) {
-          if (fitsInOffer(task.get(), offer)) {
+          if (fitsInOffer(task.get(), hostOffer)) {
             driver.launchTasks(offer.getId(), ImmutableList.of(task.get()));
             break;
           } else {
@@ -15,13 +15,17 @@
  */
 package com.twitter.aurora.scheduler;
 
+import java.io.ByteArrayOutputStream;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.inject.Inject;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
@@ -33,9 +37,16 @@ import org.apache.mesos.Protos.Resource;
 import org.apache.mesos.Protos.SlaveID;
 import org.apache.mesos.Protos.TaskID;
 import org.apache.mesos.Protos.TaskInfo;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TType;
+import org.apache.thrift.transport.TIOStreamTransport;
 
 import com.twitter.aurora.Protobufs;
 import com.twitter.aurora.codec.ThriftBinaryCodec;
+import com.twitter.aurora.codec.ThriftBinaryCodec.CodingException;
+import com.twitter.aurora.gen.AssignedTask;
 import com.twitter.aurora.scheduler.base.CommandUtil;
 import com.twitter.aurora.scheduler.base.JobKeys;
 import com.twitter.aurora.scheduler.base.SchedulerException;
@@ -45,6 +56,9 @@ import com.twitter.aurora.scheduler.storage.entities.IAssignedTask;
 import com.twitter.aurora.scheduler.storage.entities.IJobKey;
 import com.twitter.aurora.scheduler.storage.entities.ITaskConfig;
 import com.twitter.common.quantity.Data;
+import com.twitter.common.stats.SlidingStats;
+import com.twitter.common.stats.StatImpl;
+import com.twitter.common.stats.Stats;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -87,11 +101,38 @@ public interface MesosTaskFactory {
     @VisibleForTesting
     static final String EXECUTOR_NAME = "aurora.task";
 
+    private static final int MAX_CACHED_CONFIGS = 1000;
+
+    private static final TField TASK_FIELD = new TField(
+        AssignedTask._Fields.TASK.getFieldName(),
+        TType.STRUCT,
+        AssignedTask._Fields.TASK.getThriftFieldId());
+
     private final String executorPath;
 
+    // Instances of a job share their configuration, so its encoding is reused across launches.
+    private final Cache<ITaskConfig, byte[]> encodedConfigs = CacheBuilder.newBuilder()
+        .maximumSize(MAX_CACHED_CONFIGS)
+        .build();
+
+    private final AtomicLong configCacheHits =
+        Stats.exportLong("mesos_task_factory_config_cache_hits");
+    private final AtomicLong configCacheMisses =
+        Stats.exportLong("mesos_task_factory_config_cache_misses");
+    private final SlidingStats createLatency =
+        new SlidingStats("mesos_task_factory_create", "nanos");
+
     @Inject
     MesosTaskFactoryImpl(ExecutorConfig executorConfig) {
       this.executorPath = executorConfig.getExecutorPath();
+
+      Stats.export(new StatImpl<Double>("mesos_task_factory_config_cache_hit_rate") {
+        @Override public Double read() {
+          long hits = configCacheHits.get();
+          long total = hits + configCacheMisses.get();
+          return (total == 0) ? 0.0 : ((double) hits) / total;
+        }
+      });
     }
 
     @VisibleForTesting
@@ -111,13 +152,70 @@ public interface MesosTaskFactory {
       return String.format("%s.%s", getJobSourceName(task), instanceId);
     }
 
+    private byte[] encodeConfig(ITaskConfig config) throws CodingException {
+      byte[] encoded = encodedConfigs.getIfPresent(config);
+      if (encoded == null) {
+        configCacheMisses.incrementAndGet();
+        encoded = ThriftBinaryCodec.encodeNonNull(config.newBuilder());
+        encodedConfigs.put(config, encoded);
+      } else {
+        configCacheHits.incrementAndGet();
+      }
+      return encoded;
+    }
+
+    /**
+     * Encodes an assigned task such that it decodes to {@code task.newBuilder()}.  Only the
+     * per-instance fields are encoded for each task, the cached encoding of its configuration is
+     * spliced in as the final field of the struct.
+     *
+     * @param task Task to encode.
+     * @return The binary encoded task.
+     * @throws CodingException If the task could not be encoded.
+     */
+    @VisibleForTesting
+    byte[] encode(IAssignedTask task) throws CodingException {
+      AssignedTask instance = new AssignedTask()
+          .setTaskId(task.getTaskId())
+          .setSlaveId(task.getSlaveId())
+          .setSlaveHost(task.getSlaveHost());
+      if (task.isSetAssignedPorts()) {
+        instance.setAssignedPorts(task.getAssignedPorts());
+      }
+      if (task.isSetInstanceId()) {
+        instance.setInstanceId(task.getInstanceId());
+      }
+      byte[] instanceBytes = ThriftBinaryCodec.encodeNonNull(instance);
+      if (!task.isSetTask()) {
+        return instanceBytes;
+      }
+      byte[] configBytes = encodeConfig(task.getTask());
+
+      ByteArrayOutputStream out =
+          new ByteArrayOutputStream(instanceBytes.length + configBytes.length + 3);
+      TProtocol protocol =
+          ThriftBinaryCodec.PROTOCOL_FACTORY.getProtocol(new TIOStreamTransport(out));
+      try {
+        // Drop the trailing field stop of the instance struct, and append the config field.
+        out.write(instanceBytes, 0, instanceBytes.length - 1);
+        protocol.writeFieldBegin(TASK_FIELD);
+        out.write(configBytes, 0, configBytes.length);
+        protocol.writeFieldEnd();
+        protocol.writeFieldStop();
+      } catch (TException e) {
+        throw new CodingException("Failed to serialize: " + task, e);
+      }
+      return out.toByteArray();
+    }
+
     @Override
     public TaskInfo createFrom(IAssignedTask task, SlaveID slaveId) throws SchedulerException {
       checkNotNull(task);
+      long start = System.nanoTime();
       byte[] taskInBytes;
       try {
-        taskInBytes = ThriftBinaryCodec.encode(task.newBuilder());
-      } catch (ThriftBinaryCodec.CodingException e) {
+        taskInBytes = encode(task);
+      } catch (CodingException e) {
         LOG.log(Level.SEVERE, "Unable to serialize task.", e);
         throw new SchedulerException("Internal error.", e);
       }
@@ -152,9 +250,11 @@ public interface MesosTaskFactory {
           .addResources(
               Resources.makeMesosResource(Resources.RAM_MB, ResourceSlot.EXECUTOR_RAM.as(Data.MB)))
           .build();
-      return taskBuilder
+      TaskInfo taskInfo = taskBuilder
           .setExecutor(executor)
           .build();
+      createLatency.accumulate(System.nanoTime() - start);
+      return taskInfo;
     }
   }
 }
@@ -16,12 +16,12 @@
 package com.twitter.aurora.scheduler;
 
 import java.util.Arrays;
+import java.util.Set;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.base.Function;
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Ordering;
 
+import com.twitter.aurora.scheduler.configuration.ResourceBag;
 import com.twitter.aurora.scheduler.configuration.Resources;
 import com.twitter.aurora.scheduler.storage.entities.ITaskConfig;
 import com.twitter.common.quantity.Amount;
@@ -34,7 +34,7 @@ import static org.apache.mesos.Protos.Offer;
  */
 public final class ResourceSlot {
 
-  private final Resources resources;
+  private final ResourceBag resources;
 
   /**
    * CPU allocated for each executor.
@@ -49,20 +49,29 @@ public final class ResourceSlot {
   @VisibleForTesting
   static final Amount<Long, Data> EXECUTOR_RAM = Amount.of(128L, Data.MB);
 
-  private ResourceSlot(Resources r) {
+  private static final ResourceBag EXECUTOR_OVERHEAD =
+      ResourceBag.of(EXECUTOR_CPUS, EXECUTOR_RAM.as(Data.MB), 0, 0);
+
+  private ResourceSlot(ResourceBag r) {
     this.resources = r;
   }
 
   public static ResourceSlot from(ITaskConfig task) {
-    double totalCPU = task.getNumCpus() + EXECUTOR_CPUS;
-    Amount<Long, Data> totalRAM = Amount.of(task.getRamMb() + EXECUTOR_RAM.as(Data.MB), Data.MB);
-    Amount<Long, Data> disk = Amount.of(task.getDiskMb(), Data.MB);
-    return new ResourceSlot(
-        new Resources(totalCPU, totalRAM, disk, task.getRequestedPorts().size()));
+    return new ResourceSlot(ResourceBag.from(task).add(EXECUTOR_OVERHEAD));
   }
 
   public static ResourceSlot from(Offer offer) {
-    return new ResourceSlot(Resources.from(offer));
+    return new ResourceSlot(ResourceBag.from(Resources.from(offer)));
+  }
+
+  /**
+   * Gets the resources in this slot as primitives, for arithmetic and comparisons that should
+   * not convert units.
+   *
+   * @return The resources in this slot.
+   */
+  public ResourceBag getResources() {
+    return resources;
   }
 
   public double getNumCpus() {
@@ -70,26 +79,57 @@ public final class ResourceSlot {
   }
 
   public Amount<Long, Data> getRam() {
-    return resources.getRam();
+    return Amount.of(resources.getRamMb(), Data.MB);
   }
 
   public Amount<Long, Data> getDisk() {
-    return resources.getDisk();
+    return Amount.of(resources.getDiskMb(), Data.MB);
   }
 
   public int getNumPorts() {
     return resources.getNumPorts();
   }
 
+  /**
+   * Tests whether this slot is large enough to satisfy all resources in {@code other}.
+   *
+   * @param other Resources being compared to.
+   * @return {@code true} if all resources in this slot are greater than or equal to the
+   *    equivalents from {@code other}, otherwise {@code false}.
+   */
+  public boolean greaterThanOrEqual(ResourceSlot other) {
+    return resources.greaterThanOrEqual(other.resources);
+  }
+
+  /**
+   * Creates a copy of an offer with the resources in this slot removed, describing what remains in
+   * the offer once a task occupying this slot is matched against it.
+   *
+   * @param offer Offer to remove resources from.
+   * @param assignedPorts Ports assigned to the task occupying this slot.
+   * @return An offer containing the remaining resources.
+   */
+  public Offer subtractFrom(Offer offer, Set<Integer> assignedPorts) {
+    return Resources.subtract(offer, resources, assignedPorts);
+  }
+
+  /**
+   * Removes the resources in another slot from this slot.
+   *
+   * @param other Resources to remove.
+   * @return A new slot containing the remaining resources.
+   */
+  public ResourceSlot subtract(ResourceSlot other) {
+    return new ResourceSlot(resources.subtract(other.resources));
+  }
+
   @VisibleForTesting
   public static ResourceSlot from(double cpu,
                                   Amount<Long, Data> ram,
                                   Amount<Long, Data> disk,
                                   int ports) {
-    double totalCPU = cpu + EXECUTOR_CPUS;
-    Amount<Long, Data> totalRAM = Amount.of(ram.as(Data.MB) + EXECUTOR_RAM.as(Data.MB), Data.MB);
-
-    return new ResourceSlot(new Resources(totalCPU, totalRAM, disk, ports));
+    return new ResourceSlot(
+        ResourceBag.of(cpu, ram.as(Data.MB), disk.as(Data.MB), ports).add(EXECUTOR_OVERHEAD));
   }
 
   public static ResourceSlot sum(ResourceSlot... rs) {
@@ -97,18 +137,16 @@ public final class ResourceSlot {
   }
 
   public static ResourceSlot sum(Iterable<ResourceSlot> rs) {
-    Resources r = Resources.sum(Iterables.transform(rs, new Function<ResourceSlot, Resources>() {
-      @Override public Resources apply(ResourceSlot input) {
-        return input.resources;
-      }
-    }));
-
-    return new ResourceSlot(r);
+    ResourceBag sum = ResourceBag.EMPTY;
+    for (ResourceSlot r : rs) {
+      sum = sum.add(r.resources);
+    }
+    return new ResourceSlot(sum);
   }
 
   public static final Ordering<ResourceSlot> ORDER = new Ordering<ResourceSlot>() {
     @Override public int compare(ResourceSlot left, ResourceSlot right) {
-      return Resources.RESOURCE_ORDER.compare(left.resources, right.resources);
+      return ResourceBag.ORDER.compare(left.resources, right.resources);
     }
   };
 }
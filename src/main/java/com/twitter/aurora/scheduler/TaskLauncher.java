@@ -17,7 +17,6 @@ package com.twitter.aurora.scheduler;
 
 import com.google.common.base.Optional;
 
-import org.apache.mesos.Protos.Offer;
 import org.apache.mesos.Protos.OfferID;
 import org.apache.mesos.Protos.TaskInfo;
 import org.apache.mesos.Protos.TaskStatus;
@@ -37,7 +36,7 @@ public interface TaskLauncher {
    * @param offer The resource offer.
    * @return A task, absent if the launcher chooses not to accept the offer.
    */
-  Optional<TaskInfo> createTask(Offer offer);
+  Optional<TaskInfo> createTask(HostOffer offer);
 
   /**
    * Informs the launcher that a status update has been received for a task.  If the task is not
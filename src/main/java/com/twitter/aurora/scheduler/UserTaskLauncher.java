@@ -24,7 +24,6 @@ import javax.inject.Inject;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
 
-import org.apache.mesos.Protos.Offer;
 import org.apache.mesos.Protos.OfferID;
 import org.apache.mesos.Protos.TaskInfo;
 import org.apache.mesos.Protos.TaskStatus;
@@ -61,7 +60,7 @@ class UserTaskLauncher implements TaskLauncher {
   }
 
   @Override
-  public Optional<TaskInfo> createTask(Offer offer) {
+  public Optional<TaskInfo> createTask(HostOffer offer) {
     checkNotNull(offer);
 
     offerQueue.addOffer(offer);
@@ -36,6 +36,7 @@ import com.twitter.aurora.GuiceUtils;
 import com.twitter.aurora.scheduler.SchedulerModule;
 import com.twitter.aurora.scheduler.async.AsyncModule;
 import com.twitter.aurora.scheduler.events.PubsubEventModule;
+import com.twitter.aurora.scheduler.filter.JobAttributeCounts;
 import com.twitter.aurora.scheduler.filter.SchedulingFilterImpl;
 import com.twitter.aurora.scheduler.http.ClusterName;
 import com.twitter.aurora.scheduler.http.ServletModule;
@@ -94,6 +95,8 @@ class AppModule extends AbstractModule {
     // Filter layering: notifier filter -> base impl
     PubsubEventModule.bind(binder(), SchedulingFilterImpl.class);
     bind(SchedulingFilterImpl.class).in(Singleton.class);
+    bind(JobAttributeCounts.class).in(Singleton.class);
+    PubsubEventModule.bindSubscriber(binder(), JobAttributeCounts.class);
 
     LifecycleModule.bindStartupAction(binder(), RegisterShutdownStackPrinter.class);
 
@@ -15,13 +15,15 @@
  */
 package com.twitter.aurora.scheduler.async;
 
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.logging.Logger;
 
 import javax.inject.Singleton;
 
-import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.RateLimiter;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.AbstractModule;
@@ -29,8 +31,12 @@ import com.google.inject.PrivateModule;
 import com.google.inject.TypeLiteral;
 
 import com.twitter.aurora.scheduler.async.OfferQueue.OfferQueueImpl;
+import com.twitter.aurora.scheduler.async.OfferQueue.OfferRanking;
 import com.twitter.aurora.scheduler.async.OfferQueue.OfferReturnDelay;
+import com.twitter.aurora.scheduler.async.OfferQueue.OfferSelection;
 import com.twitter.aurora.scheduler.async.RescheduleCalculator.RescheduleCalculatorImpl;
+import com.twitter.aurora.scheduler.async.SchedulingRateController.RateControlSettings;
+import com.twitter.aurora.scheduler.async.SlotReservations.ReservationDuration;
 import com.twitter.aurora.scheduler.async.TaskGroups.SchedulingAction;
 import com.twitter.aurora.scheduler.async.TaskGroups.TaskGroupsSettings;
 import com.twitter.aurora.scheduler.events.PubsubEventModule;
@@ -79,14 +85,43 @@ public class AsyncModule extends AbstractModule {
   private static final Arg<Amount<Integer, Time>> MIN_OFFER_HOLD_TIME =
       Arg.create(Amount.of(5, Time.MINUTES));
 
+  @CmdLine(name = "offer_selection_strategy",
+      help = "Strategy used to rank the resource offers that may satisfy a task.")
+  private static final Arg<OfferSelection> OFFER_SELECTION_STRATEGY =
+      Arg.create(OfferSelection.FIRST_FIT);
+
   @CmdLine(name = "history_prune_threshold",
       help = "Time after which the scheduler will prune terminated task history.")
   private static final Arg<Amount<Long, Time>> HISTORY_PRUNE_THRESHOLD =
       Arg.create(Amount.of(2L, Time.DAYS));
 
+  @CmdLine(name = "initial_schedule_tasks_per_sec",
+      help = "Number of tasks to attempt to schedule per second when the scheduler starts.  The "
+          + "rate is adapted from here according to storage latency.")
+  private static final Arg<Double> INITIAL_SCHEDULE_TASKS_PER_SEC = Arg.create(10D);
+
   @CmdLine(name = "max_schedule_attempts_per_sec",
-      help = "Maximum number of scheduling attempts to make per second.")
-  private static final Arg<Double> MAX_SCHEDULE_ATTEMPTS_PER_SEC = Arg.create(10D);
+      help = "Maximum number of tasks to attempt to schedule per second.  Note that this limits "
+          + "tasks rather than task group scheduling attempts, which may each schedule up to "
+          + "max_tasks_per_schedule_attempt tasks.")
+  private static final Arg<Double> MAX_SCHEDULE_ATTEMPTS_PER_SEC = Arg.create(40D);
+
+  @CmdLine(name = "schedule_storage_latency_target",
+      help = "Storage lock wait or log commit latency of scheduling writes above which the "
+          + "scheduling rate is reduced.")
+  private static final Arg<Amount<Long, Time>> SCHEDULE_STORAGE_LATENCY_TARGET =
+      Arg.create(Amount.of(100L, Time.MILLISECONDS));
+
+  @CmdLine(name = "max_tasks_per_schedule_attempt",
+      help = "Maximum number of ready tasks from a task group to schedule in a single attempt.  "
+          + "Only tasks scheduled together are packed into the same offer, so this also bounds "
+          + "the number of tasks launched against an offer.")
+  private static final Arg<Integer> MAX_TASKS_PER_SCHEDULE_ATTEMPT = Arg.create(20);
+
+  @CmdLine(name = "scheduling_threads",
+      help = "The number of threads used to evaluate task groups for scheduling.  Distinct task "
+          + "groups may be evaluated in parallel.")
+  private static final Arg<Integer> SCHEDULING_THREADS = Arg.create(1);
 
   @CmdLine(name = "flapping_task_threshold",
       help = "A task that repeatedly runs for less than this time is considered to be flapping.")
@@ -113,13 +148,19 @@ public class AsyncModule extends AbstractModule {
   private static final Arg<Amount<Long, Time>> PREEMPTION_DELAY =
       Arg.create(Amount.of(10L, Time.MINUTES));
 
+  @CmdLine(name = "preemption_reservation_duration",
+      help = "Time for which a slave where tasks were preempted is reserved for the task group "
+          + "that caused the preemption.")
+  private static final Arg<Amount<Long, Time>> PREEMPTION_RESERVATION_DURATION =
+      Arg.create(Amount.of(2L, Time.MINUTES));
+
   @CmdLine(name = "enable_preemptor",
       help = "Enable the preemptor and preemption")
   private static final Arg<Boolean> ENABLE_PREEMPTOR = Arg.create(true);
 
   private static final Preemptor NULL_PREEMPTOR = new Preemptor() {
-    @Override public Optional<String> findPreemptionSlotFor(String taskId) {
-      return Optional.absent();
+    @Override public Map<String, String> findPreemptionSlotsFor(Set<String> taskIds) {
+      return ImmutableMap.of();
     }
   };
 
@@ -153,9 +194,19 @@ public class AsyncModule extends AbstractModule {
 
     binder().install(new PrivateModule() {
       @Override protected void configure() {
+        RateLimiter rateLimiter = RateLimiter.create(INITIAL_SCHEDULE_TASKS_PER_SEC.get());
+        bind(RateControlSettings.class).toInstance(new RateControlSettings(
+            rateLimiter,
+            INITIAL_SCHEDULE_TASKS_PER_SEC.get(),
+            MAX_SCHEDULE_ATTEMPTS_PER_SEC.get(),
+            SCHEDULE_STORAGE_LATENCY_TARGET.get()));
+        bind(SchedulingRateController.class).in(Singleton.class);
+
         bind(TaskGroupsSettings.class).toInstance(new TaskGroupsSettings(
             new TruncatedBinaryBackoff(INITIAL_SCHEDULE_DELAY.get(), MAX_SCHEDULE_DELAY.get()),
-            RateLimiter.create(MAX_SCHEDULE_ATTEMPTS_PER_SEC.get())));
+            rateLimiter,
+            MAX_TASKS_PER_SCHEDULE_ATTEMPT.get(),
+            SCHEDULING_THREADS.get()));
 
         bind(RescheduleCalculatorImpl.RescheduleCalculatorSettings.class)
             .toInstance(new RescheduleCalculatorImpl.RescheduleCalculatorSettings(
@@ -163,12 +214,16 @@ public class AsyncModule extends AbstractModule {
                 FLAPPING_THRESHOLD.get(),
                 MAX_RESCHEDULING_DELAY.get()));
 
-        bind(RescheduleCalculator.class).to(RescheduleCalculatorImpl.class).in(Singleton.class);
+        bind(RescheduleCalculator.class).to(RescheduleCalculatorImpl.class);
+        bind(RescheduleCalculatorImpl.class).in(Singleton.class);
+        expose(RescheduleCalculatorImpl.class);
         bind(SchedulingAction.class).to(TaskScheduler.class);
         bind(TaskScheduler.class).in(Singleton.class);
         if (ENABLE_PREEMPTOR.get()) {
           bind(Preemptor.class).to(PreemptorImpl.class);
           bind(PreemptorImpl.class).in(Singleton.class);
+          bind(PreemptionCandidates.class).in(Singleton.class);
+          expose(PreemptionCandidates.class);
           LOG.info("Preemptor Enabled.");
         } else {
           bind(Preemptor.class).toInstance(NULL_PREEMPTOR);
@@ -176,15 +231,23 @@ public class AsyncModule extends AbstractModule {
         }
         bind(new TypeLiteral<Amount<Long, Time>>() { }).annotatedWith(PreemptionDelay.class)
             .toInstance(PREEMPTION_DELAY.get());
+        bind(new TypeLiteral<Amount<Long, Time>>() { }).annotatedWith(ReservationDuration.class)
+            .toInstance(PREEMPTION_RESERVATION_DURATION.get());
+        bind(SlotReservations.class).in(Singleton.class);
         bind(TaskGroups.class).in(Singleton.class);
         expose(TaskGroups.class);
       }
     });
     PubsubEventModule.bindSubscriber(binder(), TaskGroups.class);
+    PubsubEventModule.bindSubscriber(binder(), RescheduleCalculatorImpl.class);
+    if (ENABLE_PREEMPTOR.get()) {
+      PubsubEventModule.bindSubscriber(binder(), PreemptionCandidates.class);
+    }
 
     binder().install(new PrivateModule() {
       @Override protected void configure() {
         bind(OfferReturnDelay.class).to(RandomJitterReturnDelay.class);
+        bind(OfferRanking.class).toInstance(OFFER_SELECTION_STRATEGY.get());
         bind(ScheduledExecutorService.class).toInstance(executor);
         bind(OfferQueue.class).to(OfferQueueImpl.class);
         bind(OfferQueueImpl.class).in(Singleton.class);
@@ -19,22 +19,26 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.Target;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.inject.Inject;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
-import com.google.common.collect.Multimaps;
+import com.google.common.collect.Sets;
 import com.google.common.eventbus.Subscribe;
 import com.google.inject.BindingAnnotation;
 
@@ -46,6 +50,8 @@ import com.twitter.aurora.scheduler.storage.entities.IJobKey;
 import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
+import com.twitter.common.stats.SlidingStats;
+import com.twitter.common.stats.Stats;
 import com.twitter.common.util.Clock;
 
 import static java.lang.annotation.ElementType.FIELD;
@@ -64,6 +70,10 @@ import static com.twitter.aurora.scheduler.events.PubsubEvent.TasksDeleted;
 /**
  * Prunes tasks in a job based on per-job history and an inactive time threshold by observing tasks
  * transitioning into one of the inactive states.
+ * <p>
+ * Tasks are not deleted as they expire or fall out of their job's history.  Instead, a periodic
+ * sweep collects all tasks that are due for pruning and deletes them in a few bulk operations,
+ * so that a large job finishing does not result in a storage write per task.
  */
 public class HistoryPruner implements EventSubscriber {
   private static final Logger LOG = Logger.getLogger(HistoryPruner.class.getName());
@@ -71,12 +81,26 @@ public class HistoryPruner implements EventSubscriber {
   @VisibleForTesting
   static final Query.Builder INACTIVE_QUERY = Query.unscoped().terminal();
 
-  private final Multimap<IJobKey, String> tasksByJob =
-      Multimaps.synchronizedSetMultimap(LinkedHashMultimap.<IJobKey, String>create());
   @VisibleForTesting
-  Multimap<IJobKey, String> getTasksByJob() {
-    return tasksByJob;
-  }
+  static final long SWEEP_INTERVAL_MS = Amount.of(1L, Time.MINUTES).as(Time.MILLISECONDS);
+
+  /**
+   * Maximum number of tasks deleted in a single storage operation, which bounds the size of a
+   * sweep's log entries.
+   */
+  @VisibleForTesting
+  static final int MAX_TASKS_PER_DELETE = 1000;
+
+  // All fields are guarded by this object's monitor.
+  // Inactive tasks of each job, oldest first.
+  private final Multimap<IJobKey, String> tasksByJob = LinkedHashMultimap.create();
+  // Inactive tasks mapped to their prune deadline.  Tasks are registered in order of their last
+  // activity, so deadlines are in insertion order.
+  private final LinkedHashMap<String, Expiry> expirations = Maps.newLinkedHashMap();
+  // Tasks that exceeded their job's history goal or failed to be deleted, to be deleted by the
+  // next sweep.
+  private final Set<String> excessTasks = Sets.newLinkedHashSet();
+  private boolean sweepScheduled = false;
 
   private final ScheduledExecutorService executor;
   private final Storage storage;
@@ -84,7 +108,10 @@ public class HistoryPruner implements EventSubscriber {
   private final Clock clock;
   private final long pruneThresholdMillis;
   private final int perJobHistoryGoal;
-  private final Map<String, Future<?>> taskIdToFuture = Maps.newConcurrentMap();
+
+  private final AtomicLong tasksPruned = Stats.exportLong("history_pruner_tasks_pruned");
+  private final AtomicLong lastSweepPruned = Stats.exportLong("history_pruner_last_sweep_pruned");
+  private final SlidingStats sweepLatency = new SlidingStats("history_pruner_sweep", "nanos");
 
   @BindingAnnotation
   @Target({ FIELD, PARAMETER, METHOD }) @Retention(RUNTIME)
@@ -108,8 +135,8 @@ public class HistoryPruner implements EventSubscriber {
   }
 
   @VisibleForTesting
-  long calculateTimeout(long taskEventTimestampMillis) {
-    return pruneThresholdMillis - Math.max(0, clock.nowMillis() - taskEventTimestampMillis);
+  synchronized Multimap<IJobKey, String> getTasksByJob() {
+    return ImmutableMultimap.copyOf(tasksByJob);
   }
 
   /**
@@ -123,13 +150,13 @@ public class HistoryPruner implements EventSubscriber {
       registerInactiveTask(
           Tasks.SCHEDULED_TO_JOB_KEY.apply(change.getTask()),
           change.getTaskId(),
-          calculateTimeout(clock.nowMillis()));
+          clock.nowMillis());
     }
   }
 
   /**
-   * When triggered, iterates through inactive tasks in the system and prunes tasks that
-   * exceed the history goal for a job or are beyond the time threshold.
+   * When triggered, iterates through inactive tasks in the system and marks tasks that
+   * exceed the history goal for a job or are beyond the time threshold for pruning.
    *
    * @param event A new StorageStarted event.
    */
@@ -141,72 +168,118 @@ public class HistoryPruner implements EventSubscriber {
       registerInactiveTask(
           Tasks.SCHEDULED_TO_JOB_KEY.apply(task),
           Tasks.id(task),
-          calculateTimeout(Iterables.getLast(task.getTaskEvents()).getTimestamp()));
+          Iterables.getLast(task.getTaskEvents()).getTimestamp());
     }
   }
 
-  private void deleteTasks(Set<String> taskIds) {
-    LOG.info("Pruning inactive tasks " + taskIds);
-    stateManager.deleteTasks(taskIds);
-  }
-
   /**
-   * When triggered, removes the tasks scheduled for pruning and cancels any existing future.
+   * When triggered, stops tracking deleted tasks.
    *
    * @param event A new TasksDeleted event.
    */
   @Subscribe
-  public void tasksDeleted(final TasksDeleted event) {
+  public synchronized void tasksDeleted(TasksDeleted event) {
     for (IScheduledTask task : event.getTasks()) {
       String id = Tasks.id(task);
       tasksByJob.remove(Tasks.SCHEDULED_TO_JOB_KEY.apply(task), id);
-      Future<?> future = taskIdToFuture.remove(id);
-      if (future != null) {
-        future.cancel(false);
-      }
+      expirations.remove(id);
+      excessTasks.remove(id);
     }
   }
 
-  private void registerInactiveTask(
-      final IJobKey jobKey,
-      final String taskId,
-      long timeRemaining) {
+  private synchronized void registerInactiveTask(
+      IJobKey jobKey,
+      String taskId,
+      long inactiveSinceMillis) {
 
-    LOG.fine("Prune task " + taskId + " in " + timeRemaining + " ms.");
     // Insert the latest inactive task at the tail.
+    expirations.remove(taskId);
+    expirations.put(taskId, new Expiry(jobKey, inactiveSinceMillis + pruneThresholdMillis));
+    tasksByJob.remove(jobKey, taskId);
     tasksByJob.put(jobKey, taskId);
-    Runnable runnable = new Runnable() {
-      @Override public void run() {
-        LOG.info("Pruning expired inactive task " + taskId);
-        tasksByJob.remove(jobKey, taskId);
-        taskIdToFuture.remove(taskId);
-        deleteTasks(ImmutableSet.of(taskId));
-      }
-    };
-    taskIdToFuture.put(taskId, executor.schedule(runnable, timeRemaining, TimeUnit.MILLISECONDS));
 
-    ImmutableSet.Builder<String> pruneTaskIds = ImmutableSet.builder();
     Collection<String> tasks = tasksByJob.get(jobKey);
-    // From Multimaps javadoc: "It is imperative that the user manually synchronize on the returned
-    // multimap when accessing any of its collection views".
-    synchronized (tasksByJob) {
-      Iterator<String> iterator = tasks.iterator();
-      while (tasks.size() > perJobHistoryGoal) {
-        // Pick oldest task from the head. Guaranteed by LinkedHashMultimap based on insertion
-        // order.
-        String id = iterator.next();
-        iterator.remove();
-        pruneTaskIds.add(id);
-        Future<?> future = taskIdToFuture.remove(id);
-        if (future != null) {
-          future.cancel(false);
-        }
+    Iterator<String> iterator = tasks.iterator();
+    while (tasks.size() > perJobHistoryGoal) {
+      // Pick oldest task from the head. Guaranteed by LinkedHashMultimap based on insertion
+      // order.
+      String id = iterator.next();
+      iterator.remove();
+      expirations.remove(id);
+      excessTasks.add(id);
+    }
+
+    if (!sweepScheduled) {
+      sweepScheduled = true;
+      executor.scheduleWithFixedDelay(
+          new Runnable() {
+            @Override public void run() {
+              sweep();
+            }
+          },
+          SWEEP_INTERVAL_MS,
+          SWEEP_INTERVAL_MS,
+          TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Removes all tasks that exceeded their job's history goal or the inactive time threshold.
+   * Tasks that could not be deleted by the previous sweep are included.
+   *
+   * @return IDs of tasks to prune.
+   */
+  private synchronized Set<String> collectPrunable() {
+    long now = clock.nowMillis();
+    ImmutableSet.Builder<String> prunable = ImmutableSet.<String>builder().addAll(excessTasks);
+    excessTasks.clear();
+
+    Iterator<Map.Entry<String, Expiry>> iterator = expirations.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<String, Expiry> entry = iterator.next();
+      if (entry.getValue().deadlineMillis > now) {
+        break;
+      }
+      iterator.remove();
+      tasksByJob.remove(entry.getValue().jobKey, entry.getKey());
+      prunable.add(entry.getKey());
+    }
+    return prunable.build();
+  }
+
+  private synchronized void retry(Set<String> taskIds) {
+    excessTasks.addAll(taskIds);
+  }
+
+  @VisibleForTesting
+  void sweep() {
+    long start = System.nanoTime();
+    // Tasks are deleted without holding this object's monitor, since deleting publishes events
+    // that are handled by this object.
+    int pruned = 0;
+    for (List<String> batch : Iterables.partition(collectPrunable(), MAX_TASKS_PER_DELETE)) {
+      Set<String> taskIds = ImmutableSet.copyOf(batch);
+      LOG.info("Pruning inactive tasks " + taskIds);
+      try {
+        stateManager.deleteTasks(taskIds);
+        pruned += taskIds.size();
+      } catch (RuntimeException e) {
+        LOG.log(Level.SEVERE, "Failed to prune tasks " + taskIds, e);
+        retry(taskIds);
       }
     }
+    tasksPruned.addAndGet(pruned);
+    lastSweepPruned.set(pruned);
+    sweepLatency.accumulate(System.nanoTime() - start);
+  }
+
+  private static final class Expiry {
+    private final IJobKey jobKey;
+    private final long deadlineMillis;
 
-    Set<String> ids = pruneTaskIds.build();
-    if (!ids.isEmpty()) {
-      deleteTasks(ids);
+    Expiry(IJobKey jobKey, long deadlineMillis) {
+      this.jobKey = jobKey;
+      this.deadlineMillis = deadlineMillis;
     }
   }
 }
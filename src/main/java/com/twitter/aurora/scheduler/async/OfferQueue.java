@@ -15,8 +15,10 @@
  */
 package com.twitter.aurora.scheduler.async;
 
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.ScheduledExecutorService;
@@ -27,31 +29,42 @@ import java.util.logging.Logger;
 import javax.inject.Inject;
 
 import com.google.common.base.Function;
-import com.google.common.base.Objects;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.base.Supplier;
-import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ComparisonChain;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
 import com.google.common.collect.Ordering;
+import com.google.common.collect.Sets;
 import com.google.common.eventbus.Subscribe;
 
 import org.apache.mesos.Protos.Offer;
 import org.apache.mesos.Protos.OfferID;
+import org.apache.mesos.Protos.SlaveID;
 import org.apache.mesos.Protos.TaskInfo;
 
 import com.twitter.aurora.gen.HostStatus;
 import com.twitter.aurora.gen.MaintenanceMode;
 import com.twitter.aurora.scheduler.Driver;
+import com.twitter.aurora.scheduler.HostOffer;
+import com.twitter.aurora.scheduler.ResourceSlot;
+import com.twitter.aurora.scheduler.configuration.ResourceBag;
 import com.twitter.aurora.scheduler.events.PubsubEvent.DriverDisconnected;
 import com.twitter.aurora.scheduler.events.PubsubEvent.EventSubscriber;
 import com.twitter.aurora.scheduler.events.PubsubEvent.HostMaintenanceStateChange;
-import com.twitter.aurora.scheduler.state.MaintenanceController;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
+import com.twitter.common.stats.StatImpl;
 import com.twitter.common.stats.Stats;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+
 import static com.twitter.aurora.gen.MaintenanceMode.DRAINED;
 import static com.twitter.aurora.gen.MaintenanceMode.DRAINING;
 import static com.twitter.aurora.gen.MaintenanceMode.NONE;
@@ -67,7 +80,7 @@ public interface OfferQueue extends EventSubscriber {
    *
    * @param offer Newly-available resource offer.
    */
-  void addOffer(Offer offer);
+  void addOffer(HostOffer offer);
 
   /**
    * Invalidates an offer.  This indicates that the scheduler should not attempt to match any
@@ -78,15 +91,20 @@ public interface OfferQueue extends EventSubscriber {
   void cancelOffer(OfferID offer);
 
   /**
-   * Launches the first task that satisfies the {@code acceptor} by returning a {@link TaskInfo}.
+   * Presents held offers to the {@code acceptor} until it launches tasks against one of them.  The
+   * acceptor may pack several tasks into a single offer, in which case they are all launched
+   * against the offer at once.  Offers that are too small to satisfy {@code required} are skipped
+   * without consulting the {@code acceptor}.
+   * <p>
+   * This may be called concurrently.  Each offer is claimed while the {@code acceptor} evaluates
+   * it, so an offer is never presented to more than one caller at a time.
    *
-   * @param acceptor Function that determines if an offer is accepted.
-   * @return {@code true} if the task was launched, {@code false} if no offers satisfied the
-   *         {@code acceptor}.
-   * @throws LaunchException If the acceptor accepted an offer, but there was an error launching the
-   *                         task.
+   * @param required Resources required by the smallest task the acceptor may launch.
+   * @param acceptor Evaluates offers, launching tasks against the offer it accepts.
+   * @return {@code true} if the acceptor launched tasks against an offer, {@code false} if no
+   *         offers satisfied the {@code acceptor}.
    */
-  boolean launchFirst(Function<Offer, Optional<TaskInfo>> acceptor) throws LaunchException;
+  boolean launchFirst(ResourceSlot required, OfferAcceptor acceptor);
 
   /**
    * Notifies the offer queue that a host has changed state.
@@ -100,7 +118,7 @@ public interface OfferQueue extends EventSubscriber {
    *
    * @return A snapshot of the offers that the scheduler is currently holding.
    */
-  Iterable<Offer> getOffers();
+  Iterable<HostOffer> getOffers();
 
   /**
    * Calculates the amount of time before an offer should be 'returned' by declining it.
@@ -110,6 +128,99 @@ public interface OfferQueue extends EventSubscriber {
   public interface OfferReturnDelay extends Supplier<Amount<Integer, Time>> {
   }
 
+  /**
+   * Ranks the offers that are large enough to satisfy a task, determining the order in which they
+   * are presented to the task.  Ranking only applies among offers from hosts with the same
+   * maintenance preference.
+   */
+  public interface OfferRanking {
+    /**
+     * Scores an offer for a task.  Offers with lower scores are considered first, and offers with
+     * equal scores are considered in arbitrary order.
+     *
+     * @param offered Resources available in the offer.
+     * @param required Resources required by the task.
+     * @return The offer's score.
+     */
+    double score(ResourceSlot offered, ResourceSlot required);
+  }
+
+  /**
+   * Built-in offer ranking strategies.
+   */
+  enum OfferSelection implements OfferRanking {
+    /**
+     * Considers offers in arbitrary order, placing the task on the first offer that satisfies it.
+     */
+    FIRST_FIT {
+      @Override public double score(ResourceSlot offered, ResourceSlot required) {
+        return 0;
+      }
+    },
+
+    /**
+     * Considers offers that would leave the fewest resources unused first, packing tasks onto
+     * hosts to preserve large slots for large tasks.
+     */
+    BEST_FIT {
+      @Override public double score(ResourceSlot offered, ResourceSlot required) {
+        // Residual resources are scaled relative to the offer's own totals so that the resource
+        // vectors may be combined into a single score, regardless of the size of the machine.
+        ResourceBag total = offered.getResources();
+        ResourceBag residual = total.subtract(required.getResources());
+        return fraction(residual.getNumCpus(), total.getNumCpus())
+            + fraction(residual.getRamMb(), total.getRamMb())
+            + fraction(residual.getDiskMb(), total.getDiskMb())
+            + fraction(residual.getNumPorts(), total.getNumPorts());
+      }
+
+      private double fraction(double residual, double total) {
+        return (total > 0) ? residual / total : 0;
+      }
+    }
+  }
+
+  /**
+   * An offer claimed for exclusive evaluation by a caller of {@link #launchFirst}.  The offer may
+   * still be rescinded while it is claimed.
+   */
+  interface ClaimedOffer {
+    /**
+     * Gets the claimed offer.
+     *
+     * @return The claimed offer.
+     */
+    HostOffer getOffer();
+
+    /**
+     * Checks whether the offer is still held by the queue and claimed by the caller.
+     *
+     * @return {@code true} if tasks may still be launched against the offer.
+     */
+    boolean isHeld();
+
+    /**
+     * Launches tasks against the offer, consuming it.
+     *
+     * @param tasks Tasks to launch, must not be empty.
+     * @throws LaunchException If the offer was no longer held, or the launch failed.
+     */
+    void launch(List<TaskInfo> tasks) throws LaunchException;
+  }
+
+  /**
+   * Evaluates claimed offers on behalf of a caller of {@link #launchFirst}.
+   */
+  interface OfferAcceptor {
+    /**
+     * Evaluates an offer, launching tasks against it if it is acceptable.  Returning without
+     * launching declines the offer.
+     *
+     * @param offer The claimed offer.
+     */
+    void accept(ClaimedOffer offer);
+  }
+
   /**
    * Thrown when there was an unexpected failure trying to launch a task.
    */
@@ -126,55 +237,75 @@ public interface OfferQueue extends EventSubscriber {
   class OfferQueueImpl implements OfferQueue {
     private static final Logger LOG = Logger.getLogger(OfferQueueImpl.class.getName());
 
-    static final Comparator<HostOffer> PREFERENCE_COMPARATOR =
-        // Currently, the only preference is based on host maintenance status.
+    // Currently, the only preference is based on host maintenance status.
+    private static final Ordering<HostOffer> MAINTENANCE_ORDER =
         Ordering.explicit(NONE, SCHEDULED, DRAINING, DRAINED)
             .onResultOf(new Function<HostOffer, MaintenanceMode>() {
               @Override public MaintenanceMode apply(HostOffer offer) {
-                return offer.mode;
+                return offer.getMode();
               }
-            })
-            .compound(Ordering.arbitrary());
+            });
 
-    private final Set<HostOffer> hostOffers = new ConcurrentSkipListSet<>(PREFERENCE_COMPARATOR);
+    static final Comparator<HostOffer> PREFERENCE_COMPARATOR =
+        MAINTENANCE_ORDER.compound(Ordering.arbitrary());
+
+    private static final Comparator<ScoredOffer> SCORED_ORDER = new Comparator<ScoredOffer>() {
+      @Override public int compare(ScoredOffer a, ScoredOffer b) {
+        return ComparisonChain.start()
+            .compare(a.offer, b.offer, MAINTENANCE_ORDER)
+            .compare(a.score, b.score)
+            .result();
+      }
+    };
+
+    private final HostOffers hostOffers = new HostOffers();
     private final AtomicLong offerRaces = Stats.exportLong("offer_accept_races");
+    private final AtomicLong acceptorEvaluations = Stats.exportLong("offer_acceptor_evaluations");
+    private final AtomicLong insufficientOffersSkipped =
+        Stats.exportLong("offer_insufficient_resources_skipped");
+    private final AtomicLong offersLaunched = Stats.exportLong("offers_launched");
+    private final AtomicLong tasksLaunched = Stats.exportLong("offer_tasks_launched");
+    private final AtomicLong claimConflicts = Stats.exportLong("offer_claim_conflicts");
 
     private final Driver driver;
     private final OfferReturnDelay returnDelay;
     private final ScheduledExecutorService executor;
-    private final MaintenanceController maintenance;
+    private final OfferRanking ranking;
 
     @Inject
     OfferQueueImpl(Driver driver,
         OfferReturnDelay returnDelay,
         ScheduledExecutorService executor,
-        MaintenanceController maintenance) {
+        OfferRanking ranking) {
 
       this.driver = driver;
       this.returnDelay = returnDelay;
       this.executor = executor;
-      this.maintenance = maintenance;
-      // Potential gotcha - since this is now a ConcurrentSkipListSet, size() is more expensive.
-      // Could track this separately if it turns out to pose problems.
-      Stats.exportSize("outstanding_offers", hostOffers);
+      this.ranking = checkNotNull(ranking);
+      Stats.export(new StatImpl<Integer>("outstanding_offers") {
+        @Override public Integer read() {
+          return hostOffers.size();
+        }
+      });
     }
 
     @Override
-    public void addOffer(final Offer offer) {
+    public void addOffer(final HostOffer hostOffer) {
+      final Offer offer = hostOffer.getOffer();
       // We run a slight risk of a race here, which is acceptable.  The worst case is that we
       // temporarily hold two offers for the same host, which should be corrected when we return
       // them after the return delay.
       // There's also a chance that we return an offer for compaction ~simultaneously with the
       // same-host offer being canceled/returned.  This is also fine.
-      List<HostOffer> sameSlave = FluentIterable.from(hostOffers)
-          .filter(new Predicate<HostOffer>() {
-            @Override public boolean apply(HostOffer hostOffer) {
-              return hostOffer.offer.getSlaveId().equals(offer.getSlaveId());
-            }
-          })
-          .toList();
-      if (sameSlave.isEmpty()) {
-        hostOffers.add(new HostOffer(offer, maintenance.getMode(offer.getHostname())));
+      Optional<HostOffer> sameSlave = hostOffers.get(offer.getSlaveId());
+      if (sameSlave.isPresent()) {
+        // If there are existing offers for the slave, decline all of them so the master can
+        // compact all of those offers into a single offer and send them back.
+        LOG.info("Returning offers for " + offer.getSlaveId().getValue() + " for compaction.");
+        decline(offer.getId());
+        removeAndDecline(sameSlave.get().getOffer().getId());
+      } else {
+        hostOffers.add(hostOffer);
         executor.schedule(
             new Runnable() {
               @Override public void run() {
@@ -183,15 +314,6 @@ public interface OfferQueue extends EventSubscriber {
             },
             returnDelay.get().as(Time.MILLISECONDS),
             TimeUnit.MILLISECONDS);
-      } else {
-        // If there are existing offers for the slave, decline all of them so the master can
-        // compact all of those offers into a single offer and send them back.
-        LOG.info("Returning " + (sameSlave.size() + 1)
-            + " offers for " + offer.getSlaveId().getValue() + " for compaction.");
-        decline(offer.getId());
-        for (HostOffer sameSlaveOffer : sameSlave) {
-          removeAndDecline(sameSlaveOffer.offer.getId());
-        }
       }
     }
 
@@ -216,23 +338,12 @@ public interface OfferQueue extends EventSubscriber {
 
       // The small risk of inconsistency is acceptable here - if we have an accept/remove race
       // on an offer, the master will mark the task as LOST and it will be retried.
-      return Iterables.removeIf(hostOffers,
-          new Predicate<HostOffer>() {
-            @Override public boolean apply(HostOffer input) {
-              return input.offer.getId().equals(offerId);
-            }
-          });
+      return hostOffers.remove(offerId);
     }
 
     @Override
-    public Iterable<Offer> getOffers() {
-      return Iterables.unmodifiableIterable(
-          FluentIterable.from(hostOffers)
-              .transform(new Function<HostOffer, Offer>() {
-                @Override public Offer apply(HostOffer offer) {
-                  return offer.offer;
-                }
-              }));
+    public Iterable<HostOffer> getOffers() {
+      return hostOffers.getWeaklyConsistentOffers();
     }
 
     /**
@@ -242,25 +353,8 @@ public interface OfferQueue extends EventSubscriber {
      */
     @Subscribe
     public void hostChangedState(HostMaintenanceStateChange change) {
-      final HostStatus hostStatus = change.getStatus();
-
-      // Remove and re-add a host's offers to re-sort based on its new hostStatus
-      Set<HostOffer> changedOffers = FluentIterable.from(hostOffers)
-          .filter(new Predicate<HostOffer>() {
-            @Override public boolean apply(HostOffer hostOffer) {
-              return hostOffer.offer.getHostname().equals(hostStatus.getHost());
-            }
-          })
-          .toSet();
-      hostOffers.removeAll(changedOffers);
-      hostOffers.addAll(
-          FluentIterable.from(changedOffers)
-              .transform(new Function<HostOffer, HostOffer>() {
-                @Override public HostOffer apply(HostOffer hostOffer) {
-                  return new HostOffer(hostOffer.offer, hostStatus.getMode());
-                }
-              })
-              .toSet());
+      HostStatus hostStatus = change.getStatus();
+      hostOffers.updateHostMode(hostStatus.getHost(), hostStatus.getMode());
     }
 
     /**
@@ -278,64 +372,235 @@ public interface OfferQueue extends EventSubscriber {
     }
 
     /**
-     * Encapsulate an offer from a host, and the host's maintenance mode.
+     * A container for the offers held by the queue.  Offers are kept in preference order for
+     * iteration, and are additionally indexed by offer ID, slave ID and host so that offer
+     * events do not require a scan of every held offer.
+     * <p>
+     * Mutations are serialized, while iteration over the ordered offers is lock-free and weakly
+     * consistent.  An offer may be claimed by a scheduling attempt, which hides it from iteration
+     * until it is released or removed.
      */
-    private static class HostOffer {
-      private final Offer offer;
-      private final MaintenanceMode mode;
+    private static class HostOffers {
+      // Offers available for scheduling, excluding those that are claimed.
+      private final Set<HostOffer> offers = new ConcurrentSkipListSet<>(PREFERENCE_COMPARATOR);
+      private final Set<OfferID> claimed = Sets.newHashSet();
+      private final Map<OfferID, HostOffer> offersById = Maps.newHashMap();
+      private final Map<SlaveID, HostOffer> offersBySlave = Maps.newHashMap();
+      private final Multimap<String, HostOffer> offersByHost = HashMultimap.create();
+
+      synchronized int size() {
+        return offersById.size();
+      }
 
-      HostOffer(Offer offer, MaintenanceMode mode) {
-        this.offer = offer;
-        this.mode = mode;
+      synchronized Optional<HostOffer> get(SlaveID slaveId) {
+        return Optional.fromNullable(offersBySlave.get(slaveId));
+      }
+
+      synchronized void add(HostOffer offer) {
+        offers.add(offer);
+        offersById.put(offer.getOffer().getId(), offer);
+        offersBySlave.put(offer.getOffer().getSlaveId(), offer);
+        offersByHost.put(offer.getOffer().getHostname(), offer);
       }
 
-      @Override
-      public boolean equals(Object o) {
-        if (!(o instanceof HostOffer)) {
+      synchronized boolean remove(OfferID id) {
+        HostOffer removed = offersById.remove(id);
+        if (removed == null) {
+          return false;
+        }
+
+        offers.remove(removed);
+        claimed.remove(id);
+        // Guard against removing a newer offer for the same slave, should a race have caused
+        // two offers for the slave to be held.
+        if (removed.equals(offersBySlave.get(removed.getOffer().getSlaveId()))) {
+          offersBySlave.remove(removed.getOffer().getSlaveId());
+        }
+        offersByHost.remove(removed.getOffer().getHostname(), removed);
+        return true;
+      }
+
+      synchronized void updateHostMode(String host, MaintenanceMode mode) {
+        // Remove and re-add a host's offers to re-sort based on its new mode.
+        for (HostOffer changed : ImmutableList.copyOf(offersByHost.get(host))) {
+          OfferID id = changed.getOffer().getId();
+          boolean wasClaimed = claimed.contains(id);
+          remove(id);
+          HostOffer updated = changed.withMode(mode);
+          add(updated);
+          if (wasClaimed) {
+            claimed.add(id);
+            offers.remove(updated);
+          }
+        }
+      }
+
+      /**
+       * Claims an offer for exclusive consideration by the caller.
+       *
+       * @param id ID of the offer to claim.
+       * @return {@code true} if the offer was claimed, {@code false} if it is no longer held or
+       *     is already claimed.
+       */
+      synchronized boolean claim(OfferID id) {
+        HostOffer offer = offersById.get(id);
+        if ((offer == null) || !claimed.add(id)) {
+          return false;
+        }
+        offers.remove(offer);
+        return true;
+      }
+
+      /**
+       * Makes a claimed offer available to other scheduling attempts, provided it was not removed
+       * while claimed.
+       *
+       * @param id ID of the claimed offer.
+       */
+      synchronized void release(OfferID id) {
+        if (claimed.remove(id)) {
+          HostOffer offer = offersById.get(id);
+          if (offer != null) {
+            offers.add(offer);
+          }
+        }
+      }
+
+      synchronized boolean isClaimed(OfferID id) {
+        return claimed.contains(id);
+      }
+
+      synchronized void clear() {
+        offers.clear();
+        claimed.clear();
+        offersById.clear();
+        offersBySlave.clear();
+        offersByHost.clear();
+      }
+
+      Iterable<HostOffer> getWeaklyConsistentOffers() {
+        return Iterables.unmodifiableIterable(offers);
+      }
+    }
+
+    private Predicate<HostOffer> sufficientFor(final ResourceSlot required) {
+      return new Predicate<HostOffer>() {
+        @Override public boolean apply(HostOffer offer) {
+          if (offer.getResources().greaterThanOrEqual(required)) {
+            return true;
+          }
+          insufficientOffersSkipped.incrementAndGet();
           return false;
         }
-        HostOffer other = (HostOffer) o;
-        return Objects.equal(offer, other.offer) && (mode == other.mode);
+      };
+    }
+
+    private List<HostOffer> rank(Iterable<HostOffer> offers, ResourceSlot required) {
+      // Each offer is scored once, rather than on every comparison made by the sort.
+      List<ScoredOffer> scored = Lists.newArrayList();
+      for (HostOffer offer : offers) {
+        scored.add(new ScoredOffer(offer, ranking.score(offer.getResources(), required)));
       }
+      Collections.sort(scored, SCORED_ORDER);
 
-      @Override
-      public int hashCode() {
-        return Objects.hashCode(offer, mode);
+      List<HostOffer> ranked = Lists.newArrayListWithCapacity(scored.size());
+      for (ScoredOffer offer : scored) {
+        ranked.add(offer.offer);
       }
+      return ranked;
     }
 
     @Override
-    public boolean launchFirst(Function<Offer, Optional<TaskInfo>> acceptor)
-        throws LaunchException {
-
-      // It's important that this method is not called concurrently - doing so would open up the
-      // possibility of a race between the same offers being accepted by different threads.
-
-      for (HostOffer hostOffer : hostOffers) {
-        Optional<TaskInfo> assignment = acceptor.apply(hostOffer.offer);
-        if (assignment.isPresent()) {
-          // Guard against an offer being removed after we grabbed it from the iterator.
-          // If that happens, the offer will not exist in hostOffers, and we can immediately
-          // send it back to LOST for quick reschedule.
-          if (hostOffers.remove(hostOffer)) {
-            try {
-              driver.launchTask(hostOffer.offer.getId(), assignment.get());
-              return true;
-            } catch (IllegalStateException e) {
-              // TODO(William Farner): Catch only the checked exception produced by Driver
-              // once it changes from throwing IllegalStateException when the driver is not yet
-              // registered.
-              throw new LaunchException("Failed to launch task.", e);
-            }
-          } else {
-            offerRaces.incrementAndGet();
-            throw new LaunchException(
-                "Accepted offer no longer exists in offer queue, likely data race.");
+    public boolean launchFirst(ResourceSlot required, OfferAcceptor acceptor) {
+      // The acceptor runs the full scheduling filter, so avoid it for offers that could never
+      // satisfy the task.
+      Iterable<HostOffer> candidates =
+          Iterables.filter(hostOffers.getWeaklyConsistentOffers(), sufficientFor(required));
+      // Held offers are already in maintenance order, so first fit considers them as they are
+      // iterated and stops at the first offer accepted.
+      if (ranking != OfferSelection.FIRST_FIT) {
+        candidates = rank(candidates, required);
+      }
+
+      for (HostOffer hostOffer : candidates) {
+        OfferID id = hostOffer.getOffer().getId();
+        // Claim the offer so that concurrent callers never accept the same offer.
+        if (!hostOffers.claim(id)) {
+          claimConflicts.incrementAndGet();
+          continue;
+        }
+
+        Claim claim = new Claim(hostOffer);
+        try {
+          acceptorEvaluations.incrementAndGet();
+          acceptor.accept(claim);
+          if (claim.launched) {
+            return true;
+          }
+        } finally {
+          if (!claim.launched) {
+            hostOffers.release(id);
           }
         }
       }
 
       return false;
     }
+
+    private class Claim implements ClaimedOffer {
+      private final HostOffer offer;
+      private boolean launched = false;
+
+      Claim(HostOffer offer) {
+        this.offer = offer;
+      }
+
+      @Override public HostOffer getOffer() {
+        return offer;
+      }
+
+      @Override public boolean isHeld() {
+        return !launched && hostOffers.isClaimed(offer.getOffer().getId());
+      }
+
+      @Override public void launch(List<TaskInfo> tasks) throws LaunchException {
+        Preconditions.checkArgument(!tasks.isEmpty(), "No tasks to launch.");
+        Preconditions.checkState(!launched, "Offer was already launched against.");
+        launched = true;
+        OfferQueueImpl.this.launch(offer.getOffer().getId(), tasks);
+      }
+    }
+
+    private void launch(OfferID id, List<TaskInfo> assignments) throws LaunchException {
+      // Guard against an offer being removed while it was claimed.  If that happens, the offer
+      // will not exist in hostOffers, and we can immediately send the tasks back to LOST for quick
+      // reschedule.
+      if (hostOffers.remove(id)) {
+        try {
+          driver.launchTasks(id, assignments);
+          offersLaunched.incrementAndGet();
+          tasksLaunched.addAndGet(assignments.size());
+        } catch (IllegalStateException e) {
+          // TODO(William Farner): Catch only the checked exception produced by Driver
+          // once it changes from throwing IllegalStateException when the driver is not yet
+          // registered.
+          throw new LaunchException("Failed to launch tasks.", e);
+        }
+      } else {
+        offerRaces.incrementAndGet();
+        throw new LaunchException(
+            "Accepted offer no longer exists in offer queue, likely data race.");
+      }
+    }
+
+    private static final class ScoredOffer {
+      private final HostOffer offer;
+      private final double score;
+
+      ScoredOffer(HostOffer offer, double score) {
+        this.offer = offer;
+        this.score = score;
+      }
+    }
   }
 }
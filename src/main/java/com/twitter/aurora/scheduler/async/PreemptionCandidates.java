@@ -0,0 +1,174 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.async;
+
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Inject;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.eventbus.Subscribe;
+
+import com.twitter.aurora.gen.ScheduleStatus;
+import com.twitter.aurora.scheduler.base.Query;
+import com.twitter.aurora.scheduler.base.Tasks;
+import com.twitter.aurora.scheduler.events.PubsubEvent.EventSubscriber;
+import com.twitter.aurora.scheduler.events.PubsubEvent.StorageStarted;
+import com.twitter.aurora.scheduler.events.PubsubEvent.TaskStateChange;
+import com.twitter.aurora.scheduler.events.PubsubEvent.TasksDeleted;
+import com.twitter.aurora.scheduler.storage.Storage;
+import com.twitter.aurora.scheduler.storage.entities.IAssignedTask;
+import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
+import com.twitter.common.stats.StatImpl;
+import com.twitter.common.stats.Stats;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import static com.twitter.aurora.gen.ScheduleStatus.PENDING;
+import static com.twitter.aurora.gen.ScheduleStatus.PREEMPTING;
+
+/**
+ * An index of the tasks that may be preempted, grouped by the slave they reside on.
+ * <p>
+ * The index is loaded from storage when storage starts, and kept current from task state change
+ * events thereafter.  This spares the preemptor from fetching and grouping every active task on
+ * each preemption search.
+ */
+class PreemptionCandidates implements EventSubscriber {
+
+  @VisibleForTesting
+  static final Set<ScheduleStatus> CANDIDATE_STATES =
+      EnumSet.copyOf(Sets.difference(Tasks.ACTIVE_STATES, EnumSet.of(PENDING, PREEMPTING)));
+
+  @VisibleForTesting
+  static final Query.Builder CANDIDATE_QUERY = Query.statusScoped(CANDIDATE_STATES);
+
+  private final Storage storage;
+
+  // Candidate tasks by slave ID, and by task ID.  Both are guarded by this object's monitor.
+  private final Map<String, Map<String, IAssignedTask>> bySlave = Maps.newHashMap();
+  private final Map<String, IAssignedTask> byId = Maps.newHashMap();
+
+  @Inject
+  PreemptionCandidates(Storage storage) {
+    this.storage = checkNotNull(storage);
+
+    Stats.export(new StatImpl<Integer>("preemptor_candidate_tasks") {
+      @Override public Integer read() {
+        return size();
+      }
+    });
+  }
+
+  private synchronized int size() {
+    return byId.size();
+  }
+
+  private void add(IAssignedTask task) {
+    remove(task.getTaskId());
+    if (task.isSetSlaveId()) {
+      Map<String, IAssignedTask> tasks = bySlave.get(task.getSlaveId());
+      if (tasks == null) {
+        tasks = Maps.newHashMap();
+        bySlave.put(task.getSlaveId(), tasks);
+      }
+      tasks.put(task.getTaskId(), task);
+      byId.put(task.getTaskId(), task);
+    }
+  }
+
+  private void remove(String taskId) {
+    IAssignedTask task = byId.remove(taskId);
+    if (task != null) {
+      Map<String, IAssignedTask> tasks = bySlave.get(task.getSlaveId());
+      tasks.remove(taskId);
+      if (tasks.isEmpty()) {
+        bySlave.remove(task.getSlaveId());
+      }
+    }
+  }
+
+  /**
+   * Loads the candidates from storage once it is consistent.
+   *
+   * @param event Storage started notification.
+   */
+  @Subscribe
+  public void storageStarted(StorageStarted event) {
+    Set<IScheduledTask> tasks = Storage.Util.consistentFetchTasks(storage, CANDIDATE_QUERY);
+    synchronized (this) {
+      for (IScheduledTask task : tasks) {
+        add(task.getAssignedTask());
+      }
+    }
+  }
+
+  /**
+   * Adds or removes a task from the index, depending on whether its new state allows it to be
+   * preempted.
+   *
+   * @param stateChange State change notification.
+   */
+  @Subscribe
+  public synchronized void taskChangedState(TaskStateChange stateChange) {
+    if (CANDIDATE_STATES.contains(stateChange.getNewState())) {
+      add(stateChange.getTask().getAssignedTask());
+    } else {
+      remove(stateChange.getTaskId());
+    }
+  }
+
+  /**
+   * Removes deleted tasks from the index.
+   *
+   * @param deleted Tasks deleted event.
+   */
+  @Subscribe
+  public synchronized void tasksDeleted(TasksDeleted deleted) {
+    for (IScheduledTask task : deleted.getTasks()) {
+      remove(Tasks.id(task));
+    }
+  }
+
+  /**
+   * Gets the slaves that currently have preemption candidates.
+   *
+   * @return IDs of slaves with at least one candidate.
+   */
+  synchronized Set<String> getSlaves() {
+    return ImmutableSet.copyOf(bySlave.keySet());
+  }
+
+  /**
+   * Gets the candidates residing on a slave, in reverse scheduling order.
+   *
+   * @param slaveId Slave to get candidates for.
+   * @return The slave's candidates, which is empty if the slave is not known.
+   */
+  synchronized Iterable<IAssignedTask> getCandidates(String slaveId) {
+    Map<String, IAssignedTask> tasks = bySlave.get(slaveId);
+    if (tasks == null) {
+      return ImmutableList.of();
+    }
+    return Tasks.SCHEDULING_ORDER.reverse().immutableSortedCopy(tasks.values());
+  }
+}
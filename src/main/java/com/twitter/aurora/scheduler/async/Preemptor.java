@@ -17,9 +17,9 @@ package com.twitter.aurora.scheduler.async;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.Target;
-import java.util.Collections;
-import java.util.EnumSet;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
@@ -27,25 +27,28 @@ import java.util.logging.Logger;
 
 import javax.inject.Inject;
 
-import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
+import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Multimaps;
-import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
 import com.google.inject.BindingAnnotation;
 
+import com.twitter.aurora.scheduler.HostOffer;
 import com.twitter.aurora.scheduler.ResourceSlot;
 import com.twitter.aurora.scheduler.base.Query;
 import com.twitter.aurora.scheduler.base.ScheduleException;
 import com.twitter.aurora.scheduler.base.Tasks;
+import com.twitter.aurora.scheduler.configuration.ResourceBag;
+import com.twitter.aurora.scheduler.filter.FilterProgram;
 import com.twitter.aurora.scheduler.filter.SchedulingFilter;
 import com.twitter.aurora.scheduler.state.SchedulerCore;
 import com.twitter.aurora.scheduler.storage.Storage;
@@ -53,6 +56,7 @@ import com.twitter.aurora.scheduler.storage.entities.IAssignedTask;
 import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
+import com.twitter.common.stats.SlidingStats;
 import com.twitter.common.stats.Stats;
 import com.twitter.common.util.Clock;
 
@@ -61,12 +65,10 @@ import static java.lang.annotation.ElementType.METHOD;
 import static java.lang.annotation.ElementType.PARAMETER;
 import static java.lang.annotation.RetentionPolicy.RUNTIME;
 
-import org.apache.mesos.Protos.Offer;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import static com.twitter.aurora.gen.ScheduleStatus.PENDING;
-import static com.twitter.aurora.gen.ScheduleStatus.PREEMPTING;
 import static com.twitter.aurora.scheduler.base.Tasks.SCHEDULED_TO_ASSIGNED;
 
 /**
@@ -75,12 +77,14 @@ import static com.twitter.aurora.scheduler.base.Tasks.SCHEDULED_TO_ASSIGNED;
 public interface Preemptor {
 
   /**
-   * Preempts active tasks in favor of the input task.
+   * Preempts active tasks in favor of the input tasks.  The tasks are expected to belong to the
+   * same task group, so that a slave unable to host one of them is unable to host any of them.
    *
-   * @param taskId ID of the preempting task.
-   * @return ID of the slave where preemption occured.
+   * @param taskIds IDs of the preempting tasks.
+   * @return IDs of the slaves where preemption occurred, keyed by the ID of the preempting task.
+   *     Tasks for which no slot was found, or that fit without preempting any tasks, are absent.
    */
-  Optional<String> findPreemptionSlotFor(String taskId);
+  Map<String, String> findPreemptionSlotsFor(Set<String> taskIds);
 
   /**
    * A task preemptor that tries to find tasks that are waiting to be scheduled, which are of higher
@@ -100,10 +104,6 @@ public interface Preemptor {
     @Target({ FIELD, PARAMETER, METHOD }) @Retention(RUNTIME)
     @interface PreemptionDelay { }
 
-    @VisibleForTesting
-    static final Query.Builder CANDIDATE_QUERY = Query.statusScoped(
-        EnumSet.copyOf(Sets.difference(Tasks.ACTIVE_STATES, EnumSet.of(PENDING, PREEMPTING))));
-
     private static final Logger LOG = Logger.getLogger(PreemptorImpl.class.getName());
 
     private static final Function<IAssignedTask, Integer> GET_PRIORITY =
@@ -119,6 +119,18 @@ public interface Preemptor {
     private final AtomicLong attemptedPreemptions = Stats.exportLong("preemptor_attempts");
     // Incremented every time we fail to find tasks to preempt for a pending task.
     private final AtomicLong noSlotsFound = Stats.exportLong("preemptor_no_slots_found");
+    // Tracks each search for a task group, along with the number of tasks it preempted.
+    private final SlidingStats searchVictims = new SlidingStats("preemptor_search", "victims");
+    // Pending tasks placed in slack resources, without preempting any tasks.
+    private final AtomicLong placementsWithoutVictims =
+        Stats.exportLong("preemptor_placements_without_victims");
+    // Resources preempted for each pending task placed by preempting tasks.
+    private final SlidingStats placementVictims =
+        new SlidingStats("preemptor_placement_victims", "tasks");
+    private final SlidingStats placementCpu =
+        new SlidingStats("preemptor_placement_cpu", "millicpus");
+    private final SlidingStats placementRam = new SlidingStats("preemptor_placement_ram", "mb");
+    private final SlidingStats placementDisk = new SlidingStats("preemptor_placement_disk", "mb");
 
     private final Predicate<IScheduledTask> isIdleTask = new Predicate<IScheduledTask>() {
       @Override public boolean apply(IScheduledTask task) {
@@ -128,6 +140,7 @@ public interface Preemptor {
     };
 
     private final Storage storage;
+    private final PreemptionCandidates candidates;
     private final SchedulerCore scheduler;
     private final OfferQueue offerQueue;
     private final SchedulingFilter schedulingFilter;
@@ -138,6 +151,7 @@ public interface Preemptor {
      * Creates a new preemptor.
      *
      * @param storage Backing store for tasks.
+     * @param candidates Index of the tasks that may be preempted.
      * @param scheduler Scheduler to fetch task information from, and instruct when preempting
      *                  tasks.
      * @param offerQueue Queue that contains available Mesos resource offers.
@@ -149,6 +163,7 @@ public interface Preemptor {
     @Inject
     PreemptorImpl(
         Storage storage,
+        PreemptionCandidates candidates,
         SchedulerCore scheduler,
         OfferQueue offerQueue,
         SchedulingFilter schedulingFilter,
@@ -156,6 +171,7 @@ public interface Preemptor {
         Clock clock) {
 
       this.storage = checkNotNull(storage);
+      this.candidates = checkNotNull(candidates);
       this.scheduler = checkNotNull(scheduler);
       this.offerQueue = checkNotNull(offerQueue);
       this.schedulingFilter = checkNotNull(schedulingFilter);
@@ -169,17 +185,6 @@ public interface Preemptor {
           SCHEDULED_TO_ASSIGNED));
     }
 
-    private List<IAssignedTask> fetch(Query.Builder query) {
-      return fetch(query, Predicates.<IScheduledTask>alwaysTrue());
-    }
-
-    private static final Function<IAssignedTask, String> TASK_TO_SLAVE_ID =
-        new Function<IAssignedTask, String>() {
-          @Override public String apply(IAssignedTask input) {
-            return input.getSlaveId();
-          }
-        };
-
     private static final Function<IAssignedTask, String> TASK_TO_HOST =
         new Function<IAssignedTask, String>() {
           @Override public String apply(IAssignedTask input) {
@@ -202,25 +207,20 @@ public interface Preemptor {
           }
         };
 
-    private static final Function<Offer, ResourceSlot> OFFER_TO_RESOURCE_SLOT =
-        new Function<Offer, ResourceSlot>() {
-          @Override public ResourceSlot apply(Offer offer) {
-            return ResourceSlot.from(offer);
+    private static final Function<HostOffer, ResourceSlot> OFFER_TO_RESOURCE_SLOT =
+        new Function<HostOffer, ResourceSlot>() {
+          @Override public ResourceSlot apply(HostOffer offer) {
+            return offer.getResources();
           }
         };
 
-    private static final Function<Offer, String> OFFER_TO_HOST =
-        new Function<Offer, String>() {
-          @Override public String apply(Offer offer) {
-            return offer.getHostname();
+    private static final Function<HostOffer, String> OFFER_TO_HOST =
+        new Function<HostOffer, String>() {
+          @Override public String apply(HostOffer offer) {
+            return offer.getOffer().getHostname();
           }
         };
 
-    // TODO(zmanji) Consider using Dominant Resource Fairness for ordering instead of the vector
-    // ordering
-    private static final Ordering<IAssignedTask> RESOURCE_ORDER =
-        ResourceSlot.ORDER.onResultOf(TASK_TO_RESOURCES).reverse();
-
     /**
      * Optional.absent indicates that this slave does not have enough resources to satisfy the task.
      * The empty set indicates the offers (slack) are enough.
@@ -228,8 +228,9 @@ public interface Preemptor {
      */
     private Optional<Set<IAssignedTask>> getTasksToPreempt(
         Iterable<IAssignedTask> possibleVictims,
-        Iterable<Offer> offers,
-        IAssignedTask pendingTask) {
+        Iterable<HostOffer> offers,
+        IAssignedTask pendingTask,
+        FilterProgram program) {
 
       // This enforces the precondition that all of the resources are from the same host. We need to
       // get the host for the schedulingFilter.
@@ -242,110 +243,152 @@ public interface Preemptor {
       ResourceSlot slackResources =
           ResourceSlot.sum(Iterables.transform(offers, OFFER_TO_RESOURCE_SLOT));
 
-      if (!Iterables.isEmpty(offers)) {
-        Set<SchedulingFilter.Veto> vetos = schedulingFilter.filter(
-            slackResources,
-            host,
-            pendingTask.getTask(),
-            pendingTask.getTaskId());
+      List<IAssignedTask> preemptableTasks =
+          FluentIterable.from(possibleVictims).filter(canPreempt(pendingTask)).toList();
 
-        if (vetos.isEmpty()) {
-          return Optional.<Set<IAssignedTask>>of(ImmutableSet.<IAssignedTask>of());
-        }
+      if (preemptableTasks.isEmpty() && Iterables.isEmpty(offers)) {
+        return Optional.absent();
       }
 
-      FluentIterable<IAssignedTask> preemptableTasks =
-          FluentIterable.from(possibleVictims).filter(canPreempt(pendingTask));
-
-      if (preemptableTasks.isEmpty()) {
+      // Run the filter once, with every preemptable task removed from the slave.  Vetoes that are
+      // not related to resources are unaffected by the choice of victims, so if this passes the
+      // victims may be chosen on resources alone.
+      ResourceSlot available = ResourceSlot.sum(
+          slackResources,
+          ResourceSlot.sum(Iterables.transform(preemptableTasks, TASK_TO_RESOURCES)));
+      Set<SchedulingFilter.Veto> vetos = schedulingFilter.filter(
+          available,
+          host,
+          program,
+          pendingTask.getTaskId());
+      if (!vetos.isEmpty()) {
         return Optional.absent();
       }
 
-      List<IAssignedTask> toPreemptTasks = Lists.newArrayList();
-
-      Iterable<IAssignedTask> sortedVictims = RESOURCE_ORDER.immutableSortedCopy(preemptableTasks);
-
-      for (IAssignedTask victim : sortedVictims) {
-        toPreemptTasks.add(victim);
-
-        ResourceSlot totalResource = ResourceSlot.sum(
-            ResourceSlot.sum(Iterables.transform(toPreemptTasks, TASK_TO_RESOURCES)),
-            slackResources);
-
-        Set<SchedulingFilter.Veto> vetos = schedulingFilter.filter(
-            totalResource,
-            host,
-            pendingTask.getTask(),
-            pendingTask.getTaskId());
-
-        if (vetos.isEmpty()) {
-          return Optional.<Set<IAssignedTask>>of(ImmutableSet.copyOf(toPreemptTasks));
-        }
+      Optional<List<IAssignedTask>> victims = VictimSelector.select(
+          ResourceSlot.from(pendingTask.getTask()),
+          slackResources,
+          preemptableTasks);
+      if (!victims.isPresent()) {
+        return Optional.absent();
       }
-      return Optional.absent();
+      return Optional.<Set<IAssignedTask>>of(ImmutableSet.copyOf(victims.get()));
     }
 
-    private static final Function<Offer, String> OFFER_TO_SLAVE_ID =
-        new Function<Offer, String>() {
-          @Override public String apply(Offer offer) {
-            return offer.getSlaveId().getValue();
+    private static final Function<HostOffer, String> OFFER_TO_SLAVE_ID =
+        new Function<HostOffer, String>() {
+          @Override public String apply(HostOffer offer) {
+            return offer.getOffer().getSlaveId().getValue();
           }
         };
 
-    private Multimap<String, IAssignedTask> getSlavesToActiveTasks() {
-      // Only non-pending active tasks may be preempted.
-      List<IAssignedTask> activeTasks = fetch(CANDIDATE_QUERY);
-
-      // Walk through the preemption candidates in reverse scheduling order.
-      Collections.sort(activeTasks, Tasks.SCHEDULING_ORDER.reverse());
-
-      // Group the tasks by slave id so they can be paired with offers from the same slave.
-      return Multimaps.index(activeTasks, TASK_TO_SLAVE_ID);
-    }
-
     // TODO(zmanji): Add throttling to prevent how much preemption a single task can cause over
     // time.
     // TODO(zmanji): Get the offer queue to associate a slave with a pending task.
     @Override
-    public synchronized Optional<String> findPreemptionSlotFor(String taskId) {
+    public synchronized Map<String, String> findPreemptionSlotsFor(Set<String> taskIds) {
       List<IAssignedTask> pendingTasks =
-          fetch(Query.statusScoped(PENDING).byId(taskId), isIdleTask);
+          fetch(Query.statusScoped(PENDING).byId(taskIds), isIdleTask);
 
-      // Task is no longer PENDING no need to preempt
+      // Tasks are no longer PENDING no need to preempt
       if (pendingTasks.isEmpty()) {
-        return Optional.absent();
+        return ImmutableMap.of();
       }
 
-      IAssignedTask pendingTask = Iterables.getOnlyElement(pendingTasks);
+      // Only non-pending active tasks may be preempted, these are grouped by slave in the index.
+      Set<String> candidateSlaves = candidates.getSlaves();
 
-      Multimap<String, IAssignedTask> slavesToActiveTasks = getSlavesToActiveTasks();
-
-      if (slavesToActiveTasks.isEmpty()) {
-        return Optional.absent();
+      if (candidateSlaves.isEmpty()) {
+        return ImmutableMap.of();
       }
 
       attemptedPreemptions.incrementAndGet();
 
       // Group the offers by slave id so they can be paired with active tasks from the same slave.
-      Multimap<String, Offer> slavesToOffers =
-          Multimaps.index(offerQueue.getOffers(), OFFER_TO_SLAVE_ID);
+      // Offers are dropped from the search once their resources are spoken for.
+      Multimap<String, HostOffer> slavesToOffers = ArrayListMultimap.create(
+          Multimaps.index(offerQueue.getOffers(), OFFER_TO_SLAVE_ID));
 
       Set<String> allSlaves = ImmutableSet.<String>builder()
           .addAll(slavesToOffers.keySet())
-          .addAll(slavesToActiveTasks.keySet())
+          .addAll(candidateSlaves)
           .build();
 
-      for (String slaveID : allSlaves) {
-        Optional<Set<IAssignedTask>> toPreemptTasks = getTasksToPreempt(
-            slavesToActiveTasks.get(slaveID),
-            slavesToOffers.get(slaveID),
-            pendingTask);
+      // The pending tasks share a configuration, so a slave that cannot host one of them cannot
+      // host the others either, and their scheduling requirements are compiled once.
+      FilterProgram program = FilterProgram.compile(pendingTasks.get(0).getTask());
+      Set<String> exhaustedSlaves = Sets.newHashSet();
+      Set<IAssignedTask> victims = Sets.newHashSet();
+      ImmutableMap.Builder<String, String> slots = ImmutableMap.builder();
+      try {
+        for (IAssignedTask pendingTask : pendingTasks) {
+          int preempted = victims.size();
+          Optional<String> slot = findSlot(
+              pendingTask,
+              program,
+              allSlaves,
+              slavesToOffers,
+              exhaustedSlaves,
+              victims);
+          if (!slot.isPresent()) {
+            noSlotsFound.incrementAndGet();
+            break;
+          }
+          // A task that fits in slack resources did not free anything that needs protecting.
+          if (victims.size() > preempted) {
+            slots.put(pendingTask.getTaskId(), slot.get());
+          }
+        }
+      } finally {
+        searchVictims.accumulate(victims.size());
+      }
+      return slots.build();
+    }
+
+    private void recordPlacement(Set<IAssignedTask> victims) {
+      ResourceBag preempted =
+          ResourceSlot.sum(Iterables.transform(victims, TASK_TO_RESOURCES)).getResources();
+      placementVictims.accumulate(victims.size());
+      placementCpu.accumulate(Math.round(preempted.getNumCpus() * 1000));
+      placementRam.accumulate(preempted.getRamMb());
+      placementDisk.accumulate(preempted.getDiskMb());
+    }
+
+    private Optional<String> findSlot(
+        IAssignedTask pendingTask,
+        FilterProgram program,
+        Set<String> slaves,
+        Multimap<String, HostOffer> slavesToOffers,
+        Set<String> exhaustedSlaves,
+        Set<IAssignedTask> victims) {
+
+      for (String slaveID : slaves) {
+        if (exhaustedSlaves.contains(slaveID)) {
+          continue;
+        }
+
+        // Victims chosen earlier in the search are already committed to other pending tasks.
+        List<IAssignedTask> possibleVictims = FluentIterable.from(candidates.getCandidates(slaveID))
+            .filter(Predicates.not(Predicates.in(victims)))
+            .toList();
+        Collection<HostOffer> offers = slavesToOffers.get(slaveID);
+        Optional<Set<IAssignedTask>> toPreemptTasks = Optional.absent();
+        if (!possibleVictims.isEmpty() || !offers.isEmpty()) {
+          toPreemptTasks = getTasksToPreempt(possibleVictims, offers, pendingTask, program);
+        }
 
         if (toPreemptTasks.isPresent()) {
           try {
             for (IAssignedTask toPreempt : toPreemptTasks.get()) {
               scheduler.preemptTask(toPreempt, pendingTask);
               tasksPreempted.incrementAndGet();
+              victims.add(toPreempt);
+            }
+            slavesToOffers.removeAll(slaveID);
+            if (toPreemptTasks.get().isEmpty()) {
+              placementsWithoutVictims.incrementAndGet();
+            } else {
+              recordPlacement(toPreemptTasks.get());
             }
             return Optional.of(slaveID);
           } catch (ScheduleException e) {
@@ -353,9 +396,9 @@ public interface Preemptor {
             failedPreemptions.incrementAndGet();
           }
         }
+        exhaustedSlaves.add(slaveID);
       }
 
-      noSlotsFound.incrementAndGet();
       return Optional.absent();
     }
 
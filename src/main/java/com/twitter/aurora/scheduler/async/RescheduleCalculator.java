@@ -18,6 +18,7 @@ package com.twitter.aurora.scheduler.async;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 import javax.inject.Inject;
@@ -27,18 +28,26 @@ import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.eventbus.Subscribe;
 
 import com.twitter.aurora.gen.ScheduleStatus;
 import com.twitter.aurora.scheduler.base.Query;
 import com.twitter.aurora.scheduler.base.Tasks;
+import com.twitter.aurora.scheduler.events.PubsubEvent.EventSubscriber;
+import com.twitter.aurora.scheduler.events.PubsubEvent.TaskStateChange;
 import com.twitter.aurora.scheduler.storage.Storage;
+import com.twitter.aurora.scheduler.storage.entities.IJobKey;
 import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
 import com.twitter.aurora.scheduler.storage.entities.ITaskEvent;
+import com.twitter.common.collections.Pair;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
+import com.twitter.common.stats.Stats;
 import com.twitter.common.util.BackoffStrategy;
 import com.twitter.common.util.Clock;
 import com.twitter.common.util.Random;
@@ -68,15 +77,29 @@ interface RescheduleCalculator {
    */
   long getReadyTimeMs(IScheduledTask task);
 
-  class RescheduleCalculatorImpl implements RescheduleCalculator {
+  /**
+   * A reschedule calculator that remembers the flapping penalty of the most recently terminated
+   * task of each instance.  Penalties are recorded from task state changes, so the penalty of a
+   * rescheduled task is usually found without walking its ancestors in storage.
+   */
+  class RescheduleCalculatorImpl implements RescheduleCalculator, EventSubscriber {
 
     private static final Logger LOG = Logger.getLogger(TaskGroups.class.getName());
 
+    private static final int MAX_TRACKED_INSTANCES = 100000;
+
     private final Storage storage;
     private final RescheduleCalculatorSettings settings;
     private final Clock clock;
     private final Random random = new Random.SystemRandom(new java.util.Random());
 
+    private final Cache<Pair<IJobKey, Integer>, FlapPenalty> penalties = CacheBuilder.newBuilder()
+        .maximumSize(MAX_TRACKED_INSTANCES)
+        .build();
+
+    private final AtomicLong penaltyHits = Stats.exportLong("reschedule_flap_penalty_hits");
+    private final AtomicLong penaltyMisses = Stats.exportLong("reschedule_flap_penalty_misses");
+
     private static final Predicate<ScheduleStatus> IS_ACTIVE_STATUS =
         Predicates.in(Tasks.ACTIVE_STATES);
 
@@ -167,7 +190,54 @@ interface RescheduleCalculator {
       return Optional.fromNullable(Iterables.getOnlyElement(res, null));
     }
 
+    private static Pair<IJobKey, Integer> instanceKey(IScheduledTask task) {
+      return Pair.of(
+          Tasks.SCHEDULED_TO_JOB_KEY.apply(task),
+          task.getAssignedTask().getInstanceId());
+    }
+
+    /**
+     * Records the flapping penalty that a reschedule of a terminated task would incur.
+     *
+     * @param stateChange State change notification.
+     */
+    @Subscribe
+    public void taskChangedState(TaskStateChange stateChange) {
+      if (!Tasks.isTerminated(stateChange.getNewState())) {
+        return;
+      }
+
+      IScheduledTask task = stateChange.getTask();
+      long penaltyMs = flapped.apply(task)
+          ? settings.flappingTaskBackoff.calculateBackoffMs(getFlappingPenaltyMs(task))
+          : 0;
+      penalties.put(instanceKey(task), new FlapPenalty(Tasks.id(task), penaltyMs));
+    }
+
+    private long getFlappingPenaltyMs(IScheduledTask task) {
+      if (!task.isSetAncestorId()) {
+        return 0;
+      }
+
+      FlapPenalty recorded = penalties.getIfPresent(instanceKey(task));
+      if ((recorded != null) && recorded.taskId.equals(task.getAncestorId())) {
+        penaltyHits.incrementAndGet();
+        if (recorded.penaltyMs > 0) {
+          LOG.info(String.format("Ancestor of %s flapped: %s", Tasks.id(task), recorded.taskId));
+        }
+        return recorded.penaltyMs;
+      }
+
+      // The ancestor terminated before this scheduler started, or its record was evicted.
+      penaltyMisses.incrementAndGet();
+      return walkAncestors(task);
+    }
+
     private long getTaskReadyTimestamp(IScheduledTask task) {
+      return getFlappingPenaltyMs(task) + clock.nowMillis();
+    }
+
+    private long walkAncestors(IScheduledTask task) {
       Optional<IScheduledTask> curTask = getTaskAncestor(task);
       long penaltyMs = 0;
       while (curTask.isPresent() && flapped.apply(curTask.get())) {
@@ -182,7 +252,17 @@ interface RescheduleCalculator {
         curTask = getTaskAncestor(curTask.get());
       }
 
-      return penaltyMs + clock.nowMillis();
+      return penaltyMs;
+    }
+
+    private static final class FlapPenalty {
+      private final String taskId;
+      private final long penaltyMs;
+
+      FlapPenalty(String taskId, long penaltyMs) {
+        this.taskId = taskId;
+        this.penaltyMs = penaltyMs;
+      }
     }
   }
 }
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.async;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Queue;
+import java.util.Set;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.Sets;
+
+import com.twitter.aurora.scheduler.async.TaskGroups.GroupKey;
+import com.twitter.aurora.scheduler.storage.entities.ITaskConfig;
+
+/**
+ * A queue of task groups that are ready to be scheduled.
+ * <p>
+ * Groups are served by tier, where production groups precede non-production groups and higher
+ * priorities precede lower priorities within each.  Within a tier, roles are served round-robin
+ * so that a role with many ready groups cannot monopolize the scheduling budget.
+ */
+class SchedulingQueue {
+
+  // Tiers are ordered so that the first tier is the one to be served first.
+  private final NavigableMap<Tier, Map<String, Queue<TaskGroup>>> tiers =
+      Maps.newTreeMap(Tier.SERVICE_ORDER);
+  private final Set<GroupKey> queued = Sets.newHashSet();
+
+  /**
+   * Adds a group to the queue.
+   *
+   * @param group Group to add.
+   * @return {@code true} if the group was added, {@code false} if it was already queued.
+   */
+  synchronized boolean offer(TaskGroup group) {
+    if (!queued.add(group.getKey())) {
+      return false;
+    }
+
+    ITaskConfig task = group.getKey().getCanonicalTask();
+    Tier tier = Tier.of(task);
+    Map<String, Queue<TaskGroup>> roles = tiers.get(tier);
+    if (roles == null) {
+      // Roles are kept in the order they are to be served.
+      roles = Maps.newLinkedHashMap();
+      tiers.put(tier, roles);
+    }
+    String role = task.getOwner().getRole();
+    Queue<TaskGroup> groups = roles.get(role);
+    if (groups == null) {
+      groups = Lists.newLinkedList();
+      roles.put(role, groups);
+    }
+    groups.add(group);
+    return true;
+  }
+
+  /**
+   * Removes the next group to be served.
+   *
+   * @return The next group, or absent if the queue is empty.
+   */
+  synchronized Optional<TaskGroup> poll() {
+    if (tiers.isEmpty()) {
+      return Optional.absent();
+    }
+
+    Map.Entry<Tier, Map<String, Queue<TaskGroup>>> tier = tiers.firstEntry();
+    Map<String, Queue<TaskGroup>> roles = tier.getValue();
+    Iterator<Map.Entry<String, Queue<TaskGroup>>> roleIterator = roles.entrySet().iterator();
+    Map.Entry<String, Queue<TaskGroup>> role = roleIterator.next();
+    TaskGroup group = role.getValue().remove();
+
+    // Move the role to the back of the line, or drop it if it has nothing left to serve.
+    roleIterator.remove();
+    if (!role.getValue().isEmpty()) {
+      roles.put(role.getKey(), role.getValue());
+    }
+    if (roles.isEmpty()) {
+      tiers.remove(tier.getKey());
+    }
+
+    queued.remove(group.getKey());
+    return Optional.of(group);
+  }
+
+  synchronized int size() {
+    return queued.size();
+  }
+
+  private static final class Tier {
+    private static final Ordering<Tier> SERVICE_ORDER = new Ordering<Tier>() {
+      @Override public int compare(Tier a, Tier b) {
+        if (a.production != b.production) {
+          return a.production ? -1 : 1;
+        }
+        return Integer.compare(b.priority, a.priority);
+      }
+    };
+
+    private final boolean production;
+    private final int priority;
+
+    private Tier(boolean production, int priority) {
+      this.production = production;
+      this.priority = priority;
+    }
+
+    static Tier of(ITaskConfig task) {
+      return new Tier(task.isProduction(), task.getPriority());
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(production, priority);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Tier)) {
+        return false;
+      }
+      Tier other = (Tier) o;
+      return (production == other.production) && (priority == other.priority);
+    }
+  }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.async;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import javax.inject.Inject;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.RateLimiter;
+
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.stats.SlidingStats;
+import com.twitter.common.stats.StatImpl;
+import com.twitter.common.stats.Stats;
+import com.twitter.common.util.Clock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Adapts the rate at which tasks are scheduled to the health of storage.
+ * <p>
+ * Each scheduling attempt reports how long its storage write waited for the storage lock and how
+ * long the write took to commit once the scheduling work completed.  Lock waits grow when other
+ * writers, such as status updates, are backlogged, while commit time reflects the latency of the
+ * replicated log.  When either exceeds a target, the rate is cut in half.  Otherwise the rate is
+ * raised in small steps from its initial value, up to a ceiling.  At most one adjustment is made
+ * per interval, giving each adjustment time to take effect.
+ */
+class SchedulingRateController {
+
+  private static final Logger LOG = Logger.getLogger(SchedulingRateController.class.getName());
+
+  @VisibleForTesting
+  static final Amount<Long, Time> ADJUSTMENT_INTERVAL = Amount.of(1L, Time.SECONDS);
+
+  // Weight given to each new sample in the latency moving averages.
+  private static final double SMOOTHING = 0.2;
+  private static final double DECREASE_FACTOR = 0.5;
+  // Number of increases to climb from the floor to the ceiling.
+  private static final int INCREASE_STEPS = 20;
+  // The floor, as a fraction of the ceiling.
+  private static final double MIN_RATE_FRACTION = 0.05;
+
+  private final RateLimiter rateLimiter;
+  private final double maxRate;
+  private final double minRate;
+  private final double increment;
+  private final long latencyTargetNanos;
+  private final Clock clock;
+
+  private final SlidingStats lockWaits = new SlidingStats("schedule_attempt_lock_wait", "nanos");
+  private final SlidingStats commits = new SlidingStats("schedule_attempt_commit", "nanos");
+  private final AtomicLong increases = Stats.exportLong("schedule_rate_increases");
+  private final AtomicLong lockWaitDecreases =
+      Stats.exportLong("schedule_rate_decreases_storage_contention");
+  private final AtomicLong commitDecreases =
+      Stats.exportLong("schedule_rate_decreases_log_latency");
+
+  // Guarded by this.
+  private double averageLockWaitNanos = 0;
+  private double averageCommitNanos = 0;
+  private long lastAdjustmentMs;
+
+  static class RateControlSettings {
+    private final RateLimiter rateLimiter;
+    private final double initialRate;
+    private final double maxRate;
+    private final Amount<Long, Time> latencyTarget;
+
+    /**
+     * Creates settings for rate control.
+     *
+     * @param rateLimiter Rate limiter applied to scheduling, which will be adjusted.
+     * @param initialRate Scheduling rate to start at, in tasks per second.
+     * @param maxRate Ceiling for the scheduling rate, in tasks per second.
+     * @param latencyTarget Storage lock wait and commit latency above which the rate is reduced.
+     */
+    RateControlSettings(
+        RateLimiter rateLimiter,
+        double initialRate,
+        double maxRate,
+        Amount<Long, Time> latencyTarget) {
+
+      this.rateLimiter = checkNotNull(rateLimiter);
+      checkArgument(initialRate > 0);
+      checkArgument(maxRate >= initialRate);
+      this.initialRate = initialRate;
+      this.maxRate = maxRate;
+      this.latencyTarget = checkNotNull(latencyTarget);
+    }
+  }
+
+  @Inject
+  SchedulingRateController(RateControlSettings settings, Clock clock) {
+    this.rateLimiter = settings.rateLimiter;
+    this.maxRate = settings.maxRate;
+    this.minRate = maxRate * MIN_RATE_FRACTION;
+    this.increment = (maxRate - minRate) / INCREASE_STEPS;
+    this.latencyTargetNanos = settings.latencyTarget.as(Time.NANOSECONDS);
+    this.clock = checkNotNull(clock);
+    this.lastAdjustmentMs = clock.nowMillis();
+
+    rateLimiter.setRate(settings.initialRate);
+    Stats.export(new StatImpl<Double>("schedule_rate_limit") {
+      @Override public Double read() {
+        return rateLimiter.getRate();
+      }
+    });
+  }
+
+  /**
+   * Records the timing of a scheduling storage write, possibly adjusting the scheduling rate.
+   *
+   * @param lockWaitNanos Time spent waiting to begin the write.
+   * @param commitNanos Time spent committing the write after the scheduling work completed.
+   */
+  synchronized void recordWrite(long lockWaitNanos, long commitNanos) {
+    lockWaits.accumulate(lockWaitNanos);
+    commits.accumulate(commitNanos);
+    averageLockWaitNanos += SMOOTHING * (lockWaitNanos - averageLockWaitNanos);
+    averageCommitNanos += SMOOTHING * (commitNanos - averageCommitNanos);
+
+    long nowMs = clock.nowMillis();
+    if ((nowMs - lastAdjustmentMs) < ADJUSTMENT_INTERVAL.as(Time.MILLISECONDS)) {
+      return;
+    }
+
+    double rate = rateLimiter.getRate();
+    if (averageCommitNanos > latencyTargetNanos) {
+      commitDecreases.incrementAndGet();
+      adjust(nowMs, Math.max(minRate, rate * DECREASE_FACTOR), "log commit latency");
+    } else if (averageLockWaitNanos > latencyTargetNanos) {
+      lockWaitDecreases.incrementAndGet();
+      adjust(nowMs, Math.max(minRate, rate * DECREASE_FACTOR), "storage lock contention");
+    } else if (rate < maxRate) {
+      increases.incrementAndGet();
+      adjust(nowMs, Math.min(maxRate, rate + increment), "healthy storage");
+    }
+  }
+
+  private void adjust(long nowMs, double rate, String reason) {
+    LOG.fine(String.format("Adjusting scheduling rate to %.2f/s due to %s (lock wait %d ms,"
+        + " commit %d ms).",
+        rate,
+        reason,
+        TimeUnit.NANOSECONDS.toMillis((long) averageLockWaitNanos),
+        TimeUnit.NANOSECONDS.toMillis((long) averageCommitNanos)));
+    rateLimiter.setRate(rate);
+    lastAdjustmentMs = nowMs;
+  }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.async;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import javax.inject.Inject;
+
+import com.google.common.collect.Maps;
+import com.google.inject.BindingAnnotation;
+
+import com.twitter.aurora.scheduler.async.TaskGroups.GroupKey;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.stats.StatImpl;
+import com.twitter.common.stats.Stats;
+import com.twitter.common.util.Clock;
+
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.PARAMETER;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Short-lived reservations of slaves where tasks were preempted, on behalf of the task group that
+ * triggered the preemption.
+ * <p>
+ * While a slave is reserved, only tasks from the reserving group may be launched there.  This
+ * keeps other pending tasks from claiming the freed resources before the preempting task does.
+ * A reservation holds one slot for each task that preempted on the slave.  A slot is released
+ * when a task from the group launches on the slave, and any remaining slots are released when
+ * the reservation expires.
+ */
+class SlotReservations {
+
+  private static final Logger LOG = Logger.getLogger(SlotReservations.class.getName());
+
+  /**
+   * Binding annotation for the amount of time a slave remains reserved after preemption.
+   */
+  @BindingAnnotation
+  @Target({ FIELD, PARAMETER, METHOD }) @Retention(RUNTIME)
+  @interface ReservationDuration { }
+
+  private final long durationMs;
+  private final Clock clock;
+
+  // Reservations by slave ID, guarded by this object's monitor.  Since every reservation lasts for
+  // the same duration, keeping reservations in the order they were made also orders them by
+  // expiration, and expired reservations are always found at the head.
+  private final Map<String, Reservation> reservations = Maps.newLinkedHashMap();
+
+  private final AtomicLong reservationsCreated =
+      Stats.exportLong("preemptor_reservations_created");
+  private final AtomicLong reservationsFulfilled =
+      Stats.exportLong("preemptor_reservations_fulfilled");
+  // Reserved slots that expired or were replaced before the reserving group launched on the
+  // slave, meaning the preemption did not benefit the task that caused it.
+  private final AtomicLong wastedPreemptions = Stats.exportLong("preemptor_wasted_preemptions");
+
+  @Inject
+  SlotReservations(@ReservationDuration Amount<Long, Time> duration, Clock clock) {
+    this.durationMs = duration.as(Time.MILLISECONDS);
+    this.clock = checkNotNull(clock);
+
+    Stats.export(new StatImpl<Integer>("preemptor_reservations_active") {
+      @Override public Integer read() {
+        return size();
+      }
+    });
+  }
+
+  private synchronized int size() {
+    expire();
+    return reservations.size();
+  }
+
+  private void expire() {
+    long nowMs = clock.nowMillis();
+    Iterator<Map.Entry<String, Reservation>> iterator = reservations.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<String, Reservation> entry = iterator.next();
+      if (entry.getValue().expirationMs > nowMs) {
+        break;
+      }
+      LOG.info("Reservation of " + entry.getKey() + " for " + entry.getValue().group
+          + " expired.");
+      iterator.remove();
+      wastedPreemptions.addAndGet(entry.getValue().slots);
+    }
+  }
+
+  /**
+   * Reserves slots on a slave for a task group.  Slots are added to an existing reservation for
+   * the same group, and replace a reservation for any other group.
+   *
+   * @param slaveId Slave to reserve.
+   * @param group Group to reserve the slave for.
+   * @param slots Number of the group's tasks that preempted on the slave.
+   */
+  synchronized void reserve(String slaveId, GroupKey group, int slots) {
+    checkArgument(slots > 0);
+    expire();
+    int reserved = slots;
+    // The reservation is removed and re-added so that it moves to the tail of the expiration order.
+    Reservation existing = reservations.remove(slaveId);
+    if (existing != null) {
+      if (existing.group.equals(group)) {
+        reserved += existing.slots;
+      } else {
+        LOG.info("Reservation of " + slaveId + " for " + existing.group + " replaced by "
+            + group + ".");
+        wastedPreemptions.addAndGet(existing.slots);
+      }
+    }
+    reservations.put(slaveId, new Reservation(group, reserved, clock.nowMillis() + durationMs));
+    reservationsCreated.addAndGet(slots);
+  }
+
+  /**
+   * Checks whether a task may be launched on a slave.
+   *
+   * @param slaveId Slave the task would be launched on.
+   * @param group Group of the task.
+   * @return {@code true} if the slave is not reserved, or is reserved for the task's group.
+   */
+  synchronized boolean canUse(String slaveId, GroupKey group) {
+    if (reservations.isEmpty()) {
+      return true;
+    }
+    expire();
+    Reservation reservation = reservations.get(slaveId);
+    return (reservation == null) || reservation.group.equals(group);
+  }
+
+  /**
+   * Notifies that a task was launched on a slave, releasing a slot if the slave was reserved for
+   * the task's group.
+   *
+   * @param slaveId Slave the task was launched on.
+   * @param group Group of the task.
+   */
+  synchronized void launched(String slaveId, GroupKey group) {
+    Reservation reservation = reservations.get(slaveId);
+    if ((reservation != null) && reservation.group.equals(group)) {
+      reservation.slots--;
+      if (reservation.slots == 0) {
+        reservations.remove(slaveId);
+      }
+      reservationsFulfilled.incrementAndGet();
+    }
+  }
+
+  private static final class Reservation {
+    private final GroupKey group;
+    private final long expirationMs;
+    private int slots;
+
+    Reservation(GroupKey group, int slots, long expirationMs) {
+      this.group = group;
+      this.slots = slots;
+      this.expirationMs = expirationMs;
+    }
+  }
+}
@@ -15,16 +15,17 @@
  */
 package com.twitter.aurora.scheduler.async;
 
-import java.util.Queue;
+import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Set;
-import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.atomic.AtomicLong;
 
 import com.google.common.base.Preconditions;
-import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
+import com.google.common.collect.Sets;
 
 import com.twitter.aurora.scheduler.async.TaskGroups.GroupKey;
 import com.twitter.common.base.Function;
@@ -43,10 +44,21 @@ class TaskGroup {
     }
   };
 
-  // Order the tasks by the time they are ready to be scheduled
-  private static final Ordering<Task> TASK_ORDERING = Ordering.natural().onResultOf(TO_TIMESTAMP);
-  // 11 is the magic number used by PriorityBlockingQueue as the initial size.
-  private final Queue<Task> tasks = new PriorityBlockingQueue<>(11, TASK_ORDERING);
+  private static final Function<Task, String> TO_TASK_ID =
+      new Function<Task, String>() {
+        @Override public String apply(Task item) {
+          return item.taskId;
+        }
+      };
+
+  // Order the tasks by the time they are ready to be scheduled, breaking ties by task ID so that
+  // distinct tasks never compare as equal.
+  private static final Ordering<Task> TASK_ORDERING = Ordering.natural().onResultOf(TO_TIMESTAMP)
+      .compound(Ordering.natural().onResultOf(TO_TASK_ID));
+  // Tasks in ready order, indexed by task ID to allow removal in logarithmic time.  Both are
+  // guarded by this group's monitor.
+  private final NavigableSet<Task> tasks = Sets.newTreeSet(TASK_ORDERING);
+  private final Map<String, Task> tasksById = Maps.newHashMap();
   // Penalty for the task group for failing to schedule.
   private final AtomicLong penaltyMs;
 
@@ -61,31 +73,56 @@ class TaskGroup {
     return key;
   }
 
-  private static final Function<Task, String> TO_TASK_ID =
-      new Function<Task, String>() {
-        @Override public String apply(Task item) {
-          return item.taskId;
-        }
-      };
+  /**
+   * Removes the tasks at the head of the queue that are ready to be scheduled.
+   *
+   * @param nowMs The current time.
+   * @param maxTasks Maximum number of tasks to remove.
+   * @return The ids of the removed tasks, in the order they became ready.  Empty if no tasks are
+   *     ready, which may happen if tasks were removed since the group was found to be ready.
+   */
+  synchronized Set<String> popReady(long nowMs, int maxTasks) {
+    ImmutableSet.Builder<String> ready = ImmutableSet.builder();
+    for (int i = 0; i < maxTasks; i++) {
+      Task head = tasks.isEmpty() ? null : tasks.first();
+      if ((head == null) || (head.readyTimestampMs > nowMs)) {
+        break;
+      }
+      tasks.pollFirst();
+      tasksById.remove(head.taskId);
+      ready.add(head.taskId);
+    }
+    return ready.build();
+  }
+
+  synchronized void remove(String taskId) {
+    Task task = tasksById.remove(taskId);
+    if (task != null) {
+      tasks.remove(task);
+    }
+  }
 
   /**
-   * Removes the task at the head of the queue.
+   * Removes tasks from the group in a single pass.
    *
-   * @return String the id of the head task.
-   * @throws IllegalStateException if the queue is empty.
+   * @param taskIds IDs of the tasks to remove.  IDs of tasks not in the group are ignored.
    */
-  String pop() throws IllegalStateException {
-    Task head = tasks.poll();
-    Preconditions.checkState(head != null);
-    return head.taskId;
+  synchronized void removeAll(Iterable<String> taskIds) {
+    for (String taskId : taskIds) {
+      remove(taskId);
+    }
   }
 
-  void remove(String taskId) {
-    Iterables.removeIf(tasks, Predicates.compose(Predicates.equalTo(taskId), TO_TASK_ID));
+  synchronized void push(final String taskId, long readyTimestamp) {
+    // Replace any existing entry for the task, so that it is only held once.
+    remove(taskId);
+    Task task = new Task(taskId, readyTimestamp);
+    tasks.add(task);
+    tasksById.put(taskId, task);
   }
 
-  void push(final String taskId, long readyTimestamp) {
-    tasks.offer(new Task(taskId, readyTimestamp));
+  synchronized boolean isEmpty() {
+    return tasks.isEmpty();
   }
 
   synchronized long resetPenaltyAndGet() {
@@ -98,8 +135,8 @@ class TaskGroup {
     return getPenaltyMs();
   }
 
-  GroupState isReady(long nowMs) {
-    Task task = tasks.peek();
+  synchronized GroupState isReady(long nowMs) {
+    Task task = tasks.isEmpty() ? null : tasks.first();
     if (task == null) {
       return GroupState.EMPTY;
     }
@@ -116,7 +153,7 @@ class TaskGroup {
   }
 
   // TODO(zmanji): Return Task instances here. Can use them to display flapping penalty on web UI.
-  public Set<String> getTaskIds() {
+  public synchronized Set<String> getTaskIds() {
     return ImmutableSet.copyOf(Iterables.transform(tasks, TO_TASK_ID));
   }
 
@@ -15,19 +15,29 @@
  */
 package com.twitter.aurora.scheduler.async;
 
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 import javax.inject.Inject;
 
 import com.google.common.base.Objects;
+import com.google.common.base.Optional;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.HashMultiset;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Sets;
 import com.google.common.eventbus.Subscribe;
 import com.google.common.util.concurrent.RateLimiter;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
@@ -47,11 +57,13 @@ import com.twitter.common.application.ShutdownRegistry;
 import com.twitter.common.base.Command;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
+import com.twitter.common.stats.StatImpl;
 import com.twitter.common.stats.Stats;
 import com.twitter.common.util.BackoffStrategy;
 import com.twitter.common.util.Clock;
 import com.twitter.common.util.concurrent.ExecutorServiceShutdown;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import static com.twitter.aurora.gen.ScheduleStatus.PENDING;
@@ -65,6 +77,9 @@ import static com.twitter.aurora.scheduler.async.TaskGroup.GroupState;
  * This is used to prevent redundant work in trying to schedule tasks as well as to provide
  * nearly-equal responsiveness when scheduling across jobs.  In other words, a 1000 instance job
  * cannot starve a 1 instance job.
+ * <p>
+ * Groups whose backoff has expired are attempted in the order defined by {@link SchedulingQueue},
+ * so that production and high priority groups are not stuck behind a backlog of lower tiers.
  */
 public class TaskGroups implements EventSubscriber {
 
@@ -75,14 +90,35 @@ public class TaskGroups implements EventSubscriber {
   private final Clock clock;
   private final RescheduleCalculator rescheduleCalculator;
   private final Preemptor preemptor;
+  private final SlotReservations reservations;
+  private final ScheduledExecutorService executor;
+  private final int maxTasksPerAttempt;
+  private final SchedulingAction schedulingAction;
+  private final SchedulingQueue readyGroups = new SchedulingQueue();
+
+  // Each group has at most one pending or running evaluation at a time, so scheduling work is
+  // partitioned by group and distinct groups may be evaluated in parallel.
+  private final AtomicLong activeWorkers = Stats.exportLong("schedule_workers_active");
+  private final AtomicLong workerBusyNanos = Stats.exportLong("schedule_worker_busy_nanos");
 
   static class TaskGroupsSettings {
     private final BackoffStrategy taskGroupBackoff;
     private final RateLimiter rateLimiter;
+    private final int maxTasksPerAttempt;
+    private final int schedulingThreads;
+
+    TaskGroupsSettings(
+        BackoffStrategy taskGroupBackoff,
+        RateLimiter rateLimiter,
+        int maxTasksPerAttempt,
+        int schedulingThreads) {
 
-    TaskGroupsSettings(BackoffStrategy taskGroupBackoff, RateLimiter rateLimiter) {
       this.taskGroupBackoff = checkNotNull(taskGroupBackoff);
       this.rateLimiter = checkNotNull(rateLimiter);
+      checkArgument(maxTasksPerAttempt > 0);
+      this.maxTasksPerAttempt = maxTasksPerAttempt;
+      checkArgument(schedulingThreads > 0);
+      this.schedulingThreads = schedulingThreads;
     }
   }
 
@@ -94,17 +130,20 @@ public class TaskGroups implements EventSubscriber {
       SchedulingAction schedulingAction,
       Clock clock,
       RescheduleCalculator rescheduleCalculator,
-      Preemptor preemptor) {
+      Preemptor preemptor,
+      SlotReservations reservations) {
 
     this(
-        createThreadPool(shutdownRegistry),
+        createThreadPool(shutdownRegistry, settings.schedulingThreads),
         storage,
         settings.taskGroupBackoff,
         settings.rateLimiter,
+        settings.maxTasksPerAttempt,
         schedulingAction,
         clock,
         rescheduleCalculator,
-        preemptor);
+        preemptor,
+        reservations);
   }
 
   TaskGroups(
@@ -112,24 +151,33 @@ public class TaskGroups implements EventSubscriber {
       final Storage storage,
       final BackoffStrategy taskGroupBackoffStrategy,
       final RateLimiter rateLimiter,
+      final int maxTasksPerAttempt,
       final SchedulingAction schedulingAction,
       final Clock clock,
       final RescheduleCalculator rescheduleCalculator,
-      final Preemptor preemptor) {
+      final Preemptor preemptor,
+      final SlotReservations reservations) {
 
     this.storage = checkNotNull(storage);
-    checkNotNull(executor);
+    this.executor = checkNotNull(executor);
     checkNotNull(taskGroupBackoffStrategy);
     checkNotNull(rateLimiter);
+    checkArgument(maxTasksPerAttempt > 0);
+    this.maxTasksPerAttempt = maxTasksPerAttempt;
     checkNotNull(schedulingAction);
     this.clock = checkNotNull(clock);
     this.rescheduleCalculator = checkNotNull(rescheduleCalculator);
     this.preemptor = checkNotNull(preemptor);
-
-    final SchedulingAction rateLimitedAction = new SchedulingAction() {
-      @Override public boolean schedule(String taskId) {
-        rateLimiter.acquire();
-        return schedulingAction.schedule(taskId);
+    this.reservations = checkNotNull(reservations);
+
+    this.schedulingAction = new SchedulingAction() {
+      @Override public Set<String> schedule(GroupKey group, Set<String> taskIds) {
+        // The rate limit applies to tasks rather than attempts, so that batching does not alter
+        // the effective scheduling rate.
+        if (!taskIds.isEmpty()) {
+          rateLimiter.acquire(taskIds.size());
+        }
+        return schedulingAction.schedule(group, taskIds);
       }
     };
 
@@ -137,26 +185,27 @@ public class TaskGroups implements EventSubscriber {
       @Override public TaskGroup load(GroupKey key) {
         TaskGroup group = new TaskGroup(key, taskGroupBackoffStrategy);
         LOG.info("Evaluating group " + key + " in " + group.getPenaltyMs() + " ms");
-        startGroup(group, executor, rateLimitedAction);
+        executor.schedule(monitor(group), group.getPenaltyMs(), TimeUnit.MILLISECONDS);
         return group;
       }
     });
+    Stats.export(new StatImpl<Integer>("schedule_ready_groups") {
+      @Override public Integer read() {
+        return readyGroups.size();
+      }
+    });
   }
 
   private synchronized boolean maybeInvalidate(TaskGroup group) {
-    if (group.getTaskIds().isEmpty()) {
+    if (group.isEmpty()) {
       groups.invalidate(group.getKey());
       return true;
     }
     return false;
   }
 
-  private void startGroup(
-      final TaskGroup group,
-      final ScheduledExecutorService executor,
-      final SchedulingAction action) {
-
-    Runnable monitor = new Runnable() {
+  private Runnable monitor(final TaskGroup group) {
+    return new Runnable() {
       @Override public void run() {
         GroupState state = group.isReady(clock.nowMillis());
 
@@ -166,16 +215,11 @@ public class TaskGroups implements EventSubscriber {
             break;
 
           case READY:
-            String id = group.pop();
-            if (action.schedule(id)) {
-              if (!maybeInvalidate(group)) {
-                executor.schedule(this, group.resetPenaltyAndGet(), TimeUnit.MILLISECONDS);
-              }
-            } else {
-              group.push(id, clock.nowMillis());
-              executor.schedule(this, group.penalizeAndGet(), TimeUnit.MILLISECONDS);
-              // TODO(zmanji): Use the return value in a slave <-> task matching manner
-              preemptor.findPreemptionSlotFor(id);
+            // Rather than attempting this group directly, queue it and attempt the first group in
+            // the queue.  Groups that became ready while the scheduler was busy are then served in
+            // priority order instead of the order their backoffs expired.
+            if (readyGroups.offer(group)) {
+              executor.execute(attemptNext);
             }
             break;
 
@@ -188,16 +232,68 @@ public class TaskGroups implements EventSubscriber {
         }
       }
     };
-    executor.schedule(monitor, group.getPenaltyMs(), TimeUnit.MILLISECONDS);
   }
 
-  private static ScheduledExecutorService createThreadPool(ShutdownRegistry shutdownRegistry) {
+  private final Runnable attemptNext = new Runnable() {
+    @Override public void run() {
+      Optional<TaskGroup> group = readyGroups.poll();
+      if (!group.isPresent()) {
+        return;
+      }
+
+      long start = System.nanoTime();
+      activeWorkers.incrementAndGet();
+      try {
+        attempt(group.get());
+      } finally {
+        activeWorkers.decrementAndGet();
+        workerBusyNanos.addAndGet(System.nanoTime() - start);
+      }
+    }
+  };
+
+  private void attempt(TaskGroup group) {
+    Set<String> ids = group.popReady(clock.nowMillis(), maxTasksPerAttempt);
+    if (ids.isEmpty()) {
+      // The ready tasks were removed concurrently, re-evaluate the group.
+      executor.schedule(monitor(group), group.getPenaltyMs(), TimeUnit.MILLISECONDS);
+      return;
+    }
+    Set<String> scheduled = schedulingAction.schedule(group.getKey(), ids);
+    Set<String> unscheduled = ImmutableSet.copyOf(Sets.difference(ids, scheduled));
+    for (String id : unscheduled) {
+      group.push(id, clock.nowMillis());
+    }
+
+    if (!scheduled.isEmpty()) {
+      if (!maybeInvalidate(group)) {
+        executor.schedule(monitor(group), group.resetPenaltyAndGet(), TimeUnit.MILLISECONDS);
+      }
+    } else {
+      executor.schedule(monitor(group), group.penalizeAndGet(), TimeUnit.MILLISECONDS);
+      if (!unscheduled.isEmpty()) {
+        // Hold the slaves where tasks were preempted for this group, so that the freed resources
+        // are not claimed by other groups first.
+        Multiset<String> slaves =
+            HashMultiset.create(preemptor.findPreemptionSlotsFor(unscheduled).values());
+        for (Multiset.Entry<String> slave : slaves.entrySet()) {
+          reservations.reserve(slave.getElement(), group.getKey(), slave.getCount());
+        }
+      }
+    }
+  }
+
+  private static ScheduledExecutorService createThreadPool(
+      ShutdownRegistry shutdownRegistry,
+      int schedulingThreads) {
+
     // TODO(William Farner): Leverage ExceptionHandlingScheduledExecutorService:
     // com.twitter.common.util.concurrent.ExceptionHandlingScheduledExecutorService
     final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(
-        1,
+        schedulingThreads,
         new ThreadFactoryBuilder().setDaemon(true).setNameFormat("TaskScheduler-%d").build());
     Stats.exportSize("schedule_queue_size", executor.getQueue());
+    Stats.exportLong("schedule_worker_threads").set(schedulingThreads);
     shutdownRegistry.addAction(new Command() {
       @Override public void execute() {
         new ExecutorServiceShutdown(executor, Amount.of(1L, Time.SECONDS)).execute();
@@ -251,11 +347,17 @@ public class TaskGroups implements EventSubscriber {
    */
   @Subscribe
   public synchronized void tasksDeleted(TasksDeleted deleted) {
+    // Collect the deleted tasks by group, so that each group is updated in a single pass.
+    Multimap<GroupKey, String> byGroup = HashMultimap.create();
     for (IAssignedTask task
         : Iterables.transform(deleted.getTasks(), Tasks.SCHEDULED_TO_ASSIGNED)) {
-      TaskGroup group = groups.getIfPresent(new GroupKey(task.getTask()));
+      byGroup.put(new GroupKey(task.getTask()), task.getTaskId());
+    }
+
+    for (Map.Entry<GroupKey, Collection<String>> entry : byGroup.asMap().entrySet()) {
+      TaskGroup group = groups.getIfPresent(entry.getKey());
       if (group != null) {
-        group.remove(task.getTaskId());
+        group.removeAll(entry.getValue());
       }
     }
   }
@@ -266,23 +368,34 @@ public class TaskGroups implements EventSubscriber {
 
   static class GroupKey {
     private final ITaskConfig canonicalTask;
+    // Comparing task configurations is a deep operation, so the hash is computed once and used to
+    // short-circuit comparisons of keys for different groups.
+    private final int hash;
 
     GroupKey(ITaskConfig task) {
       this.canonicalTask = task;
+      this.hash = Objects.hashCode(canonicalTask);
+    }
+
+    ITaskConfig getCanonicalTask() {
+      return canonicalTask;
     }
 
     @Override
     public int hashCode() {
-      return Objects.hashCode(canonicalTask);
+      return hash;
     }
 
     @Override
     public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
       if (!(o instanceof GroupKey)) {
         return false;
       }
       GroupKey other = (GroupKey) o;
-      return Objects.equal(canonicalTask, other.canonicalTask);
+      return (hash == other.hash) && Objects.equal(canonicalTask, other.canonicalTask);
     }
 
     @Override
@@ -293,11 +406,14 @@ public class TaskGroups implements EventSubscriber {
 
   interface SchedulingAction {
     /**
-     * Attempts to schedule a task, possibly performing irreversible actions.
+     * Attempts to schedule tasks, possibly performing irreversible actions.  Tasks should be
+     * attempted in iteration order.
      *
-     * @param taskId The task to attempt to schedule.
-     * @return {@code true} if the task was scheduled, {@code false} otherwise.
+     * @param group The group that all of the tasks belong to.
+     * @param taskIds The tasks to attempt to schedule.
+     * @return The tasks that no longer need to be scheduled, including those that were scheduled.
+     *     Any other tasks should be retried.
      */
-    boolean schedule(String taskId);
+    Set<String> schedule(GroupKey group, Set<String> taskIds);
   }
 }
@@ -15,6 +15,9 @@
  */
 package com.twitter.aurora.scheduler.async;
 
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -22,23 +25,39 @@ import java.util.logging.Logger;
 import javax.inject.Inject;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.base.Function;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 import org.apache.mesos.Protos.Offer;
 import org.apache.mesos.Protos.TaskInfo;
 
+import com.twitter.aurora.scheduler.HostOffer;
+import com.twitter.aurora.scheduler.ResourceSlot;
+import com.twitter.aurora.scheduler.async.OfferQueue.ClaimedOffer;
+import com.twitter.aurora.scheduler.async.OfferQueue.OfferAcceptor;
+import com.twitter.aurora.scheduler.async.TaskGroups.GroupKey;
 import com.twitter.aurora.scheduler.async.TaskGroups.SchedulingAction;
 import com.twitter.aurora.scheduler.base.Query;
+import com.twitter.aurora.scheduler.base.Tasks;
+import com.twitter.aurora.scheduler.filter.FilterProgram;
 import com.twitter.aurora.scheduler.state.StateManager;
 import com.twitter.aurora.scheduler.state.TaskAssigner;
 import com.twitter.aurora.scheduler.storage.Storage;
 import com.twitter.aurora.scheduler.storage.Storage.MutableStoreProvider;
 import com.twitter.aurora.scheduler.storage.Storage.MutateWork;
+import com.twitter.aurora.scheduler.storage.Storage.StoreProvider;
+import com.twitter.aurora.scheduler.storage.Storage.Work;
 import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
 import com.twitter.common.inject.TimedInterceptor.Timed;
+import com.twitter.common.stats.Percentile;
+import com.twitter.common.stats.SlidingStats;
 import com.twitter.common.stats.Stats;
+import com.twitter.common.util.Clock;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -47,7 +66,17 @@ import static com.twitter.aurora.gen.ScheduleStatus.PENDING;
 
 /**
  * An asynchronous task scheduler.  Scheduling of tasks is performed on a delay, where each task
- * backs off after a failed scheduling attempt.
+ * backs off after a failed scheduling attempt.  Each attempt covers a batch of tasks.
+ * <p>
+ * Tasks are matched against an offer outside of any storage write, since matching only reads
+ * state, and the claim on the offer keeps concurrent attempts from matching against it.  A storage
+ * write is only taken once tasks have matched, to confirm that the offer is still held and the
+ * tasks are still pending before they are assigned and launched.
+ * <p>
+ * A batch holds ready tasks from a single task group, and only tasks in the same batch are packed
+ * into an offer.  Resources an attempt leaves unused are returned to Mesos with the launch and
+ * offered again, where tasks from other groups may use them.  The batch size therefore bounds the
+ * number of tasks launched against one offer.
  * <p>
  * Pending tasks are advertised to the scheduler via internal pubsub notifications.
  */
@@ -59,21 +88,34 @@ class TaskScheduler implements SchedulingAction {
   private final StateManager stateManager;
   private final TaskAssigner assigner;
   private final OfferQueue offerQueue;
+  private final SchedulingRateController rateController;
+  private final SlotReservations reservations;
+  private final Clock clock;
 
   private final AtomicLong scheduleAttemptsFired = Stats.exportLong("schedule_attempts_fired");
   private final AtomicLong scheduleAttemptsFailed = Stats.exportLong("schedule_attempts_failed");
+  private final AtomicLong tasksScheduled = Stats.exportLong("schedule_attempt_tasks_scheduled");
+  private final SlidingStats batchSize = new SlidingStats("schedule_attempt_batch", "tasks");
+  private final Percentile<Long> productionPendingLatency = pendingLatency("production");
+  private final Percentile<Long> nonProductionPendingLatency = pendingLatency("non_production");
 
   @Inject
   TaskScheduler(
       Storage storage,
       StateManager stateManager,
       TaskAssigner assigner,
-      OfferQueue offerQueue) {
+      OfferQueue offerQueue,
+      SchedulingRateController rateController,
+      SlotReservations reservations,
+      Clock clock) {
 
     this.storage = checkNotNull(storage);
     this.stateManager = checkNotNull(stateManager);
     this.assigner = checkNotNull(assigner);
     this.offerQueue = checkNotNull(offerQueue);
+    this.rateController = checkNotNull(rateController);
+    this.reservations = checkNotNull(reservations);
+    this.clock = checkNotNull(clock);
   }
 
   @VisibleForTesting
@@ -82,50 +124,240 @@ class TaskScheduler implements SchedulingAction {
 
   @Timed("task_schedule_attempt")
   @Override
-  public boolean schedule(final String taskId) {
+  public Set<String> schedule(GroupKey group, Set<String> taskIds) {
     scheduleAttemptsFired.incrementAndGet();
+    batchSize.accumulate(taskIds.size());
     try {
-      return storage.write(new MutateWork.Quiet<Boolean>() {
-        @Override public Boolean apply(MutableStoreProvider store) {
-          LOG.fine("Attempting to schedule task " + taskId);
-          Query.Builder pendingTaskQuery = Query.taskScoped(taskId).byStatus(PENDING);
-          final IScheduledTask task =
-              Iterables.getOnlyElement(store.getTaskStore().fetchTasks(pendingTaskQuery), null);
-          if (task == null) {
-            LOG.warning("Failed to look up task " + taskId + ", it may have been deleted.");
-          } else {
-            Function<Offer, Optional<TaskInfo>> assignment =
-                new Function<Offer, Optional<TaskInfo>>() {
-                  @Override public Optional<TaskInfo> apply(Offer offer) {
-                    return assigner.maybeAssign(offer, task);
-                  }
-                };
-            try {
-              if (!offerQueue.launchFirst(assignment)) {
-                // Task could not be scheduled.
-                return false;
-              }
-            } catch (OfferQueue.LaunchException e) {
-              LOG.log(Level.WARNING, "Failed to launch task.", e);
-              scheduleAttemptsFailed.incrementAndGet();
-
-              // The attempt to schedule the task failed, so we need to backpedal on the assignment.
-              // It is in the LOST state and a new task will move to PENDING to replace it.
-              // Should the state change fail due to storage issues, that's okay.  The task will
-              // time out in the ASSIGNED state and be moved to LOST.
-              stateManager.changeState(pendingTaskQuery, LOST, LAUNCH_FAILED_MSG);
-            }
-          }
-
-          return true;
-        }
-      });
+      return scheduleTasks(group, taskIds);
     } catch (RuntimeException e) {
       // We catch the generic unchecked exception here to ensure tasks are not abandoned
       // if there is a transient issue resulting in an unchecked exception.
       LOG.log(Level.WARNING, "Task scheduling unexpectedly failed, will be retried", e);
       scheduleAttemptsFailed.incrementAndGet();
-      return false;
+      return ImmutableSet.of();
+    }
+  }
+
+  private Set<String> scheduleTasks(GroupKey group, final Set<String> taskIds) {
+    LOG.fine("Attempting to schedule tasks " + taskIds);
+    Map<String, IScheduledTask> fetched = Tasks.mapById(storage.weaklyConsistentRead(
+        new Work.Quiet<ImmutableSet<IScheduledTask>>() {
+          @Override public ImmutableSet<IScheduledTask> apply(StoreProvider store) {
+            return store.getTaskStore().fetchTasks(Query.taskScoped(taskIds).byStatus(PENDING));
+          }
+        }));
+
+    Set<String> handled = Sets.newHashSet();
+    List<IScheduledTask> pending = Lists.newLinkedList();
+    for (String taskId : taskIds) {
+      IScheduledTask task = fetched.get(taskId);
+      if (task == null) {
+        LOG.warning("Failed to look up task " + taskId + ", it may have been deleted.");
+        handled.add(taskId);
+      } else {
+        pending.add(task);
+      }
+    }
+
+    // All tasks in the group share a configuration, so their resources and scheduling
+    // requirements are derived once from the group for the whole attempt.
+    ResourceSlot required = ResourceSlot.from(group.getCanonicalTask());
+    OfferPacker packer = new OfferPacker(
+        group,
+        required,
+        FilterProgram.compile(group.getCanonicalTask()),
+        pending,
+        handled);
+
+    // Each launch consumes a single offer, so keep launching until the tasks are exhausted
+    // or no offer will accept any of the remaining tasks.
+    while (!pending.isEmpty()) {
+      if (!offerQueue.launchFirst(required, packer)) {
+        break;
+      }
+      if (packer.isLastLaunchFailed()) {
+        scheduleAttemptsFailed.incrementAndGet();
+        break;
+      }
+      // Reservations are only released once the launch succeeded, so that a failed launch is
+      // retried with the slave still held for the group.
+      for (IScheduledTask task : packer.getLastLaunched()) {
+        reservations.launched(packer.getLastSlaveId(), group);
+        recordPendingLatency(task);
+      }
+      tasksScheduled.addAndGet(packer.getLastLaunched().size());
+    }
+
+    return handled;
+  }
+
+  private static Percentile<Long> pendingLatency(String tier) {
+    return new Percentile<Long>("schedule_pending_latency_ms_" + tier, 50d, 90d, 99d);
+  }
+
+  private void recordPendingLatency(IScheduledTask task) {
+    // The latest event of a pending task marks the time it entered the PENDING state.
+    if (task.getTaskEvents().isEmpty()) {
+      return;
+    }
+    long latencyMs = clock.nowMillis() - Iterables.getLast(task.getTaskEvents()).getTimestamp();
+    if (task.getAssignedTask().getTask().isProduction()) {
+      productionPendingLatency.record(latencyMs);
+    } else {
+      nonProductionPendingLatency.record(latencyMs);
+    }
+  }
+
+  /**
+   * Matches as many pending tasks as possible against an offer.  Resources are removed from the
+   * offer as each task is matched, so that subsequent tasks are matched against what remains.
+   * The raw offer and its parsed resources are reduced together, and the host's attributes and
+   * maintenance mode are carried along from the held offer rather than read from storage.
+   * Matched tasks are then assigned and launched within a single storage write, and moved from
+   * the pending list to the handled set.  Tasks are not matched against slaves reserved for other
+   * task groups.
+   */
+  private class OfferPacker implements OfferAcceptor {
+    private final GroupKey group;
+    private final ResourceSlot required;
+    private final FilterProgram program;
+    private final List<IScheduledTask> pending;
+    private final Set<String> handled;
+    private List<IScheduledTask> lastLaunched = ImmutableList.of();
+    private boolean lastLaunchFailed;
+    private String lastSlaveId;
+
+    OfferPacker(
+        GroupKey group,
+        ResourceSlot required,
+        FilterProgram program,
+        List<IScheduledTask> pending,
+        Set<String> handled) {
+
+      this.group = group;
+      this.required = required;
+      this.program = program;
+      this.pending = pending;
+      this.handled = handled;
+    }
+
+    List<IScheduledTask> getLastLaunched() {
+      return lastLaunched;
+    }
+
+    boolean isLastLaunchFailed() {
+      return lastLaunchFailed;
+    }
+
+    String getLastSlaveId() {
+      return lastSlaveId;
+    }
+
+    @Override public void accept(final ClaimedOffer claimed) {
+      HostOffer remaining = claimed.getOffer();
+      String slaveId = remaining.getOffer().getSlaveId().getValue();
+      lastLaunched = ImmutableList.of();
+      lastLaunchFailed = false;
+      lastSlaveId = slaveId;
+      if (!reservations.canUse(slaveId, group)) {
+        return;
+      }
+
+      final Map<String, Set<Integer>> matches = Maps.newLinkedHashMap();
+      for (IScheduledTask task : pending) {
+        Optional<Set<Integer>> ports = assigner.match(remaining, program, task);
+        if (!ports.isPresent()) {
+          // The tasks share a configuration, so the rest would be vetoed for the same reasons.
+          break;
+        }
+
+        matches.put(Tasks.id(task), ports.get());
+        remaining = remaining.subtract(required, ports.get());
+      }
+      if (matches.isEmpty()) {
+        return;
+      }
+
+      final long requestedNanos = System.nanoTime();
+      final AtomicLong startedNanos = new AtomicLong();
+      final AtomicLong finishedNanos = new AtomicLong();
+      Optional<List<IScheduledTask>> launched = storage.write(
+          new MutateWork.Quiet<Optional<List<IScheduledTask>>>() {
+            @Override public Optional<List<IScheduledTask>> apply(MutableStoreProvider store) {
+              startedNanos.set(System.nanoTime());
+              try {
+                return assignAndLaunch(store, claimed, matches);
+              } finally {
+                finishedNanos.set(System.nanoTime());
+              }
+            }
+          });
+      rateController.recordWrite(
+          startedNanos.get() - requestedNanos,
+          System.nanoTime() - finishedNanos.get());
+      if (!launched.isPresent()) {
+        // The offer was rescinded while tasks were matched against it, so the tasks remain
+        // pending for the next offer.
+        return;
+      }
+
+      // Matched tasks are a prefix of the pending list, and are handled whether they were launched
+      // or found to no longer be pending.
+      pending.subList(0, matches.size()).clear();
+      handled.addAll(matches.keySet());
+      lastLaunched = launched.get();
+    }
+
+    /**
+     * Assigns and launches the matched tasks that are still pending, provided the offer is still
+     * held.  A failed launch is handled within the same write, so that the assignments and the
+     * compensating state changes are committed together.
+     *
+     * @return The launched tasks, or absent if the offer is no longer held.
+     */
+    private Optional<List<IScheduledTask>> assignAndLaunch(
+        MutableStoreProvider store,
+        ClaimedOffer claimed,
+        Map<String, Set<Integer>> matches) {
+
+      if (!claimed.isHeld()) {
+        return Optional.absent();
+      }
+
+      Offer offer = claimed.getOffer().getOffer();
+      ImmutableList.Builder<TaskInfo> infos = ImmutableList.builder();
+      ImmutableList.Builder<IScheduledTask> assigned = ImmutableList.builder();
+      Map<String, IScheduledTask> stillPending = Tasks.mapById(store.getTaskStore().fetchTasks(
+          Query.taskScoped(matches.keySet()).byStatus(PENDING)));
+      for (Map.Entry<String, Set<Integer>> match : matches.entrySet()) {
+        IScheduledTask task = stillPending.get(match.getKey());
+        if (task != null) {
+          infos.add(assigner.assign(offer, match.getKey(), match.getValue()));
+          assigned.add(task);
+        }
+      }
+      List<IScheduledTask> tasks = assigned.build();
+      if (tasks.isEmpty()) {
+        return Optional.of(tasks);
+      }
+
+      try {
+        claimed.launch(infos.build());
+        return Optional.of(tasks);
+      } catch (OfferQueue.LaunchException e) {
+        LOG.log(Level.WARNING, "Failed to launch tasks.", e);
+        lastLaunchFailed = true;
+
+        // The attempt to schedule the tasks failed, so we need to backpedal on the assignment.
+        // They are in the LOST state and new tasks will move to PENDING to replace them.
+        // Should the state change fail due to storage issues, that's okay.  The tasks will
+        // time out in the ASSIGNED state and be moved to LOST.
+        stateManager.changeState(
+            Query.taskScoped(Tasks.ids(tasks)).byStatus(PENDING),
+            LOST,
+            LAUNCH_FAILED_MSG);
+        return Optional.<List<IScheduledTask>>of(ImmutableList.<IScheduledTask>of());
+      }
     }
   }
 }
@@ -16,25 +16,24 @@
 package com.twitter.aurora.scheduler.async;
 
 import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.inject.Inject;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.base.Function;
-import com.google.common.base.Objects;
 import com.google.common.base.Optional;
-import com.google.common.base.Predicate;
 import com.google.common.base.Supplier;
-import com.google.common.collect.Iterables;
+import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Ordering;
+import com.google.common.collect.Multimap;
 import com.google.common.eventbus.Subscribe;
 
 import com.twitter.aurora.gen.ScheduleStatus;
@@ -56,6 +55,11 @@ import static com.google.common.base.Preconditions.checkNotNull;
 /**
  * Observes task transitions and identifies tasks that are 'stuck' in a transient state.  Stuck
  * tasks will be transitioned to the LOST state.
+ * <p>
+ * All tasks share the same timeout, so tasks in a state time out in the order they entered it.
+ * Each transient state keeps its tasks in insertion order, which makes registering, canceling
+ * and finding the oldest task constant time.  A single sweep expires all timed out tasks at
+ * once, and is rescheduled for the next deadline while any tasks are being watched.
  */
 class TaskTimeout implements EventSubscriber {
   private static final Logger LOG = Logger.getLogger(TaskTimeout.class.getName());
@@ -79,37 +83,19 @@ class TaskTimeout implements EventSubscriber {
   @VisibleForTesting
   static final Query.Builder TRANSIENT_QUERY = Query.unscoped().byStatus(TRANSIENT_STATES);
 
-  private final Map<TimeoutKey, Context> futures = Maps.newConcurrentMap();
-
-  private static final class TimeoutKey {
-    private final String taskId;
-    private final ScheduleStatus status;
-
-    private TimeoutKey(String taskId, ScheduleStatus status) {
-      this.taskId = taskId;
-      this.status = status;
-    }
-
-    @Override
-    public int hashCode() {
-      return Objects.hashCode(taskId, status);
-    }
-
-    @Override
-    public boolean equals(Object o) {
-      if (!(o instanceof TimeoutKey)) {
-        return false;
-      }
-      TimeoutKey key = (TimeoutKey) o;
-      return Objects.equal(taskId, key.taskId)
-          && (status == key.status);
-    }
+  /**
+   * Minimum delay between sweeps, which allows timeouts that are close together to be expired
+   * in one batch.
+   */
+  @VisibleForTesting
+  static final long MIN_SWEEP_INTERVAL_MS = Amount.of(1L, Time.SECONDS).as(Time.MILLISECONDS);
 
-    @Override
-    public String toString() {
-      return taskId + ":" + status;
-    }
-  }
+  // Task IDs mapped to the time they entered the state, in insertion order.  All fields are
+  // guarded by this object's monitor.
+  private final Map<ScheduleStatus, LinkedHashMap<String, Long>> watched =
+      Maps.newEnumMap(ScheduleStatus.class);
+  private int watchedCount = 0;
+  private boolean sweepScheduled = false;
 
   private final Storage storage;
   private final ScheduledExecutorService executor;
@@ -134,23 +120,42 @@ class TaskTimeout implements EventSubscriber {
     this.clock = checkNotNull(clock);
     this.timedOutTasks = statsProvider.makeCounter(TIMED_OUT_TASKS_COUNTER);
 
+    for (ScheduleStatus status : TRANSIENT_STATES) {
+      watched.put(status, new LinkedHashMap<String, Long>());
+    }
+
     exportStats(statsProvider);
   }
 
-  private void registerTimeout(TimeoutKey key) {
-    // This is an obvious check-then-act, but:
-    //   - there isn't much of a better option, given that we have to get the Future before
-    //     inserting into the map
-    //   - a key collision only happens in practice if something is wrong externally to this class
-    //     (double event for the same state)
-    //   - the outcome is low-risk, we would wind up with a redundant Future that will eventually
-    //     no-op
-    if (!futures.containsKey(key)) {
-      Future<?> timeoutHandler = executor.schedule(
-          new TimedOutTaskHandler(key),
-          timeoutMillis,
-          TimeUnit.MILLISECONDS);
-      futures.put(key, new Context(clock.nowMillis(), timeoutHandler));
+  private void scheduleSweep(long delayMillis) {
+    sweepScheduled = true;
+    executor.schedule(
+        new Runnable() {
+          @Override public void run() {
+            sweep();
+          }
+        },
+        delayMillis,
+        TimeUnit.MILLISECONDS);
+  }
+
+  private synchronized void registerTimeout(String taskId, ScheduleStatus status) {
+    // A repeated registration only happens in practice if something is wrong externally to this
+    // class (double event for the same state), the original entry is retained.
+    Map<String, Long> tasks = watched.get(status);
+    if (!tasks.containsKey(taskId)) {
+      tasks.put(taskId, clock.nowMillis());
+      watchedCount++;
+      if (!sweepScheduled) {
+        scheduleSweep(timeoutMillis);
+      }
+    }
+  }
+
+  private synchronized void cancelTimeout(String taskId, ScheduleStatus status) {
+    if (watched.get(status).remove(taskId) != null) {
+      LOG.fine("Canceling state timeout for task " + taskId + ":" + status);
+      watchedCount--;
     }
   }
 
@@ -163,105 +168,103 @@ class TaskTimeout implements EventSubscriber {
     String taskId = change.getTaskId();
     ScheduleStatus newState = change.getNewState();
     if (isTransient(change.getOldState())) {
-      TimeoutKey oldKey = new TimeoutKey(taskId, change.getOldState());
-      Context context = futures.remove(oldKey);
-      if (context != null) {
-        LOG.fine("Canceling state timeout for task " + oldKey);
-        context.future.cancel(false);
-      }
+      cancelTimeout(taskId, change.getOldState());
     }
 
     if (isTransient(newState)) {
-      registerTimeout(new TimeoutKey(taskId, change.getNewState()));
+      registerTimeout(taskId, newState);
     }
   }
 
   @Subscribe
   public void storageStarted(StorageStarted event) {
     for (IScheduledTask task : Storage.Util.consistentFetchTasks(storage, TRANSIENT_QUERY)) {
-      registerTimeout(new TimeoutKey(Tasks.id(task), task.getStatus()));
+      registerTimeout(Tasks.id(task), task.getStatus());
     }
   }
 
-  private class TimedOutTaskHandler implements Runnable {
-    private final TimeoutKey key;
+  /**
+   * Removes all timed out tasks, and schedules the next sweep if tasks remain.
+   *
+   * @return Timed out tasks, mapped to the state they timed out in.
+   */
+  private synchronized Multimap<ScheduleStatus, String> expire() {
+    long now = clock.nowMillis();
+    long nextDeadline = Long.MAX_VALUE;
+    ImmutableMultimap.Builder<ScheduleStatus, String> expired = ImmutableMultimap.builder();
+    for (Map.Entry<ScheduleStatus, LinkedHashMap<String, Long>> entry : watched.entrySet()) {
+      Iterator<Map.Entry<String, Long>> tasks = entry.getValue().entrySet().iterator();
+      while (tasks.hasNext()) {
+        Map.Entry<String, Long> task = tasks.next();
+        long deadline = task.getValue() + timeoutMillis;
+        if (deadline > now) {
+          nextDeadline = Math.min(nextDeadline, deadline);
+          break;
+        }
+        expired.put(entry.getKey(), task.getKey());
+        tasks.remove();
+        watchedCount--;
+      }
+    }
 
-    TimedOutTaskHandler(TimeoutKey key) {
-      this.key = key;
+    sweepScheduled = false;
+    if (watchedCount > 0) {
+      scheduleSweep(Math.max(nextDeadline - now, MIN_SWEEP_INTERVAL_MS));
     }
+    return expired.build();
+  }
 
-    @Override public void run() {
-      Context context = futures.get(key);
+  private void sweep() {
+    // State changes are made without holding this object's monitor, since they publish events
+    // that are handled by this object.
+    for (Map.Entry<ScheduleStatus, String> entry : expire().entries()) {
+      String taskId = entry.getValue();
+      ScheduleStatus status = entry.getKey();
+      LOG.info("Timeout reached for task " + taskId + ":" + status);
+      // This query acts as a CAS by including the state that we expect the task to be in if the
+      // timeout is still valid.  Ideally, the timeout would have already been canceled, but in
+      // the event of a state transition race, including transientState prevents an unintended
+      // task timeout.
+      Query.Builder query = Query.taskScoped(taskId).byStatus(status);
       try {
-        if (context == null) {
-          LOG.warning("Timeout context not found for " + key);
-          return;
-        }
-
-        LOG.info("Timeout reached for task " + key);
-        // This query acts as a CAS by including the state that we expect the task to be in if the
-        // timeout is still valid.  Ideally, the future would have already been canceled, but in the
-        // event of a state transition race, including transientState prevents an unintended
-        // task timeout.
-        Query.Builder query = Query.taskScoped(key.taskId).byStatus(key.status);
         // Note: This requires LOST transitions trigger Driver.killTask.
         if (stateManager.changeState(query, ScheduleStatus.LOST, TIMEOUT_MESSAGE) > 0) {
           timedOutTasks.incrementAndGet();
         } else {
-          LOG.warning("Task " + key + " does not exist, or was not in the expected state.");
+          LOG.warning(
+              "Task " + taskId + " does not exist, or was not in the expected state " + status);
         }
-      } finally {
-        futures.remove(key);
+      } catch (RuntimeException e) {
+        LOG.log(Level.SEVERE, "Failed to time out task " + taskId, e);
       }
     }
   }
 
-  private class Context {
-    private final long timestampMillis;
-    private final Future<?> future;
-
-    Context(long timestampMillis, Future<?> future) {
-      this.timestampMillis = timestampMillis;
-      this.future = future;
-    }
-  }
-
-  private static final Function<Context, Long> CONTEXT_TIMESTAMP = new Function<Context, Long>() {
-    @Override public Long apply(Context context) {
-      return context.timestampMillis;
-    }
-  };
-
-  private static final Ordering<Context> TIMESTAMP_ORDER =
-      Ordering.natural().onResultOf(CONTEXT_TIMESTAMP);
-
   @VisibleForTesting
   static String waitingTimeStatName(ScheduleStatus status) {
     return "scheduler_max_" + status + "_waiting_ms";
   }
 
+  private synchronized long getOldestWaitingMs(ScheduleStatus status) {
+    Iterator<Long> timestamps = watched.get(status).values().iterator();
+    return timestamps.hasNext() ? clock.nowMillis() - timestamps.next() : 0L;
+  }
+
+  private synchronized int getWatchedCount() {
+    return watchedCount;
+  }
+
   private void exportStats(StatsProvider statsProvider) {
     statsProvider.makeGauge(TRANSIENT_COUNT_STAT_NAME, new Supplier<Number>() {
       @Override public Number get() {
-          return futures.size();
-        }
+        return getWatchedCount();
+      }
     });
 
     for (final ScheduleStatus status : TRANSIENT_STATES) {
       statsProvider.makeGauge(waitingTimeStatName(status), new Supplier<Number>() {
-        private final Predicate<TimeoutKey> statusMatcher = new Predicate<TimeoutKey>() {
-          @Override public boolean apply(TimeoutKey key) {
-            return key.status == status;
-          }
-        };
-
         @Override public Number get() {
-          Iterable<Context> matches = Maps.filterKeys(futures, statusMatcher).values();
-          if (Iterables.isEmpty(matches)) {
-            return 0L;
-          } else {
-            return clock.nowMillis() - TIMESTAMP_ORDER.min(matches).timestampMillis;
-          }
+          return getOldestWaitingMs(status);
         }
       });
     }
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.async;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import com.twitter.aurora.scheduler.ResourceSlot;
+import com.twitter.aurora.scheduler.configuration.ResourceBag;
+import com.twitter.aurora.scheduler.storage.entities.IAssignedTask;
+
+/**
+ * Selects the preemption victims that free enough resources for a pending task while preempting
+ * the least resources, as measured by the victims' dominant resource shares.
+ * <p>
+ * A victim's dominant share is its largest share of any single resource, relative to the total
+ * resources that could be made available on the slave.  Selection works purely on resource
+ * vectors, callers are expected to have verified that the pending task is otherwise allowed on
+ * the slave.
+ */
+final class VictimSelector {
+
+  private VictimSelector() {
+    // Utility class.
+  }
+
+  private static double share(double amount, double capacity) {
+    return (capacity > 0) ? (amount / capacity) : 0;
+  }
+
+  private static double dominantShare(ResourceBag resources, ResourceBag capacity) {
+    return Math.max(
+        Math.max(
+            share(resources.getNumCpus(), capacity.getNumCpus()),
+            share(resources.getRamMb(), capacity.getRamMb())),
+        Math.max(
+            share(resources.getDiskMb(), capacity.getDiskMb()),
+            share(resources.getNumPorts(), capacity.getNumPorts())));
+  }
+
+  private static final class Candidate {
+    private final IAssignedTask task;
+    private final ResourceBag resources;
+    private double dominantShare;
+
+    Candidate(IAssignedTask task) {
+      this.task = task;
+      this.resources = ResourceSlot.from(task.getTask()).getResources();
+    }
+  }
+
+  private static final Comparator<Candidate> BY_DOMINANT_SHARE = new Comparator<Candidate>() {
+    @Override public int compare(Candidate a, Candidate b) {
+      return Double.compare(a.dominantShare, b.dominantShare);
+    }
+  };
+
+  private static double totalShare(List<Candidate> candidates) {
+    double total = 0;
+    for (Candidate candidate : candidates) {
+      total += candidate.dominantShare;
+    }
+    return total;
+  }
+
+  private static List<IAssignedTask> tasks(List<Candidate> candidates) {
+    ImmutableList.Builder<IAssignedTask> tasks = ImmutableList.builder();
+    for (Candidate candidate : candidates) {
+      tasks.add(candidate.task);
+    }
+    return tasks.build();
+  }
+
+  /**
+   * Selects victims to preempt.
+   *
+   * @param required Resources required by the pending task.
+   * @param slack Resources already available on the slave.
+   * @param possibleVictims Tasks that may be preempted, ties between equally sized victims are
+   *     broken in iteration order.
+   * @return The victims to preempt, which is empty if the slack is sufficient, or absent if the
+   *     pending task does not fit even with all possible victims preempted.
+   */
+  static Optional<List<IAssignedTask>> select(
+      ResourceSlot required,
+      ResourceSlot slack,
+      Iterable<IAssignedTask> possibleVictims) {
+
+    ResourceBag deficit = required.getResources().subtract(slack.getResources());
+    if (deficit.fits(ResourceBag.EMPTY)) {
+      return Optional.<List<IAssignedTask>>of(ImmutableList.<IAssignedTask>of());
+    }
+
+    List<Candidate> candidates = Lists.newArrayList();
+    ResourceBag capacity = slack.getResources();
+    for (IAssignedTask task : possibleVictims) {
+      Candidate candidate = new Candidate(task);
+      candidates.add(candidate);
+      capacity = capacity.add(candidate.resources);
+    }
+    if (!required.getResources().fits(capacity)) {
+      return Optional.absent();
+    }
+
+    for (Candidate candidate : candidates) {
+      candidate.dominantShare = dominantShare(candidate.resources, capacity);
+    }
+    // Stable, so that equally sized victims retain their given order.
+    Collections.sort(candidates, BY_DOMINANT_SHARE);
+
+    // The smallest victim that frees enough resources on its own.
+    Optional<Candidate> single = Optional.absent();
+    for (Candidate candidate : candidates) {
+      if (deficit.fits(candidate.resources)) {
+        single = Optional.of(candidate);
+        break;
+      }
+    }
+
+    // Accumulate the smallest victims until enough resources are freed, then drop any victims
+    // made redundant by those added after them, largest first.
+    List<Candidate> accumulated = Lists.newArrayList();
+    ResourceBag freed = ResourceBag.EMPTY;
+    for (Candidate candidate : candidates) {
+      accumulated.add(candidate);
+      freed = freed.add(candidate.resources);
+      if (deficit.fits(freed)) {
+        break;
+      }
+    }
+    for (int i = accumulated.size() - 1; i >= 0; i--) {
+      ResourceBag without = freed.subtract(accumulated.get(i).resources);
+      if (deficit.fits(without)) {
+        freed = without;
+        accumulated.remove(i);
+      }
+    }
+
+    // Prefer the single victim when it preempts no more than the accumulated set.
+    if (single.isPresent() && (single.get().dominantShare <= totalShare(accumulated))) {
+      return Optional.of(tasks(ImmutableList.of(single.get())));
+    }
+    return Optional.of(tasks(accumulated));
+  }
+}
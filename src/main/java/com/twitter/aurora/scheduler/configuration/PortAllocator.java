@@ -0,0 +1,161 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.configuration;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+import org.apache.mesos.Protos.Value.Range;
+
+/**
+ * Selects random ports from port ranges without expanding the ranges into their members.
+ * <p>
+ * The ranges are normalized into sorted, disjoint intervals.  Distinct offsets into the
+ * concatenated intervals are then chosen using Floyd's sampling algorithm, which draws exactly one
+ * random number per port.  Each offset is mapped back to a port by walking the intervals.  Work
+ * and allocation are proportional to the number of ranges and ports requested, regardless of how
+ * many ports the ranges span.
+ */
+final class PortAllocator {
+
+  private static final Comparator<long[]> BY_BEGIN = new Comparator<long[]>() {
+    @Override public int compare(long[] a, long[] b) {
+      return Long.compare(a[0], b[0]);
+    }
+  };
+
+  private final long[] begins;
+  private final long[] ends;
+  private final long available;
+
+  private PortAllocator(long[] begins, long[] ends, long available) {
+    this.begins = begins;
+    this.ends = ends;
+    this.available = available;
+  }
+
+  /**
+   * Creates an allocator over port ranges, which may overlap or be listed in any order.
+   *
+   * @param ranges Ranges to allocate ports from.
+   * @return An allocator for the ports in {@code ranges}.
+   */
+  static PortAllocator of(Iterable<Range> ranges) {
+    int count = 0;
+    for (Range range : ranges) {
+      if (range.getEnd() >= range.getBegin()) {
+        count++;
+      }
+    }
+
+    long[][] sorted = new long[count][];
+    int i = 0;
+    for (Range range : ranges) {
+      if (range.getEnd() >= range.getBegin()) {
+        sorted[i++] = new long[] {range.getBegin(), range.getEnd()};
+      }
+    }
+    Arrays.sort(sorted, BY_BEGIN);
+
+    // Merge overlapping and adjacent ranges, so that each port is represented once.
+    long[] begins = new long[count];
+    long[] ends = new long[count];
+    int merged = 0;
+    for (long[] range : sorted) {
+      if ((merged > 0) && (range[0] <= ends[merged - 1] + 1)) {
+        ends[merged - 1] = Math.max(ends[merged - 1], range[1]);
+      } else {
+        begins[merged] = range[0];
+        ends[merged] = range[1];
+        merged++;
+      }
+    }
+
+    long available = 0;
+    for (int j = 0; j < merged; j++) {
+      available += ends[j] - begins[j] + 1;
+    }
+    return new PortAllocator(
+        Arrays.copyOf(begins, merged),
+        Arrays.copyOf(ends, merged),
+        available);
+  }
+
+  /**
+   * Gets the number of distinct ports in the ranges.
+   *
+   * @return Number of ports available for allocation.
+   */
+  long getAvailable() {
+    return available;
+  }
+
+  private int portAt(long offset) {
+    long remaining = offset;
+    for (int i = 0; i < begins.length; i++) {
+      long size = ends[i] - begins[i] + 1;
+      if (remaining < size) {
+        return (int) (begins[i] + remaining);
+      }
+      remaining -= size;
+    }
+    throw new IllegalArgumentException("Offset out of bounds: " + offset);
+  }
+
+  private static long nextLong(Random random, long bound) {
+    if (bound <= Integer.MAX_VALUE) {
+      return random.nextInt((int) bound);
+    }
+    // Port ranges never approach this size, the slight modulo bias is irrelevant if they do.
+    return (random.nextLong() >>> 1) % bound;
+  }
+
+  /**
+   * Selects distinct ports uniformly at random.
+   *
+   * @param numPorts Number of ports to select.
+   * @param random Source of randomness.
+   * @return {@code numPorts} distinct ports from the ranges.
+   * @throws IllegalArgumentException If fewer than {@code numPorts} ports are available.
+   */
+  Set<Integer> allocate(int numPorts, Random random) {
+    if (numPorts > available) {
+      throw new IllegalArgumentException(
+          String.format("Could not get %d ports from %d available", numPorts, available));
+    }
+    if (numPorts == 0) {
+      return ImmutableSet.of();
+    }
+
+    // Floyd's algorithm: a uniformly random subset of numPorts offsets in [0, available).
+    Set<Long> offsets = Sets.newHashSetWithExpectedSize(numPorts);
+    for (long j = available - numPorts; j < available; j++) {
+      long offset = nextLong(random, j + 1);
+      offsets.add(offsets.contains(offset) ? j : offset);
+    }
+
+    ImmutableSet.Builder<Integer> ports = ImmutableSet.builder();
+    for (long offset : offsets) {
+      ports.add(portAt(offset));
+    }
+    return ports.build();
+  }
+}
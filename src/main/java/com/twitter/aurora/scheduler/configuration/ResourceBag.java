@@ -0,0 +1,259 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.configuration;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Ordering;
+
+import com.twitter.aurora.gen.Quota;
+import com.twitter.aurora.scheduler.storage.entities.IQuota;
+import com.twitter.aurora.scheduler.storage.entities.ITaskConfig;
+import com.twitter.common.quantity.Data;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An immutable vector of cpu, ram, disk and port resources, backed by primitives.
+ * <p>
+ * Arithmetic returns a new bag.  Unlike {@link Resources}, arithmetic and comparisons on a resource
+ * bag do not box values or convert between units, which makes it suitable for the resource math
+ * performed repeatedly while filtering offers, selecting preemption victims and checking quota.
+ * Components may be negative, such as the result of subtracting a larger bag from a smaller one.
+ */
+public final class ResourceBag {
+
+  /**
+   * A bag with all resources zeroed.
+   */
+  public static final ResourceBag EMPTY = new ResourceBag(0, 0, 0, 0);
+
+  private final double numCpus;
+  private final long ramMb;
+  private final long diskMb;
+  private final int numPorts;
+
+  private ResourceBag(double numCpus, long ramMb, long diskMb, int numPorts) {
+    this.numCpus = numCpus;
+    this.ramMb = ramMb;
+    this.diskMb = diskMb;
+    this.numPorts = numPorts;
+  }
+
+  /**
+   * Creates a resource bag.
+   *
+   * @param numCpus Number of CPUs.
+   * @param ramMb Megabytes of RAM.
+   * @param diskMb Megabytes of disk.
+   * @param numPorts Number of ports.
+   * @return A resource bag with the given resources.
+   */
+  public static ResourceBag of(double numCpus, long ramMb, long diskMb, int numPorts) {
+    return new ResourceBag(numCpus, ramMb, diskMb, numPorts);
+  }
+
+  /**
+   * Extracts the resources required by a task.
+   *
+   * @param task Task to get resources from.
+   * @return The resources required by the task, excluding any executor overhead.
+   */
+  public static ResourceBag from(ITaskConfig task) {
+    checkNotNull(task);
+    return new ResourceBag(
+        task.getNumCpus(),
+        task.getRamMb(),
+        task.getDiskMb(),
+        task.getRequestedPorts().size());
+  }
+
+  /**
+   * Converts resources to a resource bag.
+   *
+   * @param resources Resources to convert.
+   * @return A resource bag with the same resources.
+   */
+  public static ResourceBag from(Resources resources) {
+    checkNotNull(resources);
+    return new ResourceBag(
+        resources.getNumCpus(),
+        resources.getRam().as(Data.MB),
+        resources.getDisk().as(Data.MB),
+        resources.getNumPorts());
+  }
+
+  /**
+   * Converts a quota to a resource bag.  Quotas do not include ports.
+   *
+   * @param quota Quota to convert.
+   * @return A resource bag with the resources of the quota and no ports.
+   */
+  public static ResourceBag from(IQuota quota) {
+    checkNotNull(quota);
+    return new ResourceBag(quota.getNumCpus(), quota.getRamMb(), quota.getDiskMb(), 0);
+  }
+
+  /**
+   * Converts this bag to a quota, dropping the ports.
+   *
+   * @return A quota with the cpu, ram and disk of this bag.
+   */
+  public IQuota toQuota() {
+    return IQuota.build(new Quota(numCpus, ramMb, diskMb));
+  }
+
+  public double getNumCpus() {
+    return numCpus;
+  }
+
+  public long getRamMb() {
+    return ramMb;
+  }
+
+  public long getDiskMb() {
+    return diskMb;
+  }
+
+  public int getNumPorts() {
+    return numPorts;
+  }
+
+  /**
+   * this + other, as a new bag.
+   */
+  public ResourceBag add(ResourceBag other) {
+    return new ResourceBag(
+        numCpus + other.numCpus,
+        ramMb + other.ramMb,
+        diskMb + other.diskMb,
+        numPorts + other.numPorts);
+  }
+
+  /**
+   * this - other, as a new bag.
+   */
+  public ResourceBag subtract(ResourceBag other) {
+    return new ResourceBag(
+        numCpus - other.numCpus,
+        ramMb - other.ramMb,
+        diskMb - other.diskMb,
+        numPorts - other.numPorts);
+  }
+
+  /**
+   * this * m, as a new bag.
+   */
+  public ResourceBag scale(int m) {
+    return new ResourceBag(numCpus * m, ramMb * m, diskMb * m, numPorts * m);
+  }
+
+  /**
+   * Tests whether this bag fits within another bag.
+   *
+   * @param available Resources available.
+   * @return {@code true} if every resource in this bag is less than or equal to the equivalent in
+   *     {@code available}, otherwise {@code false}.
+   */
+  public boolean fits(ResourceBag available) {
+    return (numCpus <= available.numCpus)
+        && (ramMb <= available.ramMb)
+        && (diskMb <= available.diskMb)
+        && (numPorts <= available.numPorts);
+  }
+
+  /**
+   * Tests whether this bag is large enough to satisfy all resources in another bag.
+   *
+   * @param other Resources being compared to.
+   * @return {@code true} if {@code other} fits within this bag, otherwise {@code false}.
+   */
+  public boolean greaterThanOrEqual(ResourceBag other) {
+    return other.fits(this);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof ResourceBag)) {
+      return false;
+    }
+
+    ResourceBag other = (ResourceBag) o;
+    return (Double.compare(numCpus, other.numCpus) == 0)
+        && (ramMb == other.ramMb)
+        && (diskMb == other.diskMb)
+        && (numPorts == other.numPorts);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(numCpus, ramMb, diskMb, numPorts);
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(this)
+        .add("numCpus", numCpus)
+        .add("ramMb", ramMb)
+        .add("diskMb", diskMb)
+        .add("numPorts", numPorts)
+        .toString();
+  }
+
+  // Folds a component comparison into the result of the components compared so far, which is
+  // Integer.MIN_VALUE once any two components disagree.
+  private static int combine(int comparison, int result) {
+    if (comparison == 0) {
+      return result;
+    } else if (result == 0) {
+      return Integer.signum(comparison);
+    } else {
+      return (Integer.signum(comparison) == result) ? result : Integer.MIN_VALUE;
+    }
+  }
+
+  /**
+   * A bag is greater than another iff all of its resource components are greater or equal, and
+   * less than another iff all of its components are less or equal.  Bags whose components
+   * disagree compare as equal.  This matches {@link Resources#RESOURCE_ORDER}.
+   */
+  public static final Ordering<ResourceBag> ORDER = new Ordering<ResourceBag>() {
+    @Override public int compare(ResourceBag left, ResourceBag right) {
+      return compareComponents(
+          Long.compare(left.diskMb, right.diskMb),
+          Long.compare(left.ramMb, right.ramMb),
+          Integer.compare(left.numPorts, right.numPorts),
+          Double.compare(left.numCpus, right.numCpus));
+    }
+  };
+
+  /**
+   * Combines per-resource comparisons into a comparison of the resource vectors, as described by
+   * {@link #ORDER}.
+   *
+   * @param diskC Comparison of disk.
+   * @param ramC Comparison of ram.
+   * @param portC Comparison of the number of ports.
+   * @param cpuC Comparison of cpus.
+   * @return The vector comparison.
+   */
+  static int compareComponents(int diskC, int ramC, int portC, int cpuC) {
+    int result = combine(diskC, 0);
+    result = combine(ramC, result);
+    result = combine(portC, result);
+    result = combine(cpuC, result);
+    return (result == Integer.MIN_VALUE) ? 0 : result;
+  }
+}
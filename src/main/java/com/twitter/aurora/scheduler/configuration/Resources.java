@@ -15,23 +15,20 @@
  */
 package com.twitter.aurora.scheduler.configuration;
 
-import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 
 import com.google.common.base.Function;
 import com.google.common.base.Objects;
 import com.google.common.base.Predicate;
-import com.google.common.base.Predicates;
 import com.google.common.collect.ContiguousSet;
 import com.google.common.collect.DiscreteDomain;
-import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
-import com.google.common.collect.Lists;
 import com.google.common.collect.Ordering;
-import com.google.common.collect.Sets;
 
 import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.mesos.Protos.Offer;
@@ -383,65 +380,119 @@ public class Resources {
       return ImmutableSet.of();
     }
 
-    List<Integer> availablePorts = Lists.newArrayList(Sets.newHashSet(
-        Iterables.concat(
-            Iterables.transform(getPortRanges(offer.getResourcesList()), RANGE_TO_MEMBERS))));
-
-    if (availablePorts.size() < numPorts) {
+    PortAllocator allocator = PortAllocator.of(getPortRanges(offer.getResourcesList()));
+    if (allocator.getAvailable() < numPorts) {
       throw new InsufficientResourcesException(
           String.format("Could not get %d ports from %s", numPorts, offer));
     }
 
-    Collections.shuffle(availablePorts);
-    return ImmutableSet.copyOf(availablePorts.subList(0, numPorts));
+    return allocator.allocate(numPorts, ThreadLocalRandom.current());
   }
 
   /**
-   * A Resources object is greater than another iff _all_ of its resource components are greater
-   * or equal. A Resources object compares as equal if some but not all components are greater than
-   * or equal to the other.
+   * Gets all ports contained in a list of resources, such as the ports assigned to a task.
+   *
+   * @param resources Resources to extract ports from.
+   * @return The ports contained in the resources.
    */
-  public static final Ordering<Resources> RESOURCE_ORDER = new Ordering<Resources>() {
-    @Override public int compare(Resources left, Resources right) {
-      int diskC = left.getDisk().compareTo(right.getDisk());
-      int ramC = left.getRam().compareTo(right.getRam());
-      int portC = Integer.compare(left.getNumPorts(), right.getNumPorts());
-      int cpuC = Double.compare(left.getNumCpus(), right.getNumCpus());
-
-      FluentIterable<Integer> vector =
-          FluentIterable.from(ImmutableList.of(diskC, ramC, portC, cpuC));
+  public static Set<Integer> getAssignedPorts(List<Resource> resources) {
+    checkNotNull(resources);
+    return ImmutableSet.copyOf(
+        Iterables.concat(Iterables.transform(getPortRanges(resources), RANGE_TO_MEMBERS)));
+  }
 
-      if (vector.allMatch(IS_ZERO))  {
-        return 0;
-      }
+  /**
+   * Creates a copy of an offer with resources removed, describing what remains available in the
+   * offer once a task is matched against it.  This allows several tasks to be packed into a single
+   * offer.
+   *
+   * @param offer Offer to remove resources from.
+   * @param consumed Scalar resources to remove from the offer.  The port count is ignored in favor
+   *     of {@code consumedPorts}.
+   * @param consumedPorts Ports to remove from the offer.
+   * @return An offer containing the remaining resources.
+   */
+  public static Offer subtract(Offer offer, Resources consumed, Set<Integer> consumedPorts) {
+    return subtract(offer, ResourceBag.from(consumed), consumedPorts);
+  }
 
-      if (vector.filter(Predicates.not(IS_ZERO)).allMatch(IS_POSITIVE)) {
-        return 1;
+  /**
+   * Creates a copy of an offer with resources removed.
+   *
+   * @see #subtract(Offer, Resources, Set)
+   * @param offer Offer to remove resources from.
+   * @param consumed Scalar resources to remove from the offer.  The port count is ignored in favor
+   *     of {@code consumedPorts}.
+   * @param consumedPorts Ports to remove from the offer.
+   * @return An offer containing the remaining resources.
+   */
+  public static Offer subtract(Offer offer, ResourceBag consumed, Set<Integer> consumedPorts) {
+    checkNotNull(offer);
+    checkNotNull(consumed);
+    checkNotNull(consumedPorts);
+
+    Offer.Builder remaining = offer.toBuilder().clearResources();
+    for (Resource resource : offer.getResourcesList()) {
+      String name = resource.getName();
+      if (CPUS.equals(name)) {
+        remaining.addResources(subtractScalar(resource, consumed.getNumCpus()));
+      } else if (RAM_MB.equals(name)) {
+        remaining.addResources(subtractScalar(resource, consumed.getRamMb()));
+      } else if (DISK_MB.equals(name)) {
+        remaining.addResources(subtractScalar(resource, consumed.getDiskMb()));
+      } else if (PORTS.equals(name)) {
+        remaining.addResources(resource.toBuilder()
+            .setRanges(subtractPorts(resource.getRanges(), consumedPorts)));
+      } else {
+        remaining.addResources(resource);
       }
+    }
+    return remaining.build();
+  }
 
-      if (vector.filter(Predicates.not(IS_ZERO)).allMatch(IS_NEGATIVE)) {
-        return -1;
-      }
+  private static Resource subtractScalar(Resource resource, double amount) {
+    double value = Math.max(0, resource.getScalar().getValue() - amount);
+    return resource.toBuilder().setScalar(Scalar.newBuilder().setValue(value)).build();
+  }
 
-      return 0;
+  private static Ranges subtractPorts(Ranges ranges, Set<Integer> ports) {
+    if (ports.isEmpty()) {
+      return ranges;
     }
-  };
 
-  private static final Predicate<Integer> IS_POSITIVE = new Predicate<Integer>() {
-    @Override public boolean apply(Integer input) {
-      return input > 0;
-    }
-  };
+    ImmutableSortedSet<Integer> sortedPorts = ImmutableSortedSet.copyOf(ports);
+    Ranges.Builder remaining = Ranges.newBuilder();
+    for (Range range : ranges.getRangeList()) {
+      long begin = range.getBegin();
+      for (int port
+          : sortedPorts.subSet((int) range.getBegin(), true, (int) range.getEnd(), true)) {
 
-  private static final Predicate<Integer> IS_NEGATIVE = new Predicate<Integer>() {
-    @Override public boolean apply(Integer input) {
-      return input < 0;
+        if (port > begin) {
+          remaining.addRange(Range.newBuilder().setBegin(begin).setEnd(port - 1));
+        }
+        begin = port + 1;
+      }
+      if (begin <= range.getEnd()) {
+        remaining.addRange(Range.newBuilder().setBegin(begin).setEnd(range.getEnd()));
+      }
     }
-  };
+    return remaining.build();
+  }
 
-  private static final Predicate<Integer> IS_ZERO = new Predicate<Integer>() {
-    @Override public boolean apply(Integer input) {
-      return input == 0;
+  /**
+   * A Resources object is greater than another iff _all_ of its resource components are greater
+   * or equal. A Resources object compares as equal if some but not all components are greater than
+   * or equal to the other.
+   */
+  public static final Ordering<Resources> RESOURCE_ORDER = new Ordering<Resources>() {
+    @Override public int compare(Resources left, Resources right) {
+      // Components are compared in place rather than by building two resource bags for every
+      // comparison.
+      return ResourceBag.compareComponents(
+          left.disk.compareTo(right.disk),
+          left.ram.compareTo(right.ram),
+          Integer.compare(left.numPorts, right.numPorts),
+          Double.compare(left.numCpus, right.numCpus));
     }
   };
 }
@@ -23,10 +23,11 @@ import javax.inject.Inject;
 
 import com.google.inject.BindingAnnotation;
 
+import com.twitter.aurora.scheduler.HostOffer;
 import com.twitter.aurora.scheduler.ResourceSlot;
 import com.twitter.aurora.scheduler.events.PubsubEvent.Vetoed;
+import com.twitter.aurora.scheduler.filter.FilterProgram;
 import com.twitter.aurora.scheduler.filter.SchedulingFilter;
-import com.twitter.aurora.scheduler.storage.entities.ITaskConfig;
 import com.twitter.common.base.Closure;
 
 import static java.lang.annotation.ElementType.FIELD;
@@ -61,8 +62,16 @@ class NotifyingSchedulingFilter implements SchedulingFilter {
   }
 
   @Override
-  public Set<Veto> filter(ResourceSlot offer, String slaveHost, ITaskConfig task, String taskId) {
-    Set<Veto> vetoes = delegate.filter(offer, slaveHost, task, taskId);
+  public Set<Veto> filter(ResourceSlot offer, String slaveHost, FilterProgram task, String taskId) {
+    return publishVetoes(taskId, delegate.filter(offer, slaveHost, task, taskId));
+  }
+
+  @Override
+  public Set<Veto> filter(HostOffer offer, FilterProgram task, String taskId) {
+    return publishVetoes(taskId, delegate.filter(offer, task, taskId));
+  }
+
+  private Set<Veto> publishVetoes(String taskId, Set<Veto> vetoes) {
     if (!vetoes.isEmpty()) {
       eventSink.execute(new Vetoed(taskId, vetoes));
     }
@@ -18,16 +18,12 @@ package com.twitter.aurora.scheduler.filter;
 import java.util.Set;
 
 import com.google.common.base.Function;
-import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 
 import com.twitter.aurora.gen.Attribute;
-import com.twitter.aurora.scheduler.base.Tasks;
-import com.twitter.aurora.scheduler.filter.SchedulingFilterImpl.AttributeLoader;
 import com.twitter.aurora.scheduler.storage.entities.IJobKey;
-import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
 import com.twitter.aurora.scheduler.storage.entities.IValueConstraint;
 
 /**
@@ -66,28 +62,19 @@ final class AttributeFilter {
    * @param attributes Attributes to match against.
    * @param jobKey Key of the job with the limited constraint.
    * @param limit Limit value.
-   * @param activeTasks All active tasks in the system.
-   * @param attributeFetcher Interface for fetching attributes for hosts in the system.
+   * @param counts Counts of active instances per job and host attribute.
    * @return {@code true} if the limit constraint is satisfied, {@code false} otherwise.
    */
-  static boolean matches(final Set<Attribute> attributes,
-      final IJobKey jobKey,
+  static boolean matches(
+      Set<Attribute> attributes,
+      IJobKey jobKey,
       int limit,
-      Iterable<IScheduledTask> activeTasks,
-      final AttributeLoader attributeFetcher) {
+      JobAttributeCounts counts) {
 
-    Predicate<IScheduledTask> sameJob =
-        Predicates.compose(Predicates.equalTo(jobKey), Tasks.SCHEDULED_TO_JOB_KEY);
-
-    Predicate<IScheduledTask> hasAttribute = new Predicate<IScheduledTask>() {
-      @Override public boolean apply(IScheduledTask task) {
-        Iterable<Attribute> hostAttributes =
-            attributeFetcher.apply(task.getAssignedTask().getSlaveHost());
-        return Iterables.any(hostAttributes, Predicates.in(attributes));
-      }
-    };
-
-    return limit > Iterables.size(
-        Iterables.filter(activeTasks, Predicates.and(sameJob, hasAttribute)));
+    int count = 0;
+    for (Attribute attribute : attributes) {
+      count += counts.getCount(jobKey, attribute);
+    }
+    return limit > count;
   }
 }
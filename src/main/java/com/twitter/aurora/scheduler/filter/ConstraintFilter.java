@@ -15,7 +15,6 @@
  */
 package com.twitter.aurora.scheduler.filter;
 
-import java.util.Collection;
 import java.util.Set;
 import java.util.logging.Logger;
 
@@ -23,17 +22,14 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
-import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 
 import com.twitter.aurora.gen.Attribute;
 import com.twitter.aurora.scheduler.base.SchedulerException;
 import com.twitter.aurora.scheduler.filter.SchedulingFilter.Veto;
-import com.twitter.aurora.scheduler.filter.SchedulingFilterImpl.AttributeLoader;
 import com.twitter.aurora.scheduler.storage.entities.IConstraint;
 import com.twitter.aurora.scheduler.storage.entities.IJobKey;
-import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
 import com.twitter.aurora.scheduler.storage.entities.ITaskConstraint;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -46,27 +42,23 @@ class ConstraintFilter implements Function<IConstraint, Optional<Veto>> {
   private static final Logger LOG = Logger.getLogger(ConstraintFilter.class.getName());
 
   private final IJobKey jobKey;
-  private final Supplier<Collection<IScheduledTask>> activeTasksSupplier;
-  private final AttributeLoader attributeLoader;
+  private final JobAttributeCounts counts;
   private final Iterable<Attribute> hostAttributes;
 
   /**
    * Creates a new constraint filer for a given job.
    *
    * @param jobKey Key for the job.
-   * @param activeTasksSupplier Supplier to fetch active tasks (if necessary).
-   * @param attributeLoader Interface to fetch host attributes (if necessary).
+   * @param counts Counts of active instances per job and host attribute.
    * @param hostAttributes The attributes of the host to test against.
    */
   ConstraintFilter(
       IJobKey jobKey,
-      Supplier<Collection<IScheduledTask>> activeTasksSupplier,
-      AttributeLoader attributeLoader,
+      JobAttributeCounts counts,
       Iterable<Attribute> hostAttributes) {
 
     this.jobKey = checkNotNull(jobKey);
-    this.activeTasksSupplier = checkNotNull(activeTasksSupplier);
-    this.attributeLoader = checkNotNull(attributeLoader);
+    this.counts = checkNotNull(counts);
     this.hostAttributes = checkNotNull(hostAttributes);
   }
 
@@ -85,34 +77,66 @@ class ConstraintFilter implements Function<IConstraint, Optional<Veto>> {
     return new Veto("Host " + reason + " for maintenance", Veto.MAX_SCORE);
   }
 
+  private static Set<Attribute> attributesNamed(Iterable<Attribute> attributes, String name) {
+    return ImmutableSet.copyOf(Iterables.filter(attributes, new NameFilter(name)));
+  }
+
+  /**
+   * Evaluates a value constraint against host attributes.  Unlike limit constraints, the outcome
+   * depends only on the constraint and the attributes.
+   *
+   * @param constraint Value constraint to evaluate.
+   * @param hostAttributes The attributes of the host to test against.
+   * @return A veto if the constraint is not satisfied.
+   */
+  static Optional<Veto> valueVeto(IConstraint constraint, Iterable<Attribute> hostAttributes) {
+    boolean matches = AttributeFilter.matches(
+        attributesNamed(hostAttributes, constraint.getName()),
+        constraint.getConstraint().getValue());
+    return matches
+        ? Optional.<Veto>absent()
+        : Optional.of(mismatchVeto(constraint.getName()));
+  }
+
+  /**
+   * Evaluates a limit constraint of a job against host attributes.
+   *
+   * @param constraint Limit constraint to evaluate.
+   * @param jobKey Key for the job.
+   * @param counts Counts of active instances per job and host attribute.
+   * @param hostAttributes The attributes of the host to test against.
+   * @return A veto if the constraint is not satisfied.
+   */
+  static Optional<Veto> evaluateLimit(
+      IConstraint constraint,
+      IJobKey jobKey,
+      JobAttributeCounts counts,
+      Iterable<Attribute> hostAttributes) {
+
+    Set<Attribute> attributes = attributesNamed(hostAttributes, constraint.getName());
+    if (attributes.isEmpty()) {
+      return Optional.of(mismatchVeto(constraint.getName()));
+    }
+
+    boolean satisfied = AttributeFilter.matches(
+        attributes,
+        jobKey,
+        constraint.getConstraint().getLimit().getLimit(),
+        counts);
+    return satisfied
+        ? Optional.<Veto>absent()
+        : Optional.of(limitVeto(constraint.getName()));
+  }
+
   @Override
   public Optional<Veto> apply(IConstraint constraint) {
-    Set<Attribute> attributes =
-        ImmutableSet.copyOf(Iterables.filter(hostAttributes, new NameFilter(constraint.getName())));
-
     ITaskConstraint taskConstraint = constraint.getConstraint();
     switch (taskConstraint.getSetField()) {
       case VALUE:
-        boolean matches =
-            AttributeFilter.matches(attributes, taskConstraint.getValue());
-        return matches
-            ? Optional.<Veto>absent()
-            : Optional.of(mismatchVeto(constraint.getName()));
+        return valueVeto(constraint, hostAttributes);
 
       case LIMIT:
-        if (attributes.isEmpty()) {
-          return Optional.of(mismatchVeto(constraint.getName()));
-        }
-
-        boolean satisfied = AttributeFilter.matches(
-            attributes,
-            jobKey,
-            taskConstraint.getLimit().getLimit(),
-            activeTasksSupplier.get(),
-            attributeLoader);
-        return satisfied
-            ? Optional.<Veto>absent()
-            : Optional.of(limitVeto(constraint.getName()));
+        return evaluateLimit(constraint, jobKey, counts, hostAttributes);
 
       default:
         LOG.warning("Unrecognized constraint type: " + taskConstraint.getSetField());
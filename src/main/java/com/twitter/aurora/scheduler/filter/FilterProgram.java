@@ -0,0 +1,140 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.filter;
+
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import com.twitter.aurora.gen.TaskConstraint;
+import com.twitter.aurora.scheduler.ResourceSlot;
+import com.twitter.aurora.scheduler.base.Tasks;
+import com.twitter.aurora.scheduler.configuration.ConfigurationManager;
+import com.twitter.aurora.scheduler.configuration.ResourceBag;
+import com.twitter.aurora.scheduler.filter.SchedulingFilter.Veto;
+import com.twitter.aurora.scheduler.storage.entities.IConstraint;
+import com.twitter.aurora.scheduler.storage.entities.IJobKey;
+import com.twitter.aurora.scheduler.storage.entities.ITaskConfig;
+
+import static com.twitter.aurora.scheduler.filter.SchedulingFilterImpl.ResourceVector.CPU;
+import static com.twitter.aurora.scheduler.filter.SchedulingFilterImpl.ResourceVector.DISK;
+import static com.twitter.aurora.scheduler.filter.SchedulingFilterImpl.ResourceVector.PORTS;
+import static com.twitter.aurora.scheduler.filter.SchedulingFilterImpl.ResourceVector.RAM;
+
+/**
+ * The scheduling requirements of a task configuration, extracted once so that they may be
+ * evaluated against many offers without re-deriving them from the configuration.  Callers should
+ * compile a program once per scheduling attempt and pass it to every
+ * {@link SchedulingFilter#filter} call made during that attempt.
+ */
+public final class FilterProgram {
+
+  private final IJobKey jobKey;
+  private final ResourceBag required;
+  private final boolean dedicated;
+  private final Set<IConstraint> constraints;
+  private final int constraintsHash;
+  private final List<IConstraint> valueConstraints;
+  private final List<IConstraint> limitConstraints;
+
+  private FilterProgram(ITaskConfig task) {
+    this.required = ResourceSlot.from(task).getResources();
+    this.jobKey = Tasks.INFO_TO_JOB_KEY.apply(task);
+    this.dedicated = ConfigurationManager.isDedicated(task);
+    this.constraints = ImmutableSet.copyOf(task.getConstraints());
+    this.constraintsHash = constraints.hashCode();
+
+    ImmutableList.Builder<IConstraint> values = ImmutableList.builder();
+    ImmutableList.Builder<IConstraint> limits = ImmutableList.builder();
+    for (IConstraint constraint : constraints) {
+      if (constraint.getConstraint().getSetField() == TaskConstraint._Fields.VALUE) {
+        values.add(constraint);
+      } else {
+        limits.add(constraint);
+      }
+    }
+    this.valueConstraints = values.build();
+    this.limitConstraints = limits.build();
+  }
+
+  /**
+   * Compiles the scheduling requirements of a task.
+   *
+   * @param task Task configuration to compile.
+   * @return The task's filter program.
+   */
+  public static FilterProgram compile(ITaskConfig task) {
+    return new FilterProgram(task);
+  }
+
+  IJobKey getJobKey() {
+    return jobKey;
+  }
+
+  boolean isDedicated() {
+    return dedicated;
+  }
+
+  Set<IConstraint> getConstraints() {
+    return constraints;
+  }
+
+  int getConstraintsHash() {
+    return constraintsHash;
+  }
+
+  List<IConstraint> getValueConstraints() {
+    return valueConstraints;
+  }
+
+  List<IConstraint> getLimitConstraints() {
+    return limitConstraints;
+  }
+
+  /**
+   * Evaluates the task's resource requirements against available resources.
+   *
+   * @param offer Available resources.
+   * @return Vetoes for the resources that are insufficient, empty if the task fits.
+   */
+  Set<Veto> getResourceVetoes(ResourceSlot offer) {
+    ResourceBag offered = offer.getResources();
+    if (required.fits(offered)) {
+      return ImmutableSet.of();
+    }
+
+    double cpuExcess = required.getNumCpus() - offered.getNumCpus();
+    long ramExcess = required.getRamMb() - offered.getRamMb();
+    long diskExcess = required.getDiskMb() - offered.getDiskMb();
+    int portsExcess = required.getNumPorts() - offered.getNumPorts();
+    ImmutableSet.Builder<Veto> vetoes = ImmutableSet.builder();
+    if (cpuExcess > 0) {
+      vetoes.add(CPU.veto(cpuExcess));
+    }
+    if (ramExcess > 0) {
+      vetoes.add(RAM.veto(ramExcess));
+    }
+    if (diskExcess > 0) {
+      vetoes.add(DISK.veto(diskExcess));
+    }
+    if (portsExcess > 0) {
+      vetoes.add(PORTS.veto(portsExcess));
+    }
+    return vetoes.build();
+  }
+}
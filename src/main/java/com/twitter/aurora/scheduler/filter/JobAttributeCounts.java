@@ -0,0 +1,250 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.filter;
+
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Inject;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Sets;
+import com.google.common.eventbus.Subscribe;
+
+import com.twitter.aurora.gen.Attribute;
+import com.twitter.aurora.gen.HostAttributes;
+import com.twitter.aurora.gen.ScheduleStatus;
+import com.twitter.aurora.scheduler.base.Query;
+import com.twitter.aurora.scheduler.base.Tasks;
+import com.twitter.aurora.scheduler.events.PubsubEvent.EventSubscriber;
+import com.twitter.aurora.scheduler.events.PubsubEvent.HostAttributesChanged;
+import com.twitter.aurora.scheduler.events.PubsubEvent.StorageStarted;
+import com.twitter.aurora.scheduler.events.PubsubEvent.TaskStateChange;
+import com.twitter.aurora.scheduler.events.PubsubEvent.TasksDeleted;
+import com.twitter.aurora.scheduler.storage.Storage;
+import com.twitter.aurora.scheduler.storage.Storage.StoreProvider;
+import com.twitter.aurora.scheduler.storage.Storage.Work.Quiet;
+import com.twitter.aurora.scheduler.storage.entities.IAssignedTask;
+import com.twitter.aurora.scheduler.storage.entities.IJobKey;
+import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
+import com.twitter.common.stats.StatImpl;
+import com.twitter.common.stats.Stats;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An index of the number of active, assigned instances of each job that reside on hosts with a
+ * given attribute.  Limit constraints are evaluated against these counts.
+ * <p>
+ * The index is loaded from storage when storage starts, and kept current from task state change
+ * and host attribute change events thereafter.  This spares limit constraint evaluation from
+ * fetching all of a job's active tasks and the attributes of each of their hosts.
+ */
+public class JobAttributeCounts implements EventSubscriber {
+
+  @VisibleForTesting
+  static final Set<ScheduleStatus> COUNTED_STATES =
+      EnumSet.copyOf(Sets.difference(Tasks.ACTIVE_STATES, EnumSet.of(ScheduleStatus.PENDING)));
+
+  private final Storage storage;
+
+  // All fields are guarded by this object's monitor.
+  private final Map<String, CountedTask> tasks = Maps.newHashMap();
+  private final Map<String, Multiset<IJobKey>> jobsByHost = Maps.newHashMap();
+  // Attributes of hosts in jobsByHost, as they were when counted.
+  private final Map<String, Set<Attribute>> attributesByHost = Maps.newHashMap();
+  private final Map<IJobKey, Multiset<Attribute>> counts = Maps.newHashMap();
+
+  @Inject
+  public JobAttributeCounts(Storage storage) {
+    this.storage = checkNotNull(storage);
+
+    Stats.export(new StatImpl<Integer>("job_attribute_counts_tasks") {
+      @Override public Integer read() {
+        return size();
+      }
+    });
+  }
+
+  private synchronized int size() {
+    return tasks.size();
+  }
+
+  private static Set<Attribute> attributesOf(Optional<HostAttributes> attributes) {
+    return (attributes.isPresent() && attributes.get().isSetAttributes())
+        ? ImmutableSet.copyOf(attributes.get().getAttributes())
+        : ImmutableSet.<Attribute>of();
+  }
+
+  private Set<Attribute> getAttributes(final String host) {
+    Set<Attribute> attributes = attributesByHost.get(host);
+    if (attributes == null) {
+      attributes = storage.weaklyConsistentRead(new Quiet<Set<Attribute>>() {
+        @Override public Set<Attribute> apply(StoreProvider storeProvider) {
+          return storeProvider.getAttributeStore().getAttributes(host);
+        }
+      });
+      attributesByHost.put(host, attributes);
+    }
+    return attributes;
+  }
+
+  private void adjust(IJobKey jobKey, Set<Attribute> attributes, int delta) {
+    Multiset<Attribute> jobCounts = counts.get(jobKey);
+    if (jobCounts == null) {
+      jobCounts = HashMultiset.create();
+      counts.put(jobKey, jobCounts);
+    }
+    for (Attribute attribute : attributes) {
+      if (delta > 0) {
+        jobCounts.add(attribute, delta);
+      } else {
+        jobCounts.remove(attribute, -delta);
+      }
+    }
+    if (jobCounts.isEmpty()) {
+      counts.remove(jobKey);
+    }
+  }
+
+  private void add(IAssignedTask task) {
+    if (tasks.containsKey(task.getTaskId()) || !task.isSetSlaveHost()) {
+      return;
+    }
+
+    CountedTask counted =
+        new CountedTask(Tasks.ASSIGNED_TO_JOB_KEY.apply(task), task.getSlaveHost());
+    tasks.put(task.getTaskId(), counted);
+
+    Multiset<IJobKey> jobs = jobsByHost.get(counted.host);
+    if (jobs == null) {
+      jobs = HashMultiset.create();
+      jobsByHost.put(counted.host, jobs);
+    }
+    jobs.add(counted.jobKey);
+    adjust(counted.jobKey, getAttributes(counted.host), 1);
+  }
+
+  private void remove(String taskId) {
+    CountedTask counted = tasks.remove(taskId);
+    if (counted != null) {
+      adjust(counted.jobKey, attributesByHost.get(counted.host), -1);
+      Multiset<IJobKey> jobs = jobsByHost.get(counted.host);
+      jobs.remove(counted.jobKey);
+      if (jobs.isEmpty()) {
+        jobsByHost.remove(counted.host);
+        attributesByHost.remove(counted.host);
+      }
+    }
+  }
+
+  /**
+   * Loads the counts from storage once it is consistent.
+   *
+   * @param event Storage started notification.
+   */
+  @Subscribe
+  public void storageStarted(StorageStarted event) {
+    Set<IScheduledTask> activeTasks =
+        Storage.Util.consistentFetchTasks(storage, Query.statusScoped(COUNTED_STATES));
+    synchronized (this) {
+      tasks.clear();
+      jobsByHost.clear();
+      attributesByHost.clear();
+      counts.clear();
+      for (IScheduledTask task : activeTasks) {
+        add(task.getAssignedTask());
+      }
+    }
+  }
+
+  /**
+   * Counts or discounts a task, depending on whether its new state is active and assigned.
+   *
+   * @param stateChange State change notification.
+   */
+  @Subscribe
+  public synchronized void taskChangedState(TaskStateChange stateChange) {
+    if (COUNTED_STATES.contains(stateChange.getNewState())) {
+      add(stateChange.getTask().getAssignedTask());
+    } else {
+      remove(stateChange.getTaskId());
+    }
+  }
+
+  /**
+   * Discounts deleted tasks.
+   *
+   * @param deleted Tasks deleted event.
+   */
+  @Subscribe
+  public synchronized void tasksDeleted(TasksDeleted deleted) {
+    for (IScheduledTask task : deleted.getTasks()) {
+      remove(Tasks.id(task));
+    }
+  }
+
+  /**
+   * Moves the counts of tasks on a host from its old attributes to its new attributes.
+   *
+   * @param event Host attributes change notification.
+   */
+  @Subscribe
+  public synchronized void hostAttributesChanged(HostAttributesChanged event) {
+    String host = event.getAttributes().getHost();
+    Multiset<IJobKey> jobs = jobsByHost.get(host);
+    if (jobs == null) {
+      // No tasks are counted against this host, its attributes will be loaded when needed.
+      return;
+    }
+
+    Set<Attribute> oldAttributes = attributesByHost.get(host);
+    Set<Attribute> newAttributes = attributesOf(Optional.of(event.getAttributes()));
+    for (Multiset.Entry<IJobKey> entry : jobs.entrySet()) {
+      adjust(entry.getElement(), oldAttributes, -entry.getCount());
+      adjust(entry.getElement(), newAttributes, entry.getCount());
+    }
+    attributesByHost.put(host, newAttributes);
+  }
+
+  /**
+   * Gets the number of active instances of a job that reside on hosts with an attribute.
+   *
+   * @param jobKey Job to count instances of.
+   * @param attribute Host attribute, including all of its values.
+   * @return The number of counted instances.
+   */
+  synchronized int getCount(IJobKey jobKey, Attribute attribute) {
+    Multiset<Attribute> jobCounts = counts.get(jobKey);
+    return (jobCounts == null) ? 0 : jobCounts.count(attribute);
+  }
+
+  private static final class CountedTask {
+    private final IJobKey jobKey;
+    private final String host;
+
+    CountedTask(IJobKey jobKey, String host) {
+      this.jobKey = jobKey;
+      this.host = host;
+    }
+  }
+}
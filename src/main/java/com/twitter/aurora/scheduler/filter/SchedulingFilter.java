@@ -20,8 +20,8 @@ import java.util.Set;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Objects;
 
+import com.twitter.aurora.scheduler.HostOffer;
 import com.twitter.aurora.scheduler.ResourceSlot;
-import com.twitter.aurora.scheduler.storage.entities.ITaskConfig;
 
 /**
  * Determines whether a proposed scheduling assignment should be allowed.
@@ -107,10 +107,22 @@ public interface SchedulingFilter {
    *
    * @param offer Resources offered.
    * @param slaveHost Host that the resources are associated with.
-   * @param task Task.
+   * @param task Compiled scheduling requirements of the task.
    * @param taskId Canonical ID of the task.
    * @return A set of vetoes indicating reasons the task cannot be scheduled.  If the task may be
    *    scheduled, the set will be empty.
    */
-  Set<Veto> filter(ResourceSlot offer, String slaveHost, ITaskConfig task, String taskId);
+  Set<Veto> filter(ResourceSlot offer, String slaveHost, FilterProgram task, String taskId);
+
+  /**
+   * Applies a task against the filter with the resources of an offer.  The host attributes and
+   * maintenance mode are taken from the offer rather than read from storage.
+   *
+   * @param offer Offer, with the resources that remain available in it.
+   * @param task Compiled scheduling requirements of the task.
+   * @param taskId Canonical ID of the task.
+   * @return A set of vetoes indicating reasons the task cannot be scheduled.  If the task may be
+   *    scheduled, the set will be empty.
+   */
+  Set<Veto> filter(HostOffer offer, FilterProgram task, String taskId);
 }
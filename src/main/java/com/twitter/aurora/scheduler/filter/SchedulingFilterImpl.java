@@ -15,40 +15,24 @@
  */
 package com.twitter.aurora.scheduler.filter;
 
-import java.util.Collection;
-import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.Set;
 
 import javax.inject.Inject;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.base.Function;
 import com.google.common.base.Optional;
-import com.google.common.base.Supplier;
-import com.google.common.base.Suppliers;
-import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Ordering;
-import com.google.common.collect.Sets;
 
 import com.twitter.aurora.gen.Attribute;
 import com.twitter.aurora.gen.MaintenanceMode;
-import com.twitter.aurora.gen.ScheduleStatus;
-import com.twitter.aurora.gen.TaskConstraint;
+import com.twitter.aurora.scheduler.HostOffer;
 import com.twitter.aurora.scheduler.ResourceSlot;
-import com.twitter.aurora.scheduler.base.Query;
-import com.twitter.aurora.scheduler.base.Tasks;
-import com.twitter.aurora.scheduler.configuration.ConfigurationManager;
-import com.twitter.aurora.scheduler.state.MaintenanceController;
 import com.twitter.aurora.scheduler.storage.AttributeStore;
 import com.twitter.aurora.scheduler.storage.Storage;
 import com.twitter.aurora.scheduler.storage.Storage.StoreProvider;
 import com.twitter.aurora.scheduler.storage.Storage.Work.Quiet;
 import com.twitter.aurora.scheduler.storage.entities.IConstraint;
-import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
-import com.twitter.aurora.scheduler.storage.entities.ITaskConfig;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Data;
 
@@ -56,11 +40,6 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 import static com.twitter.aurora.gen.MaintenanceMode.DRAINED;
 import static com.twitter.aurora.gen.MaintenanceMode.DRAINING;
-import static com.twitter.aurora.scheduler.configuration.ConfigurationManager.DEDICATED_ATTRIBUTE;
-import static com.twitter.aurora.scheduler.filter.SchedulingFilterImpl.ResourceVector.CPU;
-import static com.twitter.aurora.scheduler.filter.SchedulingFilterImpl.ResourceVector.DISK;
-import static com.twitter.aurora.scheduler.filter.SchedulingFilterImpl.ResourceVector.PORTS;
-import static com.twitter.aurora.scheduler.filter.SchedulingFilterImpl.ResourceVector.RAM;
 
 /**
  * Implementation of the scheduling filter that ensures resource requirements of tasks are
@@ -77,39 +56,19 @@ public class SchedulingFilterImpl implements SchedulingFilter {
   private static final Set<MaintenanceMode> VETO_MODES = EnumSet.of(DRAINING, DRAINED);
 
   private final Storage storage;
-  private final MaintenanceController maintenance;
+  private final JobAttributeCounts counts;
+  private final StaticVetoCache staticVetoes = new StaticVetoCache();
 
   /**
    * Creates a new scheduling filter.
    *
    * @param storage Interface to accessing the task store.
-   * @param maintenance Interface to accessing the maintenance controller
+   * @param counts Counts of active job instances per host attribute, for limit constraints.
    */
   @Inject
-  public SchedulingFilterImpl(Storage storage, MaintenanceController maintenance) {
+  public SchedulingFilterImpl(Storage storage, JobAttributeCounts counts) {
     this.storage = checkNotNull(storage);
-    this.maintenance = checkNotNull(maintenance);
-  }
-
-  /**
-   * A function that fetches attributes associated with a given host.
-   */
-  public interface AttributeLoader extends Function<String, Iterable<Attribute>> { }
-
-  /**
-   * A function that may veto a task.
-   */
-  private interface FilterRule extends Function<ITaskConfig, Iterable<Veto>> { }
-
-  /**
-   * Convenience class for a rule that will only ever have a single veto.
-   */
-  private abstract static class SingleVetoRule implements FilterRule {
-    @Override public final Iterable<Veto> apply(ITaskConfig task) {
-      return doApply(task).asSet();
-    }
-
-    abstract Optional<Veto> doApply(ITaskConfig task);
+    this.counts = checkNotNull(counts);
   }
 
   // Scaling ranges to use for comparison of vetos.  This has no real bearing besides trying to
@@ -134,15 +93,6 @@ public class SchedulingFilterImpl implements SchedulingFilter {
       this.range = range;
     }
 
-    Optional<Veto> maybeVeto(double available, double requested) {
-      double tooLarge = requested - available;
-      if (tooLarge <= 0) {
-        return NO_VETO;
-      } else {
-        return Optional.of(veto(tooLarge));
-      }
-    }
-
     private static int scale(double value, int range) {
       return Math.min(Veto.MAX_SCORE, (int) ((Veto.MAX_SCORE * value)) / range);
     }
@@ -153,142 +103,101 @@ public class SchedulingFilterImpl implements SchedulingFilter {
     }
   }
 
-  private Iterable<FilterRule> rulesFromOffer(final ResourceSlot available) {
-    return ImmutableList.<FilterRule>of(
-        new SingleVetoRule() {
-          @Override public Optional<Veto> doApply(ITaskConfig task) {
-            return CPU.maybeVeto(
-                available.getNumCpus(),
-                ResourceSlot.from(task).getNumCpus());
-          }
-        },
-        new SingleVetoRule() {
-          @Override public Optional<Veto> doApply(ITaskConfig task) {
-            return RAM.maybeVeto(
-                available.getRam().as(Data.MB),
-                ResourceSlot.from(task).getRam().as(Data.MB));
-          }
-        },
-        new SingleVetoRule() {
-          @Override public Optional<Veto> doApply(ITaskConfig task) {
-            return DISK.maybeVeto(available.getDisk().as(Data.MB),
-                ResourceSlot.from(task).getDisk().as(Data.MB));
-          }
-        },
-        new SingleVetoRule() {
-          @Override public Optional<Veto> doApply(ITaskConfig task) {
-            return PORTS.maybeVeto(available.getNumPorts(),
-                ResourceSlot.from(task).getNumPorts());
-          }
-        }
-    );
-  }
-
-  private static boolean isValueConstraint(IConstraint constraint) {
-    return constraint.getConstraint().getSetField() == TaskConstraint._Fields.VALUE;
-  }
-
-  private static final Ordering<IConstraint> VALUES_FIRST = Ordering.from(
-      new Comparator<IConstraint>() {
-        @Override public int compare(IConstraint a, IConstraint b) {
-          if (a.getConstraint().getSetField() == b.getConstraint().getSetField()) {
-            return 0;
-          }
-          return isValueConstraint(a) ? -1 : 1;
-        }
-      });
-
-  private static final Iterable<ScheduleStatus> ACTIVE_NOT_PENDING_STATES =
-      EnumSet.copyOf(Sets.difference(Tasks.ACTIVE_STATES, EnumSet.of(ScheduleStatus.PENDING)));
-
-  private FilterRule getConstraintFilter(final String slaveHost) {
-    return new FilterRule() {
-      @Override public Iterable<Veto> apply(final ITaskConfig task) {
-        if (!task.isSetConstraints()) {
-          return ImmutableList.of();
-        }
-
-        // In the interest of performance, we perform a weakly consistent read here.  The biggest
-        // risk of this is that we might schedule against stale host attributes, or we might fail
-        // to correctly satisfy a diversity constraint.  Given that the likelihood is relatively low
-        // for both of these, and the impact is also low, the weak consistency is acceptable.
-        return storage.weaklyConsistentRead(new Quiet<Iterable<Veto>>() {
-          @Override public Iterable<Veto> apply(final StoreProvider storeProvider) {
-            AttributeLoader attributeLoader = new AttributeLoader() {
-              @Override public Iterable<Attribute> apply(String host) {
-                return AttributeStore.Util.attributesOrNone(storeProvider, host);
-              }
-            };
-
-            Supplier<Collection<IScheduledTask>> activeTasksSupplier =
-                Suppliers.memoize(new Supplier<Collection<IScheduledTask>>() {
-                  @Override public Collection<IScheduledTask> get() {
-                    return storeProvider.getTaskStore().fetchTasks(
-                        Query.jobScoped(Tasks.INFO_TO_JOB_KEY.apply(task))
-                            .byStatus(ACTIVE_NOT_PENDING_STATES));
-                  }
-                });
-
-            ConstraintFilter constraintFilter = new ConstraintFilter(
-                Tasks.INFO_TO_JOB_KEY.apply(task),
-                activeTasksSupplier,
-                attributeLoader,
-                attributeLoader.apply(slaveHost));
-            ImmutableList.Builder<Veto> vetoes = ImmutableList.builder();
-            for (IConstraint constraint : VALUES_FIRST.sortedCopy(task.getConstraints())) {
-              Optional<Veto> veto = constraintFilter.apply(constraint);
-              if (veto.isPresent()) {
-                vetoes.add(veto.get());
-                if (isValueConstraint(constraint)) {
-                  // Break when a value constraint mismatch is found to avoid other
-                  // potentially-expensive operations to satisfy other constraints.
-                  break;
-                }
-              }
-            }
+  private Set<Veto> getLimitVetoes(FilterProgram task, Set<Attribute> hostAttributes) {
+    if (task.getLimitConstraints().isEmpty()) {
+      return ImmutableSet.of();
+    }
 
-            return vetoes.build();
-          }
-        });
-      }
-    };
+    ImmutableSet.Builder<Veto> vetoes = ImmutableSet.builder();
+    for (IConstraint constraint : task.getLimitConstraints()) {
+      vetoes.addAll(ConstraintFilter.evaluateLimit(
+          constraint,
+          task.getJobKey(),
+          counts,
+          hostAttributes).asSet());
+    }
+    return vetoes.build();
   }
 
-  private Optional<Veto> getMaintenanceVeto(String slaveHost) {
-    MaintenanceMode mode = maintenance.getMode(slaveHost);
+  private static Optional<Veto> getMaintenanceVeto(MaintenanceMode mode) {
     return VETO_MODES.contains(mode)
         ? Optional.of(ConstraintFilter.maintenanceVeto(mode.toString().toLowerCase()))
         : NO_VETO;
   }
 
-  private Set<Veto> getResourceVetoes(ResourceSlot offer, ITaskConfig task) {
-    ImmutableSet.Builder<Veto> builder = ImmutableSet.builder();
-    for (FilterRule rule : rulesFromOffer(offer)) {
-      builder.addAll(rule.apply(task));
+  private Set<Veto> getVetoes(
+      ResourceSlot available,
+      FilterProgram task,
+      Set<Attribute> hostAttributes,
+      Optional<Veto> staticVeto,
+      MaintenanceMode mode) {
+
+    Set<Veto> constraintVetoes = staticVeto.isPresent()
+        ? staticVeto.asSet()
+        : getLimitVetoes(task, hostAttributes);
+    Set<Veto> resourceVetoes = task.getResourceVetoes(available);
+    Optional<Veto> maintenanceVeto = getMaintenanceVeto(mode);
+    if (constraintVetoes.isEmpty() && resourceVetoes.isEmpty() && !maintenanceVeto.isPresent()) {
+      return ImmutableSet.of();
     }
-    return builder.build();
+
+    return ImmutableSet.<Veto>builder()
+        .addAll(constraintVetoes)
+        .addAll(resourceVetoes)
+        .addAll(maintenanceVeto.asSet())
+        .build();
   }
 
-  private boolean isDedicated(final String slaveHost) {
-    Iterable<Attribute> slaveAttributes =
-        storage.weaklyConsistentRead(new Quiet<Iterable<Attribute>>() {
-          @Override public Iterable<Attribute> apply(final StoreProvider storeProvider) {
-            return AttributeStore.Util.attributesOrNone(storeProvider, slaveHost);
-          }
-        });
+  private static boolean isDedicatedVeto(Optional<Veto> staticVeto) {
+    return staticVeto.isPresent() && staticVeto.get().equals(DEDICATED_HOST_VETO);
+  }
+
+  @Override
+  public Set<Veto> filter(
+      final ResourceSlot offer,
+      final String slaveHost,
+      final FilterProgram task,
+      String taskId) {
+
+    // In the interest of performance, we perform a weakly consistent read here.  The biggest
+    // risk of this is that we might schedule against stale host attributes.  Given that the
+    // likelihood is relatively low, and the impact is also low, the weak consistency is
+    // acceptable.
+    return storage.weaklyConsistentRead(new Quiet<Set<Veto>>() {
+      @Override public Set<Veto> apply(StoreProvider storeProvider) {
+        AttributeStore attributeStore = storeProvider.getAttributeStore();
+        Set<Attribute> hostAttributes = attributeStore.getAttributes(slaveHost);
+
+        // A dedicated or value constraint mismatch skips evaluation of limit constraints, which
+        // are potentially expensive.
+        Optional<Veto> staticVeto = staticVetoes.getVeto(task, slaveHost, hostAttributes);
+        if (isDedicatedVeto(staticVeto)) {
+          return staticVeto.asSet();
+        }
 
-    return Iterables.any(slaveAttributes, new ConstraintFilter.NameFilter(DEDICATED_ATTRIBUTE));
+        return getVetoes(
+            offer,
+            task,
+            hostAttributes,
+            staticVeto,
+            attributeStore.getMaintenanceMode(slaveHost));
+      }
+    });
   }
 
   @Override
-  public Set<Veto> filter(ResourceSlot offer, String slaveHost, ITaskConfig task, String taskId) {
-    if (!ConfigurationManager.isDedicated(task) && isDedicated(slaveHost)) {
-      return ImmutableSet.of(DEDICATED_HOST_VETO);
+  public Set<Veto> filter(HostOffer offer, FilterProgram task, String taskId) {
+    String slaveHost = offer.getOffer().getHostname();
+    Optional<Veto> staticVeto = staticVetoes.getVeto(task, slaveHost, offer.getAttributes());
+    if (isDedicatedVeto(staticVeto)) {
+      return staticVeto.asSet();
     }
-    return ImmutableSet.<Veto>builder()
-        .addAll(getConstraintFilter(slaveHost).apply(task))
-        .addAll(getResourceVetoes(offer, task))
-        .addAll(getMaintenanceVeto(slaveHost).asSet())
-        .build();
+
+    return getVetoes(
+        offer.getResources(),
+        task,
+        offer.getAttributes(),
+        staticVeto,
+        offer.getMode());
   }
 }
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.filter;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+
+import com.twitter.aurora.gen.Attribute;
+import com.twitter.aurora.scheduler.filter.SchedulingFilter.Veto;
+import com.twitter.aurora.scheduler.storage.entities.IConstraint;
+import com.twitter.common.stats.StatImpl;
+import com.twitter.common.stats.Stats;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import static com.twitter.aurora.scheduler.configuration.ConfigurationManager.DEDICATED_ATTRIBUTE;
+
+/**
+ * A cache of scheduling vetoes that depend only on a task's constraints and the attributes of a
+ * host: dedicated host mismatches and value constraint mismatches.
+ * <p>
+ * All tasks in a job share their constraints, so the same (constraints, host) pair is evaluated
+ * repeatedly while a job is pending.  Each entry remembers the host attributes it was computed
+ * against, and is recomputed when the host's attributes change.
+ */
+class StaticVetoCache {
+
+  private static final int MAX_ENTRIES = 100000;
+
+  private final Cache<Key, Entry> cache = CacheBuilder.newBuilder()
+      .maximumSize(MAX_ENTRIES)
+      .build();
+
+  private final AtomicLong hits = Stats.exportLong("scheduling_filter_static_veto_cache_hits");
+  private final AtomicLong misses = Stats.exportLong("scheduling_filter_static_veto_cache_misses");
+
+  StaticVetoCache() {
+    Stats.export(new StatImpl<Double>("scheduling_filter_static_veto_cache_hit_rate") {
+      @Override public Double read() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return (total == 0) ? 0.0 : ((double) hitCount) / total;
+      }
+    });
+  }
+
+  private static Optional<Veto> computeVeto(FilterProgram task, Set<Attribute> hostAttributes) {
+    if (!task.isDedicated()
+        && Iterables.any(hostAttributes, new ConstraintFilter.NameFilter(DEDICATED_ATTRIBUTE))) {
+
+      return Optional.of(SchedulingFilterImpl.DEDICATED_HOST_VETO);
+    }
+
+    for (IConstraint constraint : task.getValueConstraints()) {
+      Optional<Veto> veto = ConstraintFilter.valueVeto(constraint, hostAttributes);
+      if (veto.isPresent()) {
+        return veto;
+      }
+    }
+
+    return Optional.absent();
+  }
+
+  /**
+   * Gets the static veto for a task on a host, computing it if no cached result exists for the
+   * host's current attributes.
+   *
+   * @param task Compiled task to evaluate.
+   * @param slaveHost Host to evaluate the task against.
+   * @param hostAttributes Current attributes of {@code slaveHost}.
+   * @return The first dedicated or value constraint veto for the task on the host, if any.
+   */
+  Optional<Veto> getVeto(FilterProgram task, String slaveHost, Set<Attribute> hostAttributes) {
+    Key key = new Key(slaveHost, task.getConstraints(), task.getConstraintsHash());
+    Entry entry = cache.getIfPresent(key);
+    if ((entry != null) && entry.hostAttributes.equals(hostAttributes)) {
+      hits.incrementAndGet();
+      return entry.veto;
+    }
+
+    misses.incrementAndGet();
+    Set<Attribute> attributes = ImmutableSet.copyOf(hostAttributes);
+    Optional<Veto> veto = computeVeto(task, attributes);
+    cache.put(key, new Entry(attributes, veto));
+    return veto;
+  }
+
+  private static final class Key {
+    private final String slaveHost;
+    private final Set<IConstraint> constraints;
+    private final int constraintsHash;
+
+    Key(String slaveHost, Set<IConstraint> constraints, int constraintsHash) {
+      this.slaveHost = checkNotNull(slaveHost);
+      this.constraints = checkNotNull(constraints);
+      this.constraintsHash = constraintsHash;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * slaveHost.hashCode() + constraintsHash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+
+      Key other = (Key) o;
+      return (constraintsHash == other.constraintsHash)
+          && slaveHost.equals(other.slaveHost)
+          && ((constraints == other.constraints) || constraints.equals(other.constraints));
+    }
+  }
+
+  private static final class Entry {
+    private final Set<Attribute> hostAttributes;
+    private final Optional<Veto> veto;
+
+    Entry(Set<Attribute> hostAttributes, Optional<Veto> veto) {
+      this.hostAttributes = hostAttributes;
+      this.veto = veto;
+    }
+  }
+}
@@ -31,10 +31,10 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Multimaps;
 
-import com.twitter.aurora.gen.HostAttributes;
 import com.twitter.aurora.gen.MaintenanceMode;
 import com.twitter.aurora.scheduler.base.Query;
 import com.twitter.aurora.scheduler.base.Tasks;
+import com.twitter.aurora.scheduler.storage.AttributeStore;
 import com.twitter.aurora.scheduler.storage.Storage;
 import com.twitter.aurora.scheduler.storage.Storage.StoreProvider;
 import com.twitter.aurora.scheduler.storage.Storage.Work;
@@ -61,15 +61,13 @@ public class Maintenance {
   public Response getHosts() {
     return storage.weaklyConsistentRead(new Work.Quiet<Response>() {
       @Override public Response apply(StoreProvider storeProvider) {
-        Multimap<MaintenanceMode, String> hostsByMode =
-            Multimaps.transformValues(
-              Multimaps.index(storeProvider.getAttributeStore().getHostAttributes(), GET_MODE),
-              HOST_NAME);
-
+        AttributeStore attributeStore = storeProvider.getAttributeStore();
         Map<MaintenanceMode, Object> hosts = Maps.newHashMap();
-        hosts.put(DRAINED, ImmutableSet.copyOf(hostsByMode.get(DRAINED)));
-        hosts.put(SCHEDULED, ImmutableSet.copyOf(hostsByMode.get(SCHEDULED)));
-        hosts.put(DRAINING, getTasksByHosts(storeProvider, hostsByMode.get(DRAINING)).asMap());
+        hosts.put(DRAINED, attributeStore.getHostsInMode(DRAINED));
+        hosts.put(SCHEDULED, attributeStore.getHostsInMode(SCHEDULED));
+        hosts.put(
+            DRAINING,
+            getTasksByHosts(storeProvider, attributeStore.getHostsInMode(DRAINING)).asMap());
         return Response.ok(hosts).build();
       }
     });
@@ -91,18 +89,4 @@ public class Maintenance {
           return task.getAssignedTask().getSlaveHost();
         }
       };
-
-  private static final Function<HostAttributes, String> HOST_NAME =
-      new Function<HostAttributes, String>() {
-        @Override public String apply(HostAttributes attributes) {
-          return attributes.getHost();
-        }
-      };
-
-  private static final Function<HostAttributes, MaintenanceMode> GET_MODE =
-      new Function<HostAttributes, MaintenanceMode>() {
-        @Override public MaintenanceMode apply(HostAttributes attrs) {
-          return attrs.getMode();
-        }
-      };
 }
@@ -35,6 +35,7 @@ import org.apache.mesos.Protos.Offer;
 import org.apache.mesos.Protos.Resource;
 import org.apache.mesos.Protos.Value.Range;
 
+import com.twitter.aurora.scheduler.HostOffer;
 import com.twitter.aurora.scheduler.async.OfferQueue;
 
 /**
@@ -59,9 +60,19 @@ public class Offers {
   @Produces(MediaType.APPLICATION_JSON)
   public Response getOffers() {
     return Response.ok(
-        FluentIterable.from(offerQueue.getOffers()).transform(TO_BEAN).toList()).build();
+        FluentIterable.from(offerQueue.getOffers())
+            .transform(TO_OFFER)
+            .transform(TO_BEAN)
+            .toList())
+        .build();
   }
 
+  private static final Function<HostOffer, Offer> TO_OFFER = new Function<HostOffer, Offer>() {
+    @Override public Offer apply(HostOffer offer) {
+      return offer.getOffer();
+    }
+  };
+
   private static final Function<ExecutorID, String> EXECUTOR_ID_TOSTRING =
       new Function<ExecutorID, String>() {
         @Override public String apply(ExecutorID id) {
@@ -41,11 +41,13 @@ import com.twitter.aurora.Protobufs;
 import com.twitter.aurora.codec.ThriftBinaryCodec;
 import com.twitter.aurora.codec.ThriftBinaryCodec.CodingException;
 import com.twitter.aurora.gen.comm.AdjustRetainedTasks;
+import com.twitter.aurora.scheduler.HostOffer;
 import com.twitter.aurora.scheduler.PulseMonitor;
 import com.twitter.aurora.scheduler.TaskLauncher;
 import com.twitter.aurora.scheduler.base.CommandUtil;
 import com.twitter.aurora.scheduler.base.Query;
 import com.twitter.aurora.scheduler.base.Tasks;
+import com.twitter.aurora.scheduler.configuration.ResourceBag;
 import com.twitter.aurora.scheduler.configuration.Resources;
 import com.twitter.aurora.scheduler.storage.Storage;
 import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
@@ -82,6 +84,9 @@ public class GcExecutorLauncher implements TaskLauncher {
   static final Resources EPSILON =
       new Resources(0.01, Amount.of(1L, Data.MB), Amount.of(1L, Data.MB), 0);
 
+  private static final ResourceBag TOTAL_GC_EXECUTOR_BAG =
+      ResourceBag.from(TOTAL_GC_EXECUTOR_RESOURCES);
+
   private static final Resources GC_EXECUTOR_RESOURCES =
       Resources.subtract(TOTAL_GC_EXECUTOR_RESOURCES, EPSILON);
 
@@ -104,9 +109,10 @@ public class GcExecutorLauncher implements TaskLauncher {
   }
 
   @Override
-  public Optional<TaskInfo> createTask(Offer offer) {
+  public Optional<TaskInfo> createTask(HostOffer hostOffer) {
+    Offer offer = hostOffer.getOffer();
     if (!gcExecutorPath.isPresent()
-        || !Resources.from(offer).greaterThanOrEqual(TOTAL_GC_EXECUTOR_RESOURCES)
+        || !TOTAL_GC_EXECUTOR_BAG.fits(hostOffer.getResources().getResources())
         || pulseMonitor.isAlive(offer.getHostname())) {
       return Optional.absent();
     }
@@ -17,6 +17,7 @@ package com.twitter.aurora.scheduler.quota;
 
 import com.google.common.annotations.VisibleForTesting;
 
+import com.twitter.aurora.scheduler.configuration.ResourceBag;
 import com.twitter.aurora.scheduler.storage.entities.IQuota;
 
 /**
@@ -58,6 +59,10 @@ class QuotaComparisonResult {
   }
 
   static QuotaComparisonResult greaterOrEqual(IQuota a, IQuota b) {
+    return greaterOrEqual(ResourceBag.from(a), ResourceBag.from(b));
+  }
+
+  static QuotaComparisonResult greaterOrEqual(ResourceBag a, ResourceBag b) {
     StringBuilder details = new StringBuilder();
     boolean result = compare(a.getNumCpus(), b.getNumCpus(), Resource.CPU, details)
         & compare(a.getRamMb(), b.getRamMb(), Resource.RAM, details)
@@ -20,6 +20,7 @@ import com.google.inject.Inject;
 
 import com.twitter.aurora.scheduler.base.Query;
 import com.twitter.aurora.scheduler.base.Tasks;
+import com.twitter.aurora.scheduler.configuration.ResourceBag;
 import com.twitter.aurora.scheduler.storage.Storage;
 import com.twitter.aurora.scheduler.storage.Storage.StoreProvider;
 import com.twitter.aurora.scheduler.storage.Storage.Work;
@@ -53,17 +54,23 @@ public interface QuotaManager {
       this.storage = checkNotNull(storage);
     }
 
+    private static ResourceBag getConsumption(StoreProvider storeProvider, String role) {
+      Query.Builder query = Query.roleScoped(role).active();
+      return Quotas.resourcesOf(Iterables.filter(
+          Iterables.transform(
+              storeProvider.getTaskStore().fetchTasks(query),
+              Tasks.SCHEDULED_TO_INFO),
+          Tasks.IS_PRODUCTION));
+    }
+
     @Override
     public IQuota getConsumption(final String role) {
       checkNotBlank(role);
 
-      final Query.Builder query = Query.roleScoped(role).active();
-
       return storage.consistentRead(
           new Work.Quiet<IQuota>() {
             @Override public IQuota apply(StoreProvider storeProvider) {
-              return Quotas.fromProductionTasks(Iterables.transform(
-                  storeProvider.getTaskStore().fetchTasks(query), Tasks.SCHEDULED_TO_INFO));
+              return getConsumption(storeProvider, role).toQuota();
             }
           });
     }
@@ -82,8 +89,10 @@ public interface QuotaManager {
 
       return storage.consistentRead(new Quiet<QuotaComparisonResult>() {
         @Override public QuotaComparisonResult apply(StoreProvider storeProvider) {
-          IQuota reserved = storeProvider.getQuotaStore().fetchQuota(role).or(Quotas.noQuota());
-          return Quotas.greaterOrEqual(reserved, Quotas.add(getConsumption(role), quota));
+          ResourceBag reserved = ResourceBag.from(
+              storeProvider.getQuotaStore().fetchQuota(role).or(Quotas.noQuota()));
+          ResourceBag requested = getConsumption(storeProvider, role).add(ResourceBag.from(quota));
+          return QuotaComparisonResult.greaterOrEqual(reserved, requested);
         }
       });
     }
@@ -21,6 +21,7 @@ import com.google.common.collect.Ordering;
 
 import com.twitter.aurora.gen.Quota;
 import com.twitter.aurora.scheduler.base.Tasks;
+import com.twitter.aurora.scheduler.configuration.ResourceBag;
 import com.twitter.aurora.scheduler.storage.entities.IQuota;
 import com.twitter.aurora.scheduler.storage.entities.ITaskConfig;
 
@@ -76,19 +77,21 @@ public final class Quotas {
    * @return Quota requirement to run {@code tasks}.
    */
   public static IQuota fromTasks(Iterable<ITaskConfig> tasks) {
-    double cpu = 0;
-    int ramMb = 0;
-    int diskMb = 0;
+    return resourcesOf(tasks).toQuota();
+  }
+
+  /**
+   * Sums the resources required by the given tasks, without building intermediate quotas.
+   *
+   * @param tasks Tasks to sum resources of.
+   * @return Resources required to run {@code tasks}.
+   */
+  static ResourceBag resourcesOf(Iterable<ITaskConfig> tasks) {
+    ResourceBag sum = ResourceBag.EMPTY;
     for (ITaskConfig task : tasks) {
-      cpu += task.getNumCpus();
-      ramMb += task.getRamMb();
-      diskMb += task.getDiskMb();
+      sum = sum.add(ResourceBag.from(task));
     }
-
-    return IQuota.build(new Quota()
-        .setNumCpus(cpu)
-        .setRamMb(ramMb)
-        .setDiskMb(diskMb));
+    return sum;
   }
 
   /**
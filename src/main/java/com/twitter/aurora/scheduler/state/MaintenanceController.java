@@ -22,8 +22,6 @@ import javax.inject.Inject;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
-import com.google.common.base.Predicate;
-import com.google.common.base.Predicates;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
@@ -150,12 +148,6 @@ public interface MaintenanceController {
       return watchDrainingTasks(store, hosts, Closures.<Query.Builder>noop());
     }
 
-    private static final Predicate<HostAttributes> IS_DRAINING = new Predicate<HostAttributes>() {
-      @Override public boolean apply(HostAttributes attributes) {
-        return DRAINING == attributes.getMode();
-      }
-    };
-
     /**
      * Notifies the MaintenanceController that storage has started, and maintenance statuses are
      * ready to be loaded.
@@ -166,12 +158,9 @@ public interface MaintenanceController {
     public void storageStarted(StorageStarted started) {
       storage.write(new MutateWork.NoResult.Quiet() {
         @Override protected void execute(MutableStoreProvider storeProvider) {
-          Set<String> drainingHosts =
-              FluentIterable.from(storeProvider.getAttributeStore().getHostAttributes())
-                  .filter(IS_DRAINING)
-                  .transform(HOST_NAME)
-                  .toSet();
-          watchDrainingTasks(storeProvider, drainingHosts);
+          watchDrainingTasks(
+              storeProvider,
+              storeProvider.getAttributeStore().getHostsInMode(DRAINING));
         }
       });
     }
@@ -227,13 +216,6 @@ public interface MaintenanceController {
       });
     }
 
-    private static final Function<HostAttributes, String> HOST_NAME =
-        new Function<HostAttributes, String>() {
-          @Override public String apply(HostAttributes attributes) {
-            return attributes.getHost();
-          }
-        };
-
     private static final Function<HostAttributes, HostStatus> ATTRS_TO_STATUS =
         new Function<HostAttributes, HostStatus>() {
           @Override public HostStatus apply(HostAttributes attributes) {
@@ -241,21 +223,11 @@ public interface MaintenanceController {
           }
         };
 
-    private static final Function<HostStatus, MaintenanceMode> GET_MODE =
-      new Function<HostStatus, MaintenanceMode>() {
-        @Override public MaintenanceMode apply(HostStatus status) {
-          return status.getMode();
-        }
-      };
-
     @Override
     public MaintenanceMode getMode(final String host) {
       return storage.weaklyConsistentRead(new Work.Quiet<MaintenanceMode>() {
         @Override public MaintenanceMode apply(StoreProvider storeProvider) {
-          return storeProvider.getAttributeStore().getHostAttributes(host)
-              .transform(ATTRS_TO_STATUS)
-              .transform(GET_MODE)
-              .or(MaintenanceMode.NONE);
+          return storeProvider.getAttributeStore().getMaintenanceMode(host);
         }
       });
     }
@@ -264,11 +236,14 @@ public interface MaintenanceController {
     public Set<HostStatus> getStatus(final Set<String> hosts) {
       return storage.weaklyConsistentRead(new Work.Quiet<Set<HostStatus>>() {
         @Override public Set<HostStatus> apply(StoreProvider storeProvider) {
-          // Warning - this is filtering _all_ host attributes.  If using this to frequently query
-          // for a small set of hosts, a getHostAttributes variant should be added.
-          return FluentIterable.from(storeProvider.getAttributeStore().getHostAttributes())
-              .filter(Predicates.compose(Predicates.in(hosts), HOST_NAME))
-              .transform(ATTRS_TO_STATUS).toSet();
+          ImmutableSet.Builder<HostStatus> statuses = ImmutableSet.builder();
+          for (String host : hosts) {
+            statuses.addAll(
+                storeProvider.getAttributeStore().getHostAttributes(host)
+                    .transform(ATTRS_TO_STATUS)
+                    .asSet());
+          }
+          return statuses.build();
         }
       });
     }
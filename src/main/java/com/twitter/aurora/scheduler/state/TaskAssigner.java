@@ -25,10 +25,11 @@ import com.google.common.base.Optional;
 import org.apache.mesos.Protos.Offer;
 import org.apache.mesos.Protos.TaskInfo;
 
+import com.twitter.aurora.scheduler.HostOffer;
 import com.twitter.aurora.scheduler.MesosTaskFactory;
-import com.twitter.aurora.scheduler.ResourceSlot;
 import com.twitter.aurora.scheduler.base.Tasks;
 import com.twitter.aurora.scheduler.configuration.Resources;
+import com.twitter.aurora.scheduler.filter.FilterProgram;
 import com.twitter.aurora.scheduler.filter.SchedulingFilter;
 import com.twitter.aurora.scheduler.filter.SchedulingFilter.Veto;
 import com.twitter.aurora.scheduler.storage.entities.IAssignedTask;
@@ -37,19 +38,31 @@ import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
- * Responsible for matching a task against an offer.
+ * Responsible for matching a task against an offer, and assigning matched tasks.
  */
 public interface TaskAssigner {
 
   /**
-   * Tries to match a task against an offer.  If a match is found, the assigner should
-   * make the appropriate changes to the task and provide a non-empty result.
+   * Tries to match a task against an offer, selecting the ports the task would be assigned.
+   * Matching does not modify the task, and need not be performed within a storage write.
    *
-   * @param offer The resource offer.
-   * @param task The task to match against and optionally assign.
-   * @return Instructions for launching the task if matching and assignment were successful.
+   * @param offer The resource offer, with the resources that remain available in it.
+   * @param program Compiled scheduling requirements of the task's configuration.
+   * @param task The task to match.
+   * @return The ports selected for the task from the offer, if the task matched.
    */
-  Optional<TaskInfo> maybeAssign(Offer offer, IScheduledTask task);
+  Optional<Set<Integer>> match(HostOffer offer, FilterProgram program, IScheduledTask task);
+
+  /**
+   * Assigns a matched task to the slave of an offer.  This must be performed within the storage
+   * write that verified the task is still pending.
+   *
+   * @param offer The resource offer the task was matched against.
+   * @param taskId ID of the pending task to assign.
+   * @param ports Ports selected for the task when it was matched.
+   * @return Instructions for launching the task.
+   */
+  TaskInfo assign(Offer offer, String taskId, Set<Integer> ports);
 
   class TaskAssignerImpl implements TaskAssigner {
     private static final Logger LOG = Logger.getLogger(TaskAssignerImpl.class.getName());
@@ -69,34 +82,31 @@ public interface TaskAssigner {
       this.taskFactory = checkNotNull(taskFactory);
     }
 
-    private TaskInfo assign(Offer offer, IScheduledTask task) {
-      String host = offer.getHostname();
-      Set<Integer> selectedPorts =
-          Resources.getPorts(offer, task.getAssignedTask().getTask().getRequestedPorts().size());
-      IAssignedTask assigned = stateManager.assignTask(
-          Tasks.id(task),
-          host,
-          offer.getSlaveId(),
-          selectedPorts);
-      LOG.info(String.format("Offer on slave %s (id %s) is being assigned task for %s.",
-          host, offer.getSlaveId(), Tasks.id(task)));
-      return taskFactory.createFrom(assigned, offer.getSlaveId());
-    }
-
     @Override
-    public Optional<TaskInfo> maybeAssign(Offer offer, IScheduledTask task) {
-      Set<Veto> vetoes = filter.filter(
-          ResourceSlot.from(offer),
-          offer.getHostname(),
-          task.getAssignedTask().getTask(),
-          Tasks.id(task));
+    public Optional<Set<Integer>> match(
+        HostOffer offer,
+        FilterProgram program,
+        IScheduledTask task) {
+
+      Set<Veto> vetoes = filter.filter(offer, program, Tasks.id(task));
       if (vetoes.isEmpty()) {
-        return Optional.of(assign(offer, task));
+        return Optional.of(Resources.getPorts(
+            offer.getOffer(),
+            task.getAssignedTask().getTask().getRequestedPorts().size()));
       } else {
-        LOG.fine("Slave " + offer.getHostname() + " vetoed task " + Tasks.id(task)
+        LOG.fine("Slave " + offer.getOffer().getHostname() + " vetoed task " + Tasks.id(task)
             + ": " + vetoes);
         return Optional.absent();
       }
     }
+
+    @Override
+    public TaskInfo assign(Offer offer, String taskId, Set<Integer> ports) {
+      String host = offer.getHostname();
+      IAssignedTask assigned = stateManager.assignTask(taskId, host, offer.getSlaveId(), ports);
+      LOG.info(String.format("Offer on slave %s (id %s) is being assigned task for %s.",
+          host, offer.getSlaveId(), taskId));
+      return taskFactory.createFrom(assigned, offer.getSlaveId());
+    }
   }
 }
@@ -30,11 +30,8 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.AbstractModule;
 import com.google.inject.BindingAnnotation;
 
-import org.apache.mesos.Protos.Offer;
-
-import com.twitter.aurora.gen.Quota;
+import com.twitter.aurora.scheduler.HostOffer;
 import com.twitter.aurora.scheduler.async.OfferQueue;
-import com.twitter.aurora.scheduler.configuration.Resources;
 import com.twitter.aurora.scheduler.stats.SlotSizeCounter.ResourceSlotProvider;
 import com.twitter.aurora.scheduler.storage.entities.IQuota;
 import com.twitter.common.application.modules.LifecycleModule;
@@ -42,7 +39,6 @@ import com.twitter.common.args.Arg;
 import com.twitter.common.args.CmdLine;
 import com.twitter.common.base.Command;
 import com.twitter.common.quantity.Amount;
-import com.twitter.common.quantity.Data;
 import com.twitter.common.quantity.Time;
 
 import static java.lang.annotation.ElementType.FIELD;
@@ -111,15 +107,12 @@ public class AsyncStatsModule extends AbstractModule {
   }
 
   static class OfferAdapter implements ResourceSlotProvider {
-    private static final Function<Offer, IQuota> TO_QUOTA = new Function<Offer, IQuota>() {
-      @Override public IQuota apply(Offer offer) {
-        Resources resources = Resources.from(offer);
-        return IQuota.build(new Quota()
-            .setNumCpus(resources.getNumCpus())
-            .setRamMb(resources.getRam().as(Data.MB))
-            .setDiskMb(resources.getDisk().as(Data.MB)));
-      }
-    };
+    private static final Function<HostOffer, IQuota> TO_QUOTA =
+        new Function<HostOffer, IQuota>() {
+          @Override public IQuota apply(HostOffer offer) {
+            return offer.getResources().getResources().toQuota();
+          }
+        };
 
     private final OfferQueue offerQueue;
 
@@ -130,7 +123,7 @@ public class AsyncStatsModule extends AbstractModule {
 
     @Override
     public Iterable<IQuota> get() {
-      Iterable<Offer> offers = offerQueue.getOffers();
+      Iterable<HostOffer> offers = offerQueue.getOffers();
       return FluentIterable.from(offers).transform(TO_QUOTA);
     }
   }
@@ -22,6 +22,7 @@ import javax.inject.Inject;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 
 import com.twitter.aurora.gen.Quota;
@@ -70,6 +71,11 @@ class SlotSizeCounter implements Runnable {
     return "empty_slots_" + slotName;
   }
 
+  @VisibleForTesting
+  static String getFragmentationStatName(String slotName) {
+    return "empty_slots_" + slotName + "_fragmentation_percent";
+  }
+
   private int countSlots(Iterable<IQuota> slots, final IQuota slotSize) {
     Function<IQuota, Integer> counter = new Function<IQuota, Integer>() {
       @Override public Integer apply(IQuota machineSlack) {
@@ -84,11 +90,25 @@ class SlotSizeCounter implements Runnable {
     return sum;
   }
 
+  /**
+   * Calculates the percentage of slots that are lost because available resources are spread
+   * across machines, relative to the slots that would be available if all resources were on a
+   * single machine.
+   */
+  private static long fragmentationPercent(int slots, IQuota totalResources, IQuota slotSize) {
+    int idealSlots = Quotas.divide(totalResources, slotSize);
+    return (idealSlots == 0) ? 0 : (100L * (idealSlots - slots)) / idealSlots;
+  }
+
   @Override
   public void run() {
-    Iterable<IQuota> slots = resourceSlotProvider.get();
+    Iterable<IQuota> slots = ImmutableList.copyOf(resourceSlotProvider.get());
+    IQuota totalResources = Quotas.sum(slots);
     for (Map.Entry<String, IQuota> entry : slotSizes.entrySet()) {
-      cachedCounters.get(getStatName(entry.getKey())).set(countSlots(slots, entry.getValue()));
+      int count = countSlots(slots, entry.getValue());
+      cachedCounters.get(getStatName(entry.getKey())).set(count);
+      cachedCounters.get(getFragmentationStatName(entry.getKey()))
+          .set(fragmentationPercent(count, totalResources, entry.getValue()));
     }
   }
 }
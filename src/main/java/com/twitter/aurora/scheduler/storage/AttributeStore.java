@@ -44,6 +44,33 @@ public interface AttributeStore {
    */
   Set<HostAttributes> getHostAttributes();
 
+  /**
+   * Fetches the attributes of a host, without the rest of its host attributes.  This is cheaper
+   * than {@link #getHostAttributes(String)} for callers that only evaluate attribute values.
+   *
+   * @param host Host name.
+   * @return An immutable set of the attributes of {@code host}, empty if the host is unknown.
+   *     The returned attributes may be shared with the store, and must not be modified.
+   */
+  Set<Attribute> getAttributes(String host);
+
+  /**
+   * Fetches the maintenance mode of a host, without copying its host attributes.
+   *
+   * @param host Host name.
+   * @return The maintenance mode of {@code host}, {@link MaintenanceMode#NONE} if the host is
+   *     unknown.
+   */
+  MaintenanceMode getMaintenanceMode(String host);
+
+  /**
+   * Fetches the hosts in a maintenance mode.
+   *
+   * @param mode Maintenance mode.
+   * @return Names of all known hosts in {@code mode}.
+   */
+  Set<String> getHostsInMode(MaintenanceMode mode);
+
   /**
    * Attributes are considered mostly ephemeral and extremely low risk when inconsistency
    * is present.
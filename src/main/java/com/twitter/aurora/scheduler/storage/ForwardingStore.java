@@ -24,6 +24,7 @@ import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableSet;
 
+import com.twitter.aurora.gen.Attribute;
 import com.twitter.aurora.gen.HostAttributes;
 import com.twitter.aurora.gen.MaintenanceMode;
 import com.twitter.aurora.scheduler.base.Query;
@@ -249,6 +250,21 @@ public class ForwardingStore implements
     return attributeStore.getHostAttributes();
   }
 
+  @Override
+  public Set<Attribute> getAttributes(String host) {
+    return attributeStore.getAttributes(host);
+  }
+
+  @Override
+  public MaintenanceMode getMaintenanceMode(String host) {
+    return attributeStore.getMaintenanceMode(host);
+  }
+
+  @Override
+  public Set<String> getHostsInMode(MaintenanceMode mode) {
+    return attributeStore.getHostsInMode(mode);
+  }
+
   @Override
   public void deleteHostAttributes() {
     attributeStore.deleteHostAttributes();
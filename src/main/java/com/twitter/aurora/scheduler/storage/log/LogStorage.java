@@ -680,17 +680,18 @@ public class LogStorage extends ForwardingStore
 
   @Override
   public boolean setMaintenanceMode(final String host, final MaintenanceMode mode) {
-    write(new MutateWork.NoResult.Quiet() {
-      @Override protected void execute(MutableStoreProvider unused) {
-        Optional<HostAttributes> saved = LogStorage.super.getHostAttributes(host);
-        if (saved.isPresent()) {
-          HostAttributes attributes = saved.get().setMode(mode);
-          log(Op.saveHostAttributes(new SaveHostAttributes(attributes)));
-          LogStorage.super.saveHostAttributes(attributes);
+    return write(new MutateWork.Quiet<Boolean>() {
+      @Override public Boolean apply(MutableStoreProvider unused) {
+        // Attributes fetched from the attribute store are copies, so the mode must be changed
+        // through the store rather than by modifying the fetched attributes.
+        if (!LogStorage.super.setMaintenanceMode(host, mode)) {
+          return false;
         }
+        HostAttributes attributes = LogStorage.super.getHostAttributes(host).get();
+        log(Op.saveHostAttributes(new SaveHostAttributes(attributes)));
+        return true;
       }
     });
-    return false;
   }
 
   @Override
@@ -86,6 +86,7 @@ public class SnapshotStoreImpl implements SnapshotStore<Snapshot> {
           store.getUnsafeTaskStore().deleteAllTasks();
 
           if (snapshot.isSetTasks()) {
+            LOG.info("Restoring " + snapshot.getTasksSize() + " tasks from snapshot.");
             store.getUnsafeTaskStore().saveTasks(
                 IScheduledTask.setFromBuilders(snapshot.getTasks()));
           }
@@ -15,10 +15,13 @@
  */
 package com.twitter.aurora.scheduler.storage.mem;
 
+import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentMap;
 
+import com.google.common.base.Function;
 import com.google.common.base.Optional;
+import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 
@@ -29,32 +32,83 @@ import com.twitter.aurora.scheduler.storage.AttributeStore.Mutable;
 
 /**
  * An in-memory attribute store.
+ * <p>
+ * Each host's attributes are held in an immutable entry that is replaced when they change, so
+ * reads take no locks and never observe a partially-applied write to a host.  A change costs time
+ * proportional to the size of the host's attributes rather than the number of hosts, which keeps
+ * storage recovery linear, since recovery saves the attributes of every host one at a time.
+ * Writes that would not change a host's attributes are discarded without copying, since offers
+ * re-save the same attributes for a host far more often than they change.
+ * <p>
+ * Hosts are also indexed by maintenance mode.  The index is updated after the host's entry, so a
+ * concurrent read may briefly find the index lagging the entry.
+ * <p>
+ * Stored thrift objects are never handed to callers; reads of host attributes return copies.
+ * Reads of only a host's attributes return an immutable set held by the entry, which avoids a
+ * copy on the scheduling path.
  */
 class MemAttributeStore implements Mutable {
-  private final ConcurrentMap<String, HostAttributes> hostAttributes = Maps.newConcurrentMap();
+
+  private static final Function<HostEntry, HostAttributes> COPY_ATTRIBUTES =
+      new Function<HostEntry, HostAttributes>() {
+        @Override public HostAttributes apply(HostEntry entry) {
+          return entry.hostAttributes.deepCopy();
+        }
+      };
+
+  private final Map<String, HostEntry> byHost = Maps.newConcurrentMap();
+  private final Map<MaintenanceMode, Set<String>> hostsByMode = Maps.newEnumMap(
+      MaintenanceMode.class);
+
+  MemAttributeStore() {
+    for (MaintenanceMode mode : MaintenanceMode.values()) {
+      hostsByMode.put(mode, Collections.newSetFromMap(Maps.<String, Boolean>newConcurrentMap()));
+    }
+  }
 
   @Override
-  public void deleteHostAttributes() {
-    hostAttributes.clear();
+  public synchronized void deleteHostAttributes() {
+    byHost.clear();
+    for (Set<String> hosts : hostsByMode.values()) {
+      hosts.clear();
+    }
+  }
+
+  private void replace(HostAttributes updated) {
+    String host = updated.getHost();
+    HostEntry stored = byHost.get(host);
+    if ((stored == null) || !updated.equals(stored.hostAttributes)) {
+      byHost.put(host, new HostEntry(updated));
+      MaintenanceMode mode = updated.getMode();
+      hostsByMode.get(mode).add(host);
+      if ((stored != null) && (stored.hostAttributes.getMode() != mode)) {
+        hostsByMode.get(stored.hostAttributes.getMode()).remove(host);
+      }
+    }
   }
 
   @Override
-  public void saveHostAttributes(HostAttributes attributes) {
-    hostAttributes.putIfAbsent(attributes.getHost(), attributes);
+  public synchronized void saveHostAttributes(HostAttributes attributes) {
+    HostEntry stored = byHost.get(attributes.getHost());
+    MaintenanceMode mode;
+    if ((stored != null) && stored.hostAttributes.isSetMode()) {
+      mode = stored.hostAttributes.getMode();
+    } else {
+      mode = attributes.isSetMode() ? attributes.getMode() : MaintenanceMode.NONE;
+    }
 
-    HostAttributes stored = hostAttributes.get(attributes.getHost());
-    if (!stored.isSetMode()) {
-      stored.setMode(attributes.isSetMode() ? attributes.getMode() : MaintenanceMode.NONE);
+    HostAttributes updated = attributes.deepCopy().setMode(mode);
+    if (!updated.isSetAttributes()) {
+      updated.setAttributes(ImmutableSet.<Attribute>of());
     }
-    stored.setAttributes(attributes.isSetAttributes()
-        ? attributes.getAttributes() : ImmutableSet.<Attribute>of());
+    replace(updated);
   }
 
   @Override
-  public boolean setMaintenanceMode(String host, MaintenanceMode mode) {
-    HostAttributes stored = hostAttributes.get(host);
+  public synchronized boolean setMaintenanceMode(String host, MaintenanceMode mode) {
+    HostEntry stored = byHost.get(host);
     if (stored != null) {
-      stored.setMode(mode);
+      replace(stored.hostAttributes.deepCopy().setMode(mode));
       return true;
     } else {
       return false;
@@ -63,11 +117,41 @@ class MemAttributeStore implements Mutable {
 
   @Override
   public Optional<HostAttributes> getHostAttributes(String host) {
-    return Optional.fromNullable(hostAttributes.get(host));
+    return Optional.fromNullable(byHost.get(host)).transform(COPY_ATTRIBUTES);
   }
 
   @Override
   public Set<HostAttributes> getHostAttributes() {
-    return ImmutableSet.copyOf(hostAttributes.values());
+    return FluentIterable.from(byHost.values()).transform(COPY_ATTRIBUTES).toSet();
+  }
+
+  @Override
+  public Set<Attribute> getAttributes(String host) {
+    HostEntry entry = byHost.get(host);
+    return (entry == null) ? ImmutableSet.<Attribute>of() : entry.attributes;
+  }
+
+  @Override
+  public MaintenanceMode getMaintenanceMode(String host) {
+    HostEntry entry = byHost.get(host);
+    return (entry == null) ? MaintenanceMode.NONE : entry.hostAttributes.getMode();
+  }
+
+  @Override
+  public Set<String> getHostsInMode(MaintenanceMode mode) {
+    return ImmutableSet.copyOf(hostsByMode.get(mode));
+  }
+
+  /**
+   * The attributes of a host.  Neither field is modified after construction.
+   */
+  private static final class HostEntry {
+    private final HostAttributes hostAttributes;
+    private final ImmutableSet<Attribute> attributes;
+
+    HostEntry(HostAttributes hostAttributes) {
+      this.hostAttributes = hostAttributes;
+      this.attributes = ImmutableSet.copyOf(hostAttributes.getAttributes());
+    }
   }
 }
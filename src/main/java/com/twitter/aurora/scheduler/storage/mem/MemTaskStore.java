@@ -292,13 +292,15 @@ class MemTaskStore implements TaskStore.Mutable {
     private final IScheduledTask task;
 
     Task(IScheduledTask task, Interner<TaskConfig, String> interner) {
-      interner.removeAssociation(task.getAssignedTask().getTask().newBuilder(), Tasks.id(task));
-      TaskConfig canonical = interner.addAssociation(
-          task.getAssignedTask().getTask().newBuilder(),
-          Tasks.id(task));
+      // The task is deep copied exactly once, and the copy is wrapped without copying again so
+      // that the stored task references the canonical config held by the interner.  Wrapping
+      // without a copy is safe since the builder never escapes this constructor.
+      String taskId = Tasks.id(task);
       ScheduledTask builder = task.newBuilder();
-      builder.getAssignedTask().setTask(canonical);
-      this.task = IScheduledTask.build(builder);
+      TaskConfig config = builder.getAssignedTask().getTask();
+      interner.removeAssociation(config, taskId);
+      builder.getAssignedTask().setTask(interner.addAssociation(config, taskId));
+      this.task = IScheduledTask.FROM_BUILDER.apply(builder);
     }
   }
 }
@@ -41,12 +41,15 @@ import org.apache.mesos.SchedulerDriver;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.twitter.aurora.gen.HostAttributes;
+import com.twitter.aurora.gen.MaintenanceMode;
 import com.twitter.aurora.scheduler.base.Conversions;
 import com.twitter.aurora.scheduler.base.SchedulerException;
 import com.twitter.aurora.scheduler.configuration.Resources;
 import com.twitter.aurora.scheduler.events.PubsubEvent;
 import com.twitter.aurora.scheduler.events.PubsubEvent.DriverDisconnected;
 import com.twitter.aurora.scheduler.events.PubsubEvent.DriverRegistered;
+import com.twitter.aurora.scheduler.events.PubsubEvent.HostAttributesChanged;
 import com.twitter.aurora.scheduler.events.PubsubEventModule;
 import com.twitter.aurora.scheduler.state.SchedulerCore;
 import com.twitter.aurora.scheduler.storage.Storage;
@@ -85,6 +88,8 @@ public class MesosSchedulerImplTest extends EasyMockTest {
       .setHostname(SLAVE_HOST_2)
       .setId(OFFER_ID_2)
       .build();
+  private static final HostOffer HOST_OFFER = HostOffer.from(OFFER, MaintenanceMode.NONE);
+  private static final HostOffer HOST_OFFER_2 = HostOffer.from(OFFER_2, MaintenanceMode.NONE);
 
   private static final TaskID TASK_ID = TaskID.newBuilder().setValue("task-id").build();
   private static final TaskInfo TASK = TaskInfo.newBuilder()
@@ -159,8 +164,34 @@ public class MesosSchedulerImplTest extends EasyMockTest {
     new OfferFixture() {
       @Override void respondToOffer() throws Exception {
         expectOfferAttributesSaved(OFFER);
-        expect(systemLauncher.createTask(OFFER)).andReturn(Optional.<TaskInfo>absent());
-        expect(userLauncher.createTask(OFFER)).andReturn(Optional.<TaskInfo>absent());
+        expect(systemLauncher.createTask(HOST_OFFER)).andReturn(Optional.<TaskInfo>absent());
+        expect(userLauncher.createTask(HOST_OFFER)).andReturn(Optional.<TaskInfo>absent());
+      }
+    }.run();
+  }
+
+  @Test
+  public void testUnchangedAttributesNotPublished() throws Exception {
+    new OfferFixture() {
+      @Override void respondToOffer() throws Exception {
+        expectOfferAttributesUnchanged(OFFER);
+        expect(systemLauncher.createTask(HOST_OFFER)).andReturn(Optional.<TaskInfo>absent());
+        expect(userLauncher.createTask(HOST_OFFER)).andReturn(Optional.<TaskInfo>absent());
+      }
+    }.run();
+  }
+
+  @Test
+  public void testOfferCarriesStoredMode() throws Exception {
+    new OfferFixture() {
+      @Override void respondToOffer() throws Exception {
+        HostAttributes attributes = Conversions.getAttributes(OFFER);
+        expect(storageUtil.attributeStore.getHostAttributes(SLAVE_HOST))
+            .andReturn(Optional.of(attributes.deepCopy().setMode(MaintenanceMode.DRAINING)));
+        storageUtil.attributeStore.saveHostAttributes(attributes);
+        HostOffer draining = HOST_OFFER.withMode(MaintenanceMode.DRAINING);
+        expect(systemLauncher.createTask(draining)).andReturn(Optional.<TaskInfo>absent());
+        expect(userLauncher.createTask(draining)).andReturn(Optional.<TaskInfo>absent());
       }
     }.run();
   }
@@ -170,7 +201,7 @@ public class MesosSchedulerImplTest extends EasyMockTest {
     new OfferFixture() {
       @Override void respondToOffer() throws Exception {
         expectOfferAttributesSaved(OFFER);
-        expect(systemLauncher.createTask(OFFER)).andReturn(Optional.of(TASK));
+        expect(systemLauncher.createTask(HOST_OFFER)).andReturn(Optional.of(TASK));
         expectLaunch(TASK);
       }
     }.run();
@@ -181,8 +212,8 @@ public class MesosSchedulerImplTest extends EasyMockTest {
     new OfferFixture() {
       @Override void respondToOffer() throws Exception {
         expectOfferAttributesSaved(OFFER);
-        expect(systemLauncher.createTask(OFFER)).andReturn(Optional.<TaskInfo>absent());
-        expect(userLauncher.createTask(OFFER)).andReturn(Optional.of(TASK));
+        expect(systemLauncher.createTask(HOST_OFFER)).andReturn(Optional.<TaskInfo>absent());
+        expect(userLauncher.createTask(HOST_OFFER)).andReturn(Optional.of(TASK));
         expectLaunch(TASK);
       }
     }.run();
@@ -193,8 +224,8 @@ public class MesosSchedulerImplTest extends EasyMockTest {
     new OfferFixture() {
       @Override void respondToOffer() throws Exception {
         expectOfferAttributesSaved(OFFER);
-        expect(systemLauncher.createTask(OFFER)).andReturn(Optional.of(BIGGER_TASK));
-        expect(userLauncher.createTask(OFFER)).andReturn(Optional.<TaskInfo>absent());
+        expect(systemLauncher.createTask(HOST_OFFER)).andReturn(Optional.of(BIGGER_TASK));
+        expect(userLauncher.createTask(HOST_OFFER)).andReturn(Optional.<TaskInfo>absent());
       }
     }.run();
   }
@@ -244,11 +275,11 @@ public class MesosSchedulerImplTest extends EasyMockTest {
       @Override void expectations() throws Exception {
         expectOfferAttributesSaved(OFFER);
         expectOfferAttributesSaved(OFFER_2);
-        expect(systemLauncher.createTask(OFFER)).andReturn(Optional.<TaskInfo>absent());
-        expect(userLauncher.createTask(OFFER)).andReturn(Optional.of(TASK));
+        expect(systemLauncher.createTask(HOST_OFFER)).andReturn(Optional.<TaskInfo>absent());
+        expect(userLauncher.createTask(HOST_OFFER)).andReturn(Optional.of(TASK));
         expectLaunch(TASK);
-        expect(systemLauncher.createTask(OFFER_2)).andReturn(Optional.<TaskInfo>absent());
-        expect(userLauncher.createTask(OFFER_2)).andReturn(Optional.<TaskInfo>absent());
+        expect(systemLauncher.createTask(HOST_OFFER_2)).andReturn(Optional.<TaskInfo>absent());
+        expect(userLauncher.createTask(HOST_OFFER_2)).andReturn(Optional.<TaskInfo>absent());
       }
 
       @Override void test() {
@@ -271,7 +302,18 @@ public class MesosSchedulerImplTest extends EasyMockTest {
   }
 
   private void expectOfferAttributesSaved(Offer offer) {
-    storageUtil.attributeStore.saveHostAttributes(Conversions.getAttributes(offer));
+    HostAttributes attributes = Conversions.getAttributes(offer);
+    expect(storageUtil.attributeStore.getHostAttributes(offer.getHostname()))
+        .andReturn(Optional.<HostAttributes>absent());
+    storageUtil.attributeStore.saveHostAttributes(attributes);
+    eventBus.execute(new HostAttributesChanged(attributes));
+  }
+
+  private void expectOfferAttributesUnchanged(Offer offer) {
+    HostAttributes attributes = Conversions.getAttributes(offer);
+    expect(storageUtil.attributeStore.getHostAttributes(offer.getHostname()))
+        .andReturn(Optional.of(attributes.deepCopy()));
+    storageUtil.attributeStore.saveHostAttributes(attributes);
   }
 
   private abstract class RegisteredFixture {
@@ -15,6 +15,8 @@
  */
 package com.twitter.aurora.scheduler;
 
+import com.google.common.collect.ImmutableMap;
+
 import org.apache.mesos.Protos.CommandInfo;
 import org.apache.mesos.Protos.CommandInfo.URI;
 import org.apache.mesos.Protos.ExecutorInfo;
@@ -26,6 +28,8 @@ import org.apache.mesos.Protos.Value.Type;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.twitter.aurora.codec.ThriftBinaryCodec;
+import com.twitter.aurora.codec.ThriftBinaryCodec.CodingException;
 import com.twitter.aurora.gen.AssignedTask;
 import com.twitter.aurora.gen.Identity;
 import com.twitter.aurora.gen.TaskConfig;
@@ -51,13 +55,44 @@ public class MesosTaskFactoryImplTest {
           .setNumCpus(5)));
   private static final SlaveID SLAVE = SlaveID.newBuilder().setValue("slave-id").build();
 
-  private MesosTaskFactory taskFactory;
+  private MesosTaskFactoryImpl taskFactory;
 
   @Before
   public void setUp() {
     taskFactory = new MesosTaskFactoryImpl(new ExecutorConfig(EXECUTOR_PATH));
   }
 
+  private static AssignedTask decode(byte[] data) throws CodingException {
+    return ThriftBinaryCodec.decodeNonNull(AssignedTask.class, data);
+  }
+
+  @Test
+  public void testTaskDataDecodes() throws CodingException {
+    TaskInfo task = taskFactory.createFrom(TASK, SLAVE);
+    assertEquals(TASK.newBuilder(), decode(task.getData().toByteArray()));
+  }
+
+  @Test
+  public void testEncodedConfigReused() throws CodingException {
+    AssignedTask builder = TASK.newBuilder()
+        .setTaskId("task-id-2")
+        .setInstanceId(3)
+        .setSlaveId("slave-id")
+        .setSlaveHost("slave-host")
+        .setAssignedPorts(ImmutableMap.of("http", 8080));
+    IAssignedTask other = IAssignedTask.build(builder);
+
+    assertEquals(TASK.newBuilder(), decode(taskFactory.encode(TASK)));
+    assertEquals(builder, decode(taskFactory.encode(other)));
+    assertEquals(TASK.newBuilder(), decode(taskFactory.encode(TASK)));
+  }
+
+  @Test
+  public void testEncodeWithoutConfig() throws CodingException {
+    AssignedTask builder = new AssignedTask().setTaskId("task-id").setInstanceId(1);
+    assertEquals(builder, decode(taskFactory.encode(IAssignedTask.build(builder))));
+  }
+
   @Test
   public void testExecutorInfoUnchanged() {
     // Tests against regression of MESOS-911.
@@ -39,6 +39,7 @@ import org.apache.mesos.Protos.Value.Type;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.twitter.aurora.gen.MaintenanceMode;
 import com.twitter.aurora.scheduler.async.OfferQueue;
 import com.twitter.aurora.scheduler.base.Query;
 import com.twitter.aurora.scheduler.configuration.Resources;
@@ -65,7 +66,8 @@ public class UserTaskLauncherTest extends EasyMockTest {
   private static final String TASK_ID_A = "task_id_a";
 
   private static final OfferID OFFER_ID = OfferID.newBuilder().setValue("OfferId").build();
-  private static final Offer OFFER = createOffer(SLAVE_ID, SLAVE_HOST_1, 4, 1024, 1024);
+  private static final HostOffer OFFER =
+      HostOffer.from(createOffer(SLAVE_ID, SLAVE_HOST_1, 4, 1024, 1024), MaintenanceMode.NONE);
 
   private OfferQueue offerQueue;
   private StateManager stateManager;
@@ -29,7 +29,6 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.easymock.Capture;
 import org.easymock.EasyMock;
 import org.easymock.IAnswer;
-import org.easymock.IExpectationSetters;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -103,11 +102,7 @@ public class HistoryPrunerTest extends EasyMockTest {
 
   @After
   public void validateNoLeak() {
-    synchronized (pruner.getTasksByJob()) {
-      assertEquals(
-          ImmutableMultimap.<IJobKey, String>of(),
-          ImmutableMultimap.copyOf(pruner.getTasksByJob()));
-    }
+    assertEquals(ImmutableMultimap.<IJobKey, String>of(), pruner.getTasksByJob());
   }
 
   @Test
@@ -121,22 +116,17 @@ public class HistoryPrunerTest extends EasyMockTest {
 
   @Test
   public void testStorageStartWithoutPruning() {
-    long taskATimestamp = clock.nowMillis();
     IScheduledTask a = makeTask("a", FINISHED);
-
     clock.advance(ONE_MS);
-    long taskBTimestamp = clock.nowMillis();
     IScheduledTask b = makeTask("b", LOST);
 
     expectGetInactiveTasks(a, b);
-    expectOneTaskWatch(taskATimestamp);
-    expectOneTaskWatch(taskBTimestamp);
-
-    expectCancelFuture().times(2);
+    Capture<Runnable> sweep = expectSweepScheduled();
 
     control.replay();
 
     pruner.storageStarted(new StorageStarted());
+    sweep.getValue().run();
 
     // Clean-up
     pruner.tasksDeleted(new TasksDeleted(ImmutableSet.of(a, b)));
@@ -144,91 +134,101 @@ public class HistoryPrunerTest extends EasyMockTest {
 
   @Test
   public void testStorageStartedWithPruning() {
-    long taskATimestamp = clock.nowMillis();
     IScheduledTask a = makeTask("a", FINISHED);
-
     clock.advance(ONE_MS);
-    long taskBTimestamp = clock.nowMillis();
     IScheduledTask b = makeTask("b", LOST);
-
     clock.advance(ONE_MS);
-    long taskCTimestamp = clock.nowMillis();
     IScheduledTask c = makeTask("c", FINISHED);
-
     clock.advance(ONE_MS);
     IScheduledTask d = makeTask("d", FINISHED);
     IScheduledTask e = makeTask("job-x", "e", FINISHED);
 
     expectGetInactiveTasks(a, b, c, d, e);
-    expectOneTaskWatch(taskATimestamp);
-    expectOneTaskWatch(taskBTimestamp);
-    expectOneTaskWatch(taskCTimestamp);
-    expectDefaultTaskWatch();
-    expectDefaultTaskWatch();
+    Capture<Runnable> sweep = expectSweepScheduled();
 
-    // Cancel future and delete pruned task "a" asynchronously.
-    expectCancelFuture();
-    stateManager.deleteTasks(Tasks.ids(a));
+    // Tasks "a" and "b" exceed the history goal, and are deleted together.
+    stateManager.deleteTasks(ImmutableSet.of("a", "b"));
 
-    // Cancel future and delete pruned task "b" asynchronously.
-    expectCancelFuture();
-    stateManager.deleteTasks(Tasks.ids(b));
+    control.replay();
 
-    expectCancelFuture().times(3);
+    pruner.storageStarted(new StorageStarted());
+    sweep.getValue().run();
+
+    // Clean-up
+    pruner.tasksDeleted(new TasksDeleted(ImmutableSet.of(c, d, e)));
+  }
+
+  @Test
+  public void testStorageStartedWithExpiredTasks() {
+    IScheduledTask a = makeTask("a", FINISHED);
+    clock.advance(ONE_DAY);
+    IScheduledTask b = makeTask("b", FINISHED);
+
+    expectGetInactiveTasks(a, b);
+    Capture<Runnable> sweep = expectSweepScheduled();
+
+    // Task "a" was inactive beyond the threshold before storage started.
+    stateManager.deleteTasks(ImmutableSet.of("a"));
 
     control.replay();
 
     pruner.storageStarted(new StorageStarted());
+    sweep.getValue().run();
 
     // Clean-up
-    pruner.tasksDeleted(new TasksDeleted(ImmutableSet.of(c, d, e)));
+    pruner.tasksDeleted(new TasksDeleted(ImmutableSet.of(b)));
   }
 
   @Test
   public void testStateChange() {
-    expectDefaultTaskWatch();
-
-    expectCancelFuture();
+    expectSweepScheduled();
 
     control.replay();
 
-    // No future set for non-terminal state transition.
+    // Not tracked for non-terminal state transition.
     changeState(STARTING, RUNNING);
 
-    // Future set for terminal state transition.
+    // Tracked for terminal state transition.
     IScheduledTask a = changeState(RUNNING, KILLED);
+    assertEquals(
+        ImmutableMultimap.of(Tasks.SCHEDULED_TO_JOB_KEY.apply(a), TASK_ID),
+        pruner.getTasksByJob());
 
     // Clean-up
     pruner.tasksDeleted(new TasksDeleted(ImmutableSet.of(a)));
   }
 
   @Test
-  public void testActivateFutureAndExceedHistoryGoal() {
-    Capture<Runnable> delayedDelete = expectDefaultTaskWatch();
+  public void testSweepExpiredTasks() {
+    Capture<Runnable> sweep = expectSweepScheduled();
 
-    // Expect task "a" to be pruned when future is activated.
-    stateManager.deleteTasks(ImmutableSet.of("a"));
+    // Tasks "a" and "x" expire together, and are deleted in a single operation.
+    stateManager.deleteTasks(ImmutableSet.of("a", "x"));
 
     control.replay();
 
-    // Capture future for inactive task "a"
     changeState("a", RUNNING, KILLED);
+    changeState("job-x", "x", RUNNING, FINISHED);
     clock.advance(ONE_HOUR);
-    // Execute future to prune task "a" from the system.
-    delayedDelete.getValue().run();
+    IScheduledTask b = changeState("b", RUNNING, KILLED);
+
+    // Nothing has expired yet.
+    sweep.getValue().run();
+
+    clock.advance(Amount.of(ONE_DAY.as(Time.HOURS) - 1, Time.HOURS));
+    sweep.getValue().run();
+
+    // Clean-up
+    pruner.tasksDeleted(new TasksDeleted(ImmutableSet.of(b)));
   }
 
   @Test
   public void testJobHistoryExceeded() {
-    // Future for tasks - a,b,c
-    expectDefaultTaskWatchTimes(3);
+    Capture<Runnable> sweep = expectSweepScheduled();
 
-    // Cancel future and delete task "a" asynchronously when history goal is exceeded.
-    expectCancelFuture();
+    // Delete task "a" when the history goal is exceeded.
     stateManager.deleteTasks(ImmutableSet.of("a"));
 
-    expectCancelFuture().times(2);
-
     control.replay();
 
     changeState("a", RUNNING, KILLED);
@@ -236,28 +236,69 @@ public class HistoryPrunerTest extends EasyMockTest {
     IScheduledTask b = changeState("b", RUNNING, KILLED);
     clock.advance(ONE_HOUR);
     IScheduledTask c = changeState("c", RUNNING, LOST);
+    sweep.getValue().run();
 
     // Clean-up
     pruner.tasksDeleted(new TasksDeleted(ImmutableSet.of(b, c)));
   }
 
+  @Test
+  public void testDeletesBatched() {
+    Capture<Runnable> sweep = expectSweepScheduled();
+
+    ImmutableSet.Builder<String> firstBatch = ImmutableSet.builder();
+    for (int i = 0; i < HistoryPruner.MAX_TASKS_PER_DELETE; i++) {
+      firstBatch.add("task-" + i);
+    }
+    String last = "task-" + HistoryPruner.MAX_TASKS_PER_DELETE;
+    stateManager.deleteTasks(firstBatch.build());
+    stateManager.deleteTasks(ImmutableSet.of(last));
+
+    control.replay();
+
+    for (int i = 0; i <= HistoryPruner.MAX_TASKS_PER_DELETE; i++) {
+      changeState("job-" + i, "task-" + i, RUNNING, FINISHED);
+    }
+    clock.advance(ONE_DAY);
+    sweep.getValue().run();
+  }
+
+  @Test
+  public void testFailedDeleteRetried() {
+    Capture<Runnable> sweep = expectSweepScheduled();
+
+    stateManager.deleteTasks(ImmutableSet.of("a"));
+    expectLastCall().andThrow(new IllegalStateException("Storage unavailable"));
+    stateManager.deleteTasks(ImmutableSet.of("a"));
+
+    control.replay();
+
+    changeState("a", RUNNING, KILLED);
+    clock.advance(ONE_DAY);
+    sweep.getValue().run();
+    sweep.getValue().run();
+  }
+
   @Test
   public void testTasksDeleted() {
     IScheduledTask a = makeTask("a", FINISHED);
     IScheduledTask b = makeTask("b", FINISHED);
     expectGetInactiveTasks(a);
-    expectDefaultTaskWatch();
-    expectCancelFuture();
+    Capture<Runnable> sweep = expectSweepScheduled();
 
     control.replay();
 
     pruner.storageStarted(new StorageStarted());
 
-    // Cancels existing future for task 'a'
+    // Stops tracking task 'a'
     pruner.tasksDeleted(new TasksDeleted(ImmutableSet.of(a)));
 
     // No-Op
     pruner.tasksDeleted(new TasksDeleted(ImmutableSet.of(b)));
+
+    // Task 'a' is not pruned again.
+    clock.advance(ONE_DAY);
+    sweep.getValue().run();
   }
 
   // TODO(William Farner): Consider removing the thread safety tests.  Now that intrinsic locks
@@ -282,6 +323,8 @@ public class HistoryPrunerTest extends EasyMockTest {
 
     // Change the task to a terminal state and wait for it to be pruned.
     changeState(TASK_ID, RUNNING, KILLED);
+    clock.advance(ONE_MS);
+    pruner.sweep();
     taskDeleted.await();
   }
 
@@ -306,6 +349,8 @@ public class HistoryPrunerTest extends EasyMockTest {
 
     // Change the task to a terminal state and wait for it to be pruned.
     changeState(TASK_ID, RUNNING, KILLED);
+    clock.advance(ONE_MS);
+    pruner.sweep();
     taskDeleted.await();
   }
 
@@ -362,38 +407,32 @@ public class HistoryPrunerTest extends EasyMockTest {
     return eventDelivered;
   }
 
-  private Capture<Runnable> expectDefaultTaskWatch() {
-    return expectTaskWatch(ONE_DAY.as(Time.MILLISECONDS), 1);
-  }
-
-  private Capture<Runnable> expectDefaultTaskWatchTimes(int count) {
-    return expectTaskWatch(ONE_DAY.as(Time.MILLISECONDS), count);
-  }
-
-  private Capture<Runnable> expectOneTaskWatch(long timestampMillis) {
-    return expectTaskWatch(timestampMillis, 1);
-  }
-
-  private Capture<Runnable> expectTaskWatch(long timestampMillis, int count) {
+  private Capture<Runnable> expectSweepScheduled() {
     Capture<Runnable> capture = createCapture();
-    executor.schedule(
+    executor.scheduleWithFixedDelay(
         EasyMock.capture(capture),
-        eq(pruner.calculateTimeout(timestampMillis)),
+        eq(HistoryPruner.SWEEP_INTERVAL_MS),
+        eq(HistoryPruner.SWEEP_INTERVAL_MS),
         eq(TimeUnit.MILLISECONDS));
-    expectLastCall().andReturn(future).times(count);
+    expectLastCall().andReturn(future);
     return capture;
   }
 
-  private IExpectationSetters<?> expectCancelFuture() {
-    return expect(future.cancel(false)).andReturn(true);
-  }
-
   private IScheduledTask changeState(ScheduleStatus from, ScheduleStatus to) {
     return changeState(TASK_ID, from, to);
   }
 
   private IScheduledTask changeState(String taskId, ScheduleStatus from, ScheduleStatus to) {
-    IScheduledTask task = makeTask(taskId, to);
+    return changeState(JOB_A, taskId, from, to);
+  }
+
+  private IScheduledTask changeState(
+      String job,
+      String taskId,
+      ScheduleStatus from,
+      ScheduleStatus to) {
+
+    IScheduledTask task = makeTask(job, taskId, to);
     pruner.recordStateChange(new PubsubEvent.TaskStateChange(task, from));
     return task;
   }
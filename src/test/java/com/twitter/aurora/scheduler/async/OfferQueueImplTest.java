@@ -15,38 +15,49 @@
  */
 package com.twitter.aurora.scheduler.async;
 
-import java.util.concurrent.CountDownLatch;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 
-import com.google.common.base.Function;
-import com.google.common.base.Optional;
-import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
 import com.google.common.testing.TearDown;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import org.apache.mesos.Protos.Offer;
+import org.apache.mesos.Protos.OfferID;
 import org.apache.mesos.Protos.TaskInfo;
+import org.easymock.EasyMock;
 import org.easymock.IAnswer;
+import org.easymock.IArgumentMatcher;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.twitter.aurora.gen.HostStatus;
 import com.twitter.aurora.gen.MaintenanceMode;
 import com.twitter.aurora.scheduler.Driver;
+import com.twitter.aurora.scheduler.HostOffer;
+import com.twitter.aurora.scheduler.ResourceSlot;
+import com.twitter.aurora.scheduler.async.OfferQueue.ClaimedOffer;
 import com.twitter.aurora.scheduler.async.OfferQueue.LaunchException;
+import com.twitter.aurora.scheduler.async.OfferQueue.OfferAcceptor;
 import com.twitter.aurora.scheduler.async.OfferQueue.OfferQueueImpl;
 import com.twitter.aurora.scheduler.async.OfferQueue.OfferReturnDelay;
+import com.twitter.aurora.scheduler.async.OfferQueue.OfferSelection;
 import com.twitter.aurora.scheduler.events.PubsubEvent.DriverDisconnected;
-import com.twitter.aurora.scheduler.state.MaintenanceController;
+import com.twitter.aurora.scheduler.events.PubsubEvent.HostMaintenanceStateChange;
 import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Data;
 import com.twitter.common.quantity.Time;
 import com.twitter.common.testing.easymock.EasyMockTest;
 import com.twitter.common.util.concurrent.ExecutorServiceShutdown;
 
-import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class OfferQueueImplTest extends EasyMockTest {
 
@@ -57,12 +68,13 @@ public class OfferQueueImplTest extends EasyMockTest {
   private static final Offer OFFER_B = Offers.makeOffer("OFFER_B", HOST_B);
   private static final String HOST_C = "HOST_C";
   private static final Offer OFFER_C = Offers.makeOffer("OFFER_C", HOST_C);
+  private static final ResourceSlot REQUIRED =
+      ResourceSlot.from(1, Amount.of(1L, Data.GB), Amount.of(1L, Data.GB), 0);
 
   private Driver driver;
   private ScheduledExecutorService executor;
   private ExecutorService testExecutor;
-  private MaintenanceController maintenanceController;
-  private Function<Offer, Optional<TaskInfo>> offerAcceptor;
+  private OfferAcceptor offerAcceptor;
   private OfferQueueImpl offerQueue;
 
   @Before
@@ -77,79 +89,207 @@ public class OfferQueueImplTest extends EasyMockTest {
         new ExecutorServiceShutdown(testExecutor, Amount.of(1L, Time.SECONDS)).execute();
       }
     });
-    maintenanceController = createMock(MaintenanceController.class);
-    offerAcceptor = createMock(new Clazz<Function<Offer, Optional<TaskInfo>>>() { });
+    offerAcceptor = createMock(OfferAcceptor.class);
     OfferReturnDelay returnDelay = new OfferReturnDelay() {
       @Override public Amount<Integer, Time> get() {
         return RETURN_DELAY;
       }
     };
-    offerQueue = new OfferQueueImpl(driver, returnDelay, executor, maintenanceController);
+    offerQueue = new OfferQueueImpl(
+        driver,
+        returnDelay,
+        executor,
+        OfferSelection.FIRST_FIT);
   }
 
-  @Test
-  public void testNoDeadlock() throws Exception {
-    // Test that a blocked call to maintenanceController does not result in a deadlock between
-    // the intrinsic lock and the storage lock.
-    final CountDownLatch launchAttempted = new CountDownLatch(1);
-    expect(maintenanceController.getMode(HOST_A)).andAnswer(new IAnswer<MaintenanceMode>() {
-      @Override public MaintenanceMode answer() throws InterruptedException {
-        launchAttempted.await();
-        return MaintenanceMode.NONE;
+  private static HostOffer hostOffer(Offer offer) {
+    return HostOffer.from(offer, MaintenanceMode.NONE);
+  }
+
+  private static class ClaimMatcher implements IArgumentMatcher {
+    private final HostOffer offer;
+
+    ClaimMatcher(HostOffer offer) {
+      this.offer = offer;
+    }
+
+    @Override
+    public boolean matches(Object argument) {
+      return (argument instanceof ClaimedOffer)
+          && offer.equals(((ClaimedOffer) argument).getOffer());
+    }
+
+    @Override
+    public void appendTo(StringBuffer buffer) {
+      buffer.append(offer);
+    }
+  }
+
+  private static ClaimedOffer claimOf(HostOffer offer) {
+    EasyMock.reportMatcher(new ClaimMatcher(offer));
+    return null;
+  }
+
+  private void expectDeclined(HostOffer offer) {
+    offerAcceptor.accept(claimOf(offer));
+  }
+
+  private void expectLaunched(HostOffer offer, final List<TaskInfo> tasks) {
+    offerAcceptor.accept(claimOf(offer));
+    expectLastCall().andAnswer(new IAnswer<Void>() {
+      @Override public Void answer() throws LaunchException {
+        ((ClaimedOffer) EasyMock.getCurrentArguments()[0]).launch(tasks);
+        return null;
       }
     });
+  }
+
+  @Test
+  public void testOffersSorted() throws Exception {
+    expectDeclined(hostOffer(OFFER_A));
+    expectDeclined(hostOffer(OFFER_C));
+    expectDeclined(HostOffer.from(OFFER_B, MaintenanceMode.DRAINING));
+
+    control.replay();
+
+    offerQueue.addOffer(HostOffer.from(OFFER_A, MaintenanceMode.NONE));
+    offerQueue.addOffer(HostOffer.from(OFFER_B, MaintenanceMode.DRAINING));
+    offerQueue.addOffer(HostOffer.from(OFFER_C, MaintenanceMode.NONE));
+    assertFalse(offerQueue.launchFirst(REQUIRED, offerAcceptor));
+  }
+
+  @Test
+  public void testSameSlaveOffersReturnedForCompaction() throws Exception {
+    Offer sameSlave = OFFER_A.toBuilder().setId(OfferID.newBuilder().setValue("OFFER_A2")).build();
+    driver.declineOffer(sameSlave.getId());
+    driver.declineOffer(OFFER_A.getId());
 
     control.replay();
 
-    final CountDownLatch offerAdded = new CountDownLatch(1);
-    testExecutor.submit(new Runnable() {
-      @Override public void run() {
-        offerQueue.addOffer(OFFER_A);
-        offerAdded.countDown();
+    offerQueue.addOffer(hostOffer(OFFER_A));
+    offerQueue.addOffer(hostOffer(sameSlave));
+    assertFalse(offerQueue.launchFirst(REQUIRED, offerAcceptor));
+  }
+
+  @Test
+  public void testHostChangedState() throws Exception {
+    expectDeclined(hostOffer(OFFER_B));
+    expectDeclined(hostOffer(OFFER_A).withMode(MaintenanceMode.DRAINING));
+
+    control.replay();
+
+    offerQueue.addOffer(hostOffer(OFFER_A));
+    offerQueue.addOffer(hostOffer(OFFER_B));
+    offerQueue.hostChangedState(new HostMaintenanceStateChange(
+        new HostStatus().setHost(HOST_A).setMode(MaintenanceMode.DRAINING)));
+    assertFalse(offerQueue.launchFirst(REQUIRED, offerAcceptor));
+    assertEquals(
+        ImmutableList.of(hostOffer(OFFER_B), hostOffer(OFFER_A).withMode(MaintenanceMode.DRAINING)),
+        ImmutableList.copyOf(offerQueue.getOffers()));
+  }
+
+  @Test
+  public void testInsufficientOffersSkipped() throws Exception {
+    Offer smallOffer = Offers.makeOffer("OFFER_SMALL", HOST_B, 0.5, 256, 1024);
+    expectDeclined(hostOffer(OFFER_A));
+
+    control.replay();
+
+    offerQueue.addOffer(hostOffer(OFFER_A));
+    offerQueue.addOffer(hostOffer(smallOffer));
+    assertFalse(offerQueue.launchFirst(REQUIRED, offerAcceptor));
+  }
+
+  @Test
+  public void testBestFit() throws Exception {
+    Offer smallOffer = Offers.makeOffer("OFFER_SMALL", HOST_B, 2, 4096, 8192);
+    TaskInfo task = TaskInfo.getDefaultInstance();
+    expectLaunched(hostOffer(smallOffer), ImmutableList.of(task));
+    driver.launchTasks(smallOffer.getId(), ImmutableList.of(task));
+
+    control.replay();
+
+    offerQueue = new OfferQueueImpl(
+        driver,
+        new OfferReturnDelay() {
+          @Override public Amount<Integer, Time> get() {
+            return RETURN_DELAY;
+          }
+        },
+        executor,
+        OfferSelection.BEST_FIT);
+    offerQueue.addOffer(hostOffer(OFFER_A));
+    offerQueue.addOffer(hostOffer(smallOffer));
+    assertTrue(offerQueue.launchFirst(REQUIRED, offerAcceptor));
+  }
+
+  @Test
+  public void testBestFitScaledToOffer() {
+    control.replay();
+
+    // Residual resources are scored as a fraction of each offer's own resources.  All offers
+    // have the same ports, so none are left over.
+    ResourceSlot small = ResourceSlot.from(Offers.makeOffer("SMALL", HOST_A, 2, 2048, 2048));
+    ResourceSlot large = ResourceSlot.from(Offers.makeOffer("LARGE", HOST_A, 20, 20480, 20480));
+    ResourceSlot required = ResourceSlot.from(Offers.makeOffer("TASK", HOST_A, 1, 1024, 1024));
+    assertEquals(1.5, OfferSelection.BEST_FIT.score(small, required), 0.001);
+    assertEquals(2.85, OfferSelection.BEST_FIT.score(large, required), 0.001);
+  }
+
+  @Test
+  public void testClaimedOfferHiddenFromConcurrentLaunch() throws Exception {
+    offerAcceptor.accept(claimOf(hostOffer(OFFER_A)));
+    expectLastCall().andAnswer(new IAnswer<Void>() {
+      @Override public Void answer() {
+        // The offer is claimed while being evaluated, so a concurrent launch will not see it.
+        assertFalse(offerQueue.launchFirst(REQUIRED, offerAcceptor));
+        return null;
       }
     });
-    testExecutor.submit(new Runnable() {
-      @Override public void run() {
+
+    control.replay();
+
+    offerQueue.addOffer(hostOffer(OFFER_A));
+    assertFalse(offerQueue.launchFirst(REQUIRED, offerAcceptor));
+    assertEquals(
+        ImmutableList.of(hostOffer(OFFER_A)),
+        ImmutableList.copyOf(offerQueue.getOffers()));
+  }
+
+  @Test
+  public void testClaimLostWhenOfferRescinded() throws Exception {
+    offerAcceptor.accept(claimOf(hostOffer(OFFER_A)));
+    expectLastCall().andAnswer(new IAnswer<Void>() {
+      @Override public Void answer() {
+        ClaimedOffer claimed = (ClaimedOffer) EasyMock.getCurrentArguments()[0];
+        assertTrue(claimed.isHeld());
+        offerQueue.cancelOffer(OFFER_A.getId());
+        assertFalse(claimed.isHeld());
         try {
-          offerQueue.launchFirst(offerAcceptor);
-          launchAttempted.countDown();
+          claimed.launch(ImmutableList.of(TaskInfo.getDefaultInstance()));
+          fail("Launch against a rescinded offer should fail.");
         } catch (LaunchException e) {
-          throw Throwables.propagate(e);
+          // Expected.
         }
+        return null;
       }
     });
 
-    launchAttempted.await();
-    offerAdded.await();
-  }
-
-  @Test
-  public void testOffersSorted() throws Exception {
-    expect(maintenanceController.getMode(HOST_A)).andReturn(MaintenanceMode.NONE);
-    expect(maintenanceController.getMode(HOST_B)).andReturn(MaintenanceMode.DRAINING);
-    expect(maintenanceController.getMode(HOST_C)).andReturn(MaintenanceMode.NONE);
-    expect(offerAcceptor.apply(OFFER_A)).andReturn(Optional.<TaskInfo>absent());
-    expect(offerAcceptor.apply(OFFER_C)).andReturn(Optional.<TaskInfo>absent());
-    expect(offerAcceptor.apply(OFFER_B)).andReturn(Optional.<TaskInfo>absent());
-
     control.replay();
 
-    offerQueue.addOffer(OFFER_A);
-    offerQueue.addOffer(OFFER_B);
-    offerQueue.addOffer(OFFER_C);
-    assertFalse(offerQueue.launchFirst(offerAcceptor));
+    offerQueue.addOffer(hostOffer(OFFER_A));
+    assertTrue(offerQueue.launchFirst(REQUIRED, offerAcceptor));
+    assertEquals(ImmutableList.<HostOffer>of(), ImmutableList.copyOf(offerQueue.getOffers()));
   }
 
   @Test
   public void testFlushOffers() throws Exception {
-    expect(maintenanceController.getMode(HOST_A)).andReturn(MaintenanceMode.NONE);
-    expect(maintenanceController.getMode(HOST_B)).andReturn(MaintenanceMode.NONE);
 
     control.replay();
 
-    offerQueue.addOffer(OFFER_A);
-    offerQueue.addOffer(OFFER_B);
+    offerQueue.addOffer(hostOffer(OFFER_A));
+    offerQueue.addOffer(hostOffer(OFFER_B));
     offerQueue.driverDisconnected(new DriverDisconnected());
-    assertFalse(offerQueue.launchFirst(offerAcceptor));
+    assertFalse(offerQueue.launchFirst(REQUIRED, offerAcceptor));
   }
 }
@@ -18,7 +18,13 @@ package com.twitter.aurora.scheduler.async;
 import org.apache.mesos.Protos.FrameworkID;
 import org.apache.mesos.Protos.Offer;
 import org.apache.mesos.Protos.OfferID;
+import org.apache.mesos.Protos.Resource;
 import org.apache.mesos.Protos.SlaveID;
+import org.apache.mesos.Protos.Value.Range;
+import org.apache.mesos.Protos.Value.Ranges;
+import org.apache.mesos.Protos.Value.Type;
+
+import com.twitter.aurora.scheduler.configuration.Resources;
 
 /**
  * Utility class for creating resource offers.
@@ -29,17 +35,32 @@ final class Offers {
   }
 
   static final String DEFAULT_HOST = "hostname";
+  static final double DEFAULT_CPUS = 8;
+  static final long DEFAULT_RAM_MB = 16 * 1024;
+  static final long DEFAULT_DISK_MB = 64 * 1024;
 
   static Offer makeOffer(String offerId) {
     return Offers.makeOffer(offerId, DEFAULT_HOST);
   }
 
   static Offer makeOffer(String offerId, String hostName) {
+    return makeOffer(offerId, hostName, DEFAULT_CPUS, DEFAULT_RAM_MB, DEFAULT_DISK_MB);
+  }
+
+  static Offer makeOffer(String offerId, String hostName, double cpus, long ramMb, long diskMb) {
     return Offer.newBuilder()
         .setId(OfferID.newBuilder().setValue(offerId))
         .setFrameworkId(FrameworkID.newBuilder().setValue("framework_id"))
         .setSlaveId(SlaveID.newBuilder().setValue("slave_id-" + offerId))
         .setHostname(hostName)
+        .addResources(Resources.makeMesosResource(Resources.CPUS, cpus))
+        .addResources(Resources.makeMesosResource(Resources.RAM_MB, ramMb))
+        .addResources(Resources.makeMesosResource(Resources.DISK_MB, diskMb))
+        .addResources(Resource.newBuilder()
+            .setName(Resources.PORTS)
+            .setType(Type.RANGES)
+            .setRanges(Ranges.newBuilder()
+                .addRange(Range.newBuilder().setBegin(31000).setEnd(32000))))
         .build();
   }
 }
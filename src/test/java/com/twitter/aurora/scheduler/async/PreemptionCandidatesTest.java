@@ -0,0 +1,140 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.async;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.aurora.gen.AssignedTask;
+import com.twitter.aurora.gen.Identity;
+import com.twitter.aurora.gen.ScheduleStatus;
+import com.twitter.aurora.gen.ScheduledTask;
+import com.twitter.aurora.gen.TaskConfig;
+import com.twitter.aurora.scheduler.base.Tasks;
+import com.twitter.aurora.scheduler.events.PubsubEvent.StorageStarted;
+import com.twitter.aurora.scheduler.events.PubsubEvent.TaskStateChange;
+import com.twitter.aurora.scheduler.events.PubsubEvent.TasksDeleted;
+import com.twitter.aurora.scheduler.storage.entities.IAssignedTask;
+import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
+import com.twitter.aurora.scheduler.storage.testing.StorageTestUtil;
+import com.twitter.common.testing.easymock.EasyMockTest;
+
+import static org.junit.Assert.assertEquals;
+
+import static com.twitter.aurora.gen.ScheduleStatus.ASSIGNED;
+import static com.twitter.aurora.gen.ScheduleStatus.FINISHED;
+import static com.twitter.aurora.gen.ScheduleStatus.PENDING;
+import static com.twitter.aurora.gen.ScheduleStatus.PREEMPTING;
+import static com.twitter.aurora.gen.ScheduleStatus.RUNNING;
+
+public class PreemptionCandidatesTest extends EasyMockTest {
+
+  private static final String SLAVE_A = "slave_a";
+  private static final String SLAVE_B = "slave_b";
+
+  private StorageTestUtil storageUtil;
+  private PreemptionCandidates candidates;
+
+  @Before
+  public void setUp() {
+    storageUtil = new StorageTestUtil(this);
+    storageUtil.expectOperations();
+    candidates = new PreemptionCandidates(storageUtil.storage);
+  }
+
+  private IScheduledTask makeTask(String taskId, String slaveId, ScheduleStatus status) {
+    return IScheduledTask.build(new ScheduledTask()
+        .setStatus(status)
+        .setAssignedTask(new AssignedTask()
+            .setTaskId(taskId)
+            .setSlaveId(slaveId)
+            .setSlaveHost(slaveId)
+            .setTask(new TaskConfig()
+                .setOwner(new Identity().setRole("role").setUser("user"))
+                .setEnvironment("test")
+                .setJobName("job"))));
+  }
+
+  private void changeState(IScheduledTask task, ScheduleStatus oldState) {
+    candidates.taskChangedState(new TaskStateChange(task, oldState));
+  }
+
+  private void assertCandidates(String slaveId, IScheduledTask... tasks) {
+    assertEquals(
+        ImmutableSet.copyOf(Iterables.transform(
+            ImmutableList.copyOf(tasks),
+            Tasks.SCHEDULED_TO_ASSIGNED)),
+        ImmutableSet.copyOf(candidates.getCandidates(slaveId)));
+  }
+
+  @Test
+  public void testLoadFromStorage() {
+    IScheduledTask a = makeTask("a", SLAVE_A, RUNNING);
+    IScheduledTask b = makeTask("b", SLAVE_B, ASSIGNED);
+    storageUtil.expectTaskFetch(PreemptionCandidates.CANDIDATE_QUERY, a, b);
+
+    control.replay();
+
+    candidates.storageStarted(new StorageStarted());
+    assertEquals(ImmutableSet.of(SLAVE_A, SLAVE_B), candidates.getSlaves());
+    assertCandidates(SLAVE_A, a);
+    assertCandidates(SLAVE_B, b);
+  }
+
+  @Test
+  public void testStateChanges() {
+    control.replay();
+
+    IScheduledTask pending = makeTask("a", null, PENDING);
+    changeState(pending, ScheduleStatus.INIT);
+    assertEquals(ImmutableSet.<String>of(), candidates.getSlaves());
+
+    IScheduledTask assigned = makeTask("a", SLAVE_A, ASSIGNED);
+    IScheduledTask other = makeTask("b", SLAVE_A, RUNNING);
+    changeState(assigned, PENDING);
+    changeState(other, ASSIGNED);
+    assertCandidates(SLAVE_A, assigned, other);
+
+    IScheduledTask running = makeTask("a", SLAVE_A, RUNNING);
+    changeState(running, ASSIGNED);
+    assertCandidates(SLAVE_A, running, other);
+
+    changeState(makeTask("a", SLAVE_A, PREEMPTING), RUNNING);
+    assertCandidates(SLAVE_A, other);
+
+    changeState(makeTask("b", SLAVE_A, FINISHED), RUNNING);
+    assertEquals(ImmutableSet.<String>of(), candidates.getSlaves());
+    assertEquals(ImmutableList.<IAssignedTask>of(), candidates.getCandidates(SLAVE_A));
+  }
+
+  @Test
+  public void testTasksDeleted() {
+    control.replay();
+
+    IScheduledTask a = makeTask("a", SLAVE_A, RUNNING);
+    IScheduledTask b = makeTask("b", SLAVE_B, RUNNING);
+    changeState(a, ASSIGNED);
+    changeState(b, ASSIGNED);
+
+    candidates.tasksDeleted(new TasksDeleted(ImmutableSet.of(a)));
+    assertEquals(ImmutableSet.of(SLAVE_B), candidates.getSlaves());
+    assertCandidates(SLAVE_B, b);
+  }
+}
@@ -18,12 +18,14 @@ package com.twitter.aurora.scheduler.async;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
-import com.google.common.base.Optional;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 
 import org.easymock.EasyMock;
@@ -35,23 +37,24 @@ import org.junit.Test;
 import com.twitter.aurora.gen.AssignedTask;
 import com.twitter.aurora.gen.Attribute;
 import com.twitter.aurora.gen.Constraint;
-import com.twitter.aurora.gen.HostAttributes;
 import com.twitter.aurora.gen.Identity;
 import com.twitter.aurora.gen.ScheduleStatus;
 import com.twitter.aurora.gen.ScheduledTask;
 import com.twitter.aurora.gen.TaskConfig;
 import com.twitter.aurora.gen.TaskEvent;
+import com.twitter.aurora.scheduler.HostOffer;
 import com.twitter.aurora.scheduler.ResourceSlot;
 import com.twitter.aurora.scheduler.base.Query;
 import com.twitter.aurora.scheduler.base.Tasks;
 import com.twitter.aurora.scheduler.configuration.Resources;
+import com.twitter.aurora.scheduler.events.PubsubEvent.StorageStarted;
+import com.twitter.aurora.scheduler.filter.FilterProgram;
+import com.twitter.aurora.scheduler.filter.JobAttributeCounts;
 import com.twitter.aurora.scheduler.filter.SchedulingFilter;
 import com.twitter.aurora.scheduler.filter.SchedulingFilterImpl;
-import com.twitter.aurora.scheduler.state.MaintenanceController;
 import com.twitter.aurora.scheduler.state.SchedulerCore;
 import com.twitter.aurora.scheduler.storage.entities.IAssignedTask;
 import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
-import com.twitter.aurora.scheduler.storage.entities.ITaskConfig;
 import com.twitter.aurora.scheduler.storage.testing.StorageTestUtil;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Data;
@@ -62,6 +65,7 @@ import com.twitter.common.util.testing.FakeClock;
 import static org.apache.mesos.Protos.Offer;
 import static org.apache.mesos.Protos.Resource;
 import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
 
 import static com.twitter.aurora.gen.MaintenanceMode.NONE;
 import static com.twitter.aurora.gen.ScheduleStatus.PENDING;
@@ -96,7 +100,6 @@ public class PreemptorImplTest extends EasyMockTest {
   private SchedulerCore scheduler;
   private SchedulingFilter schedulingFilter;
   private FakeClock clock;
-  private MaintenanceController maintenance;
   private OfferQueue offerQueue;
 
   @Before
@@ -104,21 +107,30 @@ public class PreemptorImplTest extends EasyMockTest {
     storageUtil = new StorageTestUtil(this);
     storageUtil.expectOperations();
     scheduler = createMock(SchedulerCore.class);
-    maintenance = createMock(MaintenanceController.class);
     clock = new FakeClock();
     offerQueue = createMock(OfferQueue.class);
   }
 
-  private void runPreemptor(ScheduledTask pendingTask) {
+  private Map<String, String> runPreemptor(ScheduledTask... pendingTasks) {
+    PreemptionCandidates candidates = new PreemptionCandidates(storageUtil.storage);
+    candidates.storageStarted(new StorageStarted());
     PreemptorImpl preemptor = new PreemptorImpl(
         storageUtil.storage,
+        candidates,
         scheduler,
         offerQueue,
         schedulingFilter,
         PREEMPTION_DELAY,
         clock);
 
-    preemptor.findPreemptionSlotFor(pendingTask.getAssignedTask().getTaskId());
+    return preemptor.findPreemptionSlotsFor(ImmutableSet.copyOf(
+        Iterables.transform(Arrays.asList(pendingTasks), Tasks.SCHEDULED_TO_ID)));
+  }
+
+  private SchedulingFilter makeSchedulingFilter() {
+    return new SchedulingFilterImpl(
+        storageUtil.storage,
+        new JobAttributeCounts(storageUtil.storage));
   }
 
   // TODO(zmanji): Put together a SchedulerPreemptorIntegrationTest as well.
@@ -134,7 +146,7 @@ public class PreemptorImplTest extends EasyMockTest {
 
   private void expectGetActiveTasks(ScheduledTask... returnedTasks) {
     storageUtil.expectTaskFetch(
-        PreemptorImpl.CANDIDATE_QUERY,
+        PreemptionCandidates.CANDIDATE_QUERY,
         IScheduledTask.setFromBuilders(Arrays.asList(returnedTasks)));
   }
 
@@ -293,7 +305,7 @@ public class PreemptorImplTest extends EasyMockTest {
   // Ensures a production task can preempt 2 tasks on the same host.
   @Test
   public void testProductionPreemptingManyNonProduction() throws Exception {
-    schedulingFilter = new SchedulingFilterImpl(storageUtil.storage, maintenance);
+    schedulingFilter = makeSchedulingFilter();
     ScheduledTask a1 = makeTask(USER_A, JOB_A, TASK_ID_A + "_a1");
     a1.getAssignedTask().getTask().setNumCpus(1).setRamMb(512);
 
@@ -322,10 +334,10 @@ public class PreemptorImplTest extends EasyMockTest {
     runPreemptor(p1);
   }
 
-  // Ensures we select the minimal number of tasks to preempt
+  // Ensures we select the tasks with the smallest dominant resource share to preempt.
   @Test
   public void testMinimalSetPreempted() throws Exception {
-    schedulingFilter = new SchedulingFilterImpl(storageUtil.storage, maintenance);
+    schedulingFilter = makeSchedulingFilter();
     ScheduledTask a1 = makeTask(USER_A, JOB_A, TASK_ID_A + "_a1");
     a1.getAssignedTask().getTask().setNumCpus(4).setRamMb(4096);
 
@@ -351,16 +363,60 @@ public class PreemptorImplTest extends EasyMockTest {
     expectGetPendingTasks(p1);
     expectGetActiveTasks(b1, b2, a1);
 
-    expectPreempted(a1, p1);
+    expectPreempted(b1, p1);
+    expectPreempted(b2, p1);
 
     control.replay();
     runPreemptor(p1);
   }
 
+  // Ensures a single search places a group of identical tasks without reusing victims.
+  @Test
+  public void testGroupPreemptsDistinctVictims() throws Exception {
+    schedulingFilter = makeSchedulingFilter();
+    ScheduledTask a1 = makeTask(USER_A, JOB_A, TASK_ID_A + "_a1");
+    a1.getAssignedTask().getTask().setNumCpus(1).setRamMb(512);
+
+    ScheduledTask a2 = makeTask(USER_A, JOB_A, TASK_ID_A + "_a2");
+    a2.getAssignedTask().getTask().setNumCpus(1).setRamMb(512);
+
+    setUpHost(HOST_A, RACK_A);
+
+    runOnHost(a1, HOST_A);
+    runOnHost(a2, HOST_A);
+
+    ScheduledTask p1 = makeProductionTask(USER_B, JOB_B, TASK_ID_B + "_p1");
+    p1.getAssignedTask().getTask().setNumCpus(1).setRamMb(512);
+    ScheduledTask p2 = makeProductionTask(USER_B, JOB_B, TASK_ID_B + "_p2");
+    p2.getAssignedTask().getTask().setNumCpus(1).setRamMb(512);
+    ScheduledTask p3 = makeProductionTask(USER_B, JOB_B, TASK_ID_B + "_p3");
+    p3.getAssignedTask().getTask().setNumCpus(1).setRamMb(512);
+
+    clock.advance(PREEMPTION_DELAY);
+
+    expectNoOffers();
+
+    expectGetPendingTasks(p1, p2, p3);
+    expectGetActiveTasks(a1, a2);
+
+    // Each victim is preempted exactly once, on behalf of any of the pending tasks.
+    scheduler.preemptTask(
+        EasyMock.eq(IAssignedTask.build(a1.getAssignedTask())),
+        EasyMock.<IAssignedTask>anyObject());
+    scheduler.preemptTask(
+        EasyMock.eq(IAssignedTask.build(a2.getAssignedTask())),
+        EasyMock.<IAssignedTask>anyObject());
+
+    control.replay();
+    Map<String, String> slots = runPreemptor(p1, p2, p3);
+    assertEquals(2, slots.size());
+    assertEquals(ImmutableSet.of(hostToId(HOST_A)), ImmutableSet.copyOf(slots.values()));
+  }
+
   // Ensures a production task *never* preempts a production task from another job.
   @Test
   public void testProductionJobNeverPreemptsProductionJob() throws Exception {
-    schedulingFilter = new SchedulingFilterImpl(storageUtil.storage, maintenance);
+    schedulingFilter = makeSchedulingFilter();
     ScheduledTask p1 = makeProductionTask(USER_A, JOB_A, TASK_ID_A + "_p1");
     p1.getAssignedTask().getTask().setNumCpus(2).setRamMb(1024);
 
@@ -385,7 +441,7 @@ public class PreemptorImplTest extends EasyMockTest {
   // Ensures that we can preempt if a task + offer can satisfy a pending task.
   @Test
   public void testPreemptWithOfferAndTask() throws Exception {
-    schedulingFilter = new SchedulingFilterImpl(storageUtil.storage, maintenance);
+    schedulingFilter = makeSchedulingFilter();
 
     setUpHost(HOST_A, RACK_A);
 
@@ -393,7 +449,8 @@ public class PreemptorImplTest extends EasyMockTest {
     a1.getAssignedTask().getTask().setNumCpus(1).setRamMb(512);
     runOnHost(a1, HOST_A);
 
-    Offer o1 = makeOffer(OFFER_A, HOST_A, 1, Amount.of(512L, Data.MB), Amount.of(1L, Data.MB), 1);
+    HostOffer o1 =
+        makeOffer(OFFER_A, HOST_A, 1, Amount.of(512L, Data.MB), Amount.of(1L, Data.MB), 1);
     expectOffers(o1);
 
     ScheduledTask p1 = makeProductionTask(USER_B, JOB_B, TASK_ID_B + "_p1");
@@ -413,7 +470,7 @@ public class PreemptorImplTest extends EasyMockTest {
   // Ensures we can preempt if two tasks and an offer can satisfy a pending task.
   @Test
   public void testPreemptWithOfferAndMultipleTasks() throws Exception {
-    schedulingFilter = new SchedulingFilterImpl(storageUtil.storage, maintenance);
+    schedulingFilter = makeSchedulingFilter();
 
     setUpHost(HOST_A, RACK_A);
 
@@ -425,7 +482,8 @@ public class PreemptorImplTest extends EasyMockTest {
     a2.getAssignedTask().getTask().setNumCpus(1).setRamMb(512);
     runOnHost(a2, HOST_A);
 
-    Offer o1 = makeOffer(OFFER_A, HOST_A, 2, Amount.of(1024L, Data.MB), Amount.of(1L, Data.MB), 1);
+    HostOffer o1 =
+        makeOffer(OFFER_A, HOST_A, 2, Amount.of(1024L, Data.MB), Amount.of(1L, Data.MB), 1);
     expectOffers(o1);
 
     ScheduledTask p1 = makeProductionTask(USER_B, JOB_B, TASK_ID_B + "_p1");
@@ -446,7 +504,7 @@ public class PreemptorImplTest extends EasyMockTest {
   // Ensures we don't preempt if a host has enough slack to satisfy a pending task.
   @Test
   public void testPreemptWithLargeOffer() throws Exception {
-    schedulingFilter = new SchedulingFilterImpl(storageUtil.storage, maintenance);
+    schedulingFilter = makeSchedulingFilter();
 
     setUpHost(HOST_A, RACK_A);
 
@@ -454,7 +512,8 @@ public class PreemptorImplTest extends EasyMockTest {
     a1.getAssignedTask().getTask().setNumCpus(1).setRamMb(512);
     runOnHost(a1, HOST_A);
 
-    Offer o1 = makeOffer(OFFER_A, HOST_A, 2, Amount.of(2048L, Data.MB), Amount.of(1L, Data.MB), 1);
+    HostOffer o1 =
+        makeOffer(OFFER_A, HOST_A, 2, Amount.of(2048L, Data.MB), Amount.of(1L, Data.MB), 1);
     expectOffers(o1);
 
     ScheduledTask p1 = makeProductionTask(USER_B, JOB_B, TASK_ID_B + "_p1");
@@ -466,17 +525,18 @@ public class PreemptorImplTest extends EasyMockTest {
     expectGetPendingTasks(p1);
 
     control.replay();
-    runPreemptor(p1);
+    // No slot is returned, since nothing was preempted.
+    assertEquals(ImmutableMap.<String, String>of(), runPreemptor(p1));
   }
 
   // TODO(zmanji) spread tasks across slave ids on the same host and see if preemption fails.
 
-  private Offer makeOffer(String offerId,
-                          String host,
-                          double cpu,
-                          Amount<Long, Data> ram,
-                          Amount<Long, Data> disk,
-                          int numPorts) {
+  private HostOffer makeOffer(String offerId,
+                              String host,
+                              double cpu,
+                              Amount<Long, Data> ram,
+                              Amount<Long, Data> disk,
+                              int numPorts) {
     List<Resource> resources = new Resources(cpu, ram, disk, numPorts).toResourceList();
     Offer.Builder builder = Offer.newBuilder();
     builder.getIdBuilder().setValue(offerId);
@@ -486,22 +546,22 @@ public class PreemptorImplTest extends EasyMockTest {
     for (Resource r: resources) {
       builder.addResources(r);
     }
-    return builder.build();
+    return HostOffer.from(builder.build(), NONE);
   }
 
-  private void expectOffers(Offer ... offers) {
+  private void expectOffers(HostOffer... offers) {
     expect(offerQueue.getOffers()).andReturn(Lists.newArrayList(offers));
   }
 
   private void expectNoOffers() {
-    expect(offerQueue.getOffers()).andReturn(ImmutableList.<Offer>of());
+    expect(offerQueue.getOffers()).andReturn(ImmutableList.<HostOffer>of());
   }
 
   private IExpectationSetters<Set<Veto>> expectFiltering() {
     return expect(schedulingFilter.filter(
         EasyMock.<ResourceSlot>anyObject(),
         EasyMock.<String>anyObject(),
-        EasyMock.<ITaskConfig>anyObject(),
+        EasyMock.<FilterProgram>anyObject(),
         EasyMock.<String>anyObject())).andAnswer(
         new IAnswer<Set<Veto>>() {
           @Override public Set<Veto> answer() {
@@ -577,11 +637,8 @@ public class PreemptorImplTest extends EasyMockTest {
 
   // Sets up a normal host, no dedicated hosts and no maintenance.
   private void setUpHost(String host, String rack) {
-    HostAttributes hostAttrs = new HostAttributes().setHost(host).setSlaveId(host + "_id")
-        .setMode(NONE).setAttributes(ImmutableSet.of(rack(rack), host(host)));
-
-    expect(this.storageUtil.attributeStore.getHostAttributes(host))
-        .andReturn(Optional.of(hostAttrs)).anyTimes();
-    expect(this.maintenance.getMode(host)).andReturn(NONE).anyTimes();
+    expect(this.storageUtil.attributeStore.getAttributes(host))
+        .andReturn(ImmutableSet.of(rack(rack), host(host))).anyTimes();
+    expect(this.storageUtil.attributeStore.getMaintenanceMode(host)).andReturn(NONE).anyTimes();
   }
 }
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.async;
+
+import java.util.EnumSet;
+
+import javax.annotation.Nullable;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.aurora.gen.AssignedTask;
+import com.twitter.aurora.gen.Identity;
+import com.twitter.aurora.gen.ScheduleStatus;
+import com.twitter.aurora.gen.ScheduledTask;
+import com.twitter.aurora.gen.TaskConfig;
+import com.twitter.aurora.gen.TaskEvent;
+import com.twitter.aurora.scheduler.async.RescheduleCalculator.RescheduleCalculatorImpl;
+import com.twitter.aurora.scheduler.async.RescheduleCalculator.RescheduleCalculatorImpl.RescheduleCalculatorSettings;
+import com.twitter.aurora.scheduler.base.Query;
+import com.twitter.aurora.scheduler.events.PubsubEvent.TaskStateChange;
+import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
+import com.twitter.aurora.scheduler.storage.testing.StorageTestUtil;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.testing.easymock.EasyMockTest;
+import com.twitter.common.util.BackoffStrategy;
+import com.twitter.common.util.testing.FakeClock;
+
+import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
+
+import static com.twitter.aurora.gen.ScheduleStatus.ASSIGNED;
+import static com.twitter.aurora.gen.ScheduleStatus.FAILED;
+import static com.twitter.aurora.gen.ScheduleStatus.FINISHED;
+import static com.twitter.aurora.gen.ScheduleStatus.INIT;
+import static com.twitter.aurora.gen.ScheduleStatus.PENDING;
+import static com.twitter.aurora.gen.ScheduleStatus.RUNNING;
+
+public class RescheduleCalculatorImplTest extends EasyMockTest {
+
+  private static final Amount<Long, Time> FLAPPING_THRESHOLD = Amount.of(5L, Time.MINUTES);
+
+  private StorageTestUtil storageUtil;
+  private BackoffStrategy backoff;
+  private FakeClock clock;
+  private RescheduleCalculatorImpl calculator;
+
+  @Before
+  public void setUp() {
+    storageUtil = new StorageTestUtil(this);
+    storageUtil.expectOperations();
+    backoff = createMock(BackoffStrategy.class);
+    clock = new FakeClock();
+    calculator = new RescheduleCalculatorImpl(
+        storageUtil.storage,
+        new RescheduleCalculatorSettings(
+            backoff,
+            FLAPPING_THRESHOLD,
+            Amount.of(5, Time.SECONDS)),
+        clock);
+  }
+
+  private IScheduledTask makeTask(
+      String taskId,
+      @Nullable String ancestorId,
+      Amount<Long, Time> timeInState,
+      Iterable<ScheduleStatus> states) {
+
+    ScheduledTask task = new ScheduledTask()
+        .setAncestorId(ancestorId)
+        .setAssignedTask(new AssignedTask()
+            .setTaskId(taskId)
+            .setInstanceId(0)
+            .setTask(new TaskConfig()
+                .setOwner(new Identity("role", "user"))
+                .setEnvironment("test")
+                .setJobName("job")));
+    for (ScheduleStatus status : states) {
+      task.addToTaskEvents(new TaskEvent(clock.nowMillis(), status));
+      task.setStatus(status);
+      clock.advance(timeInState);
+    }
+    return IScheduledTask.build(task);
+  }
+
+  private IScheduledTask makeFlappedTask(String taskId, @Nullable String ancestorId) {
+    return makeTask(
+        taskId,
+        ancestorId,
+        Amount.of(10L, Time.SECONDS),
+        EnumSet.of(INIT, PENDING, ASSIGNED, RUNNING, FAILED));
+  }
+
+  private IScheduledTask makePendingTask(String taskId, String ancestorId) {
+    return makeTask(taskId, ancestorId, Amount.of(10L, Time.SECONDS), EnumSet.of(INIT, PENDING));
+  }
+
+  private void terminated(IScheduledTask task) {
+    calculator.taskChangedState(new TaskStateChange(task, RUNNING));
+  }
+
+  @Test
+  public void testNoAncestor() {
+    control.replay();
+
+    IScheduledTask task = makeTask("a0", null, Amount.of(10L, Time.SECONDS), EnumSet.of(INIT));
+    assertEquals(clock.nowMillis(), calculator.getReadyTimeMs(task));
+  }
+
+  @Test
+  public void testRecordedPenalty() {
+    expect(backoff.calculateBackoffMs(0)).andReturn(5L);
+    expect(backoff.calculateBackoffMs(5L)).andReturn(10L);
+
+    control.replay();
+
+    // Penalties are compounded from recorded history, without fetching ancestors.
+    terminated(makeFlappedTask("a0", null));
+    terminated(makeFlappedTask("a1", "a0"));
+    IScheduledTask pending = makePendingTask("a2", "a1");
+    assertEquals(clock.nowMillis() + 10L, calculator.getReadyTimeMs(pending));
+  }
+
+  @Test
+  public void testHealthyTaskResetsPenalty() {
+    control.replay();
+
+    // A task that ran longer than the flapping threshold is not penalized.
+    terminated(makeTask(
+        "a0",
+        null,
+        Amount.of(10L, Time.MINUTES),
+        EnumSet.of(INIT, PENDING, ASSIGNED, RUNNING, FINISHED)));
+    IScheduledTask pending = makePendingTask("a1", "a0");
+    assertEquals(clock.nowMillis(), calculator.getReadyTimeMs(pending));
+  }
+
+  @Test
+  public void testUnrecordedAncestorFetched() {
+    IScheduledTask ancestor = makeFlappedTask("a0", null);
+    storageUtil.expectTaskFetch(Query.taskScoped("a0"), ancestor);
+    expect(backoff.calculateBackoffMs(0)).andReturn(5L);
+
+    control.replay();
+
+    IScheduledTask pending = makePendingTask("a1", "a0");
+    assertEquals(clock.nowMillis() + 5L, calculator.getReadyTimeMs(pending));
+  }
+}
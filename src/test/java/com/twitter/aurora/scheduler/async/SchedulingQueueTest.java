@@ -0,0 +1,118 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.async;
+
+import com.google.common.base.Optional;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.aurora.gen.Identity;
+import com.twitter.aurora.gen.TaskConfig;
+import com.twitter.aurora.scheduler.async.TaskGroups.GroupKey;
+import com.twitter.aurora.scheduler.storage.entities.ITaskConfig;
+import com.twitter.common.testing.easymock.EasyMockTest;
+import com.twitter.common.util.BackoffStrategy;
+
+import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SchedulingQueueTest extends EasyMockTest {
+
+  private BackoffStrategy backoff;
+  private SchedulingQueue queue;
+
+  @Before
+  public void setUp() {
+    backoff = createMock(BackoffStrategy.class);
+    expect(backoff.calculateBackoffMs(0)).andReturn(0L).anyTimes();
+
+    control.replay();
+
+    queue = new SchedulingQueue();
+  }
+
+  private TaskGroup makeGroup(String role, String job, boolean production, int priority) {
+    ITaskConfig task = ITaskConfig.build(new TaskConfig()
+        .setOwner(new Identity().setRole(role).setUser(role))
+        .setEnvironment("test")
+        .setJobName(job)
+        .setProduction(production)
+        .setPriority(priority));
+    return new TaskGroup(new GroupKey(task), backoff);
+  }
+
+  private void expectPoll(TaskGroup group) {
+    assertEquals(Optional.of(group), queue.poll());
+  }
+
+  @Test
+  public void testEmpty() {
+    assertEquals(Optional.<TaskGroup>absent(), queue.poll());
+    assertEquals(0, queue.size());
+  }
+
+  @Test
+  public void testTierOrder() {
+    TaskGroup lowPriority = makeGroup("a", "low", false, 0);
+    TaskGroup highPriority = makeGroup("a", "high", false, 10);
+    TaskGroup production = makeGroup("a", "prod", true, 0);
+
+    queue.offer(lowPriority);
+    queue.offer(highPriority);
+    queue.offer(production);
+    assertEquals(3, queue.size());
+
+    expectPoll(production);
+    expectPoll(highPriority);
+    expectPoll(lowPriority);
+    assertEquals(Optional.<TaskGroup>absent(), queue.poll());
+  }
+
+  @Test
+  public void testRoleFairness() {
+    TaskGroup a1 = makeGroup("a", "1", false, 0);
+    TaskGroup a2 = makeGroup("a", "2", false, 0);
+    TaskGroup a3 = makeGroup("a", "3", false, 0);
+    TaskGroup b1 = makeGroup("b", "1", false, 0);
+    TaskGroup b2 = makeGroup("b", "2", false, 0);
+
+    queue.offer(a1);
+    queue.offer(a2);
+    queue.offer(a3);
+    queue.offer(b1);
+    queue.offer(b2);
+
+    expectPoll(a1);
+    expectPoll(b1);
+    expectPoll(a2);
+    expectPoll(b2);
+    expectPoll(a3);
+  }
+
+  @Test
+  public void testNoDuplicates() {
+    TaskGroup group = makeGroup("a", "1", false, 0);
+
+    assertTrue(queue.offer(group));
+    assertFalse(queue.offer(group));
+    assertEquals(1, queue.size());
+    expectPoll(group);
+    assertTrue(queue.offer(group));
+  }
+}
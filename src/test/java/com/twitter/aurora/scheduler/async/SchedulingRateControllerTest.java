@@ -0,0 +1,115 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.async;
+
+import com.google.common.util.concurrent.RateLimiter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.aurora.scheduler.async.SchedulingRateController.RateControlSettings;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.util.testing.FakeClock;
+
+import static org.junit.Assert.assertEquals;
+
+public class SchedulingRateControllerTest {
+
+  private static final double INITIAL_RATE = 10;
+  private static final double MAX_RATE = 100;
+  private static final Amount<Long, Time> TARGET = Amount.of(100L, Time.MILLISECONDS);
+  private static final long FAST = Amount.of(1L, Time.MILLISECONDS).as(Time.NANOSECONDS);
+  private static final long SLOW = Amount.of(1L, Time.SECONDS).as(Time.NANOSECONDS);
+  private static final double DELTA = 0.001;
+
+  private FakeClock clock;
+  private RateLimiter rateLimiter;
+  private SchedulingRateController controller;
+
+  @Before
+  public void setUp() {
+    clock = new FakeClock();
+    rateLimiter = RateLimiter.create(1);
+    controller = new SchedulingRateController(
+        new RateControlSettings(rateLimiter, INITIAL_RATE, MAX_RATE, TARGET),
+        clock);
+  }
+
+  private void advance() {
+    clock.advance(SchedulingRateController.ADJUSTMENT_INTERVAL);
+  }
+
+  @Test
+  public void testStartsAtInitialRate() {
+    assertEquals(INITIAL_RATE, rateLimiter.getRate(), DELTA);
+    advance();
+    controller.recordWrite(FAST, FAST);
+    assertEquals(INITIAL_RATE + 4.75, rateLimiter.getRate(), DELTA);
+  }
+
+  @Test
+  public void testClimbsToCeiling() {
+    for (int i = 0; i < 100; i++) {
+      advance();
+      controller.recordWrite(FAST, FAST);
+    }
+    assertEquals(MAX_RATE, rateLimiter.getRate(), DELTA);
+  }
+
+  @Test
+  public void testSlowCommitDecreasesRate() {
+    advance();
+    controller.recordWrite(FAST, SLOW);
+    assertEquals(INITIAL_RATE / 2, rateLimiter.getRate(), DELTA);
+
+    // Only one adjustment is made per interval.
+    controller.recordWrite(FAST, SLOW);
+    assertEquals(INITIAL_RATE / 2, rateLimiter.getRate(), DELTA);
+  }
+
+  @Test
+  public void testLockContentionDecreasesRate() {
+    advance();
+    controller.recordWrite(SLOW, FAST);
+    assertEquals(INITIAL_RATE / 2, rateLimiter.getRate(), DELTA);
+  }
+
+  @Test
+  public void testRecovery() {
+    advance();
+    controller.recordWrite(FAST, SLOW);
+    double reduced = rateLimiter.getRate();
+
+    // Healthy samples bring the moving average back under the target, after which the rate
+    // climbs until reaching the ceiling.
+    for (int i = 0; i < 100; i++) {
+      advance();
+      controller.recordWrite(FAST, FAST);
+    }
+    assertEquals(MAX_RATE, rateLimiter.getRate(), DELTA);
+    assertEquals(INITIAL_RATE / 2, reduced, DELTA);
+  }
+
+  @Test
+  public void testFloor() {
+    for (int i = 0; i < 100; i++) {
+      advance();
+      controller.recordWrite(SLOW, SLOW);
+    }
+    assertEquals(MAX_RATE * 0.05, rateLimiter.getRate(), DELTA);
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.async;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.aurora.gen.Identity;
+import com.twitter.aurora.gen.TaskConfig;
+import com.twitter.aurora.scheduler.async.TaskGroups.GroupKey;
+import com.twitter.aurora.scheduler.storage.entities.ITaskConfig;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.util.testing.FakeClock;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SlotReservationsTest {
+
+  private static final String SLAVE_A = "slave_a";
+  private static final String SLAVE_B = "slave_b";
+
+  private static final GroupKey GROUP_A = new GroupKey(makeTask("a"));
+  private static final GroupKey GROUP_B = new GroupKey(makeTask("b"));
+
+  private FakeClock clock;
+  private SlotReservations reservations;
+
+  @Before
+  public void setUp() {
+    clock = new FakeClock();
+    reservations = new SlotReservations(Amount.of(1L, Time.MINUTES), clock);
+  }
+
+  private static ITaskConfig makeTask(String jobName) {
+    return ITaskConfig.build(new TaskConfig()
+        .setOwner(new Identity().setRole("role").setUser("user"))
+        .setEnvironment("test")
+        .setJobName(jobName));
+  }
+
+  @Test
+  public void testUnreserved() {
+    assertTrue(reservations.canUse(SLAVE_A, GROUP_A));
+    assertTrue(reservations.canUse(SLAVE_A, GROUP_B));
+  }
+
+  @Test
+  public void testReservedForGroup() {
+    reservations.reserve(SLAVE_A, GROUP_A, 1);
+
+    assertTrue(reservations.canUse(SLAVE_A, GROUP_A));
+    assertFalse(reservations.canUse(SLAVE_A, GROUP_B));
+    assertTrue(reservations.canUse(SLAVE_B, GROUP_B));
+  }
+
+  @Test
+  public void testExpiration() {
+    reservations.reserve(SLAVE_A, GROUP_A, 1);
+
+    clock.advance(Amount.of(59L, Time.SECONDS));
+    assertFalse(reservations.canUse(SLAVE_A, GROUP_B));
+    clock.advance(Amount.of(1L, Time.SECONDS));
+    assertTrue(reservations.canUse(SLAVE_A, GROUP_B));
+  }
+
+  @Test
+  public void testExpirationOrder() {
+    reservations.reserve(SLAVE_A, GROUP_A, 1);
+    clock.advance(Amount.of(30L, Time.SECONDS));
+    reservations.reserve(SLAVE_B, GROUP_A, 1);
+
+    // Adding to a reservation extends it past reservations made after it.
+    clock.advance(Amount.of(15L, Time.SECONDS));
+    reservations.reserve(SLAVE_A, GROUP_A, 1);
+
+    clock.advance(Amount.of(45L, Time.SECONDS));
+    assertTrue(reservations.canUse(SLAVE_B, GROUP_B));
+    assertFalse(reservations.canUse(SLAVE_A, GROUP_B));
+    clock.advance(Amount.of(15L, Time.SECONDS));
+    assertTrue(reservations.canUse(SLAVE_A, GROUP_B));
+  }
+
+  @Test
+  public void testLaunchReleases() {
+    reservations.reserve(SLAVE_A, GROUP_A, 1);
+
+    // A launch from another group does not release the reservation.
+    reservations.launched(SLAVE_A, GROUP_B);
+    assertFalse(reservations.canUse(SLAVE_A, GROUP_B));
+
+    reservations.launched(SLAVE_A, GROUP_A);
+    assertTrue(reservations.canUse(SLAVE_A, GROUP_B));
+  }
+
+  @Test
+  public void testSlotsReleasedPerLaunch() {
+    reservations.reserve(SLAVE_A, GROUP_A, 1);
+    reservations.reserve(SLAVE_A, GROUP_A, 1);
+
+    // The slave remains held until every task that preempted on it has launched.
+    reservations.launched(SLAVE_A, GROUP_A);
+    assertFalse(reservations.canUse(SLAVE_A, GROUP_B));
+    reservations.launched(SLAVE_A, GROUP_A);
+    assertTrue(reservations.canUse(SLAVE_A, GROUP_B));
+  }
+
+  @Test
+  public void testReplacedByOtherGroup() {
+    reservations.reserve(SLAVE_A, GROUP_A, 2);
+    reservations.reserve(SLAVE_A, GROUP_B, 1);
+
+    assertFalse(reservations.canUse(SLAVE_A, GROUP_A));
+    assertTrue(reservations.canUse(SLAVE_A, GROUP_B));
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.async;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.aurora.gen.TaskConfig;
+import com.twitter.aurora.scheduler.async.TaskGroup.GroupState;
+import com.twitter.aurora.scheduler.async.TaskGroups.GroupKey;
+import com.twitter.aurora.scheduler.storage.entities.ITaskConfig;
+import com.twitter.common.testing.easymock.EasyMockTest;
+import com.twitter.common.util.BackoffStrategy;
+
+import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
+
+public class TaskGroupTest extends EasyMockTest {
+
+  private TaskGroup group;
+
+  @Before
+  public void setUp() {
+    BackoffStrategy backoff = createMock(BackoffStrategy.class);
+    expect(backoff.calculateBackoffMs(0)).andReturn(0L);
+
+    control.replay();
+
+    group = new TaskGroup(new GroupKey(ITaskConfig.build(new TaskConfig())), backoff);
+  }
+
+  @Test
+  public void testPopReadyInOrder() {
+    group.push("c", 30);
+    group.push("a", 10);
+    group.push("b", 20);
+    group.push("d", 20);
+
+    assertEquals(GroupState.NOT_READY, group.isReady(5));
+    assertEquals(ImmutableSet.<String>of(), group.popReady(5, 10));
+    assertEquals(GroupState.READY, group.isReady(20));
+    assertEquals(ImmutableList.of("a", "b"), ImmutableList.copyOf(group.popReady(20, 2)));
+    assertEquals(ImmutableList.of("d"), ImmutableList.copyOf(group.popReady(20, 2)));
+    assertEquals(ImmutableSet.of("c"), group.getTaskIds());
+  }
+
+  @Test
+  public void testRemove() {
+    group.push("a", 10);
+    group.push("b", 20);
+    group.push("c", 30);
+
+    group.remove("a");
+    group.removeAll(ImmutableList.of("c", "unknown"));
+    assertEquals(ImmutableSet.of("b"), group.getTaskIds());
+    assertEquals(ImmutableSet.of("b"), group.popReady(30, 10));
+    assertEquals(GroupState.EMPTY, group.isReady(30));
+  }
+
+  @Test
+  public void testPushReplaces() {
+    group.push("a", 10);
+    group.push("a", 50);
+
+    assertEquals(GroupState.NOT_READY, group.isReady(20));
+    assertEquals(ImmutableSet.of("a"), group.popReady(50, 10));
+    assertEquals(GroupState.EMPTY, group.isReady(50));
+  }
+}
@@ -16,14 +16,16 @@
 package com.twitter.aurora.scheduler.async;
 
 import java.util.EnumSet;
+import java.util.Set;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nullable;
 
-import com.google.common.base.Function;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.RateLimiter;
 
@@ -34,6 +36,9 @@ import org.apache.mesos.Protos.TaskID;
 import org.apache.mesos.Protos.TaskInfo;
 import org.easymock.Capture;
 import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.easymock.IArgumentMatcher;
+import org.easymock.IExpectationSetters;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -46,18 +51,24 @@ import com.twitter.aurora.gen.ScheduledTask;
 import com.twitter.aurora.gen.TaskConfig;
 import com.twitter.aurora.gen.TaskEvent;
 import com.twitter.aurora.scheduler.Driver;
+import com.twitter.aurora.scheduler.HostOffer;
+import com.twitter.aurora.scheduler.ResourceSlot;
+import com.twitter.aurora.scheduler.async.OfferQueue.ClaimedOffer;
+import com.twitter.aurora.scheduler.async.OfferQueue.OfferAcceptor;
 import com.twitter.aurora.scheduler.async.OfferQueue.OfferQueueImpl;
 import com.twitter.aurora.scheduler.async.OfferQueue.OfferReturnDelay;
+import com.twitter.aurora.scheduler.async.OfferQueue.OfferSelection;
 import com.twitter.aurora.scheduler.async.TaskGroups.SchedulingAction;
 import com.twitter.aurora.scheduler.async.RescheduleCalculator.RescheduleCalculatorImpl;
 import com.twitter.aurora.scheduler.async.RescheduleCalculator.RescheduleCalculatorImpl.RescheduleCalculatorSettings;
+import com.twitter.aurora.scheduler.async.SchedulingRateController.RateControlSettings;
 import com.twitter.aurora.scheduler.base.Query;
 import com.twitter.aurora.scheduler.base.Tasks;
 import com.twitter.aurora.scheduler.events.PubsubEvent.HostMaintenanceStateChange;
 import com.twitter.aurora.scheduler.events.PubsubEvent.StorageStarted;
 import com.twitter.aurora.scheduler.events.PubsubEvent.TaskStateChange;
 import com.twitter.aurora.scheduler.events.PubsubEvent.TasksDeleted;
-import com.twitter.aurora.scheduler.state.MaintenanceController;
+import com.twitter.aurora.scheduler.filter.FilterProgram;
 import com.twitter.aurora.scheduler.state.StateManager;
 import com.twitter.aurora.scheduler.state.TaskAssigner;
 import com.twitter.aurora.scheduler.storage.Storage;
@@ -68,6 +79,7 @@ import com.twitter.aurora.scheduler.storage.TaskStore;
 import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
 import com.twitter.aurora.scheduler.storage.mem.MemStorage;
 import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Data;
 import com.twitter.common.quantity.Time;
 import com.twitter.common.testing.easymock.EasyMockTest;
 import com.twitter.common.util.BackoffStrategy;
@@ -77,8 +89,8 @@ import static org.easymock.EasyMock.capture;
 import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.expectLastCall;
-import static org.easymock.EasyMock.isA;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import static com.twitter.aurora.gen.ScheduleStatus.ASSIGNED;
 import static com.twitter.aurora.gen.ScheduleStatus.FAILED;
@@ -99,9 +111,10 @@ public class TaskSchedulerTest extends EasyMockTest {
   private static final Offer OFFER_B = Offers.makeOffer("OFFER_B", "HOST_B");
   private static final Offer OFFER_C = Offers.makeOffer("OFFER_C", "HOST_C");
   private static final Offer OFFER_D = Offers.makeOffer("OFFER_D", "HOST_D");
+  private static final Optional<Set<Integer>> NO_PORTS =
+      Optional.<Set<Integer>>of(ImmutableSet.<Integer>of());
 
   private Storage storage;
-  private MaintenanceController maintenance;
   private StateManager stateManager;
   private TaskAssigner assigner;
   private BackoffStrategy retryStrategy;
@@ -114,11 +127,11 @@ public class TaskSchedulerTest extends EasyMockTest {
   private FakeClock clock;
   private BackoffStrategy flappingStrategy;
   private Preemptor preemptor;
+  private int maxTasksPerAttempt;
 
   @Before
   public void setUp() {
     storage = MemStorage.newEmptyStorage();
-    maintenance = createMock(MaintenanceController.class);
     stateManager = createMock(StateManager.class);
     assigner = createMock(TaskAssigner.class);
     retryStrategy = createMock(BackoffStrategy.class);
@@ -130,20 +143,45 @@ public class TaskSchedulerTest extends EasyMockTest {
     clock.setNowMillis(0);
     flappingStrategy = createMock(BackoffStrategy.class);
     preemptor = createMock(Preemptor.class);
+    maxTasksPerAttempt = 1;
+
+    // Attempts for ready task groups are queued for immediate execution, run them inline.
+    executor.execute(EasyMock.<Runnable>anyObject());
+    expectLastCall().andAnswer(new IAnswer<Void>() {
+      @Override public Void answer() {
+        ((Runnable) EasyMock.getCurrentArguments()[0]).run();
+        return null;
+      }
+    }).anyTimes();
   }
 
   private void replayAndCreateScheduler() {
     control.replay();
-    offerQueue = new OfferQueueImpl(driver, returnDelay, executor, maintenance);
+    offerQueue = new OfferQueueImpl(
+        driver,
+        returnDelay,
+        executor,
+        OfferSelection.FIRST_FIT);
     RateLimiter rateLimiter = RateLimiter.create(1);
     Amount<Long, Time> flappingThreshold = Amount.of(5L, Time.MINUTES);
-    SchedulingAction scheduler =
-        new TaskScheduler(storage, stateManager, assigner, offerQueue);
+    SchedulingRateController rateController = new SchedulingRateController(
+        new RateControlSettings(rateLimiter, 1, 1, Amount.of(1L, Time.SECONDS)),
+        clock);
+    SlotReservations reservations = new SlotReservations(Amount.of(1L, Time.MINUTES), clock);
+    SchedulingAction scheduler = new TaskScheduler(
+        storage,
+        stateManager,
+        assigner,
+        offerQueue,
+        rateController,
+        reservations,
+        clock);
     taskGroups = new TaskGroups(
         executor,
         storage,
         retryStrategy,
         rateLimiter,
+        maxTasksPerAttempt,
         scheduler,
         clock,
         new RescheduleCalculatorImpl(
@@ -153,7 +191,8 @@ public class TaskSchedulerTest extends EasyMockTest {
                 flappingThreshold,
                 Amount.of(5, Time.SECONDS)),
             clock),
-        preemptor);
+        preemptor,
+        reservations);
   }
 
   private Capture<Runnable> expectOffer() {
@@ -205,23 +244,66 @@ public class TaskSchedulerTest extends EasyMockTest {
     return expectTaskGroupBackoff(0, nextPenaltyMs);
   }
 
+  private static class OfferMatcher implements IArgumentMatcher {
+    private final Offer offer;
+
+    OfferMatcher(Offer offer) {
+      this.offer = offer;
+    }
+
+    @Override
+    public boolean matches(Object argument) {
+      return (argument instanceof HostOffer) && offer.equals(((HostOffer) argument).getOffer());
+    }
+
+    @Override
+    public void appendTo(StringBuffer buffer) {
+      buffer.append(offer.getId().getValue());
+    }
+  }
+
+  // Matches a host offer by its raw offer, regardless of the host's maintenance mode.
+  private static HostOffer matchOffer(Offer offer) {
+    EasyMock.reportMatcher(new OfferMatcher(offer));
+    return null;
+  }
+
+  private IExpectationSetters<Optional<Set<Integer>>> expectMatch(
+      Offer offer,
+      IScheduledTask task) {
+
+    return expect(assigner.match(
+        matchOffer(offer),
+        EasyMock.<FilterProgram>anyObject(),
+        eq(task)));
+  }
+
+  private IExpectationSetters<TaskInfo> expectAssign(Offer offer, IScheduledTask task) {
+    return expect(assigner.assign(offer, Tasks.id(task), ImmutableSet.<Integer>of()));
+  }
+
+  private void expectAssigned(Offer offer, IScheduledTask task, TaskInfo mesosTask) {
+    expectMatch(offer, task).andReturn(NO_PORTS);
+    expectAssign(offer, task).andReturn(mesosTask);
+  }
+
   @Test
   public void testNoTasks() {
-    expectAnyMaintenanceCalls();
     expectOfferDeclineIn(10);
     expectOfferDeclineIn(10);
 
     replayAndCreateScheduler();
 
-    offerQueue.addOffer(OFFER_A);
-    offerQueue.addOffer(OFFER_B);
+    offerQueue.addOffer(hostOffer(OFFER_A));
+    offerQueue.addOffer(hostOffer(OFFER_B));
   }
 
   @Test
   public void testNoOffers() {
     Capture<Runnable> timeoutCapture = expectTaskGroupBackoff(10);
     expectTaskGroupBackoff(10, 20);
-    expect(preemptor.findPreemptionSlotFor("a")).andReturn(Optional.<String>absent());
+    expect(preemptor.findPreemptionSlotsFor(ImmutableSet.of("a")))
+        .andReturn(ImmutableMap.<String, String>of());
 
     replayAndCreateScheduler();
 
@@ -276,27 +358,28 @@ public class TaskSchedulerTest extends EasyMockTest {
 
   @Test
   public void testTaskAssigned() {
-    expectAnyMaintenanceCalls();
     expectOfferDeclineIn(10);
 
     IScheduledTask task = makeTask("a", PENDING);
     TaskInfo mesosTask = makeTaskInfo(task);
 
     Capture<Runnable> timeoutCapture = expectTaskGroupBackoff(10);
-    expect(assigner.maybeAssign(OFFER_A, task)).andReturn(Optional.<TaskInfo>absent());
-    expect(preemptor.findPreemptionSlotFor("a")).andReturn(Optional.<String>absent());
+    expectMatch(OFFER_A, task).andReturn(Optional.<Set<Integer>>absent());
+    expect(preemptor.findPreemptionSlotsFor(ImmutableSet.of("a")))
+        .andReturn(ImmutableMap.<String, String>of());
 
     Capture<Runnable> timeoutCapture2 = expectTaskGroupBackoff(10, 20);
-    expect(assigner.maybeAssign(OFFER_A, task)).andReturn(Optional.of(mesosTask));
-    driver.launchTask(OFFER_A.getId(), mesosTask);
+    expectAssigned(OFFER_A, task, mesosTask);
+    driver.launchTasks(OFFER_A.getId(), ImmutableList.of(mesosTask));
 
     Capture<Runnable> timeoutCapture3 = expectTaskGroupBackoff(10);
     expectTaskGroupBackoff(10, 20);
-    expect(preemptor.findPreemptionSlotFor("b")).andReturn(Optional.<String>absent());
+    expect(preemptor.findPreemptionSlotsFor(ImmutableSet.of("b")))
+        .andReturn(ImmutableMap.<String, String>of());
 
     replayAndCreateScheduler();
 
-    offerQueue.addOffer(OFFER_A);
+    offerQueue.addOffer(hostOffer(OFFER_A));
     changeState(task, INIT, PENDING);
     timeoutCapture.getValue().run();
     timeoutCapture2.getValue().run();
@@ -306,6 +389,40 @@ public class TaskSchedulerTest extends EasyMockTest {
     timeoutCapture3.getValue().run();
   }
 
+  @Test
+  public void testPreemptionReservesSlave() {
+    expectOfferDeclineIn(10);
+
+    IScheduledTask taskA = makeTask("a", PENDING);
+    IScheduledTask taskB = makeTask("b", PENDING);
+    TaskInfo mesosTask = makeTaskInfo(taskA);
+
+    // Task a finds no offers, and preempts tasks on the slave of OFFER_A.
+    Capture<Runnable> timeoutA = expectTaskGroupBackoff(10);
+    expect(preemptor.findPreemptionSlotsFor(ImmutableSet.of("a")))
+        .andReturn(ImmutableMap.of("a", OFFER_A.getSlaveId().getValue()));
+    Capture<Runnable> retryA = expectTaskGroupBackoff(10, 20);
+
+    // Task b is kept off the reserved slave.
+    Capture<Runnable> timeoutB = expectTaskGroupBackoff(10);
+    expect(preemptor.findPreemptionSlotsFor(ImmutableSet.of("b")))
+        .andReturn(ImmutableMap.<String, String>of());
+    expectTaskGroupBackoff(10, 20);
+
+    expectAssigned(OFFER_A, taskA, mesosTask);
+    driver.launchTasks(OFFER_A.getId(), ImmutableList.of(mesosTask));
+
+    replayAndCreateScheduler();
+
+    changeState(taskA, INIT, PENDING);
+    timeoutA.getValue().run();
+
+    offerQueue.addOffer(hostOffer(OFFER_A));
+    changeState(taskB, INIT, PENDING);
+    timeoutB.getValue().run();
+    retryA.getValue().run();
+  }
+
   @Test
   public void testDriverNotReady() {
     IScheduledTask task = makeTask("a", PENDING);
@@ -316,10 +433,9 @@ public class TaskSchedulerTest extends EasyMockTest {
         .build();
 
     Capture<Runnable> timeoutCapture = expectTaskGroupBackoff(10);
-    expectAnyMaintenanceCalls();
     expectOfferDeclineIn(10);
-    expect(assigner.maybeAssign(OFFER_A, task)).andReturn(Optional.of(mesosTask));
-    driver.launchTask(OFFER_A.getId(), mesosTask);
+    expectAssigned(OFFER_A, task, mesosTask);
+    driver.launchTasks(OFFER_A.getId(), ImmutableList.of(mesosTask));
     expectLastCall().andThrow(new IllegalStateException("Driver not ready."));
     expect(stateManager.changeState(
         Query.taskScoped("a").byStatus(PENDING),
@@ -330,7 +446,7 @@ public class TaskSchedulerTest extends EasyMockTest {
     replayAndCreateScheduler();
 
     changeState(task, INIT, PENDING);
-    offerQueue.addOffer(OFFER_A);
+    offerQueue.addOffer(hostOffer(OFFER_A));
     timeoutCapture.getValue().run();
   }
 
@@ -344,20 +460,20 @@ public class TaskSchedulerTest extends EasyMockTest {
         .build();
 
     Capture<Runnable> timeoutCapture = expectTaskGroupBackoff(10);
-    expectAnyMaintenanceCalls();
     expectOfferDeclineIn(10);
-    expect(assigner.maybeAssign(OFFER_A, task)).andThrow(new StorageException("Injected failure."));
+    expectMatch(OFFER_A, task).andThrow(new StorageException("Injected failure."));
 
     Capture<Runnable> timeoutCapture2 = expectTaskGroupBackoff(10, 20);
-    expect(preemptor.findPreemptionSlotFor("a")).andReturn(Optional.<String>absent());
-    expect(assigner.maybeAssign(OFFER_A, task)).andReturn(Optional.of(mesosTask));
-    driver.launchTask(OFFER_A.getId(), mesosTask);
+    expect(preemptor.findPreemptionSlotsFor(ImmutableSet.of("a")))
+        .andReturn(ImmutableMap.<String, String>of());
+    expectAssigned(OFFER_A, task, mesosTask);
+    driver.launchTasks(OFFER_A.getId(), ImmutableList.of(mesosTask));
     expectLastCall();
 
     replayAndCreateScheduler();
 
     changeState(task, INIT, PENDING);
-    offerQueue.addOffer(OFFER_A);
+    offerQueue.addOffer(hostOffer(OFFER_A));
     timeoutCapture.getValue().run();
     timeoutCapture2.getValue().run();
   }
@@ -368,18 +484,19 @@ public class TaskSchedulerTest extends EasyMockTest {
 
     Capture<Runnable> timeoutCapture = expectTaskGroupBackoff(10);
     Capture<Runnable> offerExpirationCapture = expectOfferDeclineIn(10);
-    expectAnyMaintenanceCalls();
-    expect(assigner.maybeAssign(OFFER_A, task)).andReturn(Optional.<TaskInfo>absent());
+    expectMatch(OFFER_A, task).andReturn(Optional.<Set<Integer>>absent());
     Capture<Runnable> timeoutCapture2 = expectTaskGroupBackoff(10, 20);
-    expect(preemptor.findPreemptionSlotFor("a")).andReturn(Optional.<String>absent());
+    expect(preemptor.findPreemptionSlotsFor(ImmutableSet.of("a")))
+        .andReturn(ImmutableMap.<String, String>of());
     driver.declineOffer(OFFER_A.getId());
     expectTaskGroupBackoff(20, 30);
-    expect(preemptor.findPreemptionSlotFor("a")).andReturn(Optional.<String>absent());
+    expect(preemptor.findPreemptionSlotsFor(ImmutableSet.of("a")))
+        .andReturn(ImmutableMap.<String, String>of());
 
     replayAndCreateScheduler();
 
     changeState(task, INIT, PENDING);
-    offerQueue.addOffer(OFFER_A);
+    offerQueue.addOffer(hostOffer(OFFER_A));
     timeoutCapture.getValue().run();
     offerExpirationCapture.getValue().run();
     timeoutCapture2.getValue().run();
@@ -387,7 +504,6 @@ public class TaskSchedulerTest extends EasyMockTest {
 
   @Test
   public void testOneOfferPerSlave() {
-    expectAnyMaintenanceCalls();
     Capture<Runnable> offerExpirationCapture = expectOfferDeclineIn(10);
 
     Offer offerAB =
@@ -398,58 +514,87 @@ public class TaskSchedulerTest extends EasyMockTest {
 
     replayAndCreateScheduler();
 
-    offerQueue.addOffer(OFFER_A);
-    offerQueue.addOffer(offerAB);
+    offerQueue.addOffer(hostOffer(OFFER_A));
+    offerQueue.addOffer(hostOffer(offerAB));
     offerExpirationCapture.getValue().run();
   }
 
   @Test
-  public void testDontDeclineAcceptedOffer() throws OfferQueue.LaunchException {
-    expectAnyMaintenanceCalls();
+  public void testDontDeclineAcceptedOffer() {
     Capture<Runnable> offerExpirationCapture = expectOfferDeclineIn(10);
 
-    Function<Offer, Optional<TaskInfo>> offerAcceptor =
-        createMock(new Clazz<Function<Offer, Optional<TaskInfo>>>() { });
+    OfferAcceptor offerAcceptor = createMock(OfferAcceptor.class);
     final TaskInfo taskInfo = TaskInfo.getDefaultInstance();
-    expect(offerAcceptor.apply(OFFER_A)).andReturn(Optional.of(taskInfo));
-    driver.launchTask(OFFER_A.getId(), taskInfo);
+    offerAcceptor.accept(EasyMock.<ClaimedOffer>anyObject());
+    expectLastCall().andAnswer(new IAnswer<Void>() {
+      @Override public Void answer() throws OfferQueue.LaunchException {
+        ClaimedOffer claimed = (ClaimedOffer) EasyMock.getCurrentArguments()[0];
+        assertEquals(hostOffer(OFFER_A), claimed.getOffer());
+        claimed.launch(ImmutableList.of(taskInfo));
+        return null;
+      }
+    });
+    driver.launchTasks(OFFER_A.getId(), ImmutableList.of(taskInfo));
 
     replayAndCreateScheduler();
 
-    offerQueue.addOffer(OFFER_A);
-    offerQueue.launchFirst(offerAcceptor);
+    offerQueue.addOffer(hostOffer(OFFER_A));
+    assertTrue(offerQueue.launchFirst(
+        ResourceSlot.from(1, Amount.of(1L, Data.GB), Amount.of(1L, Data.GB), 0),
+        offerAcceptor));
     offerExpirationCapture.getValue().run();
   }
 
+  @Test
+  public void testOfferRescindedWhileMatching() {
+    expectOfferDeclineIn(10);
+
+    IScheduledTask task = makeTask("a", PENDING);
+
+    Capture<Runnable> timeoutCapture = expectTaskGroupBackoff(10);
+    expectMatch(OFFER_A, task).andAnswer(new IAnswer<Optional<Set<Integer>>>() {
+      @Override public Optional<Set<Integer>> answer() {
+        offerQueue.cancelOffer(OFFER_A.getId());
+        return NO_PORTS;
+      }
+    });
+    // The claim is re-checked before assignment, so the task is left pending.
+    expectTaskGroupBackoff(10, 20);
+    expect(preemptor.findPreemptionSlotsFor(ImmutableSet.of("a")))
+        .andReturn(ImmutableMap.<String, String>of());
+
+    replayAndCreateScheduler();
+
+    offerQueue.addOffer(hostOffer(OFFER_A));
+    changeState(task, INIT, PENDING);
+    timeoutCapture.getValue().run();
+  }
+
   @Test
   public void testBasicMaintenancePreferences() {
     expectOffer();
-    expect(maintenance.getMode("HOST_D")).andReturn(MaintenanceMode.DRAINED);
     expectOffer();
-    expect(maintenance.getMode("HOST_C")).andReturn(MaintenanceMode.DRAINING);
     expectOffer();
-    expect(maintenance.getMode("HOST_B")).andReturn(MaintenanceMode.SCHEDULED);
     expectOffer();
-    expect(maintenance.getMode("HOST_A")).andReturn(MaintenanceMode.NONE);
 
     IScheduledTask taskA = makeTask("A", PENDING);
     TaskInfo mesosTaskA = makeTaskInfo(taskA);
-    expect(assigner.maybeAssign(OFFER_A, taskA)).andReturn(Optional.of(mesosTaskA));
-    driver.launchTask(OFFER_A.getId(), mesosTaskA);
+    expectAssigned(OFFER_A, taskA, mesosTaskA);
+    driver.launchTasks(OFFER_A.getId(), ImmutableList.of(mesosTaskA));
     Capture<Runnable> captureA = expectTaskGroupBackoff(10);
 
     IScheduledTask taskB = makeTask("B", PENDING);
     TaskInfo mesosTaskB = makeTaskInfo(taskB);
-    expect(assigner.maybeAssign(OFFER_B, taskB)).andReturn(Optional.of(mesosTaskB));
-    driver.launchTask(OFFER_B.getId(), mesosTaskB);
+    expectAssigned(OFFER_B, taskB, mesosTaskB);
+    driver.launchTasks(OFFER_B.getId(), ImmutableList.of(mesosTaskB));
     Capture<Runnable> captureB = expectTaskGroupBackoff(10);
 
     replayAndCreateScheduler();
 
-    offerQueue.addOffer(OFFER_D);
-    offerQueue.addOffer(OFFER_C);
-    offerQueue.addOffer(OFFER_B);
-    offerQueue.addOffer(OFFER_A);
+    offerQueue.addOffer(HostOffer.from(OFFER_D, MaintenanceMode.DRAINED));
+    offerQueue.addOffer(HostOffer.from(OFFER_C, MaintenanceMode.DRAINING));
+    offerQueue.addOffer(HostOffer.from(OFFER_B, MaintenanceMode.SCHEDULED));
+    offerQueue.addOffer(HostOffer.from(OFFER_A, MaintenanceMode.NONE));
 
     changeState(taskA, INIT, PENDING);
     captureA.getValue().run();
@@ -461,29 +606,26 @@ public class TaskSchedulerTest extends EasyMockTest {
   @Test
   public void testChangingMaintenancePreferences() {
     expectOffer();
-    expect(maintenance.getMode("HOST_A")).andReturn(MaintenanceMode.NONE);
     expectOffer();
-    expect(maintenance.getMode("HOST_B")).andReturn(MaintenanceMode.SCHEDULED);
     expectOffer();
-    expect(maintenance.getMode("HOST_C")).andReturn(MaintenanceMode.DRAINED);
 
     IScheduledTask taskA = makeTask("A", PENDING);
     TaskInfo mesosTaskA = makeTaskInfo(taskA);
-    expect(assigner.maybeAssign(OFFER_B, taskA)).andReturn(Optional.of(mesosTaskA));
-    driver.launchTask(OFFER_B.getId(), mesosTaskA);
+    expectAssigned(OFFER_B, taskA, mesosTaskA);
+    driver.launchTasks(OFFER_B.getId(), ImmutableList.of(mesosTaskA));
     Capture<Runnable> captureA = expectTaskGroupBackoff(10);
 
     IScheduledTask taskB = makeTask("B", PENDING);
     TaskInfo mesosTaskB = makeTaskInfo(taskB);
-    expect(assigner.maybeAssign(OFFER_C, taskB)).andReturn(Optional.of(mesosTaskB));
-    driver.launchTask(OFFER_C.getId(), mesosTaskB);
+    expectAssigned(OFFER_C, taskB, mesosTaskB);
+    driver.launchTasks(OFFER_C.getId(), ImmutableList.of(mesosTaskB));
     Capture<Runnable> captureB = expectTaskGroupBackoff(10);
 
     replayAndCreateScheduler();
 
-    offerQueue.addOffer(OFFER_A);
-    offerQueue.addOffer(OFFER_B);
-    offerQueue.addOffer(OFFER_C);
+    offerQueue.addOffer(HostOffer.from(OFFER_A, MaintenanceMode.NONE));
+    offerQueue.addOffer(HostOffer.from(OFFER_B, MaintenanceMode.SCHEDULED));
+    offerQueue.addOffer(HostOffer.from(OFFER_C, MaintenanceMode.DRAINED));
 
     // Initially, we'd expect the offers to be consumed in order (A, B), with (C) unschedulable
 
@@ -501,9 +643,17 @@ public class TaskSchedulerTest extends EasyMockTest {
   private Capture<IScheduledTask> expectTaskScheduled(IScheduledTask task) {
     TaskInfo mesosTask = makeTaskInfo(task);
     Capture<IScheduledTask> taskScheduled = createCapture();
-    expect(assigner.maybeAssign(EasyMock.<Offer>anyObject(), capture(taskScheduled)))
-        .andReturn(Optional.of(mesosTask));
-    driver.launchTask(EasyMock.<OfferID>anyObject(), eq(mesosTask));
+    expect(assigner.match(
+        EasyMock.<HostOffer>anyObject(),
+        EasyMock.<FilterProgram>anyObject(),
+        capture(taskScheduled)))
+        .andReturn(NO_PORTS);
+    expect(assigner.assign(
+        EasyMock.<Offer>anyObject(),
+        eq(Tasks.id(task)),
+        eq(ImmutableSet.<Integer>of())))
+        .andReturn(mesosTask);
+    driver.launchTasks(EasyMock.<OfferID>anyObject(), eq(ImmutableList.of(mesosTask)));
     return taskScheduled;
   }
 
@@ -512,7 +662,6 @@ public class TaskSchedulerTest extends EasyMockTest {
     // TODO(wfarner): This test requires intimate knowledge of the way futures are used inside
     // TaskScheduler.  It's time to test using a real ScheduledExecutorService.
 
-    expectAnyMaintenanceCalls();
 
     IScheduledTask jobA0 = makeTask("a0", PENDING);
 
@@ -544,10 +693,10 @@ public class TaskSchedulerTest extends EasyMockTest {
 
     replayAndCreateScheduler();
 
-    offerQueue.addOffer(OFFER_A);
-    offerQueue.addOffer(OFFER_B);
-    offerQueue.addOffer(OFFER_C);
-    offerQueue.addOffer(OFFER_D);
+    offerQueue.addOffer(hostOffer(OFFER_A));
+    offerQueue.addOffer(hostOffer(OFFER_B));
+    offerQueue.addOffer(hostOffer(OFFER_C));
+    offerQueue.addOffer(hostOffer(OFFER_D));
     changeState(jobA0, INIT, PENDING);
     changeState(jobA1, INIT, PENDING);
     changeState(jobA2, INIT, PENDING);
@@ -561,19 +710,19 @@ public class TaskSchedulerTest extends EasyMockTest {
 
   @Test
   public void testTaskDeleted() {
-    expectAnyMaintenanceCalls();
     expectOfferDeclineIn(10);
 
     final IScheduledTask task = makeTask("a", PENDING);
 
     Capture<Runnable> timeoutCapture = expectTaskGroupBackoff(10);
-    expect(assigner.maybeAssign(OFFER_A, task)).andReturn(Optional.<TaskInfo>absent());
+    expectMatch(OFFER_A, task).andReturn(Optional.<Set<Integer>>absent());
     expectTaskGroupBackoff(10, 20);
-    expect(preemptor.findPreemptionSlotFor("a")).andReturn(Optional.<String>absent());
+    expect(preemptor.findPreemptionSlotsFor(ImmutableSet.of("a")))
+        .andReturn(ImmutableMap.<String, String>of());
 
     replayAndCreateScheduler();
 
-    offerQueue.addOffer(OFFER_A);
+    offerQueue.addOffer(hostOffer(OFFER_A));
     changeState(task, INIT, PENDING);
     timeoutCapture.getValue().run();
 
@@ -588,10 +737,81 @@ public class TaskSchedulerTest extends EasyMockTest {
     timeoutCapture.getValue().run();
   }
 
+  @Test
+  public void testPackTasksIntoOffer() {
+    expectOfferDeclineIn(10);
+
+    IScheduledTask a0 = makeTask("a0", PENDING);
+    ScheduledTask a1Builder = a0.newBuilder();
+    a1Builder.getAssignedTask().setTaskId("a1");
+    a1Builder.getAssignedTask().setInstanceId(1);
+    IScheduledTask a1 = IScheduledTask.build(a1Builder);
+
+    TaskInfo mesosTask0 = makeTaskInfo(a0);
+    TaskInfo mesosTask1 = makeTaskInfo(a1);
+    Offer remaining = ResourceSlot.from(a0.getAssignedTask().getTask())
+        .subtractFrom(OFFER_A, ImmutableSet.<Integer>of());
+
+    Capture<Runnable> timeoutCapture = expectTaskGroupBackoff(10);
+    expectAssigned(OFFER_A, a0, mesosTask0);
+    expectMatch(remaining, a1).andReturn(NO_PORTS);
+    // Matched tasks are assigned against the held offer.
+    expectAssign(OFFER_A, a1).andReturn(mesosTask1);
+    driver.launchTasks(OFFER_A.getId(), ImmutableList.of(mesosTask0, mesosTask1));
+
+    maxTasksPerAttempt = 5;
+    replayAndCreateScheduler();
+
+    offerQueue.addOffer(hostOffer(OFFER_A));
+    changeState(a0, INIT, PENDING);
+    // Ensure a deterministic scheduling order.
+    clock.advance(Amount.of(1L, Time.MILLISECONDS));
+    changeState(a1, INIT, PENDING);
+    timeoutCapture.getValue().run();
+  }
+
+  private static IScheduledTask makeInstance(IScheduledTask task, String taskId, int instanceId) {
+    ScheduledTask builder = task.newBuilder();
+    builder.getAssignedTask().setTaskId(taskId);
+    builder.getAssignedTask().setInstanceId(instanceId);
+    return IScheduledTask.build(builder);
+  }
+
+  @Test
+  public void testPackingStopsAtVeto() {
+    expectOfferDeclineIn(10);
+
+    IScheduledTask a0 = makeTask("a0", PENDING);
+    IScheduledTask a1 = makeInstance(a0, "a1", 1);
+    IScheduledTask a2 = makeInstance(a0, "a2", 2);
+
+    TaskInfo mesosTask0 = makeTaskInfo(a0);
+    Offer remaining = ResourceSlot.from(a0.getAssignedTask().getTask())
+        .subtractFrom(OFFER_A, ImmutableSet.<Integer>of());
+
+    Capture<Runnable> timeoutCapture = expectTaskGroupBackoff(10);
+    expectAssigned(OFFER_A, a0, mesosTask0);
+    // The tasks share a configuration, so a2 is not evaluated once a1 is vetoed.
+    expectMatch(remaining, a1).andReturn(Optional.<Set<Integer>>absent());
+    driver.launchTasks(OFFER_A.getId(), ImmutableList.of(mesosTask0));
+    expectTaskGroupBackoff(10);
+
+    maxTasksPerAttempt = 5;
+    replayAndCreateScheduler();
+
+    offerQueue.addOffer(hostOffer(OFFER_A));
+    changeState(a0, INIT, PENDING);
+    // Ensure a deterministic scheduling order.
+    clock.advance(Amount.of(1L, Time.MILLISECONDS));
+    changeState(a1, INIT, PENDING);
+    clock.advance(Amount.of(1L, Time.MILLISECONDS));
+    changeState(a2, INIT, PENDING);
+    timeoutCapture.getValue().run();
+  }
+
   @Test
   public void testNoPenaltyForNoAncestor() {
     // If a task doesn't have an ancestor there should be no penality for flapping.
-    expectAnyMaintenanceCalls();
     IScheduledTask task = makeTask("a1", INIT);
 
     expectOfferDeclineIn(10);
@@ -599,7 +819,7 @@ public class TaskSchedulerTest extends EasyMockTest {
     expectTaskScheduled(task);
 
     replayAndCreateScheduler();
-    offerQueue.addOffer(OFFER_A);
+    offerQueue.addOffer(hostOffer(OFFER_A));
 
     changeState(task, INIT, PENDING);
 
@@ -608,7 +828,6 @@ public class TaskSchedulerTest extends EasyMockTest {
 
   @Test
   public void testFlappingTasksBackoffTruncation() {
-    expectAnyMaintenanceCalls();
 
     makeFlappyTask("a0", null);
     makeFlappyTask("a1", "a0");
@@ -628,7 +847,7 @@ public class TaskSchedulerTest extends EasyMockTest {
     expectTaskScheduled(taskA3);
 
     replayAndCreateScheduler();
-    offerQueue.addOffer(OFFER_A);
+    offerQueue.addOffer(hostOffer(OFFER_A));
 
     changeState(taskA3, INIT, PENDING);
 
@@ -639,7 +858,6 @@ public class TaskSchedulerTest extends EasyMockTest {
 
   @Test
   public void testFlappingTasks() {
-    expectAnyMaintenanceCalls();
 
     makeFlappyTask("a0", null);
     IScheduledTask taskA1 = IScheduledTask.build(makeTask("a1", INIT).newBuilder()
@@ -657,7 +875,7 @@ public class TaskSchedulerTest extends EasyMockTest {
 
     replayAndCreateScheduler();
 
-    offerQueue.addOffer(OFFER_A);
+    offerQueue.addOffer(hostOffer(OFFER_A));
 
     changeState(taskA1, INIT, PENDING);
 
@@ -668,7 +886,6 @@ public class TaskSchedulerTest extends EasyMockTest {
 
   @Test
   public void testNoPenaltyForInterruptedTasks() {
-    expectAnyMaintenanceCalls();
 
     makeFlappyTaskWithStates("a0", EnumSet.of(INIT, PENDING, ASSIGNED, RESTARTING, FAILED), null);
     IScheduledTask taskA1 = IScheduledTask.build(makeTask("a1", INIT).newBuilder()
@@ -681,7 +898,7 @@ public class TaskSchedulerTest extends EasyMockTest {
 
     replayAndCreateScheduler();
 
-    offerQueue.addOffer(OFFER_A);
+    offerQueue.addOffer(hostOffer(OFFER_A));
 
     changeState(taskA1, INIT, PENDING);
 
@@ -734,8 +951,8 @@ public class TaskSchedulerTest extends EasyMockTest {
         .build();
   }
 
-  private void expectAnyMaintenanceCalls() {
-    expect(maintenance.getMode(isA(String.class))).andReturn(MaintenanceMode.NONE).anyTimes();
+  private static HostOffer hostOffer(Offer offer) {
+    return HostOffer.from(offer, MaintenanceMode.NONE);
   }
 
   private void changeHostMaintenanceState(String hostName, MaintenanceMode mode) {
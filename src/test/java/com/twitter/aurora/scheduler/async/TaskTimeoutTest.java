@@ -27,7 +27,6 @@ import com.google.common.collect.Maps;
 
 import org.easymock.Capture;
 import org.easymock.EasyMock;
-import org.easymock.IExpectationSetters;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -132,22 +131,18 @@ public class TaskTimeoutTest extends EasyMockTest {
         statsProvider);
   }
 
-  private Capture<Runnable> expectTaskWatch(long expireMs) {
+  private Capture<Runnable> expectSweep(long delayMs) {
     Capture<Runnable> capture = createCapture();
     executor.schedule(
         EasyMock.capture(capture),
-        eq(expireMs),
+        eq(delayMs),
         eq(TimeUnit.MILLISECONDS));
     expectLastCall().andReturn(future);
     return capture;
   }
 
-  private Capture<Runnable> expectTaskWatch() {
-    return expectTaskWatch(TIMEOUT_MS);
-  }
-
-  private IExpectationSetters<?> expectCancel() {
-    return expect(future.cancel(false)).andReturn(true);
+  private Capture<Runnable> expectSweep() {
+    return expectSweep(TIMEOUT_MS);
   }
 
   private void changeState(String taskId, ScheduleStatus from, ScheduleStatus to) {
@@ -161,12 +156,14 @@ public class TaskTimeoutTest extends EasyMockTest {
     changeState(TASK_ID, from, to);
   }
 
+  private void expectTimeout(String taskId, ScheduleStatus status, int changed) {
+    Query.Builder query = Query.taskScoped(taskId).byStatus(status);
+    expect(stateManager.changeState(query, LOST, TaskTimeout.TIMEOUT_MESSAGE)).andReturn(changed);
+  }
+
   @Test
   public void testNormalTransitions() {
-    expectTaskWatch();
-    expectCancel();
-    expectTaskWatch();
-    expectCancel();
+    expectSweep();
 
     replayAndCreate();
 
@@ -180,47 +177,85 @@ public class TaskTimeoutTest extends EasyMockTest {
 
   @Test
   public void testTransientToTransient() {
-    expectTaskWatch();
-    expectCancel();
-    Capture<Runnable> killingTimeout = expectTaskWatch();
-    Query.Builder query = Query.taskScoped(TASK_ID).byStatus(KILLING);
-    expect(stateManager.changeState(query, LOST, TaskTimeout.TIMEOUT_MESSAGE)).andReturn(1);
+    Capture<Runnable> sweep = expectSweep();
+    expectTimeout(TASK_ID, KILLING, 1);
 
     replayAndCreate();
 
     changeState(PENDING, ASSIGNED);
     changeState(ASSIGNED, KILLING);
-    killingTimeout.getValue().run();
+    clock.advance(Amount.of(TIMEOUT_MS, Time.MILLISECONDS));
+    sweep.getValue().run();
   }
 
   @Test
   public void testTimeout() throws Exception {
-    Capture<Runnable> assignedTimeout = expectTaskWatch();
-    Query.Builder query = Query.taskScoped(TASK_ID).byStatus(ASSIGNED);
-    expect(stateManager.changeState(query, LOST, TaskTimeout.TIMEOUT_MESSAGE)).andReturn(1);
+    Capture<Runnable> sweep = expectSweep();
+    expectTimeout(TASK_ID, ASSIGNED, 1);
 
     replayAndCreate();
 
     changeState(INIT, PENDING);
     changeState(PENDING, ASSIGNED);
-    assignedTimeout.getValue().run();
+    clock.advance(Amount.of(TIMEOUT_MS, Time.MILLISECONDS));
+    sweep.getValue().run();
     assertEquals(timedOutTaskCounter.intValue(), 1);
   }
 
   @Test
   public void testTaskDeleted() throws Exception {
-    Capture<Runnable> assignedTimeout = expectTaskWatch();
-    Query.Builder query = Query.taskScoped(TASK_ID).byStatus(KILLING);
-    expect(stateManager.changeState(query, LOST, TaskTimeout.TIMEOUT_MESSAGE)).andReturn(0);
+    Capture<Runnable> sweep = expectSweep();
+    expectTimeout(TASK_ID, KILLING, 0);
 
     replayAndCreate();
 
     changeState(INIT, PENDING);
     changeState(PENDING, KILLING);
-    assignedTimeout.getValue().run();
+    clock.advance(Amount.of(TIMEOUT_MS, Time.MILLISECONDS));
+    sweep.getValue().run();
     assertEquals(timedOutTaskCounter.intValue(), 0);
   }
 
+  @Test
+  public void testBatchedSweeps() throws Exception {
+    long halfTimeout = TIMEOUT_MS / 2;
+    Capture<Runnable> first = expectSweep();
+    Capture<Runnable> second = expectSweep(halfTimeout);
+    expectTimeout("a", ASSIGNED, 1);
+    expectTimeout("b", KILLING, 1);
+    Capture<Runnable> third = expectSweep(TaskTimeout.MIN_SWEEP_INTERVAL_MS);
+    expectTimeout("c", ASSIGNED, 1);
+    expectTimeout("d", ASSIGNED, 1);
+    expectSweep();
+
+    replayAndCreate();
+
+    changeState("a", PENDING, ASSIGNED);
+    changeState("b", RUNNING, KILLING);
+    clock.advance(Amount.of(halfTimeout, Time.MILLISECONDS));
+    changeState("c", PENDING, ASSIGNED);
+    clock.advance(Amount.of(1L, Time.MILLISECONDS));
+    changeState("d", PENDING, ASSIGNED);
+    clock.advance(Amount.of(halfTimeout - 1, Time.MILLISECONDS));
+
+    // Timed out tasks are expired together, and the sweep is rescheduled for the next deadline.
+    first.getValue().run();
+    assertEquals(2, timedOutTaskCounter.intValue());
+    checkOutstandingTimer(ASSIGNED, halfTimeout);
+
+    // Sweeps are spaced out so that timeouts close together are expired in one batch.
+    clock.advance(Amount.of(halfTimeout, Time.MILLISECONDS));
+    second.getValue().run();
+    assertEquals(3, timedOutTaskCounter.intValue());
+    clock.advance(Amount.of(TaskTimeout.MIN_SWEEP_INTERVAL_MS, Time.MILLISECONDS));
+    third.getValue().run();
+    assertEquals(4, timedOutTaskCounter.intValue());
+
+    // A sweep is scheduled again once tasks are watched.
+    changeState("e", PENDING, ASSIGNED);
+    changeState("e", ASSIGNED, RUNNING);
+  }
+
   private static IScheduledTask makeTask(
       String taskId,
       ScheduleStatus status,
@@ -243,10 +278,7 @@ public class TaskTimeoutTest extends EasyMockTest {
         makeTask("b", KILLING, TIMEOUT_MS),
         makeTask("c", PREEMPTING, TIMEOUT_MS * 3) /* In the future */
     );
-    expectTaskWatch(TIMEOUT_MS);
-    expectTaskWatch(TIMEOUT_MS);
-    expectTaskWatch(TIMEOUT_MS);
-    expectCancel().times(3);
+    expectSweep();
 
     replayAndCreate();
 
@@ -260,8 +292,7 @@ public class TaskTimeoutTest extends EasyMockTest {
   public void testStorageStartTwice() {
     // This should never happen, but testing that the class handles it gracefully.
     storageUtil.expectTaskFetch(TaskTimeout.TRANSIENT_QUERY, makeTask("a", ASSIGNED, 0)).times(2);
-    expectTaskWatch();
-    expectCancel();
+    expectSweep();
 
     replayAndCreate();
 
@@ -277,11 +308,7 @@ public class TaskTimeoutTest extends EasyMockTest {
 
   @Test
   public void testOutstandingTimers() throws Exception {
-    expectTaskWatch();
-    expectTaskWatch();
-    expectCancel();
-    expectTaskWatch();
-    expectCancel().times(2);
+    expectSweep();
 
     replayAndCreate();
 
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.async;
+
+import java.util.List;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+
+import com.twitter.aurora.gen.AssignedTask;
+import com.twitter.aurora.gen.TaskConfig;
+import com.twitter.aurora.scheduler.ResourceSlot;
+import com.twitter.aurora.scheduler.storage.entities.IAssignedTask;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Data;
+
+import static org.junit.Assert.assertEquals;
+
+public class VictimSelectorTest {
+
+  private static final ResourceSlot NO_SLACK =
+      ResourceSlot.sum(ImmutableList.<ResourceSlot>of());
+
+  private static IAssignedTask makeTask(String taskId, double cpus, long ramMb) {
+    return IAssignedTask.build(new AssignedTask()
+        .setTaskId(taskId)
+        .setTask(new TaskConfig().setNumCpus(cpus).setRamMb(ramMb)));
+  }
+
+  private static ResourceSlot slot(double cpus, long ramMb) {
+    return ResourceSlot.from(cpus, Amount.of(ramMb, Data.MB), Amount.of(0L, Data.MB), 0);
+  }
+
+  private static Optional<List<IAssignedTask>> select(
+      ResourceSlot required,
+      ResourceSlot slack,
+      IAssignedTask... victims) {
+
+    return VictimSelector.select(required, slack, ImmutableList.copyOf(victims));
+  }
+
+  @Test
+  public void testSlackSufficient() {
+    assertEquals(
+        Optional.of(ImmutableList.<IAssignedTask>of()),
+        select(slot(1, 512), slot(2, 1024), makeTask("a", 1, 512)));
+  }
+
+  @Test
+  public void testInsufficient() {
+    assertEquals(
+        Optional.<List<IAssignedTask>>absent(),
+        select(slot(4, 512), NO_SLACK, makeTask("a", 1, 512), makeTask("b", 1, 512)));
+  }
+
+  @Test
+  public void testSmallestSingleVictim() {
+    IAssignedTask small = makeTask("small", 1, 512);
+    IAssignedTask medium = makeTask("medium", 2, 1024);
+    IAssignedTask large = makeTask("large", 4, 4096);
+
+    assertEquals(
+        Optional.of(ImmutableList.of(medium)),
+        select(slot(2, 1024), NO_SLACK, large, small, medium));
+  }
+
+  @Test
+  public void testSeveralSmallVictimsOverOneLarge() {
+    IAssignedTask large = makeTask("large", 4, 4096);
+    IAssignedTask small1 = makeTask("small1", 1, 512);
+    IAssignedTask small2 = makeTask("small2", 1, 512);
+
+    assertEquals(
+        Optional.of(ImmutableList.of(small1, small2)),
+        select(slot(2, 1024), NO_SLACK, large, small1, small2));
+  }
+
+  @Test
+  public void testRedundantVictimDropped() {
+    IAssignedTask tiny = makeTask("tiny", 0, 0);
+    IAssignedTask medium1 = makeTask("medium1", 0.75, 0);
+    IAssignedTask medium2 = makeTask("medium2", 0.75, 0);
+
+    // The tiny victim is accumulated first, but is not needed once both medium victims are.
+    assertEquals(
+        Optional.of(ImmutableList.of(medium1, medium2)),
+        select(slot(2, 256), slot(0, 1024), tiny, medium1, medium2));
+  }
+
+  @Test
+  public void testSlackCombinedWithVictim() {
+    IAssignedTask victim = makeTask("victim", 1, 512);
+
+    assertEquals(
+        Optional.of(ImmutableList.of(victim)),
+        select(slot(2, 1024), slot(1, 512), victim));
+  }
+}
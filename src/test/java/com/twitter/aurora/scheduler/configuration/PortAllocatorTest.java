@@ -0,0 +1,95 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.configuration;
+
+import java.util.Random;
+import java.util.Set;
+
+import com.google.common.collect.ContiguousSet;
+import com.google.common.collect.DiscreteDomain;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.apache.mesos.Protos.Value.Range;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PortAllocatorTest {
+
+  private static Range range(long begin, long end) {
+    return Range.newBuilder().setBegin(begin).setEnd(end).build();
+  }
+
+  private static Set<Integer> members(int begin, int end) {
+    return ContiguousSet.create(
+        com.google.common.collect.Range.closed(begin, end),
+        DiscreteDomain.integers());
+  }
+
+  @Test
+  public void testOverlappingRanges() {
+    PortAllocator allocator =
+        PortAllocator.of(ImmutableList.of(range(10, 15), range(1, 2), range(12, 20), range(3, 3)));
+    assertEquals(14, allocator.getAvailable());
+    assertEquals(
+        ImmutableSet.<Integer>builder().addAll(members(1, 3)).addAll(members(10, 20)).build(),
+        allocator.allocate(14, new Random(0)));
+  }
+
+  @Test
+  public void testAllocatesWithinRanges() {
+    PortAllocator allocator = PortAllocator.of(ImmutableList.of(range(31000, 32000), range(5, 6)));
+    Random random = new Random(0);
+    Set<Integer> valid = ImmutableSet.<Integer>builder()
+        .addAll(members(31000, 32000))
+        .addAll(members(5, 6))
+        .build();
+    for (int i = 0; i < 100; i++) {
+      Set<Integer> ports = allocator.allocate(10, random);
+      assertEquals(10, ports.size());
+      assertTrue(valid.containsAll(ports));
+    }
+  }
+
+  @Test
+  public void testAllocatesEveryPort() {
+    // Small ranges are fully covered over repeated single-port allocations.
+    PortAllocator allocator = PortAllocator.of(ImmutableList.of(range(1, 2), range(8, 9)));
+    Random random = new Random(0);
+    Set<Integer> seen = ImmutableSet.of();
+    for (int i = 0; i < 200; i++) {
+      seen = ImmutableSet.<Integer>builder()
+          .addAll(seen)
+          .addAll(allocator.allocate(1, random))
+          .build();
+    }
+    assertEquals(ImmutableSet.of(1, 2, 8, 9), seen);
+  }
+
+  @Test
+  public void testNoRanges() {
+    PortAllocator allocator = PortAllocator.of(ImmutableList.<Range>of());
+    assertEquals(0, allocator.getAvailable());
+    assertEquals(ImmutableSet.<Integer>of(), allocator.allocate(0, new Random(0)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInsufficientPorts() {
+    PortAllocator.of(ImmutableList.of(range(1, 2))).allocate(3, new Random(0));
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.configuration;
+
+import org.junit.Test;
+
+import com.twitter.aurora.gen.Quota;
+import com.twitter.aurora.scheduler.storage.entities.IQuota;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ResourceBagTest {
+
+  private static final ResourceBag SMALL = ResourceBag.of(1, 1024, 2048, 1);
+  private static final ResourceBag LARGE = ResourceBag.of(4, 4096, 8192, 4);
+
+  @Test
+  public void testArithmetic() {
+    assertEquals(ResourceBag.of(5, 5120, 10240, 5), SMALL.add(LARGE));
+    assertEquals(ResourceBag.of(3, 3072, 6144, 3), LARGE.subtract(SMALL));
+    assertEquals(ResourceBag.of(-3, -3072, -6144, -3), SMALL.subtract(LARGE));
+    assertEquals(ResourceBag.of(4, 4096, 8192, 4), SMALL.scale(4));
+    assertEquals(SMALL, SMALL.add(ResourceBag.EMPTY));
+  }
+
+  @Test
+  public void testFits() {
+    assertTrue(SMALL.fits(LARGE));
+    assertTrue(SMALL.fits(SMALL));
+    assertFalse(LARGE.fits(SMALL));
+    assertFalse(ResourceBag.of(1, 1024, 2048, 2).fits(SMALL));
+    assertTrue(LARGE.greaterThanOrEqual(SMALL));
+    assertFalse(SMALL.greaterThanOrEqual(LARGE));
+  }
+
+  @Test
+  public void testOrder() {
+    assertEquals(0, ResourceBag.ORDER.compare(SMALL, SMALL));
+    assertEquals(1, ResourceBag.ORDER.compare(LARGE, SMALL));
+    assertEquals(-1, ResourceBag.ORDER.compare(SMALL, LARGE));
+    assertEquals(1, ResourceBag.ORDER.compare(ResourceBag.of(2, 1024, 2048, 1), SMALL));
+
+    // Components that disagree compare as equal.
+    assertEquals(0, ResourceBag.ORDER.compare(ResourceBag.of(8, 512, 2048, 1), SMALL));
+    assertEquals(0, ResourceBag.ORDER.compare(ResourceBag.of(1, 1024, 4096, 0), SMALL));
+  }
+
+  @Test
+  public void testOrderMatchesResources() {
+    Resources small = new Resources(1, Amount.of(1L, Data.GB), Amount.of(2L, Data.GB), 1);
+    Resources large = new Resources(4, Amount.of(4L, Data.GB), Amount.of(8L, Data.GB), 4);
+    Resources mixed = new Resources(8, Amount.of(512L, Data.MB), Amount.of(2L, Data.GB), 1);
+
+    assertEquals(SMALL, ResourceBag.from(small));
+    assertEquals(1, Resources.RESOURCE_ORDER.compare(large, small));
+    assertEquals(-1, Resources.RESOURCE_ORDER.compare(small, large));
+    assertEquals(0, Resources.RESOURCE_ORDER.compare(mixed, small));
+  }
+
+  @Test
+  public void testQuotaConversion() {
+    IQuota quota = IQuota.build(new Quota(2.5, 1024, 4096));
+    ResourceBag bag = ResourceBag.from(quota);
+    assertEquals(ResourceBag.of(2.5, 1024, 4096, 0), bag);
+    assertEquals(quota, bag.toQuota());
+    assertEquals(quota, bag.add(ResourceBag.of(0, 0, 0, 3)).toQuota());
+  }
+}
@@ -103,6 +103,24 @@ public class ResourcesTest {
     assertEquals(NEGATIVE_ONE, Resources.subtract(TWO, THREE));
   }
 
+  @Test
+  public void testSubtractFromOffer() {
+    Protos.Offer offer = createOffer(createPortRanges(Pair.of(1, 2), Pair.of(10, 15)))
+        .toBuilder()
+        .addResources(Resources.makeMesosResource(Resources.CPUS, 4))
+        .addResources(Resources.makeMesosResource(Resources.RAM_MB, 1024))
+        .addResources(Resources.makeMesosResource(Resources.DISK_MB, 2048))
+        .build();
+
+    Protos.Offer remaining = Resources.subtract(offer, ONE, ImmutableSet.of(1, 10, 12, 15));
+    assertEquals(
+        new Resources(3.0, Amount.of(1023L, Data.MB), Amount.of(2047L, Data.MB), 4),
+        Resources.from(remaining));
+    assertEquals(
+        ImmutableSet.of(2, 11, 13, 14),
+        Resources.getAssignedPorts(remaining.getResourcesList()));
+  }
+
   @Test(expected = Resources.InsufficientResourcesException.class)
   public void testPortRangeScarcity() {
     Resource portsResource = createPortRange(Pair.of(1, 2));
@@ -19,12 +19,20 @@ import java.util.Set;
 
 import com.google.common.collect.ImmutableSet;
 
+import org.apache.mesos.Protos.FrameworkID;
+import org.apache.mesos.Protos.Offer;
+import org.apache.mesos.Protos.OfferID;
+import org.apache.mesos.Protos.SlaveID;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.twitter.aurora.gen.Identity;
+import com.twitter.aurora.gen.MaintenanceMode;
 import com.twitter.aurora.gen.TaskConfig;
+import com.twitter.aurora.scheduler.HostOffer;
 import com.twitter.aurora.scheduler.ResourceSlot;
 import com.twitter.aurora.scheduler.events.PubsubEvent.Vetoed;
+import com.twitter.aurora.scheduler.filter.FilterProgram;
 import com.twitter.aurora.scheduler.filter.SchedulingFilter;
 import com.twitter.aurora.scheduler.filter.SchedulingFilter.Veto;
 import com.twitter.aurora.scheduler.storage.entities.ITaskConfig;
@@ -37,12 +45,24 @@ import static org.junit.Assert.assertEquals;
 public class NotifyingSchedulingFilterTest extends EasyMockTest {
 
   private static final ITaskConfig TASK = ITaskConfig.build(new TaskConfig()
+      .setOwner(new Identity("role", "user"))
+      .setEnvironment("env")
+      .setJobName("job")
       .setNumCpus(1)
       .setRamMb(1024)
       .setDiskMb(1024));
+  private static final FilterProgram PROGRAM = FilterProgram.compile(TASK);
   private static final ResourceSlot TASK_RESOURCES = ResourceSlot.from(TASK);
   private static final String TASK_ID = "taskId";
   private static final String SLAVE = "slaveHost";
+  private static final HostOffer OFFER = HostOffer.from(
+      Offer.newBuilder()
+          .setId(OfferID.newBuilder().setValue("offerId"))
+          .setFrameworkId(FrameworkID.newBuilder().setValue("frameworkId"))
+          .setSlaveId(SlaveID.newBuilder().setValue("slaveId"))
+          .setHostname(SLAVE)
+          .build(),
+      MaintenanceMode.NONE);
 
   private static final Veto VETO_1 = new Veto("veto1", 1);
   private static final Veto VETO_2 = new Veto("veto2", 2);
@@ -62,21 +82,32 @@ public class NotifyingSchedulingFilterTest extends EasyMockTest {
   @Test
   public void testEvents() {
     Set<Veto> vetoes = ImmutableSet.of(VETO_1, VETO_2);
-    expect(delegate.filter(TASK_RESOURCES, SLAVE, TASK, TASK_ID)).andReturn(vetoes);
+    expect(delegate.filter(TASK_RESOURCES, SLAVE, PROGRAM, TASK_ID)).andReturn(vetoes);
     eventSink.execute(new Vetoed(TASK_ID, vetoes));
 
     control.replay();
 
-    assertEquals(vetoes, filter.filter(TASK_RESOURCES, SLAVE, TASK, TASK_ID));
+    assertEquals(vetoes, filter.filter(TASK_RESOURCES, SLAVE, PROGRAM, TASK_ID));
   }
 
   @Test
   public void testNoVetoes() {
     Set<Veto> vetoes = ImmutableSet.of();
-    expect(delegate.filter(TASK_RESOURCES, SLAVE, TASK, TASK_ID)).andReturn(vetoes);
+    expect(delegate.filter(TASK_RESOURCES, SLAVE, PROGRAM, TASK_ID)).andReturn(vetoes);
 
     control.replay();
 
-    assertEquals(vetoes, filter.filter(TASK_RESOURCES, SLAVE, TASK, TASK_ID));
+    assertEquals(vetoes, filter.filter(TASK_RESOURCES, SLAVE, PROGRAM, TASK_ID));
+  }
+
+  @Test
+  public void testOfferEvents() {
+    Set<Veto> vetoes = ImmutableSet.of(VETO_1);
+    expect(delegate.filter(OFFER, PROGRAM, TASK_ID)).andReturn(vetoes);
+    eventSink.execute(new Vetoed(TASK_ID, vetoes));
+
+    control.replay();
+
+    assertEquals(vetoes, filter.filter(OFFER, PROGRAM, TASK_ID));
   }
 }
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.filter;
+
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.aurora.gen.AssignedTask;
+import com.twitter.aurora.gen.Attribute;
+import com.twitter.aurora.gen.HostAttributes;
+import com.twitter.aurora.gen.Identity;
+import com.twitter.aurora.gen.ScheduleStatus;
+import com.twitter.aurora.gen.ScheduledTask;
+import com.twitter.aurora.gen.TaskConfig;
+import com.twitter.aurora.scheduler.base.JobKeys;
+import com.twitter.aurora.scheduler.base.Query;
+import com.twitter.aurora.scheduler.events.PubsubEvent.HostAttributesChanged;
+import com.twitter.aurora.scheduler.events.PubsubEvent.StorageStarted;
+import com.twitter.aurora.scheduler.events.PubsubEvent.TaskStateChange;
+import com.twitter.aurora.scheduler.events.PubsubEvent.TasksDeleted;
+import com.twitter.aurora.scheduler.storage.entities.IJobKey;
+import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
+import com.twitter.aurora.scheduler.storage.testing.StorageTestUtil;
+import com.twitter.common.testing.easymock.EasyMockTest;
+
+import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
+
+import static com.twitter.aurora.gen.ScheduleStatus.ASSIGNED;
+import static com.twitter.aurora.gen.ScheduleStatus.FINISHED;
+import static com.twitter.aurora.gen.ScheduleStatus.PENDING;
+import static com.twitter.aurora.gen.ScheduleStatus.RUNNING;
+
+public class JobAttributeCountsTest extends EasyMockTest {
+
+  private static final String HOST_A = "hostA";
+  private static final String HOST_B = "hostB";
+
+  private static final Attribute RACK_A = new Attribute("rack", ImmutableSet.of("a"));
+  private static final Attribute RACK_B = new Attribute("rack", ImmutableSet.of("b"));
+
+  private static final IJobKey JOB_A = JobKeys.from("role", "test", "jobA");
+  private static final IJobKey JOB_B = JobKeys.from("role", "test", "jobB");
+
+  private StorageTestUtil storageUtil;
+  private JobAttributeCounts counts;
+
+  @Before
+  public void setUp() {
+    storageUtil = new StorageTestUtil(this);
+    storageUtil.expectOperations();
+    counts = new JobAttributeCounts(storageUtil.storage);
+  }
+
+  private void expectHostAttributes(String host, Attribute... attributes) {
+    expect(storageUtil.attributeStore.getAttributes(host))
+        .andReturn(ImmutableSet.copyOf(attributes));
+  }
+
+  private IScheduledTask makeTask(String taskId, IJobKey job, String host, ScheduleStatus status) {
+    return IScheduledTask.build(new ScheduledTask()
+        .setStatus(status)
+        .setAssignedTask(new AssignedTask()
+            .setTaskId(taskId)
+            .setSlaveHost(host)
+            .setTask(new TaskConfig()
+                .setOwner(new Identity().setRole(job.getRole()).setUser("user"))
+                .setEnvironment(job.getEnvironment())
+                .setJobName(job.getName()))));
+  }
+
+  private void changeState(IScheduledTask task, ScheduleStatus oldState) {
+    counts.taskChangedState(new TaskStateChange(task, oldState));
+  }
+
+  private void assertCount(int expected, IJobKey job, Attribute attribute) {
+    assertEquals(expected, counts.getCount(job, attribute));
+  }
+
+  @Test
+  public void testCountsAssignedTasks() {
+    expectHostAttributes(HOST_A, RACK_A);
+    expectHostAttributes(HOST_B, RACK_A);
+
+    control.replay();
+
+    changeState(makeTask("a1", JOB_A, HOST_A, ASSIGNED), PENDING);
+    changeState(makeTask("a2", JOB_A, HOST_B, ASSIGNED), PENDING);
+    changeState(makeTask("b1", JOB_B, HOST_A, ASSIGNED), PENDING);
+    assertCount(2, JOB_A, RACK_A);
+    assertCount(1, JOB_B, RACK_A);
+    assertCount(0, JOB_A, RACK_B);
+
+    // Repeated active states do not count a task twice.
+    changeState(makeTask("a1", JOB_A, HOST_A, RUNNING), ASSIGNED);
+    assertCount(2, JOB_A, RACK_A);
+
+    // Pending tasks are not counted.
+    changeState(makeTask("a3", JOB_A, null, PENDING), ScheduleStatus.INIT);
+    assertCount(2, JOB_A, RACK_A);
+  }
+
+  @Test
+  public void testTerminatedAndDeleted() {
+    expectHostAttributes(HOST_A, RACK_A);
+    expectHostAttributes(HOST_A, RACK_A);
+
+    control.replay();
+
+    IScheduledTask a1 = makeTask("a1", JOB_A, HOST_A, RUNNING);
+    IScheduledTask a2 = makeTask("a2", JOB_A, HOST_A, RUNNING);
+    changeState(a1, ASSIGNED);
+    changeState(a2, ASSIGNED);
+    assertCount(2, JOB_A, RACK_A);
+
+    changeState(makeTask("a1", JOB_A, HOST_A, FINISHED), RUNNING);
+    assertCount(1, JOB_A, RACK_A);
+
+    counts.tasksDeleted(new TasksDeleted(ImmutableSet.of(a2)));
+    assertCount(0, JOB_A, RACK_A);
+
+    // Host attributes are reloaded once tasks are counted against the host again.
+    changeState(a1, ASSIGNED);
+    assertCount(1, JOB_A, RACK_A);
+  }
+
+  @Test
+  public void testHostAttributesChanged() {
+    expectHostAttributes(HOST_A, RACK_A);
+
+    control.replay();
+
+    changeState(makeTask("a1", JOB_A, HOST_A, RUNNING), ASSIGNED);
+    changeState(makeTask("b1", JOB_B, HOST_A, RUNNING), ASSIGNED);
+    counts.hostAttributesChanged(new HostAttributesChanged(
+        new HostAttributes(HOST_A, ImmutableSet.of(RACK_B))));
+    assertCount(0, JOB_A, RACK_A);
+    assertCount(1, JOB_A, RACK_B);
+    assertCount(1, JOB_B, RACK_B);
+
+    // Changes to hosts without counted tasks are ignored.
+    counts.hostAttributesChanged(new HostAttributesChanged(
+        new HostAttributes(HOST_B, ImmutableSet.of(RACK_B))));
+    assertCount(1, JOB_A, RACK_B);
+  }
+
+  @Test
+  public void testStorageStarted() {
+    storageUtil.expectTaskFetch(
+        Query.statusScoped(JobAttributeCounts.COUNTED_STATES),
+        makeTask("a1", JOB_A, HOST_A, RUNNING),
+        makeTask("a2", JOB_A, HOST_B, RUNNING));
+    expectHostAttributes(HOST_A, RACK_A);
+    expectHostAttributes(HOST_B, RACK_B);
+
+    control.replay();
+
+    counts.storageStarted(new StorageStarted());
+    assertCount(1, JOB_A, RACK_A);
+    assertCount(1, JOB_A, RACK_B);
+  }
+}
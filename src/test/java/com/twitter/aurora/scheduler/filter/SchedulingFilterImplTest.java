@@ -19,10 +19,16 @@ import java.util.Arrays;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 
-import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 
+import org.apache.mesos.Protos;
+import org.apache.mesos.Protos.FrameworkID;
+import org.apache.mesos.Protos.Offer;
+import org.apache.mesos.Protos.OfferID;
+import org.apache.mesos.Protos.SlaveID;
+import org.apache.mesos.Protos.Value.Text;
+import org.apache.mesos.Protos.Value.Type;
 import org.easymock.EasyMock;
 import org.easymock.IAnswer;
 import org.easymock.IExpectationSetters;
@@ -33,19 +39,20 @@ import com.twitter.aurora.gen.AssignedTask;
 import com.twitter.aurora.gen.Attribute;
 import com.twitter.aurora.gen.Constraint;
 import com.twitter.aurora.gen.ExecutorConfig;
-import com.twitter.aurora.gen.HostAttributes;
 import com.twitter.aurora.gen.Identity;
 import com.twitter.aurora.gen.LimitConstraint;
 import com.twitter.aurora.gen.MaintenanceMode;
+import com.twitter.aurora.gen.ScheduleStatus;
 import com.twitter.aurora.gen.ScheduledTask;
 import com.twitter.aurora.gen.TaskConfig;
 import com.twitter.aurora.gen.TaskConstraint;
 import com.twitter.aurora.gen.ValueConstraint;
+import com.twitter.aurora.scheduler.HostOffer;
 import com.twitter.aurora.scheduler.ResourceSlot;
-import com.twitter.aurora.scheduler.base.Query;
 import com.twitter.aurora.scheduler.configuration.ConfigurationManager;
+import com.twitter.aurora.scheduler.configuration.Resources;
+import com.twitter.aurora.scheduler.events.PubsubEvent.TaskStateChange;
 import com.twitter.aurora.scheduler.filter.SchedulingFilter.Veto;
-import com.twitter.aurora.scheduler.state.MaintenanceController;
 import com.twitter.aurora.scheduler.storage.AttributeStore;
 import com.twitter.aurora.scheduler.storage.Storage;
 import com.twitter.aurora.scheduler.storage.Storage.StoreProvider;
@@ -57,7 +64,6 @@ import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Data;
 import com.twitter.common.testing.easymock.EasyMockTest;
 
-import static org.easymock.EasyMock.anyObject;
 import static org.easymock.EasyMock.expect;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -108,7 +114,7 @@ public class SchedulingFilterImplTest extends EasyMockTest {
   private final AtomicLong taskIdCounter = new AtomicLong();
 
   private SchedulingFilter defaultFilter;
-  private MaintenanceController maintenance;
+  private JobAttributeCounts counts;
   private Storage storage;
   private StoreProvider storeProvider;
   private TaskStore.Mutable taskStore;
@@ -117,8 +123,8 @@ public class SchedulingFilterImplTest extends EasyMockTest {
   @Before
   public void setUp() throws Exception {
     storage = createMock(Storage.class);
-    maintenance = createMock(MaintenanceController.class);
-    defaultFilter = new SchedulingFilterImpl(storage, maintenance);
+    counts = new JobAttributeCounts(storage);
+    defaultFilter = new SchedulingFilterImpl(storage, counts);
     storeProvider = createMock(StoreProvider.class);
     taskStore = createMock(TaskStore.Mutable.class);
     attributeStore = createMock(AttributeStore.Mutable.class);
@@ -144,7 +150,6 @@ public class SchedulingFilterImplTest extends EasyMockTest {
   public void testMeetsOffer() throws Exception {
     expectGetHostAttributes(HOST_A, host(HOST_A), rack(RACK_A)).atLeastOnce();
     expectGetHostMaintenanceStatus(HOST_A).times(2);
-    expectGetTasks().times(2);
 
     control.replay();
 
@@ -156,7 +161,6 @@ public class SchedulingFilterImplTest extends EasyMockTest {
   public void testSufficientPorts() throws Exception {
     expectGetHostAttributes(HOST_A, host(HOST_A), rack(RACK_A)).atLeastOnce();
     expectGetHostMaintenanceStatus(HOST_A).times(4);
-    expectGetTasks().times(4);
 
     control.replay();
 
@@ -180,19 +184,18 @@ public class SchedulingFilterImplTest extends EasyMockTest {
         .setRequestedPorts(ImmutableSet.of("one", "two", "three")));
 
     Set<Veto> none = ImmutableSet.of();
-    assertEquals(none, defaultFilter.filter(twoPorts, HOST_A, noPortTask, TASK_ID));
-    assertEquals(none, defaultFilter.filter(twoPorts, HOST_A, onePortTask, TASK_ID));
-    assertEquals(none, defaultFilter.filter(twoPorts, HOST_A, twoPortTask, TASK_ID));
+    assertEquals(none, filter(twoPorts, HOST_A, noPortTask));
+    assertEquals(none, filter(twoPorts, HOST_A, onePortTask));
+    assertEquals(none, filter(twoPorts, HOST_A, twoPortTask));
     assertEquals(
         ImmutableSet.of(PORTS.veto(1)),
-        defaultFilter.filter(twoPorts, HOST_A, threePortTask, TASK_ID));
+        filter(twoPorts, HOST_A, threePortTask));
   }
 
   @Test
   public void testInsufficientResources() throws Exception {
     expectGetHostAttributes(HOST_A, host(HOST_A), rack(RACK_A)).atLeastOnce();
     expectGetHostMaintenanceStatus(HOST_A).times(4);
-    expectGetTasks().times(4);
 
     control.replay();
 
@@ -260,7 +263,6 @@ public class SchedulingFilterImplTest extends EasyMockTest {
   @Test
   public void testHostScheduledForMaintenance() throws Exception {
     expectGetHostAttributes(HOST_A, host(HOST_A), rack(RACK_A)).atLeastOnce();
-    expectGetTasks();
     expectGetHostMaintenanceStatus(HOST_A, MaintenanceMode.SCHEDULED);
 
     control.replay();
@@ -271,7 +273,6 @@ public class SchedulingFilterImplTest extends EasyMockTest {
   @Test
   public void testHostDrainingForMaintenance() throws Exception {
     expectGetHostAttributes(HOST_A, host(HOST_A), rack(RACK_A)).atLeastOnce();
-    expectGetTasks();
     expectGetHostMaintenanceStatus(HOST_A, MaintenanceMode.DRAINING);
 
     control.replay();
@@ -282,7 +283,6 @@ public class SchedulingFilterImplTest extends EasyMockTest {
   @Test
   public void testHostDrainedForMaintenance() throws Exception {
     expectGetHostAttributes(HOST_A, host(HOST_A), rack(RACK_A)).atLeastOnce();
-    expectGetTasks();
     expectGetHostMaintenanceStatus(HOST_A, MaintenanceMode.DRAINED);
 
     control.replay();
@@ -290,6 +290,40 @@ public class SchedulingFilterImplTest extends EasyMockTest {
     assertVetoes(makeTask(), ConstraintFilter.maintenanceVeto("drained"));
   }
 
+  @Test
+  public void testOfferCarriesHostState() throws Exception {
+    // An offer is filtered against the attributes and maintenance mode it carries, without
+    // reading them from storage.
+    control.replay();
+
+    Offer offer = Offer.newBuilder()
+        .setId(OfferID.newBuilder().setValue("offerId"))
+        .setFrameworkId(FrameworkID.newBuilder().setValue("frameworkId"))
+        .setSlaveId(SlaveID.newBuilder().setValue("slaveId"))
+        .setHostname(HOST_A)
+        .addResources(Resources.makeMesosResource(Resources.CPUS, DEFAULT_CPUS + 1))
+        .addResources(Resources.makeMesosResource(Resources.RAM_MB, DEFAULT_RAM + 1024))
+        .addResources(Resources.makeMesosResource(Resources.DISK_MB, DEFAULT_DISK))
+        .addAttributes(Protos.Attribute.newBuilder()
+            .setName("jvm")
+            .setType(Type.TEXT)
+            .setText(Text.newBuilder().setValue("1.0")))
+        .build();
+    FilterProgram matching =
+        FilterProgram.compile(makeTask(OWNER_A, JOB_A, makeConstraint("jvm", "1.0")));
+    FilterProgram mismatched =
+        FilterProgram.compile(makeTask(OWNER_A, JOB_A, makeConstraint("jvm", "2.0")));
+
+    HostOffer active = HostOffer.from(offer, MaintenanceMode.NONE);
+    assertEquals(ImmutableSet.<Veto>of(), defaultFilter.filter(active, matching, TASK_ID));
+    assertEquals(
+        ImmutableSet.of(mismatchVeto("jvm")),
+        defaultFilter.filter(active, mismatched, TASK_ID));
+    assertEquals(
+        ImmutableSet.of(ConstraintFilter.maintenanceVeto("draining")),
+        defaultFilter.filter(active.withMode(MaintenanceMode.DRAINING), matching, TASK_ID));
+  }
+
   @Test
   public void testMultipleTaskConstraints() throws Exception {
     expectGetHostAttributes(HOST_A, dedicated(HOST_A), host(HOST_A));
@@ -332,9 +366,7 @@ public class SchedulingFilterImplTest extends EasyMockTest {
 
   @Test
   public void testUnderLimitNoTasks() throws Exception {
-    expectGetHostAttributes(HOST_A);
     expectGetHostAttributes(HOST_A, host(HOST_A));
-    expectGetTasks();
     expectGetHostMaintenanceStatus(HOST_A);
 
     control.replay();
@@ -363,17 +395,16 @@ public class SchedulingFilterImplTest extends EasyMockTest {
     expectGetHostMaintenanceStatus(HOST_B).atLeastOnce();
     expectGetHostMaintenanceStatus(HOST_C).atLeastOnce();
 
-    expectGetTasks(
+    control.replay();
+
+    countTasks(
         makeScheduledTask(OWNER_A, JOB_A, HOST_A),
         makeScheduledTask(OWNER_B, JOB_A, HOST_A),
         makeScheduledTask(OWNER_B, JOB_A, HOST_A),
         makeScheduledTask(OWNER_A, JOB_A, HOST_B),
         makeScheduledTask(OWNER_A, JOB_A, HOST_B),
         makeScheduledTask(OWNER_B, JOB_A, HOST_B),
-        makeScheduledTask(OWNER_A, JOB_A, HOST_C))
-        .atLeastOnce();
-
-    control.replay();
+        makeScheduledTask(OWNER_A, JOB_A, HOST_C));
 
     assertNoVetoes(hostLimitTask(OWNER_A, JOB_A, 2), HOST_A);
     assertVetoes(hostLimitTask(OWNER_A, JOB_A, 1), HOST_B, limitVeto(HOST_ATTRIBUTE));
@@ -442,7 +473,7 @@ public class SchedulingFilterImplTest extends EasyMockTest {
     Constraint zoneConstraint = makeConstraint("zone", "c");
 
     ITaskConfig task = makeTask(OWNER_A, JOB_A, jvmConstraint, zoneConstraint);
-    assertTrue(defaultFilter.filter(DEFAULT_OFFER, HOST_A, task, TASK_ID).isEmpty());
+    assertTrue(filter(DEFAULT_OFFER, HOST_A, task).isEmpty());
 
     Constraint jvmNegated = jvmConstraint.deepCopy();
     jvmNegated.getConstraint().getValue().setNegated(true);
@@ -452,6 +483,22 @@ public class SchedulingFilterImplTest extends EasyMockTest {
         mismatchVeto("jvm"));
   }
 
+  @Test
+  public void testAttributeChangeInvalidatesVeto() throws Exception {
+    expectGetHostAttributes(HOST_A, valueAttribute("jvm", "1.0")).times(2);
+    expectGetHostAttributes(HOST_A, valueAttribute("jvm", "2.0"));
+    expectGetHostAttributes(HOST_A, dedicated(ROLE_B), valueAttribute("jvm", "2.0"));
+    expectGetHostMaintenanceStatus(HOST_A).times(3);
+
+    control.replay();
+
+    ITaskConfig task = makeTask(OWNER_A, JOB_A, makeConstraint("jvm", "1.0"));
+    assertNoVetoes(task, HOST_A);
+    assertNoVetoes(task, HOST_A);
+    assertVetoes(task, HOST_A, mismatchVeto("jvm"));
+    assertVetoes(task, HOST_A, DEDICATED_HOST_VETO);
+  }
+
   @Test
   public void testVetoScaling() {
     control.replay();
@@ -498,14 +545,14 @@ public class SchedulingFilterImplTest extends EasyMockTest {
     ITaskConfig task = makeTask(owner, jobName, constraint);
     assertEquals(
         expected,
-        defaultFilter.filter(DEFAULT_OFFER, host, task, TASK_ID).isEmpty());
+        filter(DEFAULT_OFFER, host, task).isEmpty());
 
     Constraint negated = constraint.deepCopy();
     negated.getConstraint().getValue().setNegated(!value.isNegated());
     ITaskConfig negatedTask = makeTask(owner, jobName, negated);
     assertEquals(
         !expected,
-        defaultFilter.filter(DEFAULT_OFFER, host, negatedTask, TASK_ID).isEmpty());
+        filter(DEFAULT_OFFER, host, negatedTask).isEmpty());
     return task;
   }
 
@@ -523,7 +570,7 @@ public class SchedulingFilterImplTest extends EasyMockTest {
 
   private void assertVetoes(ITaskConfig task, String host, Veto... vetoes) {
     assertEquals(ImmutableSet.copyOf(vetoes),
-        defaultFilter.filter(DEFAULT_OFFER, host, task, TASK_ID));
+        filter(DEFAULT_OFFER, host, task));
   }
 
   private Attribute valueAttribute(String name, String string, String... strings) {
@@ -536,11 +583,14 @@ public class SchedulingFilterImplTest extends EasyMockTest {
         TaskConstraint.value(new ValueConstraint(false, ImmutableSet.copyOf(values))));
   }
 
-  private IExpectationSetters<ImmutableSet<IScheduledTask>> expectGetTasks(
-      IScheduledTask... tasks) {
+  private void countTasks(IScheduledTask... tasks) {
+    for (IScheduledTask task : tasks) {
+      counts.taskChangedState(new TaskStateChange(task, ScheduleStatus.STARTING));
+    }
+  }
 
-    return expect(taskStore.fetchTasks((Query.Builder) anyObject()))
-        .andReturn(ImmutableSet.copyOf(tasks));
+  private Set<Veto> filter(ResourceSlot offer, String host, ITaskConfig task) {
+    return defaultFilter.filter(offer, host, FilterProgram.compile(task), TASK_ID);
   }
 
   private IExpectationSetters<MaintenanceMode> expectGetHostMaintenanceStatus(String host) {
@@ -549,22 +599,21 @@ public class SchedulingFilterImplTest extends EasyMockTest {
 
   private IExpectationSetters<MaintenanceMode> expectGetHostMaintenanceStatus(
       String host, MaintenanceMode mode) {
-    return expect(maintenance.getMode(host)).andReturn(mode);
+    return expect(attributeStore.getMaintenanceMode(host)).andReturn(mode);
   }
 
-  private IExpectationSetters<Optional<HostAttributes>> expectGetHostAttributes(
+  private IExpectationSetters<Set<Attribute>> expectGetHostAttributes(
       String host,
       Attribute... attributes) {
 
-    HostAttributes hostAttributes = new HostAttributes()
-        .setHost(host)
-        .setAttributes(ImmutableSet.<Attribute>builder().add(attributes).build());
-    return expect(attributeStore.getHostAttributes(host)).andReturn(Optional.of(hostAttributes));
+    return expect(attributeStore.getAttributes(host))
+        .andReturn(ImmutableSet.<Attribute>builder().add(attributes).build());
   }
 
   private IScheduledTask makeScheduledTask(Identity owner, String jobName, String host) {
-    return IScheduledTask.build(new ScheduledTask().setAssignedTask(
-        new AssignedTask()
+    return IScheduledTask.build(new ScheduledTask()
+        .setStatus(ScheduleStatus.RUNNING)
+        .setAssignedTask(new AssignedTask()
             .setSlaveHost(host)
             .setTaskId("Task-" + taskIdCounter.incrementAndGet())
             .setTask(hostLimitTask(owner, jobName, 1 /* Max per host not used here. */)
@@ -36,10 +36,12 @@ import com.twitter.aurora.codec.ThriftBinaryCodec;
 import com.twitter.aurora.gen.AssignedTask;
 import com.twitter.aurora.gen.ExecutorConfig;
 import com.twitter.aurora.gen.Identity;
+import com.twitter.aurora.gen.MaintenanceMode;
 import com.twitter.aurora.gen.ScheduleStatus;
 import com.twitter.aurora.gen.ScheduledTask;
 import com.twitter.aurora.gen.TaskConfig;
 import com.twitter.aurora.gen.comm.AdjustRetainedTasks;
+import com.twitter.aurora.scheduler.HostOffer;
 import com.twitter.aurora.scheduler.PulseMonitor;
 import com.twitter.aurora.scheduler.base.Query;
 import com.twitter.aurora.scheduler.base.Tasks;
@@ -59,13 +61,14 @@ public class GcExecutorLauncherTest extends EasyMockTest {
 
   private static final String HOST = "slave-host";
 
-  private static final Offer OFFER = Offer.newBuilder()
+  private static final Offer RAW_OFFER = Offer.newBuilder()
       .setSlaveId(SlaveID.newBuilder().setValue("slave-id"))
       .setHostname(HOST)
       .setFrameworkId(FrameworkID.newBuilder().setValue("framework-id").build())
       .setId(OfferID.newBuilder().setValue("offer-id"))
       .addAllResources(GcExecutorLauncher.TOTAL_GC_EXECUTOR_RESOURCES.toResourceList())
       .build();
+  private static final HostOffer OFFER = HostOffer.from(RAW_OFFER, MaintenanceMode.NONE);
 
   private static final String JOB_A = "jobA";
 
@@ -134,11 +137,12 @@ public class GcExecutorLauncherTest extends EasyMockTest {
         Resources.subtract(
             GcExecutorLauncher.TOTAL_GC_EXECUTOR_RESOURCES,
             GcExecutorLauncher.EPSILON).toResourceList();
-    Offer smallOffer = OFFER.toBuilder()
+    Offer smallOffer = RAW_OFFER.toBuilder()
         .clearResources()
         .addAllResources(resources)
         .build();
-    assertFalse(gcExecutorLauncher.createTask(smallOffer).isPresent());
+    HostOffer hostOffer = HostOffer.from(smallOffer, MaintenanceMode.NONE);
+    assertFalse(gcExecutorLauncher.createTask(hostOffer).isPresent());
   }
 
   private static void assertRetainedTasks(TaskInfo taskInfo, IScheduledTask... tasks)
@@ -175,10 +175,8 @@ public class MaintenanceControllerImplTest extends EasyMockTest {
   public void testStorageStart() {
     ScheduledTask taskA = makeTask(HOST_A, "taskA").setStatus(ScheduleStatus.RESTARTING);
 
-    expect(storageUtil.attributeStore.getHostAttributes())
-        .andReturn(ImmutableSet.of(
-            new HostAttributes().setHost(HOST_A).setMode(DRAINING),
-            new HostAttributes().setHost(HOST_B).setMode(DRAINING)));
+    expect(storageUtil.attributeStore.getHostsInMode(DRAINING))
+        .andReturn(ImmutableSet.of(HOST_A, HOST_B));
     expectFetchTasksByHost(HOST_A, ImmutableSet.of(taskA));
     expectFetchTasksByHost(HOST_B, ImmutableSet.<ScheduledTask>of());
     expectMaintenanceModeChange(HOST_B, DRAINED);
@@ -198,6 +196,17 @@ public class MaintenanceControllerImplTest extends EasyMockTest {
 
   @Test
   public void testGetMode() {
+    expect(storageUtil.attributeStore.getMaintenanceMode(HOST_A)).andReturn(DRAINING);
+    expect(storageUtil.attributeStore.getMaintenanceMode("unknown")).andReturn(NONE);
+
+    control.replay();
+
+    assertEquals(DRAINING, maintenance.getMode(HOST_A));
+    assertEquals(NONE, maintenance.getMode("unknown"));
+  }
+
+  @Test
+  public void testGetStatus() {
     expect(storageUtil.attributeStore.getHostAttributes(HOST_A))
         .andReturn(Optional.of(new HostAttributes().setHost(HOST_A).setMode(DRAINING)));
     expect(storageUtil.attributeStore.getHostAttributes("unknown"))
@@ -205,8 +214,7 @@ public class MaintenanceControllerImplTest extends EasyMockTest {
 
     control.replay();
 
-    assertEquals(DRAINING, maintenance.getMode(HOST_A));
-    assertEquals(NONE, maintenance.getMode("unknown"));
+    assertStatus(HOST_A, DRAINING, maintenance.getStatus(ImmutableSet.of(HOST_A, "unknown")));
   }
 
   private void expectFetchTasksByHost(String hostName, ImmutableSet<ScheduledTask> tasks) {
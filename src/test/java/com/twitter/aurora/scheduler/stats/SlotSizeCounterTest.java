@@ -49,6 +49,8 @@ public class SlotSizeCounterTest extends EasyMockTest {
 
   private AtomicLong smallCounter = new AtomicLong();
   private AtomicLong largeCounter = new AtomicLong();
+  private AtomicLong smallFragmentation = new AtomicLong();
+  private AtomicLong largeFragmentation = new AtomicLong();
 
   @Before
   public void setUp() {
@@ -60,8 +62,12 @@ public class SlotSizeCounterTest extends EasyMockTest {
   private void expectStatExport() {
     expect(statsProvider.makeCounter(SlotSizeCounter.getStatName("small")))
         .andReturn(smallCounter);
+    expect(statsProvider.makeCounter(SlotSizeCounter.getFragmentationStatName("small")))
+        .andReturn(smallFragmentation);
     expect(statsProvider.makeCounter(SlotSizeCounter.getStatName("large")))
         .andReturn(largeCounter);
+    expect(statsProvider.makeCounter(SlotSizeCounter.getFragmentationStatName("large")))
+        .andReturn(largeFragmentation);
   }
 
   private void expectGetSlots(IQuota... returned) {
@@ -119,5 +125,22 @@ public class SlotSizeCounterTest extends EasyMockTest {
     slotCounter.run();
     assertEquals(22, smallCounter.get());
     assertEquals(5, largeCounter.get());
+    assertEquals(0, smallFragmentation.get());
+    assertEquals(0, largeFragmentation.get());
+  }
+
+  @Test
+  public void testFragmentation() {
+    expectStatExport();
+    IQuota halfLarge = Quotas.scale(SMALL, 2);
+    expectGetSlots(halfLarge, halfLarge, halfLarge);
+
+    control.replay();
+
+    slotCounter.run();
+    assertEquals(6, smallCounter.get());
+    assertEquals(0, largeCounter.get());
+    assertEquals(0, smallFragmentation.get());
+    assertEquals(100, largeFragmentation.get());
   }
 }
@@ -42,6 +42,7 @@ import com.twitter.aurora.gen.JobConfiguration;
 import com.twitter.aurora.gen.JobKey;
 import com.twitter.aurora.gen.Lock;
 import com.twitter.aurora.gen.LockKey;
+import com.twitter.aurora.gen.MaintenanceMode;
 import com.twitter.aurora.gen.Quota;
 import com.twitter.aurora.gen.ScheduleStatus;
 import com.twitter.aurora.gen.ScheduledTask;
@@ -97,6 +98,7 @@ import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.expectLastCall;
 import static org.easymock.EasyMock.notNull;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 public class LogStorageTest extends EasyMockTest {
@@ -674,6 +676,35 @@ public class LogStorageTest extends EasyMockTest {
     }.run();
   }
 
+  @Test
+  public void testSetMaintenanceMode() throws Exception {
+    final String host = "hostname";
+    final HostAttributes attributes = new HostAttributes()
+        .setHost(host)
+        .setAttributes(ImmutableSet.<Attribute>of())
+        .setMode(MaintenanceMode.DRAINING);
+
+    new MutationFixture() {
+      @Override protected void setupExpectations() throws Exception {
+        storageUtil.expectOperations();
+        expect(storageUtil.attributeStore.setMaintenanceMode(host, MaintenanceMode.DRAINING))
+            .andReturn(true);
+        expect(storageUtil.attributeStore.getHostAttributes(host))
+            .andReturn(Optional.of(attributes));
+        streamMatcher.expectTransaction(Op.saveHostAttributes(new SaveHostAttributes(attributes)))
+            .andReturn(position);
+
+        expect(storageUtil.attributeStore.setMaintenanceMode("unknown", MaintenanceMode.DRAINING))
+            .andReturn(false);
+      }
+
+      @Override protected void performMutations() {
+        assertTrue(logStorage.setMaintenanceMode(host, MaintenanceMode.DRAINING));
+        assertFalse(logStorage.setMaintenanceMode("unknown", MaintenanceMode.DRAINING));
+      }
+    }.run();
+  }
+
   private LogEntry createTransaction(Op... ops) {
     return LogEntry.transaction(
         new Transaction(ImmutableList.copyOf(ops), storageConstants.CURRENT_SCHEMA_VERSION));
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.storage.mem;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.aurora.gen.Attribute;
+import com.twitter.aurora.gen.HostAttributes;
+import com.twitter.aurora.scheduler.storage.AttributeStore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import static com.twitter.aurora.gen.MaintenanceMode.DRAINING;
+import static com.twitter.aurora.gen.MaintenanceMode.NONE;
+import static com.twitter.aurora.gen.MaintenanceMode.SCHEDULED;
+
+public class MemAttributeStoreTest {
+
+  private static final String HOST_A = "hostA";
+  private static final String HOST_B = "hostB";
+
+  private static final Attribute RACK_1 = new Attribute("rack", ImmutableSet.of("1"));
+  private static final Attribute RACK_2 = new Attribute("rack", ImmutableSet.of("2"));
+  private static final Attribute ZONES = new Attribute("zone", ImmutableSet.of("a", "b"));
+
+  private AttributeStore.Mutable store;
+
+  @Before
+  public void setUp() {
+    store = new MemAttributeStore();
+  }
+
+  private static HostAttributes attributes(String host, Attribute... attributes) {
+    return new HostAttributes(host, ImmutableSet.copyOf(attributes));
+  }
+
+  @Test
+  public void testSaveAndFetch() {
+    store.saveHostAttributes(attributes(HOST_A, RACK_1, ZONES));
+    store.saveHostAttributes(attributes(HOST_B, RACK_2));
+
+    assertEquals(
+        Optional.of(attributes(HOST_A, RACK_1, ZONES).setMode(NONE)),
+        store.getHostAttributes(HOST_A));
+    assertEquals(Optional.<HostAttributes>absent(), store.getHostAttributes("unknown"));
+    assertEquals(
+        ImmutableSet.of(
+            attributes(HOST_A, RACK_1, ZONES).setMode(NONE),
+            attributes(HOST_B, RACK_2).setMode(NONE)),
+        store.getHostAttributes());
+
+    store.deleteHostAttributes();
+    assertEquals(ImmutableSet.<HostAttributes>of(), store.getHostAttributes());
+    assertEquals(ImmutableSet.<String>of(), store.getHostsInMode(NONE));
+  }
+
+  @Test
+  public void testMaintenanceMode() {
+    store.saveHostAttributes(attributes(HOST_A, RACK_1));
+    store.saveHostAttributes(attributes(HOST_B, RACK_1).setMode(DRAINING));
+    assertEquals(ImmutableSet.of(HOST_A), store.getHostsInMode(NONE));
+    assertEquals(ImmutableSet.of(HOST_B), store.getHostsInMode(DRAINING));
+    assertEquals(DRAINING, store.getMaintenanceMode(HOST_B));
+    assertEquals(NONE, store.getMaintenanceMode("unknown"));
+
+    assertTrue(store.setMaintenanceMode(HOST_A, SCHEDULED));
+    assertFalse(store.setMaintenanceMode("unknown", SCHEDULED));
+    assertEquals(ImmutableSet.<String>of(), store.getHostsInMode(NONE));
+    assertEquals(ImmutableSet.of(HOST_A), store.getHostsInMode(SCHEDULED));
+    assertEquals(SCHEDULED, store.getMaintenanceMode(HOST_A));
+
+    // The mode of a known host is retained when its attributes are saved again.
+    store.saveHostAttributes(attributes(HOST_A, RACK_2).setMode(NONE));
+    assertEquals(
+        Optional.of(attributes(HOST_A, RACK_2).setMode(SCHEDULED)),
+        store.getHostAttributes(HOST_A));
+    assertEquals(ImmutableSet.of(HOST_A), store.getHostsInMode(SCHEDULED));
+
+    // Re-saving a host in the same mode leaves it indexed.
+    assertTrue(store.setMaintenanceMode(HOST_B, DRAINING));
+    assertEquals(ImmutableSet.of(HOST_B), store.getHostsInMode(DRAINING));
+  }
+
+  @Test
+  public void testGetAttributes() {
+    assertEquals(ImmutableSet.<Attribute>of(), store.getAttributes(HOST_A));
+
+    store.saveHostAttributes(attributes(HOST_A, RACK_1, ZONES));
+    assertEquals(ImmutableSet.of(RACK_1, ZONES), store.getAttributes(HOST_A));
+
+    // Reads share the snapshot's set rather than copying it.
+    assertSame(store.getAttributes(HOST_A), store.getAttributes(HOST_A));
+
+    store.saveHostAttributes(attributes(HOST_A, RACK_2));
+    assertEquals(ImmutableSet.of(RACK_2), store.getAttributes(HOST_A));
+  }
+
+  @Test
+  public void testStoredAttributesNotExposed() {
+    HostAttributes saved = attributes(HOST_A, RACK_1);
+    store.saveHostAttributes(saved);
+    saved.setAttributes(ImmutableSet.of(RACK_2));
+
+    HostAttributes fetched = store.getHostAttributes(HOST_A).get();
+    fetched.setMode(DRAINING);
+    store.getHostAttributes().iterator().next().setAttributes(ImmutableSet.of(RACK_2));
+
+    assertEquals(
+        Optional.of(attributes(HOST_A, RACK_1).setMode(NONE)),
+        store.getHostAttributes(HOST_A));
+    assertEquals(ImmutableSet.of(RACK_1), store.getAttributes(HOST_A));
+  }
+}